@@ -7,7 +7,6 @@ import java.util.List;
 import org.apache.commons.math.stat.descriptive.moment.StandardDeviation;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.ui.probe.ProbeID;
 import repast.simphony.util.ContextUtils;
 import uk.ac.dmu.iesd.cascade.agents.ICognitiveAgent;
@@ -20,6 +19,8 @@ import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 import uk.ac.dmu.iesd.cascade.util.IObservable;
 import uk.ac.dmu.iesd.cascade.util.IObserver;
 import uk.ac.dmu.iesd.cascade.util.ObservableComponent;
+import uk.ac.dmu.iesd.cascade.util.SignalChannel;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
 
 /**
  * An <em>AggregatorAgent</em> is an object that represents a
@@ -53,7 +54,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 	 */
 	/**
 	 * This field is used for counting number of agents instantiated by concrete
-	 * descendants of this class
+	 * descendants of this class without a context; those with one are numbered by it
 	 **/
 	private static int agentIDCounter = 0;
 
@@ -137,6 +138,8 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 										// and different price signal.
 	// True by default as it will always be new until the first broadcast
 	protected int ticksPerDay;
+	// Broadcast channel on which signals to customers are published
+	protected SignalChannel signalChannel;
 
 	protected ArrayList<Double> dailyPredictedCost;
 	// private double[] dailyPredictedCostArr;
@@ -300,7 +303,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 		this.netDemand = nd;
 		if (this.arr_day_D != null)
 		{
-			this.arr_day_D[(int) RepastEssentials.GetTickCount() % ticksPerDay] = nd;
+			this.arr_day_D[mainContext.getTickCount() % ticksPerDay] = nd;
 		}
 	}
 
@@ -311,7 +314,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 	 **/
 	public double getCurrentPriceSignal()
 	{
-		double time = RepastEssentials.GetTickCount();
+		double time = mainContext.getTickCount();
 		// if (Consts.DEBUG) System.out.println(
 		// time+" getCurrentPriceSignal: "+priceSignal[(int) time %
 		// priceSignal.length]);
@@ -352,20 +355,20 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 
 	public double getCurrentCost_C()
 	{
-		return arr_i_C[(int) RepastEssentials.GetTickCount() % ticksPerDay];
+		return arr_i_C[mainContext.getTickCount() % ticksPerDay];
 	}
 
 	public double getCurrentNormalizedCost_C()
 	{
 		if (arr_i_norm_C.length > 0)
-			return arr_i_norm_C[(int) RepastEssentials.GetTickCount() % ticksPerDay];
+			return arr_i_norm_C[mainContext.getTickCount() % ticksPerDay];
 		else
 			return -1;
 	}
 
 	public double getCurrentBaseline_B()
 	{
-		return arr_i_B[(int) RepastEssentials.GetTickCount() % ticksPerDay];
+		return arr_i_B[mainContext.getTickCount() % ticksPerDay];
 	}
 
 	public double getDayPredictedCost()
@@ -405,7 +408,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 		// RepastEssentials.GetTickCount()+" getCurrentPriceElasticityFactor_e: "+arr_i_e[(int)
 		// RepastEssentials.GetTickCount() % ticksPerDay]);
 
-		return arr_i_e[(int) RepastEssentials.GetTickCount() % ticksPerDay];
+		return arr_i_e[mainContext.getTickCount() % ticksPerDay];
 	}
 
 	/**
@@ -558,7 +561,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 			// TODO: unify units throughout the model
 			x = (predictedCustomerDemand[i % ticksPerDay] / 10) / (Consts.MAX_SUPPLY_CAPACITY_GWATTS - Consts.MAX_GENERATOR_CAPACITY_GWATTS);
 			price = (double) (A * Math.exp(B * x) + C);
-			if ((Boolean) RepastEssentials.GetParameter("verboseOutput"))
+			if (mainContext.getRunConfig().isVerbose())
 			{
 				if (Consts.DEBUG)
 					System.out.println("AggregatorAgent: Price at tick" + i + " is " + price);
@@ -636,6 +639,23 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 	/*
 	 * helper methods
 	 */
+
+	/**
+	 * Publishes a signal on this aggregator's broadcast channel, valid from the
+	 * current tick.  The signal is copied once into an immutable buffer which is
+	 * then shared by reference with every customer it is sent to.
+	 * 
+	 * @param signal the signal to publish
+	 * @return the published signal buffer, to be passed to the customers
+	 */
+	protected SignalDigest publishSignal(double[] signal)
+	{
+		if (signalChannel == null)
+		{
+			signalChannel = new SignalChannel(ticksPerDay);
+		}
+		return signalChannel.publish(signal, mainContext.getTickCount());
+	}
 	private void broadcastDemandSignal(List<ProsumerAgent> broadcastCusts,
 			double time, int broadcastLength)
 	{
@@ -665,6 +685,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 				System.arraycopy(priceSignal, 0, broadcastSignal, ((numCopies + 1) * priceSignal.length) - startIndex, broadcastLength - (((numCopies + 1) * priceSignal.length) - startIndex));
 			}
 
+			SignalDigest digest = publishSignal(broadcastSignal);
 			for (ProsumerAgent a : broadcastCusts)
 			{
 				// Broadcast signal to all customers - note we simply say that
@@ -673,7 +694,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 				// be able to insert
 				// signals valid at an offset from now.
 
-				a.receiveValueSignal(broadcastSignal, broadcastLength);
+				a.receiveValueSignal(digest);
 			}
 		}
 
@@ -715,7 +736,7 @@ public abstract class AggregatorAgent implements ICognitiveAgent, IObservable
 	 */
 	public AggregatorAgent(CascadeContext context)
 	{
-		this.id = agentIDCounter++;
+		this.id = context.nextAggregatorID();
 
 		this.mainContext = context;
 		observableProxy = new ObservableComponent();
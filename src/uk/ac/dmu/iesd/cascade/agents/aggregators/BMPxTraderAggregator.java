@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_CATEGORY;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
@@ -16,8 +15,8 @@ import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.market.astem.util.ArraysUtils;
 import uk.ac.dmu.iesd.cascade.market.data.BSOD;
 import uk.ac.dmu.iesd.cascade.market.data.PxPD;
-import cern.jet.random.Empirical;
-import cern.jet.random.EmpiricalWalker;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+import uk.ac.dmu.iesd.cascade.util.RothErevLearner;
 import cern.jet.random.Normal;
 
 /**
@@ -31,6 +30,7 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 	protected MarketMessageBoard messageBoard;
 
 	
+	private BidOfferBook bidOfferBook; // built once, when the market opens
 	private ArrayList<BOD> list_BOD;
 	private ArrayList<BOD> list_BOA;
 	private ArrayList<BSOD> list_BSOD;
@@ -119,7 +119,7 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 		double sd = avg * mFactor;
 
 		for (int i=0; i<randomPN.length; i++) {
-			Normal normalDist = RandomHelper.createNormal(baselineProfile[i], sd);
+			Normal normalDist = new Normal(baselineProfile[i], sd, mainContext.getRandomGenerator());
 			randomPN[i] = normalDist.nextDouble();
 		}
 		//System.out.println("randomPN: "+Arrays.toString(randomPN));
@@ -189,17 +189,17 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 				 double margin = this.maxGen - pn_avg;
 				 if (pxPD.getVolume() < 0) {  								// IMBAL < 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(margin) > 0)
-						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(20, 30);
+						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(20, 30);
 				 }	
 				 else if (pxPD.getVolume() > 0 ) {  						// IMBAL > 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(pn_avg) > 0)
-						 vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(30, 50);
+						 vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(30, 50);
 				 }
 			 }
 			 
@@ -208,17 +208,17 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 
 				 if (pxPD.getVolume() < 0) {  								// IMBAL < 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(margin) > 0)
-						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(20, 30);
+						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(20, 30);
 				 }	
 				 else if (pxPD.getVolume() > 0 ) {  						// IMBAL > 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(pn_avg) > 0)
-						 vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(30, 50);
+						 vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(30, 50);
 				 }
 			 }
 			 
@@ -227,17 +227,17 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 				 double margin = this.maxGen - pn_avg;
 				 if (pxPD.getVolume() < 0) {  								// IMBAL < 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(margin) > 0)
-						vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(20, 30);
+						vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(20, 30);
 				 }	
 				 else if (pxPD.getVolume() > 0 ) {  						// IMBAL > 0
 					 if(Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(pn_avg) > 0)
-						vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(30, 50);
+						vol = -(pn_avg * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(30, 50);
 				 }
 			 }
  
@@ -247,17 +247,17 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 				 
 				 if (pxPD.getVolume() < 0) {  								// IMBAL < 0
 					 if (Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol =  (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol =  (pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if(Math.abs(margin) > 0)
-						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(50, 70);
+						 vol = (margin * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(50, 70);
 				 }	
 				 else if (pxPD.getVolume() > 0) { 							// IMBAL > 0
 					 if (Math.abs(marginMaxDem) >= Math.abs(pxPD.getVolume()))
-						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = -(pxPD.getVolume() * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(marginMaxDem) > 0)
-						 vol = -(Math.abs(marginMaxDem) * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(30, 50);
+						 vol = -(Math.abs(marginMaxDem) * ASTEMConsts.PX_IMBAL_MULTIFACTOR) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(30, 50);
 				 }
 				 
 			 }
@@ -269,17 +269,17 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 				 
 				 if (pxPD.getVolume() < 0) {  								// IMBAL < 0
 					 if (Math.abs(margin) >= Math.abs(pxPD.getVolume()))
-						 vol =  (pxPD.getVolume() * 0.65) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol =  (pxPD.getVolume() * 0.65) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if(Math.abs(margin) > 0)
-						 vol = (margin * 0.65) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(50, 70);
+						 vol = (margin * 0.65) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(50, 70);
 				 }	
 				 else if (pxPD.getVolume() > 0) { 							// IMBAL > 0
 					 if (Math.abs(marginMaxDem) >= Math.abs(pxPD.getVolume()))
-						 vol = -(pxPD.getVolume() * 0.65) / RandomHelper.nextDoubleFromTo(2, 5);
+						 vol = -(pxPD.getVolume() * 0.65) / mainContext.getUniform().nextDoubleFromTo(2, 5);
 					 else if (Math.abs(marginMaxDem) > 0)
-						 vol = -(Math.abs(marginMaxDem) * 0.65) / RandomHelper.nextDoubleFromTo(2, 5);
-					 price = RandomHelper.nextDoubleFromTo(30, 50);
+						 vol = -(Math.abs(marginMaxDem) * 0.65) / mainContext.getUniform().nextDoubleFromTo(2, 5);
+					 price = mainContext.getUniform().nextDoubleFromTo(30, 50);
 				 }
 				 
 			 }
@@ -294,9 +294,13 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 		//should they recieve or go to fetch? 
 		//if (!list_BOA.isEmpty())
 			//list_BOA.clear();
-		list_BOA = new ArrayList<BOD>();
-		for (BOD bod : listOfBOD){	
-			list_BOA.add(bod);
+		// The list is reused; once the book is built the SO hands back the list of BODs it holds
+		if (listOfBOD != list_BOA) {
+			if (list_BOA == null)
+				list_BOA = new ArrayList<BOD>(listOfBOD.size());
+			list_BOA.clear();
+			for (int i=0; i<listOfBOD.size(); i++)
+				list_BOA.add(listOfBOD.get(i));
 		}
 		//System.out.println("BOA after they are recieved:");
 		//TestUtils.printBODs(list_BOA);
@@ -374,171 +378,6 @@ public abstract class BMPxTraderAggregator extends AggregatorAgent implements IB
 		return marginPC;
 	}
 	
-	public  double[] createAndIntializeArray(double from, double step) {
-		double[] doubleArray = new double[ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
-		for (int i=0; i<ASTEMConsts.BMU_BO_NUM_OF_CHOICE; i++)
-			doubleArray[i] = from + (step*i);
-		return doubleArray;
-	}
-
-	private ArrayList<BOD> generateBOD4WindGen(int sp, double[] marginArray){
-		ArrayList<BOD> listOfBOD = new ArrayList<BOD>();
-		
-		int pairID1=1;
-	
-		double level1 = marginArray[sp] * getMarginPC(pairID1);
-		double[] arr_BO1 =  createAndIntializeArray(50, 1);
-		double[] arr_propensities1 =  createAndIntializeArray(55, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1, level1, arr_BO1, arr_propensities1));
-
-		int pairID2=2;
-		double level2 = marginArray[sp] * getMarginPC(pairID2);
-		double[] arr_BO2 =  createAndIntializeArray(60, 1);
-		double[] arr_propensities2 = createAndIntializeArray(65, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID2, level2, arr_BO2, arr_propensities2));
-
-		
-		
-		int pairID1m=-1;
-		double level1m =marginArray[sp] * getMarginPC(pairID1m);
-		double[] arr_BO1m =  createAndIntializeArray(40, 1);
-		double[] arr_propensities1m = createAndIntializeArray(45, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1m, level1m, arr_BO1m, arr_propensities1m));
-
-		int pairID2m=-2;
-		double level2m =marginArray[sp] * getMarginPC(pairID2m);
-		double[] arr_BO2m =  createAndIntializeArray(30, 1);
-		double[] arr_propensities2m = createAndIntializeArray(35, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID2m, level2m, arr_BO2m, arr_propensities2m));
-
-		int pairID3m=-3;
-		double level3m =marginArray[sp] * getMarginPC(pairID3m);
-		double[] arr_BO3m =  createAndIntializeArray(20, 1);
-		double[] arr_propensities3m = createAndIntializeArray(25, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID3m, level3m, arr_BO3m, arr_propensities3m));
-
-		int pairID4m=-4;
-		double level4m =marginArray[sp] * getMarginPC(pairID4m);
-		double[] arr_BO4m  = createAndIntializeArray(10, 1);
-		double[] arr_propensities4m = createAndIntializeArray(15, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID4m, level4m, arr_BO4m, arr_propensities4m));
-		
-		int pairID5m=-5;
-		double level5m =marginArray[sp] *  getMarginPC(pairID5m);
-		double[] arr_BO5m =createAndIntializeArray(0, 1);
-		double[] arr_propensities5m =createAndIntializeArray(5, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID5m, level5m, arr_BO5m, arr_propensities5m));
-		
-		return listOfBOD;
-	}
-	
-	private ArrayList<BOD> generateBOD4Gen(int sp, double[] marginArray){
-		ArrayList<BOD> listOfBOD = new ArrayList<BOD>();
-		
-		int pairID1=1;
-	
-		double level1 = marginArray[sp] * getMarginPC(pairID1);
-		double[] arr_BO1 =  createAndIntializeArray(40, 1);
-		double[] arr_propensities1 =  createAndIntializeArray(45, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1, level1, arr_BO1, arr_propensities1));
-
-		int pairID2=2;
-		double level2 = marginArray[sp] * getMarginPC(pairID2);
-		double[] arr_BO2 =  createAndIntializeArray(50, 1);
-		double[] arr_propensities2 = createAndIntializeArray(55, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID2, level2, arr_BO2, arr_propensities2));
-
-		int pairID3=3;
-		double level3 = marginArray[sp] * getMarginPC(pairID3);
-		double[] arr_BO3 =  createAndIntializeArray(60, 1);
-		double[] arr_propensities3 = createAndIntializeArray(65, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID3, level3, arr_BO3, arr_propensities3));
-
-		int pairID4=4;
-		double level4 = marginArray[sp] * getMarginPC(pairID4);
-		double[] arr_BO4 =  createAndIntializeArray(70, 1);
-		double[] arr_propensities4 = createAndIntializeArray(75, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID4, level4, arr_BO4, arr_propensities4));
-		
-		int pairID5=5;
-		double level5 = marginArray[sp] * getMarginPC(pairID5);
-		double[] arr_BO5 =  createAndIntializeArray(80, 1);
-		double[] arr_propensities5 = createAndIntializeArray(85, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID5, level5, arr_BO5, arr_propensities5));
-
-
-		int pairID1m=-1;
-		double level1m =marginArray[sp] * getMarginPC(pairID1m);
-		double[] arr_BO1m =  createAndIntializeArray(30, 1);
-		double[] arr_propensities1m = createAndIntializeArray(35, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1m, level1m, arr_BO1m, arr_propensities1m));
-
-		int pairID2m=-2;
-		double level2m =marginArray[sp] * getMarginPC(pairID2m);
-		double[] arr_BO2m =  createAndIntializeArray(20, 1);
-		double[] arr_propensities2m = createAndIntializeArray(25, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID2m, level2m, arr_BO2m, arr_propensities2m));
-
-		int pairID3m=-3;
-		double level3m =marginArray[sp] * getMarginPC(pairID3m);
-		double[] arr_BO3m =  createAndIntializeArray(10, 1);
-		double[] arr_propensities3m = createAndIntializeArray(15, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID3m, level3m, arr_BO3m, arr_propensities3m));
-
-		int pairID4m=-4;
-		double level4m =marginArray[sp] * getMarginPC(pairID4m);
-		double[] arr_BO4m  = createAndIntializeArray(0, 1);
-		double[] arr_propensities4m = createAndIntializeArray(5, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID4m, level4m, arr_BO4m, arr_propensities4m));
-		
-		int pairID5m=-5;
-		double level5m =marginArray[sp] *  getMarginPC(pairID5m);
-		double[] arr_BO5m =createAndIntializeArray(-10, 1);
-		double[] arr_propensities5m =createAndIntializeArray(-5, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID5m, level5m, arr_BO5m, arr_propensities5m));
-		
-		return listOfBOD;
-	}
-	
-	private ArrayList<BOD> generateBOD4DemLarge(int sp, double [] marginArray){
-		
-		ArrayList<BOD> listOfBOD = new ArrayList<BOD>();
-		
-		int pairID1=1;
-		double level1 = marginArray[sp] * getMarginPC(pairID1);
-		double[] arr_BO1 = createAndIntializeArray(80, 4); //prices
-		double[] arr_propensities1 = createAndIntializeArray(100, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1, level1, arr_BO1, arr_propensities1));
-
-		int pairID1m=-1;
-		double level1m = marginArray[sp] * getMarginPC(pairID1m);
-		double[] arr_BO1m = createAndIntializeArray(0, 2);;
-		double[] arr_propensities1m = createAndIntializeArray(10, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1m, level1m, arr_BO1m, arr_propensities1m));
-
-		return listOfBOD;
-	}
-	
-	private ArrayList<BOD> generateBOD4DemSmall(int sp, double [] marginArray){
-		ArrayList<BOD> listOfBOD = new ArrayList<BOD>();
-		
-		int pairID1=1;
-		double level1 = marginArray[sp] * getMarginPC(pairID1);
-		double[] arr_BO1 = createAndIntializeArray(50, 4); //prices
-		double[] arr_propensities1 = createAndIntializeArray(70, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1, level1, arr_BO1, arr_propensities1));
-
-		int pairID1m=-1;
-		double level1m = marginArray[sp] * getMarginPC(pairID1m);
-		double[] arr_BO1m = createAndIntializeArray(10, 2);
-		double[] arr_propensities1m = createAndIntializeArray(20, 0); 
-		listOfBOD.add(new BOD(this.id, sp, pairID1m, level1m, arr_BO1m, arr_propensities1m));
-
-		return listOfBOD;
-	}
-
-	
-
 private double getExperiment() {
 		
 		double experiment=0;
@@ -590,55 +429,18 @@ private double getExperiment() {
 		return regency;		
 	}
 	
-	private double updateExperience (int currAction, int prevAction, double reward){
-		double updatedE=0;
-		if (currAction == prevAction)
-			updatedE = reward * (1 - getExperiment());
-		else updatedE = (reward * getExperiment()) / (ASTEMConsts.BMU_BO_NUM_OF_CHOICE - 1);
-
-		//System.out.println("updatedE="+updatedE);
-
-		return updatedE;
-	}
-	
-	private double[] learnAndUpdatePropensity(int acceptedIndex, double accBO, double[] propensityArray){
-		for(int i=0; i<propensityArray.length; i++)
-			propensityArray[i] = (1-getRegency()) * propensityArray[i] + updateExperience(i, acceptedIndex, Math.abs(accBO));
-		//System.out.println("propensityArray="+Arrays.toString(propensityArray));
-
-		return propensityArray;
-	}
-	
-	private double[] updateProbabilities(double[] propensityArray, double[] probabilityArray) {
-		
-		double sumOfPropensities = ArraysUtils.sum(propensityArray);
-
-		for (int i=0; i<propensityArray.length; i++) {
-			probabilityArray[i] = propensityArray[i]/sumOfPropensities;
-		}
-		return probabilityArray;
-	}
-	
-
 	private ArrayList<BOD> updateBOD(ArrayList<BOD> listOfBOA, int sp, double[] marginArray) {
 
-		for (BOD boa : listOfBOA) {
+		for (int b=0; b<listOfBOA.size(); b++) {
+			BOD boa = listOfBOA.get(b);
 			boa.setLevel(marginArray[sp] * getMarginPC(boa.getPairID()));
 			if (boa.isAccepted) {
 				int indexOfSubmittedBO = ArraysUtils.indexOfGivenVal(boa.getBOArray(), boa.submittedBO);
-				boa.setPropensityArray(learnAndUpdatePropensity(indexOfSubmittedBO, boa.submittedBO, boa.getPropensityArray()));
-				boa.setProbabilityArray(updateProbabilities(boa.getPropensityArray(), boa.getProbabilityArray()));
-
-				EmpiricalWalker randDist= RandomHelper.createEmpiricalWalker(boa.getProbabilityArray(), Empirical.NO_INTERPOLATION);
-				//EmpiricalWalker randWalkDist= new cern.jet.random.EmpiricalWalker(boa.getProbabilityArray(), Empirical.NO_INTERPOLATION, mainContext.cRandomEng);
-				//EmpiricalWalker randWalkDist= new cern.jet.random.EmpiricalWalker(boa.getProbabilityArray(), Empirical.NO_INTERPOLATION,  (RandomEngine) RandomHelper.getGenerator(DefaultRandomRegistry.DEFAULT_GENERATOR).clone());
-
-				//System.out.println("Regis. Gen: "+RandomHelper.getRegistry().getGenerator(DefaultRandomRegistry.DEFAULT_GENERATOR).toString());
-				//System.out.println("RH. Gen: "+RandomHelper.getGenerator(DefaultRandomRegistry.DEFAULT_GENERATOR).clone());
-
-								
+				// modified Roth-Erev update of the propensities, then draw the next BO in proportion to them
+				RothErevLearner learner = boa.getLearner();
+				learner.update(indexOfSubmittedBO, Math.abs(boa.submittedBO));
 
-				int ind = randDist.nextInt();  //check the value return by this.
+				int ind = learner.sample();
 				//System.out.println("EmpWalker output index: "+ind);
 				double[] boArray = boa.getBOArray();
 				boa.setSubmittedBO(boArray[ind]);
@@ -653,31 +455,14 @@ private double getExperiment() {
 		
 		//System.out.println("BOA after they are recieved:");
 		//TestUtils.printBODs(list_BOA);
-		ArrayList<BOD> listOfBOD=null;
-		switch (this.type) {
-		case GEN_COAL:
-			listOfBOD = generateBOD4Gen(sp, marginArray);
-			//System.out.println("marginArray:Coal: "+Arrays.toString(marginArray));
-			break;
-		case GEN_CCGT:
-			listOfBOD = generateBOD4Gen(sp, marginArray);	
-			//System.out.println("marginArray:CCGT: "+Arrays.toString(marginArray));
-			break;
-		case GEN_WIND:
-			listOfBOD = generateBOD4WindGen(sp, marginArray);		
-			//System.out.println("marginArray:Wind: "+Arrays.toString(marginArray));
-			break;
-		case DEM_LARGE:
-			listOfBOD = generateBOD4DemLarge(sp, marginArray);		
-			//System.out.println("marginArray:DEM_LARG: "+Arrays.toString(marginArray));
-            break;
-		case DEM_SMALL:
-			listOfBOD = generateBOD4DemSmall(sp, marginArray);	
-			//System.out.println("marginArray:DEM_SMALL: "+Arrays.toString(marginArray));
-			break;
-		}
+		int[] pairIDs = BidOfferBook.getPairIDs(this.type);
+		double[] marginPC = new double[pairIDs.length];
+		for (int p=0; p<pairIDs.length; p++)
+			marginPC[p] = getMarginPC(pairIDs[p]);
+
+		bidOfferBook = new BidOfferBook(this.id, this.type, sp, marginArray[sp], marginPC, getRegency(), getExperiment(), mainContext.getUniform());
 		
-		return listOfBOD;		
+		return bidOfferBook.getListOfBOD();		
 	}
 	
 	private ArrayList<PxPD> getPxProductFromSOMessageBoard() {
@@ -697,6 +482,9 @@ private double getExperiment() {
 
 @ScheduledMethod(start = Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP, interval = 1, shuffle = true, priority = Consts.AGGREGATOR_INIT_MARKET_STEP_PRIORITY_FIRST)
 	public void marketPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		
 		//System.out.println(" initializeMarketStep "+this.id + " -- "+ TestHelper.getEnvInfoInString(mainContext));
 
@@ -717,6 +505,9 @@ private double getExperiment() {
 	
 	@ScheduledMethod(start = Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP, interval = 1, shuffle = true, priority = Consts.AGGREGATOR_MARKET_STEP_PRIORITY_FIRST)
 	public void marketStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 	   //System.out.println("-marketStep (-------------------------");
 		//if (Consts.DEBUG) System.out.println("--marketStep (BMPxTraderAgg): "+TestHelper.getEnvInfoInString(mainContext));
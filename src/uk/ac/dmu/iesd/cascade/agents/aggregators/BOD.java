@@ -3,8 +3,7 @@ package uk.ac.dmu.iesd.cascade.agents.aggregators;
 import java.util.Arrays;
 
 import repast.simphony.random.RandomHelper;
-import uk.ac.dmu.iesd.cascade.market.astem.base.ASTEMConsts;
-import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.RothErevLearner;
 
 /**
  * 
@@ -29,8 +28,7 @@ public class BOD {
 	private int pairID;
 		
 	private double[] arr_BO; //bidOrOffer
-	private double[] arr_propensities; 
-	private double[] arr_probabilities;
+	private RothErevLearner learner; // propensities of, and probabilities of submitting, each bidOrOffer
 	//private double marginPC;
 
 	//private double offer; //offer > bid (always) 
@@ -60,20 +58,8 @@ public class BOD {
 		return arr_BO;
 	}
 	
-	double[] getPropensityArray() {
-		return this.arr_propensities;
-	}
-	
-	void setPropensityArray(double[] pa) {
-		this.arr_propensities = pa;
-	}
-	
-	double[] getProbabilityArray() {
-		return this.arr_probabilities;
-	}
-	
-	void setProbabilityArray(double[] pa) {
-		this.arr_probabilities = pa;
+	RothErevLearner getLearner() {
+		return this.learner;
 	}
 	
 	public double getSubmittedBO() {
@@ -88,7 +74,7 @@ public class BOD {
 		
 		String toString = "BOD: ownerID: " +ownerID+ ", isAccepted: "+isAccepted +
 		", pairID: "+ pairID+ ", sp: " +sp +", level: "+level + ", submittedBO (price): "+ this.submittedBO+
-		", probArray: " + Arrays.toString(this.arr_probabilities);
+		", probArray: " + Arrays.toString(this.learner.getProbabilities());
 		
 		return toString;
 	}
@@ -97,29 +83,23 @@ public class BOD {
 		return new Double(offer);
 	}*/
 	
-	public BOD(int oID, int settlPeriod, int pID, double levelAmount, double[] bidOrOfferArray, double[] propensityArray) {
+	/**
+	 * Creates a flyweight BOD for a {@link BidOfferBook}: the bid/offer price ladder is
+	 * shared (and must not be altered) and the learner holds its state in rows of the
+	 * book's matrices.
+	 */
+	BOD(int oID, int settlPeriod, int pID, double levelAmount, double[] sharedBidOrOfferArray, RothErevLearner propensityLearner) {
 		this.isAccepted=false;
 		this.ownerID=oID;
 		this.sp=settlPeriod;
 		this.pairID= pID;
 		this.level = levelAmount;
-		
-		arr_BO = new double[ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
-		arr_propensities = new double[ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
-		arr_probabilities = new double[ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
-		
-		System.arraycopy(bidOrOfferArray, 0, arr_BO,0, bidOrOfferArray.length );
-		System.arraycopy(propensityArray, 0, arr_propensities,0, propensityArray.length);
-		
-		double sumOfPropensities = ArrayUtils.sum(arr_propensities);
-		
-		for (int i=0; i<arr_propensities.length; i++) {
-			this.arr_probabilities[i] = arr_propensities[i]/sumOfPropensities;
-		}
-		
+
+		arr_BO = sharedBidOrOfferArray;
+		learner = propensityLearner;
+
 		int ind = RandomHelper.getUniform().nextIntFromTo(0, 2); //TODO: JRS : Why pick randomly from first 3, rather than from all choices? JRS
 		this.submittedBO = this.arr_BO[ind];
-		
 	}
 
 }
@@ -0,0 +1,287 @@
+package uk.ac.dmu.iesd.cascade.agents.aggregators;
+
+import java.util.ArrayList;
+
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.graph.RepastEdge;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.BhutanHousehold;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.BhutanHydro;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.RadialFeederSolver;
+
+/**
+ * The <em>BhutanFeeder</em> is the micro-grid formed by a set of connected
+ * {@link BhutanVillage}s, each village being a bus of the feeder.
+ * <p>
+ * Villages are connected by edges of the economic network, directed from the village
+ * nearer the source to the village further from it, and weighted by the resistance
+ * (ohms) of the line between them; each village has at most one such parent, so the
+ * feeder is radial.  The hydro plants connected to the root village supply the feeder and
+ * are power limited (their combined capacity sets the brownout voltage); hydro plants
+ * connected to other villages are embedded generation, running at capacity.  Households
+ * are constant resistance loads at their village's bus.
+ * <p>
+ * The feeder's topology is read from the economic network once, when built, into
+ * primitive arrays, and the power flow is then solved by a {@link RadialFeederSolver}
+ * once per tick, for whichever of its villages steps first.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class BhutanFeeder {
+
+	private final RadialFeederSolver solver;
+	private final BhutanVillage[] villages;
+
+	// the prosumers, households and hydros connected to each bus, in compressed row form
+	private final ProsumerAgent[] prosumers;
+	private final int[] prosumerStart;
+	private final BhutanHousehold[] households;
+	private final int[] householdStart;
+	private final BhutanHydro[] hydros;
+	private final int[] hydroStart;
+
+	private final double[] netDemand;
+	private int lastSolvedTick = -1;
+
+	/**
+	 * Builds the feeder to which a village belongs from the economic network and
+	 * attaches it to every village on the feeder.
+	 *
+	 * @param context the context holding the economic network
+	 * @param village any village of the feeder
+	 * @param nominalVoltage the voltage (V) of the feeder's source when not power limited
+	 * @return the feeder
+	 */
+	public static BhutanFeeder build(CascadeContext context, BhutanVillage village, double nominalVoltage)
+	{
+		Network economicNet = context.getEconomicNetwork();
+
+		// walk up to the root village
+		ArrayList<BhutanVillage> path = new ArrayList<BhutanVillage>();
+		BhutanVillage root = village;
+		path.add(root);
+		BhutanVillage parent;
+		while ((parent = getParentVillage(economicNet, root)) != null)
+		{
+			if (path.contains(parent))
+			{
+				System.err.println("BhutanFeeder: villages " + path + " form a loop; treating " + root.getAgentName() + " as the root of the feeder");
+				break;
+			}
+			root = parent;
+			path.add(root);
+		}
+
+		// and down from it, breadth first
+		ArrayList<BhutanVillage> buses = new ArrayList<BhutanVillage>();
+		ArrayList<Integer> parents = new ArrayList<Integer>();
+		ArrayList<Double> resistances = new ArrayList<Double>();
+		buses.add(root);
+		parents.add(-1);
+		resistances.add(0.0);
+		for (int b = 0; b < buses.size(); b++)
+		{
+			BhutanVillage v = buses.get(b);
+			for (Object o : economicNet.getSuccessors(v))
+			{
+				if (o instanceof BhutanVillage && !buses.contains(o))
+				{
+					RepastEdge edge = economicNet.getEdge(v, o);
+					buses.add((BhutanVillage) o);
+					parents.add(b);
+					resistances.add(edge.getWeight());
+				}
+			}
+		}
+
+		BhutanFeeder feeder = new BhutanFeeder(economicNet, buses, parents, resistances, nominalVoltage);
+		for (int b = 0; b < buses.size(); b++)
+		{
+			buses.get(b).setFeeder(feeder, b);
+		}
+		return feeder;
+	}
+
+	private static BhutanVillage getParentVillage(Network economicNet, BhutanVillage village)
+	{
+		BhutanVillage parent = null;
+		for (Object o : economicNet.getPredecessors(village))
+		{
+			if (o instanceof BhutanVillage)
+			{
+				if (parent == null)
+				{
+					parent = (BhutanVillage) o;
+				}
+				else
+				{
+					System.err.println("BhutanFeeder: " + village.getAgentName() + " is fed from more than one village - the feeder must be radial; using " + parent.getAgentName());
+				}
+			}
+		}
+		return parent;
+	}
+
+	private BhutanFeeder(Network economicNet, ArrayList<BhutanVillage> buses, ArrayList<Integer> parents, ArrayList<Double> resistances, double nominalVoltage)
+	{
+		int numOfBuses = buses.size();
+		int[] parent = new int[numOfBuses];
+		double[] lineResistance = new double[numOfBuses];
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			parent[b] = parents.get(b);
+			lineResistance[b] = resistances.get(b);
+		}
+		this.solver = new RadialFeederSolver(parent, lineResistance, nominalVoltage);
+		this.villages = buses.toArray(new BhutanVillage[numOfBuses]);
+
+		ArrayList<ProsumerAgent> allProsumers = new ArrayList<ProsumerAgent>();
+		ArrayList<BhutanHousehold> allHouseholds = new ArrayList<BhutanHousehold>();
+		ArrayList<BhutanHydro> allHydros = new ArrayList<BhutanHydro>();
+		prosumerStart = new int[numOfBuses + 1];
+		householdStart = new int[numOfBuses + 1];
+		hydroStart = new int[numOfBuses + 1];
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			for (Object o : economicNet.getAdjacent(villages[b]))
+			{
+				if (o instanceof ProsumerAgent)
+				{
+					allProsumers.add((ProsumerAgent) o);
+				}
+				if (o instanceof BhutanHousehold)
+				{
+					allHouseholds.add((BhutanHousehold) o);
+				}
+				else if (o instanceof BhutanHydro)
+				{
+					allHydros.add((BhutanHydro) o);
+				}
+			}
+			prosumerStart[b + 1] = allProsumers.size();
+			householdStart[b + 1] = allHouseholds.size();
+			hydroStart[b + 1] = allHydros.size();
+		}
+		this.prosumers = allProsumers.toArray(new ProsumerAgent[allProsumers.size()]);
+		this.households = allHouseholds.toArray(new BhutanHousehold[allHouseholds.size()]);
+		this.hydros = allHydros.toArray(new BhutanHydro[allHydros.size()]);
+		this.netDemand = new double[numOfBuses];
+
+		if (hydroStart[solver.getRoot() + 1] == hydroStart[solver.getRoot()])
+		{
+			System.err.println("BhutanFeeder: root village " + villages[solver.getRoot()].getAgentName() + " has no hydro plant to supply the feeder");
+		}
+	}
+
+	/**
+	 * Solves the feeder's power flow for the given tick, and sets the voltage of each
+	 * household and hydro plant, unless it has already been solved for that tick.
+	 *
+	 * @param tick the current tick
+	 */
+	public void solve(int tick)
+	{
+		if (tick == lastSolvedTick)
+		{
+			return;
+		}
+		lastSolvedTick = tick;
+
+		double[] loadConductance = solver.getLoadConductance();
+		double[] embeddedGeneration = solver.getEmbeddedGeneration();
+		double slackCapacity = 0;
+		for (int b = 0; b < villages.length; b++)
+		{
+			double demand = 0;
+			for (int p = prosumerStart[b]; p < prosumerStart[b + 1]; p++)
+			{
+				demand += prosumers[p].getNetDemand();
+			}
+			netDemand[b] = demand;
+
+			double conductance = 0;
+			for (int h = householdStart[b]; h < householdStart[b + 1]; h++)
+			{
+				double resistance = households[h].getResistance();
+				if (resistance > 0)
+				{
+					conductance += 1.0 / resistance;
+				}
+			}
+			loadConductance[b] = conductance;
+
+			double capacity = 0;
+			for (int g = hydroStart[b]; g < hydroStart[b + 1]; g++)
+			{
+				capacity += hydros[g].getCapacity() * 1000;
+			}
+			if (b == solver.getRoot())
+			{
+				slackCapacity = capacity;
+				embeddedGeneration[b] = 0;
+			}
+			else
+			{
+				embeddedGeneration[b] = capacity;
+			}
+		}
+		solver.setSlackCapacity(slackCapacity);
+
+		solver.solve();
+
+		for (int b = 0; b < villages.length; b++)
+		{
+			double v = solver.getVoltage(b);
+			for (int h = householdStart[b]; h < householdStart[b + 1]; h++)
+			{
+				households[h].setVoltage(v);
+			}
+			for (int g = hydroStart[b]; g < hydroStart[b + 1]; g++)
+			{
+				hydros[g].setVoltage(v);
+			}
+		}
+	}
+
+	/**
+	 * @param bus the bus of a village
+	 * @return the voltage at the bus, as of the last solution
+	 */
+	public double getVoltage(int bus)
+	{
+		return solver.getVoltage(bus);
+	}
+
+	/**
+	 * @param bus the bus of a village
+	 * @return the sum of the net demands (kW) of the prosumers connected at the bus, as
+	 *         reported before the last solution
+	 */
+	public double getNetDemand(int bus)
+	{
+		return netDemand[bus];
+	}
+
+	/**
+	 * @param bus the bus of a village
+	 * @return the generation less the load (kW) at the bus, as of the last solution
+	 */
+	public double getPowerBalance(int bus)
+	{
+		return solver.getPowerBalance(bus) / 1000;
+	}
+
+	/**
+	 * @return whether the feeder's source was power limited, as of the last solution
+	 */
+	public boolean isBrownout()
+	{
+		return solver.isBrownout();
+	}
+
+	public int getNumOfVillages()
+	{
+		return villages.length;
+	}
+}
@@ -3,15 +3,15 @@
  */
 package uk.ac.dmu.iesd.cascade.agents.aggregators;
 
-import java.util.ArrayList;
-
-import uk.ac.dmu.iesd.cascade.agents.prosumers.BhutanHousehold;
-import uk.ac.dmu.iesd.cascade.agents.prosumers.BhutanHydro;
-import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
-import uk.ac.dmu.iesd.cascade.util.IterableUtils;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
+ * A village of the Bhutan micro-grid model: a bus of a {@link BhutanFeeder}, to which
+ * the households and hydro plants it is linked to in the economic network are connected.
+ * Villages are linked to the villages they feed by economic network edges weighted with
+ * the line resistance (ohms), so several villages and hydro plants may share a feeder.
+ * 
  * @author jsnape
  *
  */
@@ -19,7 +19,8 @@ public class BhutanVillage extends AggregatorAgent
 {
 	private double nominalVoltage = 230;
 	private double actualVoltage;
-	private BhutanHydro myGen = null;
+	private BhutanFeeder feeder = null;
+	private int bus;
 
 	/* (non-Javadoc)
 	 * @see uk.ac.dmu.iesd.cascade.agents.aggregators.AggregatorAgent#paramStringReport()
@@ -37,9 +38,12 @@ public class BhutanVillage extends AggregatorAgent
 	@Override
 	public void bizPreStep()
 	{
-		if (myGen == null)
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		if (feeder == null)
 		{
-			myGen = (BhutanHydro) mainContext.getRandomObjects(BhutanHydro.class, 1).iterator().next(); // Very Hacky - shouldn't know this.
+			BhutanFeeder.build(mainContext, this, nominalVoltage); // attaches the feeder to this and every other village on it
 		}
 	}
 
@@ -49,56 +53,37 @@ public class BhutanVillage extends AggregatorAgent
 	@Override
 	public void bizStep()
 	{
-		double thisStepDemand = 0;
-		this.actualVoltage = this.nominalVoltage;
-		
-		for (Object o : this.mainContext.getEconomicNetwork().getAdjacent(this))
-		{
-			if (o instanceof ProsumerAgent)
-			{
-				thisStepDemand += ((ProsumerAgent) o).getNetDemand();
-			}
-		}
-		
-		if (thisStepDemand < 0)
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		feeder.solve(mainContext.getTickCount()); // solved once per tick, for all the villages on the feeder
+		this.actualVoltage = feeder.getVoltage(bus);
+
+		double thisStepDemand = feeder.getNetDemand(bus);
+		if (feeder.isBrownout())
 		{
-			//over demand - work out brownout conditions
-			double brownoutVoltage = this.nominalVoltage;
-			
-			double fullRes = -1;
-			
-			ArrayList hhs = IterableUtils.Iterable2ArrayList(mainContext.getAgentLayer(BhutanHousehold.class));
-			
-			for (Object o : hhs) // don't like this implementation - means we know too much about the prosumer!!
-			{
-				BhutanHousehold hh = (BhutanHousehold) o;
-				if (fullRes == -1)
-				{
-					fullRes = hh.getResistance();
-				}
-				else
-				{
-					fullRes = 1.0 / ((1.0 / fullRes) + (1.0 / hh.getResistance()));
-				}
-				
-			}
-			
-			brownoutVoltage = Math.sqrt(myGen.getCapacity()*1000 * fullRes);
-			myGen.setVoltage(brownoutVoltage);
-			
-			for (Object o : hhs) // don't like this implementation - means we know too much about the prosumer!!
-			{
-				BhutanHousehold hh = (BhutanHousehold) o;
-				hh.setVoltage(brownoutVoltage);
-			}
-			
-			this.actualVoltage = brownoutVoltage;
-			
-			thisStepDemand = 0; // the voltage lowering will lower all demands - equalising supply and demand
+			// the voltage lowering will lower all demands - equalising supply and demand (less line losses)
+			thisStepDemand = feeder.getPowerBalance(bus);
 		}
-		
+
 		this.setNetDemand(thisStepDemand);
-	
+	}
+
+	/**
+	 * Attaches the feeder this village is on
+	 * 
+	 * @param f the feeder
+	 * @param busIndex the index of this village's bus on the feeder
+	 */
+	void setFeeder(BhutanFeeder f, int busIndex)
+	{
+		this.feeder = f;
+		this.bus = busIndex;
+	}
+
+	public BhutanFeeder getFeeder()
+	{
+		return this.feeder;
 	}
 	
 	public double getVillageVoltage()
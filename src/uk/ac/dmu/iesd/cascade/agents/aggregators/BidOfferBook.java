@@ -0,0 +1,137 @@
+package uk.ac.dmu.iesd.cascade.agents.aggregators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+
+import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
+import uk.ac.dmu.iesd.cascade.market.astem.base.ASTEMConsts;
+import uk.ac.dmu.iesd.cascade.util.RothErevLearner;
+import cern.jet.random.Uniform;
+
+/**
+ * The <em>BidOfferBook</em> holds the bid-offer pairs ({@link BOD}) a balancing
+ * mechanism unit submits to the <em>SystemOperator</em> every settlement period.
+ * <p>
+ * The book is built once per BMU when the market opens and is reused for the rest
+ * of the run: the BODs it contains are updated in place by their owner as bids and
+ * offers are accepted, rather than being reallocated.  Each BOD is a flyweight over
+ * <ul>
+ * <li>a price ladder (the bid or offer price choices) which depends only on the BMU
+ * 	   type and pair, and so is shared, read only, between all BMUs of that type; and</li>
+ * <li>a {@link RothErevLearner}, which learns the propensity to submit each price on
+ * 	   the ladder and holds its state in rows of the book's weight and tree matrices,
+ * 	   allocated together when the book is built.</li>
+ * </ul>
+ * The pairs making up a book, and the order in which they are created, are those
+ * previously produced by the <code>generateBOD4...</code> methods of
+ * {@link BMPxTraderAggregator}.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class BidOfferBook {
+
+	/**
+	 * Definition of the pairs in the book of a type of BMU.  For each pair, in order
+	 * of creation: its pair ID, the first price of its ladder, the ladder's price step
+	 * and the initial propensity of each price choice.
+	 */
+	private static class PairSpec {
+		final int[] pairIDs;
+		final double[][] ladders;
+		final double[] initialPropensities;
+
+		PairSpec(int[] pairIDs, double[] ladderFrom, double[] ladderStep, double[] initialPropensities)
+		{
+			this.pairIDs = pairIDs;
+			this.initialPropensities = initialPropensities;
+			this.ladders = new double[pairIDs.length][];
+			for (int p = 0; p < pairIDs.length; p++)
+			{
+				ladders[p] = createLadder(ladderFrom[p], ladderStep[p]);
+			}
+		}
+	}
+
+	private static final EnumMap<BMU_TYPE, PairSpec> PAIR_SPECS = new EnumMap<BMU_TYPE, PairSpec>(BMU_TYPE.class);
+
+	static {
+		PairSpec thermalGen = new PairSpec(new int[] {1, 2, 3, 4, 5, -1, -2, -3, -4, -5},
+				new double[] {40, 50, 60, 70, 80, 30, 20, 10, 0, -10},
+				new double[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+				new double[] {45, 55, 65, 75, 85, 35, 25, 15, 5, -5});
+		PAIR_SPECS.put(BMU_TYPE.GEN_COAL, thermalGen);
+		PAIR_SPECS.put(BMU_TYPE.GEN_CCGT, thermalGen);
+		PAIR_SPECS.put(BMU_TYPE.GEN_WIND, new PairSpec(new int[] {1, 2, -1, -2, -3, -4, -5},
+				new double[] {50, 60, 40, 30, 20, 10, 0},
+				new double[] {1, 1, 1, 1, 1, 1, 1},
+				new double[] {55, 65, 45, 35, 25, 15, 5}));
+		PAIR_SPECS.put(BMU_TYPE.DEM_LARGE, new PairSpec(new int[] {1, -1},
+				new double[] {80, 0},
+				new double[] {4, 2},
+				new double[] {100, 10}));
+		PAIR_SPECS.put(BMU_TYPE.DEM_SMALL, new PairSpec(new int[] {1, -1},
+				new double[] {50, 10},
+				new double[] {4, 2},
+				new double[] {70, 20}));
+	}
+
+	private final double[][] weights;
+	private final double[][] trees;
+	private final ArrayList<BOD> list_BOD;
+
+	/**
+	 * Builds the book of bid-offer pairs for a BMU.  The level of each pair is
+	 * <code>margin * marginPC[pair]</code>, where <code>marginPC</code> is indexed in
+	 * the order of {@link #getPairIDs(BMU_TYPE)}.
+	 *
+	 * @param ownerID the ID of the BMU owning the book
+	 * @param type the type of the BMU, which defines the pairs and their price ladders
+	 * @param sp the settlement period the pairs are initially for
+	 * @param margin the BMU's margin for that settlement period
+	 * @param marginPC the fraction of the margin offered by each pair
+	 * @param recency the recency parameter of the BMU's propensity learning
+	 * @param experimentation the experimentation parameter of the BMU's propensity learning
+	 * @param uniform the random stream from which the pairs' learners draw their choices
+	 */
+	public BidOfferBook(int ownerID, BMU_TYPE type, int sp, double margin, double[] marginPC, double recency, double experimentation, Uniform uniform)
+	{
+		PairSpec spec = PAIR_SPECS.get(type);
+		int numOfPairs = spec.pairIDs.length;
+		weights = new double[numOfPairs][ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
+		trees = new double[numOfPairs][ASTEMConsts.BMU_BO_NUM_OF_CHOICE + 1];
+		list_BOD = new ArrayList<BOD>(numOfPairs);
+
+		for (int p = 0; p < numOfPairs; p++)
+		{
+			Arrays.fill(weights[p], spec.initialPropensities[p]);
+			RothErevLearner learner = new RothErevLearner(weights[p], recency, experimentation, uniform, weights[p], trees[p]);
+			list_BOD.add(new BOD(ownerID, sp, spec.pairIDs[p], margin * marginPC[p], spec.ladders[p], learner));
+		}
+	}
+
+	/**
+	 * @param type a BMU type
+	 * @return the IDs of the pairs in the book of a BMU of the given type, in order of creation (read only)
+	 */
+	public static int[] getPairIDs(BMU_TYPE type)
+	{
+		return PAIR_SPECS.get(type).pairIDs;
+	}
+
+	/**
+	 * @return the (reused) list of this book's bid-offer pairs
+	 */
+	public ArrayList<BOD> getListOfBOD()
+	{
+		return list_BOD;
+	}
+
+	private static double[] createLadder(double from, double step)
+	{
+		double[] ladder = new double[ASTEMConsts.BMU_BO_NUM_OF_CHOICE];
+		for (int i = 0; i < ladder.length; i++)
+			ladder[i] = from + (step * i);
+		return ladder;
+	}
+}
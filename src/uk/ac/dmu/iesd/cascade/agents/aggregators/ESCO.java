@@ -5,6 +5,7 @@ package uk.ac.dmu.iesd.cascade.agents.aggregators;
 
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 //import uk.ac.cranfield.market.SupplyPrediction;
 
@@ -36,6 +37,9 @@ public class ESCO extends AggregatorAgent{
 	 * Using this method, this is how aggregator takes the first step (before prosumers start) 
 	 */
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 	}
 
@@ -44,6 +48,9 @@ public class ESCO extends AggregatorAgent{
 	 * at at a given scheduled time throughout the simulation. 
 	 */
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 	}
 
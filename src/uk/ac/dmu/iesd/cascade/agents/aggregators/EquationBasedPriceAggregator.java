@@ -6,13 +6,14 @@ package uk.ac.dmu.iesd.cascade.agents.aggregators;
 import java.util.ArrayList;
 import java.util.List;
 
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * Very simple aggregator which passes a one value price signal to its prosumers (i.e. "real time")
@@ -47,7 +48,10 @@ public class EquationBasedPriceAggregator extends AggregatorAgent {
 	 */
 	@Override
 	public void bizPreStep() {
-		System.out.println("At tick "+RepastEssentials.GetTickCount()+" demand = "+this.getNetDemand());
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		System.out.println("At tick "+mainContext.getTickCount()+" demand = "+this.getNetDemand());
 		ArrayList<ProsumerAgent> customers = getCustomersList();
 		broadcastSignalToCustomers(calculatePrice(this.getNetDemand()), customers);
 	}
@@ -72,8 +76,9 @@ public class EquationBasedPriceAggregator extends AggregatorAgent {
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 			if (!isSignalSentSuccessfully)
 			{
 				allSignalsSentSuccesfully = false;
@@ -110,6 +115,9 @@ public class EquationBasedPriceAggregator extends AggregatorAgent {
 	 */
 	@Override
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		ArrayList<? extends ProsumerAgent> customers = getCustomersList();
 		float totalDemand = 0;
 		for (ProsumerAgent c : customers)
@@ -7,14 +7,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * Very simple aggregator which passes a one value price signal to its prosumers (i.e. "real time")
@@ -87,7 +87,10 @@ public class EquationBasedPriceAggregatorWithLag extends AggregatorAgent {
 	 */
 	@Override
 	public void bizPreStep() {
-		System.out.println("At tick "+RepastEssentials.GetTickCount()+" demand = "+this.getNetDemand());
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		System.out.println("At tick "+mainContext.getTickCount()+" demand = "+this.getNetDemand());
 		ArrayList<ProsumerAgent> customers = getCustomersList();
 		broadcastSignalToCustomers(this.getCurrPrice(), customers);
 		for (int i = 0; i < this.laggedPrice.length - 1; i++)
@@ -118,8 +121,9 @@ public class EquationBasedPriceAggregatorWithLag extends AggregatorAgent {
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 			if (!isSignalSentSuccessfully)
 			{
 				allSignalsSentSuccesfully = false;
@@ -145,7 +149,7 @@ public class EquationBasedPriceAggregatorWithLag extends AggregatorAgent {
 		
 		if (addNoise)
 		{
-			calcPrice = calcPrice*((RandomHelper.nextDouble() - 0.5)*noiseRatio + 1);
+			calcPrice = calcPrice*((mainContext.getUniform().nextDouble() - 0.5)*noiseRatio + 1);
 		}
 		
 		if (calcPrice > 1000)
@@ -160,6 +164,9 @@ public class EquationBasedPriceAggregatorWithLag extends AggregatorAgent {
 	 */
 	@Override
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		ArrayList<? extends ProsumerAgent> customers = getCustomersList();
 		float totalDemand = 0;
 		for (ProsumerAgent c : customers)
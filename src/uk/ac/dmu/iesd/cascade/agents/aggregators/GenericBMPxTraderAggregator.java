@@ -4,6 +4,7 @@ import uk.ac.dmu.iesd.cascade.base.Consts.BMU_CATEGORY;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author Babak Mahdavi Ardestani
@@ -18,11 +19,17 @@ public class GenericBMPxTraderAggregator extends BMPxTraderAggregator  {
 	}
 	
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		this.setNetDemand(arr_oldPN[settlementPeriod]); //TODO: Check - added by Richard to get graphical output.
 
 	}
 	
 	public void bizStep() {		
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 	}
 	
 	public GenericBMPxTraderAggregator(CascadeContext context, MarketMessageBoard mb, BMU_CATEGORY cat, BMU_TYPE type,  double maxGen, double[] baselineProfile) {
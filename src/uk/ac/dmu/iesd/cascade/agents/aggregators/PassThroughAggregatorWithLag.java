@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import repast.simphony.space.projection.ProjectionEvent;
@@ -21,6 +20,8 @@ import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author jsnape
@@ -73,8 +74,9 @@ public class PassThroughAggregatorWithLag extends BMPxTraderAggregator implement
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 			if (!isSignalSentSuccessfully)
 			{
 				allSignalsSentSuccesfully = false;
@@ -84,8 +86,11 @@ public class PassThroughAggregatorWithLag extends BMPxTraderAggregator implement
 	}
 	
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		
-		System.out.println("At tick "+RepastEssentials.GetTickCount()+" demand = "+this.getNetDemand());
+		System.out.println("At tick "+mainContext.getTickCount()+" demand = "+this.getNetDemand());
 		ArrayList<ProsumerAgent> customers = getCustomersList();
 		//broadcastSignalToCustomers(this.getCurrPrice(), customers);
 		broadcastSignalToCustomers(ArrayUtils.normalizeValues(this.laggedPrice), customers);
@@ -104,6 +109,9 @@ public class PassThroughAggregatorWithLag extends BMPxTraderAggregator implement
 	}
 	
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		ArrayList<? extends ProsumerAgent> customers = getCustomersList();
 		float totalDemand = 0;
 		for (ProsumerAgent c : customers)
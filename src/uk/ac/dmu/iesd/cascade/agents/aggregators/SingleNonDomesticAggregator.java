@@ -10,7 +10,6 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.util.collections.IndexedIterable;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
 import uk.ac.dmu.iesd.cascade.base.Consts;
@@ -20,6 +19,7 @@ import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.io.CSVReader;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author denis
@@ -136,7 +136,7 @@ public class SingleNonDomesticAggregator extends BMPxTraderAggregator {
 		try {
 			int offset = (Consts.AGGREGATOR_TRAINING_PERIODE + Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) * 48;
 			//System.out.println("-> " + (RepastEssentials.GetTickCount() - offset));
-			if((RepastEssentials.GetTickCount() - offset) == 0) {
+			if((mainContext.getTickCount() - offset) == 0) {
 				writer = new FileWriter("IndustriesAndCommercialOutput.csv", false);
 				writer.append("k");
 				writer.append(",");
@@ -184,11 +184,11 @@ public class SingleNonDomesticAggregator extends BMPxTraderAggregator {
 		// <code>HouseholdPower</code> assume the same for each week
 		int offset = (Consts.AGGREGATOR_TRAINING_PERIODE + Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) * this.ticksPerDay;
 		
-		if((RepastEssentials.GetTickCount() - offset) % 336 != 0)
+		if((mainContext.getTickCount() - offset) % 336 != 0)
 			return;
 		// avoid doing this at the end of any year
-		if((RepastEssentials.GetTickCount() - offset) != 0) {
-			if((RepastEssentials.GetTickCount() - offset) % 17520 == 0)
+		if((mainContext.getTickCount() - offset) != 0) {
+			if((mainContext.getTickCount() - offset) % 17520 == 0)
 				return;
 		}
 		
@@ -274,6 +274,8 @@ public class SingleNonDomesticAggregator extends BMPxTraderAggregator {
 	}
 	
 	public void marketPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
 	
 		/**
 		 * (02/07/12) DF
@@ -302,6 +304,9 @@ public class SingleNonDomesticAggregator extends BMPxTraderAggregator {
 	 */
 	@Override
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// TODO Auto-generated method stub
 		
 	}
@@ -311,6 +316,9 @@ public class SingleNonDomesticAggregator extends BMPxTraderAggregator {
 	 */
 	@Override
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// TODO Auto-generated method stub
 		
 	}
@@ -1,5 +1,6 @@
 package uk.ac.dmu.iesd.cascade.agents.aggregators;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,15 +20,8 @@ import org.apache.commons.mathforsimplex.optimization.linear.LinearObjectiveFunc
 import org.apache.commons.mathforsimplex.optimization.linear.Relationship;
 import org.apache.commons.mathforsimplex.optimization.linear.SimplexSolver;
 import org.jgap.Chromosome;
-import org.jgap.Configuration;
 import org.jgap.FitnessFunction;
-import org.jgap.Genotype;
-import org.jgap.InvalidConfigurationException;
-import org.jgap.impl.DefaultConfiguration;
-import org.jgap.impl.DoubleGene;
 
-import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.parameter.Parameters;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
@@ -35,17 +29,21 @@ import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_CATEGORY;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
-import uk.ac.dmu.iesd.cascade.io.CSVWriter;
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTrace;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.GeneticOptimiser;
+import uk.ac.dmu.iesd.cascade.util.RoutineErrorAdjustment;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory.SIGNAL_TYPE;
 import cern.colt.list.DoubleArrayList;
 import flanagan.math.Fmath;
-import flanagan.math.Matrix;
 import flanagan.math.Minimisation;
 import flanagan.math.MinimisationFunction;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 
 /**
@@ -214,7 +212,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 		
 	}
 	
-	class RecoMinimisationFunction extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction {
+	class RecoMinimisationFunction extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction, GeneticOptimiser.Objective {
 
 		private static final long serialVersionUID = 1L;
 
@@ -396,6 +394,19 @@ public class SupplierCo extends BMPxTraderAggregator{
 	int dayOfWeek;
 
 	private TrainingSignalFactory trainingSigFactory;
+
+	/**
+	 * whether the learned factors were loaded from the calibration store, in which case 
+	 * the agent operates from the start rather than building a profile and training
+	 **/
+	private boolean calibrated = false;
+	private String calibrationKey; // null if the calibration store is not used
+
+	/** the timeslot at which today's training signal is s=1 (-1 before training) */
+	private int trainingSlot = -1;
+
+	/** working buffer of the daily error estimation and adjustment (one value per timeslot) */
+	private double[] reeaBuffer;
 	
 	/**
 	 * This method calculates and returns the price (Pi) per kWh 
@@ -582,6 +593,8 @@ public class SupplierCo extends BMPxTraderAggregator{
 	 * @return true if the profile building period is completed, false otherwise 
 	 */
 	private boolean isAggregateDemandProfileBuildingPeriodCompleted() {
+		if (calibrated)
+			return true;
 		boolean isEndOfProfilBuilding = true;
 		int daysSoFar = mainContext.getDayCount();
 		//if (Consts.DEBUG) System.out.println("ADPBPC: daySoFar: "+daysSoFar +" < 7?");
@@ -602,6 +615,8 @@ public class SupplierCo extends BMPxTraderAggregator{
 	 * @return true if the training period is completed, false otherwise 
 	 */
 	private boolean isTrainingPeriodCompleted() {
+		if (calibrated)
+			return true;
 		boolean isEndOfTraining = true;
 		int daysSoFar = mainContext.getDayCount();
 		//if (Consts.DEBUG) System.out.println("days so far: "+daysSoFar);
@@ -705,6 +720,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 
 			System.arraycopy(t, 0, sArr, indexFor1, t.length - indexFor1);
 			System.arraycopy(t, t.length - indexFor1, sArr, 0, indexFor1);
+			trainingSlot = indexFor1; // the impulse's s=1 is its first value
 			
 /*			sArr[indexFor1] = 1d;
 			if (indexFor1 > 0) {
@@ -758,10 +774,11 @@ public class SupplierCo extends BMPxTraderAggregator{
 			break;
 		case S_TRAINING: 
 			List <ProsumerAgent> paList = broadcasteesList;
+			SignalDigest trainingDigest = publishSignal(arr_i_S);
 			for (ProsumerAgent agent : paList){
 				//if (Consts.DEBUG) System.out.println("sendSignalType_S, send signal to " + agent.toString());
 				//isSignalSentSuccessfully = agent.receiveSignal(arr_i_S, arr_i_S.length, Consts.SIGNAL_TYPE.S);
-				isSignalSentSuccessfully = agent.receiveValueSignal(arr_i_S, arr_i_S.length);
+				isSignalSentSuccessfully = agent.receiveValueSignal(trainingDigest);
 			}
 			break;
 		default:  //
@@ -818,8 +835,9 @@ public class SupplierCo extends BMPxTraderAggregator{
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 		}
 		return isSignalSentSuccessfully;
 	}
@@ -847,7 +865,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 		double s=1;
 		//double s=-1;
 		double deltaB_i=0;
-		int i =  ArrayUtils.indexOf(arr_S, s); 
+		int i =  trainingSlot; 
 
 		if (i != -1 )	 {	
 			b = arr_B[i];
@@ -923,7 +941,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 		double sum_B = ArrayUtils.sum(arr_B);
 
 
-		int timeslotWhenSwas1 =  ArrayUtils.indexOf(arr_S, s);
+		int timeslotWhenSwas1 =  trainingSlot;
 		
 		
 		if (timeslotWhenSwas1 != -1 )	 {	
@@ -1285,19 +1303,15 @@ public class SupplierCo extends BMPxTraderAggregator{
 		return newOpt_S;
 	}
 
+	/**
+	 * Minimises the cost function over signals in [-1, 1] with a genetic algorithm whose
+	 * individuals are evaluated in parallel.  Its streams are seeded from the run, the
+	 * aggregator and the day, so a day's signal is the same however many processors
+	 * evaluate it (though the function's count of evaluations is then only approximate).
+	 */
 	private double[] minimise_CD_Genetic_Algorithm(double[] arr_C, double[] arr_B, double[] arr_e, double[][] arr_ij_k, double[] arr_S)
 	{
-		double[] returnArray = new double[ticksPerDay];
-
 		/*** Richard's Genetic algorithm optimisation ***/
-		Configuration conf = new DefaultConfiguration();
-
-		// Set the fitness function we want to use, which is our
-		// MinimizingMakeChangeFitnessFunction that we created earlier.
-		// We construct it with the target amount of change provided
-		// by the user.
-		// ------------------------------------------------------------
-
 		RecoMinimisationFunction geneticMinFunc =  new RecoMinimisationFunction();
 		geneticMinFunc.set_B(arr_B);
 		geneticMinFunc.set_C(arr_C);
@@ -1305,47 +1319,10 @@ public class SupplierCo extends BMPxTraderAggregator{
 		geneticMinFunc.set_k(arr_ij_k);
 		geneticMinFunc.addSimpleSumEqualsConstraintForApache(0, 0.01);
 
-		try 	{
-			conf.setFitnessFunction( geneticMinFunc );
-
-			// Now we need to tell the Configuration object how we want our
-			// Chromosomes to be setup. We do that by actually creating a
-			// sample Chromosome and then setting it on the Configuration
-			// object. As mentioned earlier, we want our Chromosomes to
-			// each have four genes, one for each of the coin types. We
-			// want the values of those genes to be integers, which represent
-			// how many coins of that type we have. We therefore use the
-			// IntegerGene class to represent each of the genes. That class
-			// also lets us specify a lower and upper bound, which we set
-			// to sensible values for each coin type.
-			// --------------------------------------------------------------
-			DoubleGene[] sampleGenes = new DoubleGene[ 48 ];
-
-			for (int ii = 0; ii < sampleGenes.length; ii++)	{
-				sampleGenes[ii] = new DoubleGene(-1,1);
-			}
-
-			Chromosome sampleChromosome = new Chromosome(sampleGenes );
-
-			conf.setSampleChromosome( sampleChromosome );
-
-			conf.setPopulationSize(1500);
-
-			Genotype population = Genotype.randomInitialGenotype( conf );
-			for (int evolutions = 0; evolutions < 100; evolutions++)	{
-				population.evolve();
-			}
-			Chromosome bestSolutionSoFar = population.getFittestChromosome();
-
-			for (int jj = 0; jj < returnArray.length; jj++)		{
-				returnArray[jj] = 2 * ((double) ((DoubleGene) bestSolutionSoFar.getGene(jj)).doubleValue() - 0.5d);
-			}
-		} catch (InvalidConfigurationException e) {
-			// TODO Auto-generated catch block
-			System.err.println("RECO:: Invalid configuration for genetic algorithm");
-			e.printStackTrace();
-		}
-		return returnArray;
+		// genes are the signal itself (JGAP's were decoded as 2 * (gene - 0.5), giving signals in [-3, 1])
+		long seed = 31L * (31L * mainContext.getRandomSeedValue() + this.id) + mainContext.getDayCount();
+		GeneticOptimiser optimiser = new GeneticOptimiser(ticksPerDay, 1500, -1, 1, seed);
+		return optimiser.minimise(geneticMinFunc, 100);
 	}
 	
 	private void updateCumulativeSaving(double savingAmount) {
@@ -1405,12 +1382,13 @@ public class SupplierCo extends BMPxTraderAggregator{
 				System.arraycopy(priceSignal, 0, broadcastSignal, ((numCopies + 1) * priceSignal.length) - startIndex, broadcastLength - (((numCopies + 1) * priceSignal.length) - startIndex));
 			}
 
+			SignalDigest digest = publishSignal(broadcastSignal);
 			for (ProsumerAgent a : broadcastCusts){
 				// Broadcast signal to all customers - note we simply say that the signal is valid
 				// from now currently, in future implementations we may want to be able to insert
 				// signals valid at an offset from now.
 				
-				a.receiveValueSignal(broadcastSignal, broadcastLength);
+				a.receiveValueSignal(digest);
 			}
 		}
 
@@ -1418,7 +1396,8 @@ public class SupplierCo extends BMPxTraderAggregator{
 	}
 
 	/**
-	 * This methods writes the parameters passed by arguments into CSV file format.
+	 * This methods writes the parameters passed by arguments into CSV file format, in the
+	 * run's diagnostic trace (see {@link CascadeContext#getDiagnosticTrace()}).
 	 * @param fileName
 	 * @param C
 	 * @param NC
@@ -1429,6 +1408,9 @@ public class SupplierCo extends BMPxTraderAggregator{
 	 * @param k
 	 */
 	private void writeOutput(String fileName, boolean addInfoHeader, double[] C, double[] NC, double[] B, double[] D, double[] S, double[] e, double[][] k) {
+		DiagnosticTrace trace = mainContext.getDiagnosticTrace();
+		if (!trace.isEnabled())
+			return;
 		int [] ts_arr = new int[ticksPerDay];
 
 		for (int i=0; i<ts_arr.length; i++){
@@ -1436,44 +1418,44 @@ public class SupplierCo extends BMPxTraderAggregator{
 		}
 		String resFileName = fileName+mainContext.getDayCount()+".csv";
 
-		CSVWriter res = new CSVWriter(resFileName, false);
+		int res = trace.open(resFileName, false);
 
 		if (addInfoHeader) {
 			
-			res.appendText("Random seed= "+mainContext.getRandomSeedValue());
-			res.appendText("Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
-			res.appendText("ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
-			res.appendText("TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
-			res.appendText("REEA on?= "+Consts.AGG_RECO_REEA_ON);
-			res.appendText("ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
-			res.appendText("WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
-			res.appendText("ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
-			res.appendText("ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
-			res.appendText("");
+			trace.text(res, "Random seed= "+mainContext.getRandomSeedValue());
+			trace.text(res, "Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
+			trace.text(res, "ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
+			trace.text(res, "TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
+			trace.text(res, "REEA on?= "+Consts.AGG_RECO_REEA_ON);
+			trace.text(res, "ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
+			trace.text(res, "WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
+			trace.text(res, "ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
+			trace.text(res, "ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
+			trace.text(res, "");
 		}
 				
-		res.appendText("Timeslots:");
-		res.appendRow(ts_arr);
+		trace.text(res, "Timeslots:");
+		trace.row(res, ts_arr);
 		if (C != null) {
-			res.appendText("C:");
-			res.appendRow(C);
+			trace.text(res, "C:");
+			trace.row(res, C);
 		}
 		if (C != null) {
-			res.appendText("C (normalized):");
-			res.appendRow(NC);
+			trace.text(res, "C (normalized):");
+			trace.row(res, NC);
 		}
 		
-		res.appendText("B:");
-		res.appendRow(B);
-		res.appendText("D (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(D);
-		res.appendText("S (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(S);
-		res.appendText("e (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(e);
-		res.appendText("k (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendCols(k);
-		res.close(); 
+		trace.text(res, "B:");
+		trace.row(res, B);
+		trace.text(res, "D (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, D);
+		trace.text(res, "S (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, S);
+		trace.text(res, "e (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, e);
+		trace.text(res, "k (for end of day "+mainContext.getDayCount()+"): ");
+		trace.cols(res, k);
+		trace.close(res); 
 		
 	}
 
@@ -1481,8 +1463,11 @@ public class SupplierCo extends BMPxTraderAggregator{
 	/**
 	 * This methods estimates the error and ajust k and e values accordingly.
 	 * It is implemented based on Routine Error Estimation and Adjustment (REEA) section 
-	 * in the paper.  
+	 * in the paper, by {@link RoutineErrorAdjustment}.  (The elasticities used to be
+	 * scaled into a new array which was never seen by the caller, so that only k was
+	 * adjusted; both are now adjusted, as the paper describes.)
 	 * @param arr_i_B
+	 * @param arr_hist_1D the demand over the previous day
 	 * @param arr_i_S
 	 * @param arr_i_e
 	 * @param arr_ij_k
@@ -1491,35 +1476,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 		
 		//if (Consts.DEBUG) System.out.println(" --REEA-- ");
 		
-		double[] actualShift = ArrayUtils.add(arr_hist_1D, ArrayUtils.negate(arr_i_B));
-		
-		Matrix k = new Matrix(arr_ij_k);
-		double[][] bs = new double[1][arr_i_B.length];
-		bs[0] = ArrayUtils.mtimes(arr_i_B,arr_i_S);
-		
-		Matrix bs_mat = new Matrix(bs);
-		bs_mat.transpose();			
-		
-		double[] bse = new double[this.ticksPerDay];
-				
-		bse = ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B);
-		
-		double[] bsk = new double[this.ticksPerDay];		
-		bsk = Matrix.times(bs_mat, k).getRowCopy(0);
-		
-		double[] predictedShift= ArrayUtils.add(ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B), (Matrix.times(bs_mat, k).getRowCopy(0)));
-
-		predictedShift = ArrayUtils.add(predictedShift, arr_i_B);
-		double[] arr_errorEstim_R = ArrayUtils.add(predictedShift, ArrayUtils.negate(arr_hist_1D));
-		arr_errorEstim_R = ArrayUtils.mtimes(arr_errorEstim_R, ArrayUtils.pow(arr_i_B,-1));
-		
-		double[] arr_multiplier = ArrayUtils.offset(ArrayUtils.multiply(arr_errorEstim_R, alpha), (1 - alpha));
-
-		arr_i_e = ArrayUtils.mtimes(arr_i_e, arr_multiplier);
-	
-		for (int i = 0; i < arr_ij_k.length; i++)  {
-			arr_ij_k[i] = ArrayUtils.mtimes(arr_ij_k[i], arr_multiplier);
-		} 
+		RoutineErrorAdjustment.adjust(arr_i_B, arr_hist_1D, arr_i_S, arr_i_e, arr_ij_k, alpha, reeaBuffer);
 	}
 		
 	/**
@@ -1537,17 +1494,11 @@ public class SupplierCo extends BMPxTraderAggregator{
 		double predCost = 0;
 		double actualCost = 0;
 		
-		double [] day_predicted_arr_D = new double [this.ticksPerDay];
-
-		for (int i = 0; i < ticksPerDay; i++) {
-			//predCost += arr_i_C[i] * calculate_PredictedDemand_D(i);
-			day_predicted_arr_D[i]= calculate_PredictedDemand_D(i); //this was previously used instead of B for calculation of predicated cost, can be deleted later
+		for (int i = 0; i < arr_i_B.length; i++) {
+			predCost += arr_i_B[i] * arr_i_C[i];
+			actualCost += arr_hist_1D[i] * arr_i_C[i];
 		}
-		
-		predCost = ArrayUtils.sum(ArrayUtils.mtimes(arr_i_B, arr_i_C));
 		dailyPredictedCost.add(predCost);
-		
-		actualCost = ArrayUtils.sum(ArrayUtils.mtimes(arr_hist_1D, arr_i_C));		
 		dailyActualCost.add(actualCost);
 		
 		updateCumulativeSaving(predCost - actualCost);
@@ -1556,6 +1507,8 @@ public class SupplierCo extends BMPxTraderAggregator{
 	
 	
 	public void marketPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
 		//System.out.println(" initializeMarketStep (SupplierCo) "+this.id);
 		settlementPeriod = mainContext.getSettlementPeriod();
 	
@@ -1572,18 +1525,65 @@ public class SupplierCo extends BMPxTraderAggregator{
 	}
 
 
+	/**
+	 * Loads this agent's baseline (B), elasticities (e) and displacement factors (k) from the calibration store, if the run
+	 * uses the store and it holds a calibration learned by an agent with the same customers
+	 * under the same parameters, in which case the agent skips profile building and training.
+	 * @see CalibrationStore
+	 */
+	private void loadCalibration() {
+		CalibrationStore.Mode mode = mainContext.getRunConfig().getCalibrationMode();
+		if (mode == CalibrationStore.Mode.OFF)
+			return;
+		calibrationKey = CalibrationStore.key(CalibrationStore.describe(this.getClass().getName() + " " + this.id, mainContext.getRunConfig().getCalibrationParameters(),
+				mainContext.getRandomSeedValue(), ticksPerDay, customers, arr_i_C_all, overallSystemDemand));
+		if (mode != CalibrationStore.Mode.USE)
+			return;
+		CalibrationStore.Calibration calibration = calibrationStore().load(calibrationKey);
+		if (calibration != null) {
+			arr_i_B = calibration.getArray("B");
+			arr_i_e = calibration.getArray("e");
+			arr_ij_k = calibration.getMatrix("k");
+			calibrated = true;
+			if (Consts.DEBUG) System.out.println(getAgentName() + " loaded calibration " + calibrationKey);
+		}
+	}
+
+	/**
+	 * Stores (or, in validation mode, checks) what this agent learned, once training is complete.
+	 */
+	private void storeCalibration() {
+		if (calibrationKey == null)
+			return;
+		CalibrationStore.Calibration learned = new CalibrationStore.Calibration();
+		learned.putArray("B", arr_i_B);
+		learned.putArray("e", arr_i_e);
+		learned.putMatrix("k", arr_ij_k);
+		calibrationStore().learned(mainContext.getRunConfig().getCalibrationMode(), calibrationKey, learned, getAgentName());
+	}
+
+	private CalibrationStore calibrationStore() {
+		return new CalibrationStore(new File(mainContext.getRunConfig().getCalibrationDir()));
+	}
+
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ============ SupplierCO pre_step ========= DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		timeTick = mainContext.getTickCount();	
 		timeslotOfDay = mainContext.getTimeslotOfDay();
 
-		if (timeTick ==0) customers = getCustomersList();
+		if (timeTick ==0) {
+			customers = getCustomersList();
+			loadCalibration();
+		}
 
 		if (isAggregateDemandProfileBuildingPeriodCompleted())  { //End of history profile building period 
 			//Set the Baseline demand on the first time through after building period
 			
-			if (mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) 
+			if (!calibrated && mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) 
 				arr_i_B = calculateBADfromHistoryArray(ArrayUtils.subArrayCopy(arr_hist_ij_D,0,Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE));
 
 			if (!isTrainingPeriodCompleted()) 	{  //training period, signals should be send S=1 for 48 days
@@ -1596,7 +1596,11 @@ public class SupplierCo extends BMPxTraderAggregator{
 				
 				if (mainContext.isBeginningOfDay(timeslotOfDay)) {
 					
-					if (Consts.AGG_RECO_REEA_ON)
+					if (!calibrated && mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE + Consts.AGGREGATOR_TRAINING_PERIODE)
+						storeCalibration();
+
+					// a calibrated agent has no previous day's demand to estimate its error from on the first day
+					if (Consts.AGG_RECO_REEA_ON && !(calibrated && mainContext.getDayCount() == 0))
 						errorEstimationAndAdjustment(arr_i_B, this.getDayNetDemands(), arr_i_S, arr_i_e, arr_ij_k);
 						//errorEstimationAndAdjustment(arr_i_B, arr_hist_day_D, arr_i_S, arr_i_e, arr_ij_k);
 
@@ -1609,8 +1613,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 					//arr_i_S = minimise_CD_Apache(normalizedCosts, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					//arr_i_S = minimise_CD_ApacheSimplex(arr_i_C, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					
-					Parameters params = RunEnvironment.getInstance().getParameters();
-					switch ((Integer)params.getValue("signalMode"))	{
+					switch (mainContext.getRunConfig().getSignalMode())	{
 					case 0:	/*Real Cost version*/
 						double fixedPrice [] = new double[48];
 						for (int i=0; i<48; i++) {
@@ -1651,6 +1654,9 @@ public class SupplierCo extends BMPxTraderAggregator{
 	 * at at a given scheduled time throughout the simulation. 
 	 */
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ++++++++++++++ SupplierCO step +++++++++++++ DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		if (!isAggregateDemandProfileBuildingPeriodCompleted()) { 
@@ -1661,7 +1667,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 			
 			if (mainContext.isEndOfDay(timeslotOfDay)) 	{
 				
-				double[] arr_last_training_D = ArrayUtils.rowCopy(arr_hist_ij_D, mainContext.getDayCount());
+				double[] arr_last_training_D = arr_hist_ij_D[mainContext.getDayCount()]; // only read
 				double e = calculateElasticityFactors_e(arr_last_training_D,arr_i_B,arr_i_S, arr_i_e);
 				
 				calculateDisplacementFactors_k(arr_last_training_D, arr_i_B, arr_i_S, arr_i_e, arr_ij_k);
@@ -1733,6 +1739,7 @@ public class SupplierCo extends BMPxTraderAggregator{
 		this.arr_i_C = new double [ticksPerDay];
 		this.arr_i_norm_C = new double [ticksPerDay];
 		this.arr_ij_k = new double [ticksPerDay][ticksPerDay];
+		this.reeaBuffer = new double [ticksPerDay];
 		this.arr_hist_ij_D = new double [Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE+Consts.AGGREGATOR_TRAINING_PERIODE][ticksPerDay];
 				
 		arr_i_C_all = ArrayUtils.normalizeValues(ArrayUtils.pow2(baseDemand),100); //all costs (equivalent to size of baseDemand, usually 1 week)
@@ -20,20 +20,8 @@ import org.apache.commons.mathforsimplex.optimization.linear.LinearObjectiveFunc
 import org.apache.commons.mathforsimplex.optimization.linear.Relationship;
 import org.apache.commons.mathforsimplex.optimization.linear.SimplexSolver;
 import org.jgap.Chromosome;
-import org.jgap.Configuration;
 import org.jgap.FitnessFunction;
-import org.jgap.Genotype;
-import org.jgap.InvalidConfigurationException;
-import org.jgap.impl.DefaultConfiguration;
-import org.jgap.impl.DoubleGene;
-import org.joone.engine.FullSynapse;
-import org.joone.engine.LinearLayer;
-import org.joone.engine.SigmoidLayer;
-
-import repast.simphony.adaptation.neural.NeuralUtils;
-import repast.simphony.adaptation.neural.RepastNeuralWrapper;
-import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.parameter.Parameters;
+
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
@@ -41,9 +29,12 @@ import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_CATEGORY;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
-import uk.ac.dmu.iesd.cascade.io.CSVWriter;
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTrace;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.DenseNetwork;
+import uk.ac.dmu.iesd.cascade.util.GeneticOptimiser;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory.SIGNAL_TYPE;
@@ -52,6 +43,8 @@ import flanagan.math.Fmath;
 import flanagan.math.Matrix;
 import flanagan.math.Minimisation;
 import flanagan.math.MinimisationFunction;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 
 /**
@@ -79,7 +72,7 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	// specification described in the paper, and <Bm> is the mean from the baseline load.
 	//
 	// Last updated: (26/02/12) DF
-	class RecoMinimisationFunction_DemandFlattening extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction {
+	class RecoMinimisationFunction_DemandFlattening extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction, GeneticOptimiser.Objective {
 		
 		private static final long serialVersionUID = 1L;
 
@@ -375,7 +368,11 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	} //End of RecoMinimisationFunction class
 
 	
-	private RepastNeuralWrapper map; 
+	/**
+	 * A neural net map (48 demand inputs, 48 sigmoid hidden neurons, 48 signal outputs),
+	 * seeded from the run's seed and the agent's ID
+	 **/
+	private DenseNetwork map; 
 
 	/**
 	 * the aggregator agent's base name  
@@ -436,6 +433,13 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	int dayOfWeek;
 
 	private TrainingSignalFactory trainingSigFactory;
+
+	/**
+	 * whether the learned factors were loaded from the calibration store, in which case 
+	 * the agent operates from the start rather than building a profile and training
+	 **/
+	private boolean calibrated = false;
+	private String calibrationKey; // null if the calibration store is not used
 	
 	/**
 	 * This method calculates and returns the price (Pi) per kWh 
@@ -622,6 +626,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	 * @return true if the profile building period is completed, false otherwise 
 	 */
 	private boolean isAggregateDemandProfileBuildingPeriodCompleted() {
+		if (calibrated)
+			return true;
 		boolean isEndOfProfilBuilding = true;
 		int daysSoFar = mainContext.getDayCount();
 		//if (Consts.DEBUG) System.out.println("ADPBPC: daySoFar: "+daysSoFar +" < 7?");
@@ -642,6 +648,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	 * @return true if the training period is completed, false otherwise 
 	 */
 	private boolean isTrainingPeriodCompleted() {
+		if (calibrated)
+			return true;
 		boolean isEndOfTraining = true;
 		int daysSoFar = mainContext.getDayCount();
 		//if (Consts.DEBUG) System.out.println("days so far: "+daysSoFar);
@@ -785,10 +793,11 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 			break;
 		case S_TRAINING: 
 			List <ProsumerAgent> paList = broadcasteesList;
+			SignalDigest trainingDigest = publishSignal(arr_i_S);
 			for (ProsumerAgent agent : paList){
 				//if (Consts.DEBUG) System.out.println("sendSignalType_S, send signal to " + agent.toString());
 				//isSignalSentSuccessfully = agent.receiveSignal(arr_i_S, arr_i_S.length, Consts.SIGNAL_TYPE.S);
-				isSignalSentSuccessfully = agent.receiveValueSignal(arr_i_S, arr_i_S.length);
+				isSignalSentSuccessfully = agent.receiveValueSignal(trainingDigest);
 			}
 			break;
 		default:  //
@@ -845,8 +854,9 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 		}
 		return isSignalSentSuccessfully;
 	}
@@ -1325,19 +1335,15 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		return newOpt_S;
 	}
 
+	/**
+	 * Minimises the cost function over signals in [-1, 1] with a genetic algorithm whose
+	 * individuals are evaluated in parallel.  Its streams are seeded from the run, the
+	 * aggregator and the day, so a day's signal is the same however many processors
+	 * evaluate it (though the function's count of evaluations is then only approximate).
+	 */
 	private double[] minimise_CD_Genetic_Algorithm(double[] arr_C, double[] arr_B, double[] arr_e, double[][] arr_ij_k, double[] arr_S)
 	{
-		double[] returnArray = new double[ticksPerDay];
-
 		/*** Richard's Genetic algorithm optimisation ***/
-		Configuration conf = new DefaultConfiguration();
-
-		// Set the fitness function we want to use, which is our
-		// MinimizingMakeChangeFitnessFunction that we created earlier.
-		// We construct it with the target amount of change provided
-		// by the user.
-		// ------------------------------------------------------------
-
 		RecoMinimisationFunction_DemandFlattening geneticMinFunc =  new RecoMinimisationFunction_DemandFlattening();
 		geneticMinFunc.set_B(arr_B);
 		//geneticMinFunc.set_C(arr_C);
@@ -1345,47 +1351,10 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		geneticMinFunc.set_k(arr_ij_k);
 		geneticMinFunc.addSimpleSumEqualsConstraintForApache(0, 0.01);
 
-		try 	{
-			conf.setFitnessFunction( geneticMinFunc );
-
-			// Now we need to tell the Configuration object how we want our
-			// Chromosomes to be setup. We do that by actually creating a
-			// sample Chromosome and then setting it on the Configuration
-			// object. As mentioned earlier, we want our Chromosomes to
-			// each have four genes, one for each of the coin types. We
-			// want the values of those genes to be integers, which represent
-			// how many coins of that type we have. We therefore use the
-			// IntegerGene class to represent each of the genes. That class
-			// also lets us specify a lower and upper bound, which we set
-			// to sensible values for each coin type.
-			// --------------------------------------------------------------
-			DoubleGene[] sampleGenes = new DoubleGene[ 48 ];
-
-			for (int ii = 0; ii < sampleGenes.length; ii++)	{
-				sampleGenes[ii] = new DoubleGene(-1,1);
-			}
-
-			Chromosome sampleChromosome = new Chromosome(sampleGenes );
-
-			conf.setSampleChromosome( sampleChromosome );
-
-			conf.setPopulationSize(1500);
-
-			Genotype population = Genotype.randomInitialGenotype( conf );
-			for (int evolutions = 0; evolutions < 100; evolutions++)	{
-				population.evolve();
-			}
-			Chromosome bestSolutionSoFar = population.getFittestChromosome();
-
-			for (int jj = 0; jj < returnArray.length; jj++)		{
-				returnArray[jj] = 2 * ((double) ((DoubleGene) bestSolutionSoFar.getGene(jj)).doubleValue() - 0.5d);
-			}
-		} catch (InvalidConfigurationException e) {
-			// TODO Auto-generated catch block
-			System.err.println("SupplierCoAdvancedModel:: Invalid configuration for genetic algorithm");
-			e.printStackTrace();
-		}
-		return returnArray;
+		// genes are the signal itself (JGAP's were decoded as 2 * (gene - 0.5), giving signals in [-3, 1])
+		long seed = 31L * (31L * mainContext.getRandomSeedValue() + this.id) + mainContext.getDayCount();
+		GeneticOptimiser optimiser = new GeneticOptimiser(ticksPerDay, 1500, -1, 1, seed);
+		return optimiser.minimise(geneticMinFunc, 100);
 	}
 	
 	private void updateCumulativeSaving(double savingAmount) {
@@ -1452,12 +1421,13 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 				System.arraycopy(priceSignal, 0, broadcastSignal, ((numCopies + 1) * priceSignal.length) - startIndex, broadcastLength - (((numCopies + 1) * priceSignal.length) - startIndex));
 			}
 
+			SignalDigest digest = publishSignal(broadcastSignal);
 			for (ProsumerAgent a : broadcastCusts){
 				// Broadcast signal to all customers - note we simply say that the signal is valid
 				// from now currently, in future implementations we may want to be able to insert
 				// signals valid at an offset from now.
 				
-				a.receiveValueSignal(broadcastSignal, broadcastLength);
+				a.receiveValueSignal(digest);
 			}
 		}
 
@@ -1465,7 +1435,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	}
 	
 	/**
-	 * This methods writes the parameters passed by arguments into CSV file format.
+	 * This methods writes the parameters passed by arguments into CSV file format, in the
+	 * run's diagnostic trace (see {@link CascadeContext#getDiagnosticTrace()}).
 	 * @param fileName
 	 * @param C
 	 * @param NC
@@ -1476,17 +1447,14 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	 * @param k
 	 */
 	private void writeOutput(String dirName, String fileName, boolean addInfoHeader, double[] C, double[] NC, double[] B, double[] D, double[] S, double[] e, double[][] k) {
-		File dir = new File(dirName);
-		if (!dir.exists()){
-			dir.mkdir();
-		}
 		String fullPath = dirName.concat(File.separator).concat(fileName);
 		writeOutput(fullPath,addInfoHeader,C,NC,B,D,S,e,k);
 	}
 	
 
 	/**
-	 * This methods writes the parameters passed by arguments into CSV file format.
+	 * This methods writes the parameters passed by arguments into CSV file format, in the
+	 * run's diagnostic trace (see {@link CascadeContext#getDiagnosticTrace()}).
 	 * @param fileName
 	 * @param C
 	 * @param NC
@@ -1497,6 +1465,9 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	 * @param k
 	 */
 	private void writeOutput(String fileName, boolean addInfoHeader, double[] C, double[] NC, double[] B, double[] D, double[] S, double[] e, double[][] k) {
+		DiagnosticTrace trace = mainContext.getDiagnosticTrace();
+		if (!trace.isEnabled())
+			return;
 		int [] ts_arr = new int[ticksPerDay];
 
 		for (int i=0; i<ts_arr.length; i++){
@@ -1504,44 +1475,44 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		}
 		String resFileName = fileName+mainContext.getDayCount()+".csv";
 
-		CSVWriter res = new CSVWriter(resFileName, false);
+		int res = trace.open(resFileName, false);
 
 		if (addInfoHeader) {
 			
-			res.appendText("Random seed= "+mainContext.getRandomSeedValue());
-			res.appendText("Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
-			res.appendText("ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
-			res.appendText("TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
-			res.appendText("REEA on?= "+Consts.AGG_RECO_REEA_ON);
-			res.appendText("ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
-			res.appendText("WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
-			res.appendText("ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
-			res.appendText("ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
-			res.appendText("");
+			trace.text(res, "Random seed= "+mainContext.getRandomSeedValue());
+			trace.text(res, "Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
+			trace.text(res, "ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
+			trace.text(res, "TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
+			trace.text(res, "REEA on?= "+Consts.AGG_RECO_REEA_ON);
+			trace.text(res, "ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
+			trace.text(res, "WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
+			trace.text(res, "ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
+			trace.text(res, "ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
+			trace.text(res, "");
 		}
 				
-		res.appendText("Timeslots:");
-		res.appendRow(ts_arr);
+		trace.text(res, "Timeslots:");
+		trace.row(res, ts_arr);
 		if (C != null) {
-			res.appendText("C:");
-			res.appendRow(C);
+			trace.text(res, "C:");
+			trace.row(res, C);
 		}
 		if (C != null) {
-			res.appendText("C (normalized):");
-			res.appendRow(NC);
+			trace.text(res, "C (normalized):");
+			trace.row(res, NC);
 		}
 		
-		res.appendText("B:");
-		res.appendRow(B);
-		res.appendText("D (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(D);
-		res.appendText("S (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(S);
-		res.appendText("e (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(e);
-		res.appendText("k (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendCols(k);
-		res.close(); 
+		trace.text(res, "B:");
+		trace.row(res, B);
+		trace.text(res, "D (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, D);
+		trace.text(res, "S (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, S);
+		trace.text(res, "e (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, e);
+		trace.text(res, "k (for end of day "+mainContext.getDayCount()+"): ");
+		trace.cols(res, k);
+		trace.close(res); 
 		
 	}
 
@@ -1568,20 +1539,21 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		Matrix bs_mat = new Matrix(bs);
 		bs_mat.transpose();			
 		
-		double[] bse = new double[this.ticksPerDay];
-				
-		bse = ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B);
+		double[] bse = ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B);
 		
-		double[] bsk = new double[this.ticksPerDay];		
-		bsk = Matrix.times(bs_mat, k).getRowCopy(0);
+		double[] bsk = Matrix.times(bs_mat, k).getRowCopy(0);
 		
-		double[] predictedShift= ArrayUtils.add(ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B), (Matrix.times(bs_mat, k).getRowCopy(0)));
+		double[] predictedShift= ArrayUtils.add(bse, bsk);
 
-		predictedShift = ArrayUtils.add(predictedShift, arr_i_B);
-		double[] arr_errorEstim_R = ArrayUtils.add(predictedShift, ArrayUtils.negate(arr_hist_1D));
-		arr_errorEstim_R = ArrayUtils.mtimes(arr_errorEstim_R, ArrayUtils.pow(arr_i_B,-1));
+		ArrayUtils.addInto(predictedShift, predictedShift, arr_i_B);
 		
-		double[] arr_multiplier = ArrayUtils.offset(ArrayUtils.multiply(arr_errorEstim_R, alpha), (1 - alpha));
+		// R = (predicted - actual) / B, built in a single buffer
+		double[] arr_invB = ArrayUtils.pow(arr_i_B,-1);
+		double[] arr_multiplier = predictedShift;
+		ArrayUtils.subtractInto(arr_multiplier, predictedShift, arr_hist_1D);
+		ArrayUtils.mtimesInto(arr_multiplier, arr_multiplier, arr_invB);
+		
+		ArrayUtils.scaleAndOffsetInto(arr_multiplier, arr_multiplier, alpha, (1 - alpha));
 
 		arr_i_e = ArrayUtils.mtimes(arr_i_e, arr_multiplier);
 	
@@ -1641,18 +1613,72 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	}
 */
 
+	/**
+	 * Loads this agent's baseline (B), elasticities (e), displacement factors (k) and
+	 * regression of demand change on signal (Cavge, Kneg, Kpos) from the calibration store, if the run
+	 * uses the store and it holds a calibration learned by an agent with the same customers
+	 * under the same parameters, in which case the agent skips profile building and training.
+	 * @see CalibrationStore
+	 */
+	private void loadCalibration() {
+		CalibrationStore.Mode mode = mainContext.getRunConfig().getCalibrationMode();
+		if (mode == CalibrationStore.Mode.OFF)
+			return;
+		calibrationKey = CalibrationStore.key(CalibrationStore.describe(this.getClass().getName() + " " + this.id, mainContext.getRunConfig().getCalibrationParameters(),
+				mainContext.getRandomSeedValue(), ticksPerDay, customers, arr_i_C_all, overallSystemDemand));
+		if (mode != CalibrationStore.Mode.USE)
+			return;
+		CalibrationStore.Calibration calibration = calibrationStore().load(calibrationKey);
+		if (calibration != null) {
+			arr_i_B = calibration.getArray("B");
+			arr_i_e = calibration.getArray("e");
+			arr_ij_k = calibration.getMatrix("k");
+			Cavge = calibration.getArray("Cavge");
+			Kneg = calibration.getArray("Kneg");
+			Kpos = calibration.getArray("Kpos");
+			calibrated = true;
+			if (Consts.DEBUG) System.out.println(getAgentName() + " loaded calibration " + calibrationKey);
+		}
+	}
+
+	/**
+	 * Stores (or, in validation mode, checks) what this agent learned, once training is complete.
+	 */
+	private void storeCalibration() {
+		if (calibrationKey == null)
+			return;
+		CalibrationStore.Calibration learned = new CalibrationStore.Calibration();
+		learned.putArray("B", arr_i_B);
+		learned.putArray("e", arr_i_e);
+		learned.putMatrix("k", arr_ij_k);
+		learned.putArray("Cavge", Cavge);
+		learned.putArray("Kneg", Kneg);
+		learned.putArray("Kpos", Kpos);
+		calibrationStore().learned(mainContext.getRunConfig().getCalibrationMode(), calibrationKey, learned, getAgentName());
+	}
+
+	private CalibrationStore calibrationStore() {
+		return new CalibrationStore(new File(mainContext.getRunConfig().getCalibrationDir()));
+	}
+
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ============ SupplierCO pre_step ========= DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		timeTick = mainContext.getTickCount();	
 		timeslotOfDay = mainContext.getTimeslotOfDay();
 
-		if (timeTick ==0) customers = getCustomersList();
+		if (timeTick ==0) {
+			customers = getCustomersList();
+			loadCalibration();
+		}
 
 		if (isAggregateDemandProfileBuildingPeriodCompleted())  { //End of history profile building period 
 			//Set the Baseline demand on the first time through after building period
 			
-			if (mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) 
+			if (!calibrated && mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE) 
 			{
 				arr_i_B = calculateBADfromHistoryArray(ArrayUtils.subArrayCopy(arr_hist_ij_D,0,Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE));
 			}
@@ -1662,33 +1688,40 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 				if (mainContext.isBeginningOfDay(timeslotOfDay)) {	
 					arr_i_S = buildSignal(Consts.SIGNAL_TYPE.S_TRAINING);
 					broadcastSignalToCustomers(arr_i_S, customers);
-					CSVWriter tempWriter = new CSVWriter("NeuralTrainerIn.csv", true);
-					double[] in = new double[96];
-					System.arraycopy(arr_day_D, 0, in, 0, 48);
-					System.arraycopy(this.mainContext.getAirTemperature(this.mainContext.getTickCount()-48, 48), 0, in, 48, 48);
-					tempWriter.appendRow(in);
-					tempWriter.close();
-					tempWriter = new CSVWriter("NeuralTrainerOut.csv", true);
-					tempWriter.appendRow(Arrays.copyOf(arr_i_S, arr_i_S.length));
-					tempWriter.close();
+					DiagnosticTrace trace = mainContext.getDiagnosticTrace();
+					if (trace.isEnabled()) {
+						int tempWriter = trace.open("NeuralTrainerIn.csv", true);
+						double[] in = new double[96];
+						System.arraycopy(arr_day_D, 0, in, 0, 48);
+						System.arraycopy(this.mainContext.getAirTemperature(this.mainContext.getTickCount()-48, 48), 0, in, 48, 48);
+						trace.row(tempWriter, in);
+						trace.close(tempWriter);
+						tempWriter = trace.open("NeuralTrainerOut.csv", true);
+						trace.row(tempWriter, arr_i_S);
+						trace.close(tempWriter);
+					}
 				}
 			} //training period completed 
 			else { // Begining of the normal operation- both baseline establishing & training periods are completed
-				if (mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE
+				if (!calibrated && mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE
 						+ Consts.AGGREGATOR_TRAINING_PERIODE) {
-					CSVWriter tempWriter = new CSVWriter("KandSBmatOut.csv", false);
-					tempWriter.appendText("Delta B matrix");
-					tempWriter.appendCols(DeltaBm);
-					tempWriter.appendText("SB product matrix");
-					tempWriter.appendCols(SBprodm);
-					tempWriter.close();
-					
-
-					tempWriter = new CSVWriter("calcProcess.csv", false);
-					tempWriter.appendText("Initial values - should be empty");
-					tempWriter.appendRow(Cavge);
-					tempWriter.appendRow(Kneg);
-					tempWriter.appendRow(Kpos);
+					DiagnosticTrace trace = mainContext.getDiagnosticTrace();
+					boolean tracing = trace.isEnabled();
+					int tempWriter = -1;
+					if (tracing) {
+						tempWriter = trace.open("KandSBmatOut.csv", false);
+						trace.text(tempWriter, "Delta B matrix");
+						trace.cols(tempWriter, DeltaBm);
+						trace.text(tempWriter, "SB product matrix");
+						trace.cols(tempWriter, SBprodm);
+						trace.close(tempWriter);
+
+						tempWriter = trace.open("calcProcess.csv", false);
+						trace.text(tempWriter, "Initial values - should be empty");
+						trace.row(tempWriter, Cavge);
+						trace.row(tempWriter, Kneg);
+						trace.row(tempWriter, Kpos);
+					}
 					
 					for (int deltaRow = 0; deltaRow < Consts.AGGREGATOR_TRAINING_PERIODE; deltaRow++) {
 						double cavg = 0;
@@ -1697,9 +1730,11 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 						
 						double[] SBprod = ArrayUtils.colCopy(SBprodm, deltaRow);
 						double[] DeltaB = ArrayUtils.colCopy(DeltaBm, deltaRow);
-						tempWriter.appendText("Extract column"+deltaRow);
-						tempWriter.appendRow(SBprod);
-						tempWriter.appendRow(DeltaB);
+						if (tracing) {
+							trace.text(tempWriter, "Extract column", deltaRow);
+							trace.row(tempWriter, SBprod);
+							trace.row(tempWriter, DeltaB);
+						}
 						
 						int div = 0;
 						int kPosDiv = 0;
@@ -1708,7 +1743,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 							if (SBprod[i] == 0) {
 								cavg += DeltaB[i];
 								div += 1;
-								tempWriter.appendText("Adding "+DeltaB[i]);
+								if (tracing)
+									trace.text(tempWriter, "Adding ", DeltaB[i]);
 							}
 						}
 						cavg /= div;
@@ -1716,7 +1752,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 						//Approximate cavg by taking those values "on the axis" i.e. where S
 						// was zero.  Obviously doesn't work for S without 0 values
 						
-						tempWriter.appendText("cavg = "+cavg);
+						if (tracing)
+							trace.text(tempWriter, "cavg = ", cavg);
 						
 						//Do regression properly
 						
@@ -1749,17 +1786,24 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 						Cavge[deltaRow] = cavg;
 						Kneg[deltaRow] = kneg;
 						Kpos[deltaRow] = kpos;
-						tempWriter.appendRow(Cavge);
-						tempWriter.appendRow(Kneg);
-						tempWriter.appendRow(Kpos);
+						if (tracing) {
+							trace.row(tempWriter, Cavge);
+							trace.row(tempWriter, Kneg);
+							trace.row(tempWriter, Kpos);
+						}
 					}
 					
-					tempWriter.close();
+					if (tracing)
+						trace.close(tempWriter);
 					
 				}
 				if (mainContext.isBeginningOfDay(timeslotOfDay)) {
 					
-					if (Consts.AGG_RECO_REEA_ON)
+					if (!calibrated && mainContext.getDayCount() == Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE + Consts.AGGREGATOR_TRAINING_PERIODE)
+						storeCalibration();
+
+					// a calibrated agent has no previous day's demand to estimate its error from on the first day
+					if (Consts.AGG_RECO_REEA_ON && !(calibrated && mainContext.getDayCount() == 0))
 						errorEstimationAndAdjustment(arr_i_B, this.getDayNetDemands(), arr_i_S, arr_i_e, arr_ij_k);
 						//errorEstimationAndAdjustment(arr_i_B, arr_hist_day_D, arr_i_S, arr_i_e, arr_ij_k);
 
@@ -1772,8 +1816,7 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 					//arr_i_S = minimise_CD_Apache(normalizedCosts, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					//arr_i_S = minimise_CD_ApacheSimplex(arr_i_C, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					
-					Parameters params = RunEnvironment.getInstance().getParameters();
-					switch ((Integer)params.getValue("signalMode"))	{
+					switch (mainContext.getRunConfig().getSignalMode())	{
 					case 0:	/*Real Cost version*/
 						double fixedPrice [] = new double[48];
 						for (int i=0; i<48; i++) {
@@ -1792,22 +1835,9 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 													
 						break;
 					case 2:	/*Smart signal version*/
-						/*StreamInputSynapse fn = new MemoryInputSynapse();
-						Vector flatD = new Vector();
-						Pattern d = new Pattern();
-						d.setArray(new double[48]);
-						flatD.addElement(d);
-						fn.setInputPatterns(flatD);
-						try
-						{
-							double [] x = map.retrieve(fn).getArray();
-							x = ArrayUtils.offset(x, -ArrayUtils.avg(x));
-							arr_i_S =  ArrayUtils.normalizeValues(x);
-						} catch (Exception e)
-						{
-							System.err.println("Couldn't retrieve pattern for flat demand");
-							e.printStackTrace();
-						}  //Direct neural net implementation 
+						/*double [] x = map.retrieve(new double[48]);
+						x = ArrayUtils.offset(x, -ArrayUtils.avg(x));
+						arr_i_S =  ArrayUtils.normalizeValues(x);  //Direct neural net implementation 
 							*/					
 						arr_i_S = minimise_CD_Apache_Nelder_Mead(arr_i_norm_C, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 						//arr_i_S = minimise_CD(arr_i_norm_C, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
@@ -1826,9 +1856,8 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 					//broadcastSignalToCustomers(ArrayUtils.normalizeValues(arr_i_S), customers);
 					broadcastSignalToCustomers(arr_i_S, customers);
 
-					//if (Consts.DEBUG)
-					
-					writeOutput("output".concat(File.separator).concat("Seed".concat(Integer.toString(mainContext.getRandomSeedValue())).concat("GasFrac").concat(Double.toString(mainContext.getGasPercentage()))),"output2_NormalBiz_day_",false, arr_i_C, arr_i_norm_C, arr_i_B, this.getDayNetDemands(), arr_i_S, Cavge,  ArrayUtils.zip(Kneg,Kpos));
+					if (mainContext.getDiagnosticTrace().isEnabled())
+						writeOutput("output".concat(File.separator).concat("Seed".concat(Integer.toString(mainContext.getRandomSeedValue())).concat("GasFrac").concat(Double.toString(mainContext.getGasPercentage()))),"output2_NormalBiz_day_",false, arr_i_C, arr_i_norm_C, arr_i_B, this.getDayNetDemands(), arr_i_S, Cavge,  ArrayUtils.zip(Kneg,Kpos));
 				}
 
 			} //end of begining of normal operation
@@ -1842,6 +1871,9 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 	 * at at a given scheduled time throughout the simulation. 
 	 */
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ++++++++++++++ SupplierCO step +++++++++++++ DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		if (!isAggregateDemandProfileBuildingPeriodCompleted()) { 
@@ -1882,50 +1914,11 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		if (mainContext.isEndOfDay(timeslotOfDay) && isAggregateDemandProfileBuildingPeriodCompleted()) 	{
 			double[] arr_last_training_D = this.getDayNetDemands().clone(); //ArrayUtils.rowCopy(arr_hist_ij_D, mainContext.getDayCount());
 			
-			Pattern demand = new Pattern();
-			demand.setArray(ArrayUtils.normalizeValues(arr_last_training_D));
-			Pattern signal = new Pattern();
-			signal.setArray(arr_i_S);			
-			
-			ComparingElement ts = map.getNet().getTeacher();
-			StreamInputSynapse fn = new MemoryInputSynapse();
-			Vector nnIn = new Vector();
-			nnIn.addElement(demand);
-			fn.setInputPatterns(nnIn);
-			
+			double[] demand = ArrayUtils.normalizeValues(arr_last_training_D);
+			map.train(demand, arr_i_S);
 			
-			StreamInputSynapse nnOutSignal = new MemoryInputSynapse();
-			Vector ii = new Vector();
-			ii.addElement(signal);			
-			nnOutSignal.setInputPatterns(ii);
-			
-
-			
-			try
-			{
-				ts.setDesired(nnOutSignal);
-				map.train(fn);
-			} catch (Exception e)
-			{
-				System.err.println("Neural net training failed");
-				e.printStackTrace();
-			}
-			
-			MemoryInputSynapse flatD = new MemoryInputSynapse();
-			Vector f = new Vector();
-			Pattern p1 = new Pattern();
-			p1.setArray(new double[48]);
-			f.addElement(p1);
-			flatD.setInputPatterns(f);
-			try
-			{
-				System.err.println("Trained net - demand = " + Arrays.toString(demand.getArray()));
-				System.err.println("              signal = " + Arrays.toString(map.retrieve(fn).getArray()));
-			} catch (Exception e)
-			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			System.err.println("Trained net - demand = " + Arrays.toString(demand));
+			System.err.println("              signal = " + Arrays.toString(map.retrieve(demand)));
 			
 		}*/
 		
@@ -2006,21 +1999,7 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		//+++++++++++++++++++++++++++++++++++++++++++
 		
 		
-		try
-		{
-			map = NeuralUtils.buildNetwork(new int[]{48,48,48}, new Class[]{LinearLayer.class,SigmoidLayer.class,LinearLayer.class}, new Class[]{FullSynapse.class,FullSynapse.class});
-			map.getNet().getMonitor().setLearningRate(0.3);
-			map.getNet().getMonitor().setMomentum(0.3);
-		} catch (IllegalArgumentException e)
-		{
-			System.err.println("Can't construct aggregator Neural Net map due to Illegal argument");
-			e.printStackTrace();
-			System.exit(1);
-		} catch (Exception e)
-		{
-			System.err.println("Can't construct aggregator Neural Net map");
-			e.printStackTrace();
-		}
+		map = buildNeuralNetMap(context);
 		
 		
 	}
@@ -2080,25 +2059,26 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 		//+++++++++++++++++++++++++++++++++++++++++++
 		
 		
-		try
-		{
-			map = NeuralUtils.buildNetwork(new int[]{48,48,48}, new Class[]{LinearLayer.class,SigmoidLayer.class,LinearLayer.class}, new Class[]{FullSynapse.class,FullSynapse.class});
-			map.getNet().getMonitor().setLearningRate(0.3);
-			map.getNet().getMonitor().setMomentum(0.3);
-		} catch (IllegalArgumentException e)
-		{
-			System.err.println("Can't construct aggregator Neural Net map due to Illegal argument");
-			e.printStackTrace();
-			System.exit(1);
-		} catch (Exception e)
-		{
-			System.err.println("Can't construct aggregator Neural Net map");
-			e.printStackTrace();
-		}
+		map = buildNeuralNetMap(context);
 		
 		
 	}
 	
+	/**
+	 * Builds the neural net map, with the learning rate and momentum of 0.3 the Joone network
+	 * it replaces was given.  Its weights are drawn by a generator of its own, seeded from
+	 * the run's seed and this agent's ID, so that drawing them does not move the run's
+	 * random streams.
+	 * @param context the context in which this agent is situated
+	 * @return the map
+	 */
+	private DenseNetwork buildNeuralNetMap(CascadeContext context) {
+		DenseNetwork net = new DenseNetwork(new int[]{48,48,48}, new DenseNetwork.Activation[]{DenseNetwork.Activation.LINEAR,DenseNetwork.Activation.SIGMOID,DenseNetwork.Activation.LINEAR}, 31L * context.getRandomSeedValue() + this.id);
+		net.setLearningRate(0.3);
+		net.setMomentum(0.3);
+		return net;
+	}
+	
 	private double totalCO2saving;
 	
 	public double getTotalCO2saving()
@@ -2119,17 +2099,4 @@ public class SupplierCoAdvancedModel extends AggregatorAgent/*BMPxTraderAggregat
 /**
  * Try using a neural net map
  *//*
-try
-{
-	Pattern in = new Pattern();
-	in.setArray(arr_S.clone());
-	MemoryInputSynapse inL = new MemoryInputSynapse();
-	Vector singleIn = new Vector();
-	singleIn.addElement(in);
-	inL.setInputPatterns(singleIn);
-	d = map.retrieve(inL).getArray();
-} catch (Exception e)
-{
-	// TODO Auto-generated catch block
-	e.printStackTrace();
-}*/
+d = map.retrieve(arr_S);*/
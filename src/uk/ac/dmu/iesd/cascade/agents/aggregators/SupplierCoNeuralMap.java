@@ -19,15 +19,8 @@ import org.apache.commons.mathforsimplex.optimization.linear.LinearObjectiveFunc
 import org.apache.commons.mathforsimplex.optimization.linear.Relationship;
 import org.apache.commons.mathforsimplex.optimization.linear.SimplexSolver;
 import org.jgap.Chromosome;
-import org.jgap.Configuration;
 import org.jgap.FitnessFunction;
-import org.jgap.Genotype;
-import org.jgap.InvalidConfigurationException;
-import org.jgap.impl.DefaultConfiguration;
-import org.jgap.impl.DoubleGene;
 
-import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.parameter.Parameters;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
@@ -35,9 +28,10 @@ import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_CATEGORY;
 import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
-import uk.ac.dmu.iesd.cascade.io.CSVWriter;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTrace;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.GeneticOptimiser;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.TrainingSignalFactory.SIGNAL_TYPE;
@@ -46,6 +40,8 @@ import flanagan.math.Fmath;
 import flanagan.math.Matrix;
 import flanagan.math.Minimisation;
 import flanagan.math.MinimisationFunction;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 
 /**
@@ -214,7 +210,7 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		
 	}
 	
-	class RecoMinimisationFunction extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction {
+	class RecoMinimisationFunction extends FitnessFunction implements MinimisationFunction, MultivariateRealFunction, GeneticOptimiser.Objective {
 
 		private static final long serialVersionUID = 1L;
 
@@ -758,10 +754,11 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 			break;
 		case S_TRAINING: 
 			List <ProsumerAgent> paList = broadcasteesList;
+			SignalDigest trainingDigest = publishSignal(arr_i_S);
 			for (ProsumerAgent agent : paList){
 				//if (Consts.DEBUG) System.out.println("sendSignalType_S, send signal to " + agent.toString());
 				//isSignalSentSuccessfully = agent.receiveSignal(arr_i_S, arr_i_S.length, Consts.SIGNAL_TYPE.S);
-				isSignalSentSuccessfully = agent.receiveValueSignal(arr_i_S, arr_i_S.length);
+				isSignalSentSuccessfully = agent.receiveValueSignal(trainingDigest);
 			}
 			break;
 		default:  //
@@ -818,8 +815,9 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 		}
 		return isSignalSentSuccessfully;
 	}
@@ -1285,19 +1283,15 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		return newOpt_S;
 	}
 
+	/**
+	 * Minimises the cost function over signals in [-1, 1] with a genetic algorithm whose
+	 * individuals are evaluated in parallel.  Its streams are seeded from the run, the
+	 * aggregator and the day, so a day's signal is the same however many processors
+	 * evaluate it (though the function's count of evaluations is then only approximate).
+	 */
 	private double[] minimise_CD_Genetic_Algorithm(double[] arr_C, double[] arr_B, double[] arr_e, double[][] arr_ij_k, double[] arr_S)
 	{
-		double[] returnArray = new double[ticksPerDay];
-
 		/*** Richard's Genetic algorithm optimisation ***/
-		Configuration conf = new DefaultConfiguration();
-
-		// Set the fitness function we want to use, which is our
-		// MinimizingMakeChangeFitnessFunction that we created earlier.
-		// We construct it with the target amount of change provided
-		// by the user.
-		// ------------------------------------------------------------
-
 		RecoMinimisationFunction geneticMinFunc =  new RecoMinimisationFunction();
 		geneticMinFunc.set_B(arr_B);
 		geneticMinFunc.set_C(arr_C);
@@ -1305,47 +1299,10 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		geneticMinFunc.set_k(arr_ij_k);
 		geneticMinFunc.addSimpleSumEqualsConstraintForApache(0, 0.01);
 
-		try 	{
-			conf.setFitnessFunction( geneticMinFunc );
-
-			// Now we need to tell the Configuration object how we want our
-			// Chromosomes to be setup. We do that by actually creating a
-			// sample Chromosome and then setting it on the Configuration
-			// object. As mentioned earlier, we want our Chromosomes to
-			// each have four genes, one for each of the coin types. We
-			// want the values of those genes to be integers, which represent
-			// how many coins of that type we have. We therefore use the
-			// IntegerGene class to represent each of the genes. That class
-			// also lets us specify a lower and upper bound, which we set
-			// to sensible values for each coin type.
-			// --------------------------------------------------------------
-			DoubleGene[] sampleGenes = new DoubleGene[ 48 ];
-
-			for (int ii = 0; ii < sampleGenes.length; ii++)	{
-				sampleGenes[ii] = new DoubleGene(-1,1);
-			}
-
-			Chromosome sampleChromosome = new Chromosome(sampleGenes );
-
-			conf.setSampleChromosome( sampleChromosome );
-
-			conf.setPopulationSize(1500);
-
-			Genotype population = Genotype.randomInitialGenotype( conf );
-			for (int evolutions = 0; evolutions < 100; evolutions++)	{
-				population.evolve();
-			}
-			Chromosome bestSolutionSoFar = population.getFittestChromosome();
-
-			for (int jj = 0; jj < returnArray.length; jj++)		{
-				returnArray[jj] = 2 * ((double) ((DoubleGene) bestSolutionSoFar.getGene(jj)).doubleValue() - 0.5d);
-			}
-		} catch (InvalidConfigurationException e) {
-			// TODO Auto-generated catch block
-			System.err.println("RECO:: Invalid configuration for genetic algorithm");
-			e.printStackTrace();
-		}
-		return returnArray;
+		// genes are the signal itself (JGAP's were decoded as 2 * (gene - 0.5), giving signals in [-3, 1])
+		long seed = 31L * (31L * mainContext.getRandomSeedValue() + this.id) + mainContext.getDayCount();
+		GeneticOptimiser optimiser = new GeneticOptimiser(ticksPerDay, 1500, -1, 1, seed);
+		return optimiser.minimise(geneticMinFunc, 100);
 	}
 	
 	private void updateCumulativeSaving(double savingAmount) {
@@ -1405,12 +1362,13 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 				System.arraycopy(priceSignal, 0, broadcastSignal, ((numCopies + 1) * priceSignal.length) - startIndex, broadcastLength - (((numCopies + 1) * priceSignal.length) - startIndex));
 			}
 
+			SignalDigest digest = publishSignal(broadcastSignal);
 			for (ProsumerAgent a : broadcastCusts){
 				// Broadcast signal to all customers - note we simply say that the signal is valid
 				// from now currently, in future implementations we may want to be able to insert
 				// signals valid at an offset from now.
 				
-				a.receiveValueSignal(broadcastSignal, broadcastLength);
+				a.receiveValueSignal(digest);
 			}
 		}
 
@@ -1418,7 +1376,8 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 	}
 
 	/**
-	 * This methods writes the parameters passed by arguments into CSV file format.
+	 * This methods writes the parameters passed by arguments into CSV file format, in the
+	 * run's diagnostic trace (see {@link CascadeContext#getDiagnosticTrace()}).
 	 * @param fileName
 	 * @param C
 	 * @param NC
@@ -1429,6 +1388,9 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 	 * @param k
 	 */
 	private void writeOutput(String fileName, boolean addInfoHeader, double[] C, double[] NC, double[] B, double[] D, double[] S, double[] e, double[][] k) {
+		DiagnosticTrace trace = mainContext.getDiagnosticTrace();
+		if (!trace.isEnabled())
+			return;
 		int [] ts_arr = new int[ticksPerDay];
 
 		for (int i=0; i<ts_arr.length; i++){
@@ -1436,44 +1398,44 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		}
 		String resFileName = fileName+mainContext.getDayCount()+".csv";
 
-		CSVWriter res = new CSVWriter(resFileName, false);
+		int res = trace.open(resFileName, false);
 
 		if (addInfoHeader) {
 			
-			res.appendText("Random seed= "+mainContext.getRandomSeedValue());
-			res.appendText("Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
-			res.appendText("ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
-			res.appendText("TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
-			res.appendText("REEA on?= "+Consts.AGG_RECO_REEA_ON);
-			res.appendText("ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
-			res.appendText("WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
-			res.appendText("ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
-			res.appendText("ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
-			res.appendText("");
+			trace.text(res, "Random seed= "+mainContext.getRandomSeedValue());
+			trace.text(res, "Number of Prosumers= "+mainContext.getTotalNbOfProsumers());
+			trace.text(res, "ProfileBuildingPeriod= "+Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
+			trace.text(res, "TrainingPeriod= "+Consts.AGGREGATOR_TRAINING_PERIODE);
+			trace.text(res, "REEA on?= "+Consts.AGG_RECO_REEA_ON);
+			trace.text(res, "ColdAppliances on?= "+Consts.HHPRO_HAS_COLD_APPL);
+			trace.text(res, "WetAppliances on?= "+Consts.HHPRO_HAS_WET_APPL);
+			trace.text(res, "ElectSpaceHeat on?= "+Consts.HHPRO_HAS_ELEC_SPACE_HEAT);
+			trace.text(res, "ElectWaterHeat on?= "+Consts.HHPRO_HAS_ELEC_WATER_HEAT);
+			trace.text(res, "");
 		}
 				
-		res.appendText("Timeslots:");
-		res.appendRow(ts_arr);
+		trace.text(res, "Timeslots:");
+		trace.row(res, ts_arr);
 		if (C != null) {
-			res.appendText("C:");
-			res.appendRow(C);
+			trace.text(res, "C:");
+			trace.row(res, C);
 		}
 		if (C != null) {
-			res.appendText("C (normalized):");
-			res.appendRow(NC);
+			trace.text(res, "C (normalized):");
+			trace.row(res, NC);
 		}
 		
-		res.appendText("B:");
-		res.appendRow(B);
-		res.appendText("D (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(D);
-		res.appendText("S (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(S);
-		res.appendText("e (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendRow(e);
-		res.appendText("k (for end of day "+mainContext.getDayCount()+"): ");
-		res.appendCols(k);
-		res.close(); 
+		trace.text(res, "B:");
+		trace.row(res, B);
+		trace.text(res, "D (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, D);
+		trace.text(res, "S (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, S);
+		trace.text(res, "e (for end of day "+mainContext.getDayCount()+"): ");
+		trace.row(res, e);
+		trace.text(res, "k (for end of day "+mainContext.getDayCount()+"): ");
+		trace.cols(res, k);
+		trace.close(res); 
 		
 	}
 
@@ -1500,20 +1462,21 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 		Matrix bs_mat = new Matrix(bs);
 		bs_mat.transpose();			
 		
-		double[] bse = new double[this.ticksPerDay];
-				
-		bse = ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B);
+		double[] bse = ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B);
 		
-		double[] bsk = new double[this.ticksPerDay];		
-		bsk = Matrix.times(bs_mat, k).getRowCopy(0);
+		double[] bsk = Matrix.times(bs_mat, k).getRowCopy(0);
 		
-		double[] predictedShift= ArrayUtils.add(ArrayUtils.mtimes(arr_i_S,arr_i_e, arr_i_B), (Matrix.times(bs_mat, k).getRowCopy(0)));
+		double[] predictedShift= ArrayUtils.add(bse, bsk);
 
-		predictedShift = ArrayUtils.add(predictedShift, arr_i_B);
-		double[] arr_errorEstim_R = ArrayUtils.add(predictedShift, ArrayUtils.negate(arr_hist_1D));
-		arr_errorEstim_R = ArrayUtils.mtimes(arr_errorEstim_R, ArrayUtils.pow(arr_i_B,-1));
+		ArrayUtils.addInto(predictedShift, predictedShift, arr_i_B);
+		
+		// R = (predicted - actual) / B, built in a single buffer
+		double[] arr_invB = ArrayUtils.pow(arr_i_B,-1);
+		double[] arr_multiplier = predictedShift;
+		ArrayUtils.subtractInto(arr_multiplier, predictedShift, arr_hist_1D);
+		ArrayUtils.mtimesInto(arr_multiplier, arr_multiplier, arr_invB);
 		
-		double[] arr_multiplier = ArrayUtils.offset(ArrayUtils.multiply(arr_errorEstim_R, alpha), (1 - alpha));
+		ArrayUtils.scaleAndOffsetInto(arr_multiplier, arr_multiplier, alpha, (1 - alpha));
 
 		arr_i_e = ArrayUtils.mtimes(arr_i_e, arr_multiplier);
 	
@@ -1556,6 +1519,8 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 	
 	
 	public void marketPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
 		//System.out.println(" initializeMarketStep (SupplierCo) "+this.id);
 		settlementPeriod = mainContext.getSettlementPeriod();
 	
@@ -1573,6 +1538,9 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 
 
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ============ SupplierCO pre_step ========= DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		timeTick = mainContext.getTickCount();	
@@ -1609,8 +1577,7 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 					//arr_i_S = minimise_CD_Apache(normalizedCosts, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					//arr_i_S = minimise_CD_ApacheSimplex(arr_i_C, arr_i_B, arr_i_e, arr_ij_k, arr_i_S);
 					
-					Parameters params = RunEnvironment.getInstance().getParameters();
-					switch ((Integer)params.getValue("signalMode"))	{
+					switch (mainContext.getRunConfig().getSignalMode())	{
 					case 0:	/*Real Cost version*/
 						double fixedPrice [] = new double[48];
 						for (int i=0; i<48; i++) {
@@ -1651,6 +1618,9 @@ public class SupplierCoNeuralMap extends BMPxTraderAggregator{
 	 * at at a given scheduled time throughout the simulation. 
 	 */
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println(" ++++++++++++++ SupplierCO step +++++++++++++ DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		if (!isAggregateDemandProfileBuildingPeriodCompleted()) { 
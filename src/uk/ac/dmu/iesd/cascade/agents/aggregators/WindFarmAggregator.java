@@ -17,6 +17,8 @@ import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.market.astem.operators.MarketMessageBoard;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 import uk.ac.dmu.iesd.cascade.util.WrongCustomerTypeException;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author ssmith00
@@ -109,13 +111,16 @@ public class WindFarmAggregator extends BMPxTraderAggregator {
 		//List  aList = broadcasteesList;
 		//List <ProsumerAgent> paList = aList;	
 
+		SignalDigest digest = publishSignal(signalArr);
 		for (ProsumerAgent agent : customerList){			
-			isSignalSentSuccessfully = agent.receiveValueSignal(signalArr, signalArr.length);
+			isSignalSentSuccessfully = agent.receiveValueSignal(digest);
 		}
 		return isSignalSentSuccessfully;
 	}
 	
 	public void marketPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
 		//System.out.println(" initializeMarketStep (SupplierCo) "+this.id);
 		int settlementPeriod = mainContext.getSettlementPeriod();
 	
@@ -136,6 +141,9 @@ public class WindFarmAggregator extends BMPxTraderAggregator {
 	 */
 	@Override
 	public void bizPreStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// TODO Auto-generated method stub
 //		if (Consts.DEBUG) System.out.println(" ============ WindFarmAggregator pre_step ========= DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		timeTick = mainContext.getTickCount();	
@@ -160,6 +168,9 @@ public class WindFarmAggregator extends BMPxTraderAggregator {
 	 */
 	@Override
 	public void bizStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// TODO Auto-generated method stub
 		calculateAndSetNetDemand(customers);
 		
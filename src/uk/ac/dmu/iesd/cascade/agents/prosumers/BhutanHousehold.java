@@ -5,10 +5,10 @@ package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
 import java.util.Arrays;
 
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
-import cern.jet.random.Empirical;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+import uk.ac.dmu.iesd.cascade.util.RothErevLearner;
 
 /**
  * @author jsnape
@@ -16,8 +16,8 @@ import cern.jet.random.Empirical;
  */
 public class BhutanHousehold extends ProsumerAgent
 {
-	private double[] propensity; // propensity to switch on rice cooker in each
-									// 5 min slot
+	private RothErevLearner propensity; // propensity to switch on rice cooker in each
+										// 5 min slot
 	private double riceCookerPower = 0.6; // cookerPower in kW
 	private double riceCookerWarm = 0.04;
 	private double riceCookEnergy = 0.3; // in kWh - based on 30 mins at full
@@ -69,6 +69,9 @@ public class BhutanHousehold extends ProsumerAgent
 	@Override
 	public void step()
 	{
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		if (cookerState == COOKER_ON || cookerState == COOKER_DESIRED)
 		{
 			this.timeToCook += 1;
@@ -114,7 +117,7 @@ public class BhutanHousehold extends ProsumerAgent
 		{
 			if (this.agentID < 3)
 			{
-				System.err.println(this.agentName + " propensity array : " + Arrays.toString(this.propensity));
+				System.err.println(this.agentName + " propensity array : " + Arrays.toString(this.propensity.getPropensities()));
 			}
 
 			// Once a day - update propensities based on yesterday's success and
@@ -138,7 +141,7 @@ public class BhutanHousehold extends ProsumerAgent
 				System.err.println(this.agentName + " success value " + success + "based on time to cook = " + this.timeToCook + " vs. best " + this.bestTimeToCook);
 			}
 			updatePropensity(this.cookStartSlot, success);
-			this.cookStartSlot = RandomHelper.createEmpiricalWalker(this.propensity, Empirical.NO_INTERPOLATION).nextInt();
+			this.cookStartSlot = this.propensity.sample();
 			if (this.agentID < 3)
 			{
 				System.err.println(this.agentName + " new start time = " + this.cookStartSlot);
@@ -150,41 +153,16 @@ public class BhutanHousehold extends ProsumerAgent
 	}
 
 	/**
-	 * @param cookStartSlot2
-	 * @param success
-	 */
-	private void updatePropensity(int attemptedStartTime, double success)
-	{
-		double[] newPropensity = ArrayUtils.multiply(this.propensity, 1 - recency);
-		double[] updateFunc = updateFunction(attemptedStartTime, success);
-		newPropensity = ArrayUtils.add(newPropensity, updateFunc);
-		this.propensity = propensityToProbability(newPropensity);
-	}
-
-	/**
-	 * @param newPropensity
-	 * @return
-	 */
-	private double[] propensityToProbability(double[] newPropensity)
-	{
-		return ArrayUtils.multiply(newPropensity, 1.0 / ArrayUtils.sum(newPropensity));
-	}
-
-	/**
-	 * implements suggested update function for the Modified Roth-Erev algorithm
-	 * put forward by Nicolaisen et al, 2001
+	 * Updates the propensities with the Modified Roth-Erev algorithm put forward by
+	 * Nicolaisen et al, 2001 and normalises them to probabilities
 	 * 
 	 * @param attemptedStartTime
 	 * @param success
-	 * @return
 	 */
-	private double[] updateFunction(int attemptedStartTime, double success)
+	private void updatePropensity(int attemptedStartTime, double success)
 	{
-		double[] E = new double[this.mainContext.ticksPerDay];
-
-		Arrays.fill(E, success * experimentation / (E.length - 1));
-		E[attemptedStartTime] = success * (1 - experimentation);
-		return E;
+		this.propensity.update(attemptedStartTime, success);
+		this.propensity.normalise();
 	}
 
 	public void setVoltage(double v)
@@ -228,25 +206,26 @@ public class BhutanHousehold extends ProsumerAgent
 																// W baseload
 		voltage = 230;
 		this.apparentResistance = (voltage * voltage / (basePower * 1000));
-		this.propensity = new double[context.ticksPerDay];
+		double[] initialPropensity = new double[context.ticksPerDay];
 		double baseProp = 1.0 / context.ticksPerDay;
 
 		// allocate (arbitrarily) 90% of the propensity around a desired time
 		// +/- 20 mins somewhere between 18:00 and 20:00, evenly distribute the
 		// rest
-		Arrays.fill(this.propensity, 0.1 / (context.ticksPerDay - 9));
+		Arrays.fill(initialPropensity, 0.1 / (context.ticksPerDay - 9));
 
 		// initialise an initial preferred slot with propensity 0.5 - 0.1 to
 		// either side, 0.05, then 0.025 for two each side
-		int cookerDistStart = RandomHelper.nextIntFromTo((context.ticksPerDay / 24) * 18, (context.ticksPerDay / 24) * 20);
+		int cookerDistStart = mainContext.getUniform().nextIntFromTo((context.ticksPerDay / 24) * 18, (context.ticksPerDay / 24) * 20);
 		for (int i = 0; i < prefDist.length; i++)
 		{
-			this.propensity[cookerDistStart + i] = prefDist[i];
+			initialPropensity[cookerDistStart + i] = prefDist[i];
 		}
 
-		this.prefCookerStart = ArrayUtils.indexOfMax(this.propensity);
+		this.prefCookerStart = ArrayUtils.indexOfMax(initialPropensity);
 
-		this.cookStartSlot = RandomHelper.createEmpiricalWalker(this.propensity, Empirical.NO_INTERPOLATION).nextInt();
+		this.propensity = new RothErevLearner(initialPropensity, recency, experimentation);
+		this.cookStartSlot = this.propensity.sample();
 		riceCookerResistance = voltage * voltage / (riceCookerPower * 1000);
 		context.add(this);
 	}
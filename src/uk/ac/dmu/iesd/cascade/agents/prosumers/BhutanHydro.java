@@ -4,6 +4,7 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author jsnape
@@ -48,6 +49,9 @@ public class BhutanHydro extends ProsumerAgent
 	@Override
 	public void step()
 	{
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		this.setNetDemand(this.capacity);
 
 	}
@@ -4,6 +4,7 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * This is a very simple prosumer which will present a constant load to the system
@@ -68,6 +69,9 @@ public class ConstantLoadProsumer extends ProsumerAgent {
 	 */
 	@Override
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// Do nothing on step for this prosumer - nothing changes
 	}
 
@@ -3,8 +3,8 @@
  */
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author jsnape
@@ -84,13 +84,16 @@ public class ConstantPlusElasticityProsumer extends ConstantLoadProsumer {
 	 */
 	@Override
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// simply alter the net demand based on price for this step
 		// efactor = (p-p0) / (d-d0)
-		double d0 = this.getBaseConstLoad()*(0.5+RandomHelper.nextDouble()); //Should this always reference base, or last demand?
+		double d0 = this.getBaseConstLoad()*(0.5+mainContext.getUniform().nextDouble()); //Should this always reference base, or last demand?
 		//d0 = this.getNetDemand();
 		
 		double percentChangeP = (this.getCurrentPrediction() - p0) / ((this.getCurrentPrediction() + p0)/2);
-		double percentChangeD = (this.e_factor*(0.5+RandomHelper.nextDouble())) * percentChangeP;
+		double percentChangeD = (this.e_factor*(0.5+mainContext.getUniform().nextDouble())) * percentChangeP;
 		System.out.println("Setting demand from price "+this.getCurrentPrediction()+", percentage price change "+percentChangeP+" and prior demand "+d0);
 		double newD = d0*(percentChangeD + 2)/(2- percentChangeD);
 		System.out.println("Resulting in percentage demand change "+percentChangeD+" and new demand "+newD);
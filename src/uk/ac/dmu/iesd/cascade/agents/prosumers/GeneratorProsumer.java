@@ -2,7 +2,6 @@ package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
 import java.util.Arrays;
 
-import repast.simphony.essentials.RepastEssentials;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 
@@ -68,7 +67,7 @@ public abstract class GeneratorProsumer extends ProsumerAgent{
 
 	public double getUnadaptedDemand(){
 		// Cope with tick count being null between project initialisation and start.
-		int index = Math.max(((int) RepastEssentials.GetTickCount() % arr_otherDemandProfile.length), 0);
+		int index = Math.max((mainContext.getTickCount() % arr_otherDemandProfile.length), 0);
 		return (arr_otherDemandProfile[index]) - currentGeneration();
 	}
 
@@ -113,16 +112,6 @@ public abstract class GeneratorProsumer extends ProsumerAgent{
 		return 0;
 	}
 
-	/**
-	 * @param time
-	 * @return double giving sum of baseDemand for the day.
-	 */
-	private double calculateFixedDayTotalDemand(int time) {
-		int baseProfileIndex = time % arr_otherDemandProfile.length;
-		return ArrayUtils.sum(Arrays.copyOfRange(arr_otherDemandProfile,baseProfileIndex,baseProfileIndex+this.mainContext.ticksPerDay - 1));
-	}
-	
-
 	/**
 	 *  constructor
 	 */
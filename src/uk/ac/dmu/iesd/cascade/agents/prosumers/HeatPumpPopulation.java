@@ -0,0 +1,127 @@
+package uk.ac.dmu.iesd.cascade.agents.prosumers;
+
+import java.util.Arrays;
+
+import repast.simphony.engine.schedule.ScheduleParameters;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel.Discretisation;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+
+/**
+ * Evaluates the space heating of all the heat pump heated households of a context
+ * together, once per tick, with the {@link BuildingThermalModel} population kernel.
+ * <p>
+ * In their pre-step (priority {@link Consts#PROSUMER_PRE_STEP_PRIORITY}) households
+ * with electrical space heat {@link #enter} their building's parameters, set point and
+ * internal temperature for the tick; the population is then stepped in a single call
+ * (priority {@link Consts#PROSUMER_BATCH_PRIORITY}), and each household reads back its
+ * heat demand and new internal temperature in its step.  The state is held in primitive
+ * arrays, which grow as needed and are reused from tick to tick.
+ * <p>
+ * The discretisation is taken from the run's {@link uk.ac.dmu.iesd.cascade.context.RunConfig}.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class HeatPumpPopulation {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final CascadeContext mainContext;
+	private Discretisation discretisation;
+
+	private int size = 0;
+	private boolean evaluated = false;
+	private double[] thermalMass = new double[INITIAL_CAPACITY];
+	private double[] heatLossRate = new double[INITIAL_CAPACITY];
+	private double[] maxHeat = new double[INITIAL_CAPACITY];
+	private double[] setPoint = new double[INITIAL_CAPACITY];
+	private double[] internalTemp = new double[INITIAL_CAPACITY];
+	private double[] heat = new double[INITIAL_CAPACITY];
+
+	/**
+	 * Creates the population and schedules its evaluation every tick.
+	 *
+	 * @param context the context whose households it evaluates
+	 */
+	public HeatPumpPopulation(CascadeContext context)
+	{
+		this.mainContext = context;
+		mainContext.getSchedule().schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_BATCH_PRIORITY), this, "evaluate");
+	}
+
+	/**
+	 * Enters a building into the current tick's evaluation.
+	 *
+	 * @param buildingThermalMass the thermal mass (kWh/C) of the building
+	 * @param buildingHeatLossRate the heat loss rate (W/C) of the building
+	 * @param maxHeatPerTick the maximum heat (kWh) the heat pump can supply in a tick
+	 * @param currentSetPoint the set point (C) for the tick
+	 * @param currentInternalTemp the internal temperature (C) at the start of the tick
+	 * @return the index at which to read the building's results for the tick
+	 */
+	public int enter(double buildingThermalMass, double buildingHeatLossRate, double maxHeatPerTick, double currentSetPoint, double currentInternalTemp)
+	{
+		if (evaluated)
+		{
+			size = 0;
+			evaluated = false;
+		}
+		if (size == thermalMass.length)
+		{
+			int capacity = 2 * size;
+			thermalMass = Arrays.copyOf(thermalMass, capacity);
+			heatLossRate = Arrays.copyOf(heatLossRate, capacity);
+			maxHeat = Arrays.copyOf(maxHeat, capacity);
+			setPoint = Arrays.copyOf(setPoint, capacity);
+			internalTemp = Arrays.copyOf(internalTemp, capacity);
+			heat = Arrays.copyOf(heat, capacity);
+		}
+		thermalMass[size] = buildingThermalMass;
+		heatLossRate[size] = buildingHeatLossRate;
+		maxHeat[size] = maxHeatPerTick;
+		setPoint[size] = currentSetPoint;
+		internalTemp[size] = currentInternalTemp;
+		return size++;
+	}
+
+	/**
+	 * Steps every building entered this tick through the tick.
+	 */
+	public void evaluate()
+	{
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		if (discretisation == null)
+		{
+			discretisation = mainContext.getRunConfig().getThermalDiscretisation();
+		}
+		if (!evaluated)
+		{
+			int tick = mainContext.getTickCount();
+			BuildingThermalModel.heatPumpStep(0, size, thermalMass, heatLossRate, maxHeat, setPoint, internalTemp, mainContext.getAirTemperature(tick),
+					BuildingThermalModel.tickSeconds(mainContext.getNbOfTickPerDay()), discretisation, heat);
+		}
+		evaluated = true;
+	}
+
+	/**
+	 * @param index the index returned by {@link #enter} this tick
+	 * @return the heat (kWh) supplied by the building's heat pump this tick
+	 */
+	public double getHeat(int index)
+	{
+		return heat[index];
+	}
+
+	/**
+	 * @param index the index returned by {@link #enter} this tick
+	 * @return the building's internal temperature (C) at the end of this tick
+	 */
+	public double getInternalTemp(int index)
+	{
+		return internalTemp[index];
+	}
+}
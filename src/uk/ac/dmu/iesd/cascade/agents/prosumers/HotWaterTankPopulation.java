@@ -0,0 +1,167 @@
+package uk.ac.dmu.iesd.cascade.agents.prosumers;
+
+import java.util.Arrays;
+
+import repast.simphony.engine.schedule.ScheduleParameters;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+
+/**
+ * Holds the hot water tanks of all the electrically water heated households of a
+ * context, and evaluates them together, once per tick, with the {@link HotWaterTankModel}
+ * population kernel.
+ * <p>
+ * A household {@link #add}s its tank once, and is given the index of the tank's state,
+ * which is held by the population in primitive arrays for the rest of the run.  In its
+ * pre-step (priority {@link Consts#PROSUMER_PRE_STEP_PRIORITY}) the household
+ * {@link #offer}s the tick's heat and draw-off to its tank; the population is then stepped
+ * in a single call (priority {@link Consts#PROSUMER_BATCH_PRIORITY}), and the household
+ * reads back the heat taken and the tank's temperature in its step.
+ * <p>
+ * The number of layers of the tanks is taken from the run's
+ * {@link uk.ac.dmu.iesd.cascade.context.RunConfig} when the population is first evaluated.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class HotWaterTankPopulation {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final CascadeContext mainContext;
+	private int layers = 0; // 0 until the layers are allocated, on first evaluation
+
+	private int size = 0;
+	private double[] layerVolume = new double[INITIAL_CAPACITY];
+	private double[] decay = new double[INITIAL_CAPACITY];
+	private double[] setPoint = new double[INITIAL_CAPACITY];
+	private double[] initialTemp = new double[INITIAL_CAPACITY];
+	private double[] heat = new double[INITIAL_CAPACITY];
+	private double[] drawOff = new double[INITIAL_CAPACITY];
+	private double[] heatTaken = new double[INITIAL_CAPACITY];
+	private double[] drawOffTemp = new double[INITIAL_CAPACITY];
+	private double[] layerTemp;
+
+	/**
+	 * Creates the population and schedules its evaluation every tick.
+	 *
+	 * @param context the context whose households' tanks it holds
+	 */
+	public HotWaterTankPopulation(CascadeContext context)
+	{
+		this.mainContext = context;
+		mainContext.getSchedule().schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_BATCH_PRIORITY), this, "evaluate");
+	}
+
+	/**
+	 * Adds a tank, uniformly at the given temperature, to the population.
+	 *
+	 * @param tankVolume the volume (litres) of the tank
+	 * @param lossRate the standing loss rate (W/C) of the tank
+	 * @param tankSetPoint the thermostat set point (C) of the tank
+	 * @param tankTemp the initial temperature (C) of the tank
+	 * @return the index of the tank
+	 */
+	public int add(double tankVolume, double lossRate, double tankSetPoint, double tankTemp)
+	{
+		if (size == setPoint.length)
+		{
+			int capacity = 2 * size;
+			layerVolume = Arrays.copyOf(layerVolume, capacity);
+			decay = Arrays.copyOf(decay, capacity);
+			setPoint = Arrays.copyOf(setPoint, capacity);
+			initialTemp = Arrays.copyOf(initialTemp, capacity);
+			heat = Arrays.copyOf(heat, capacity);
+			drawOff = Arrays.copyOf(drawOff, capacity);
+			heatTaken = Arrays.copyOf(heatTaken, capacity);
+			drawOffTemp = Arrays.copyOf(drawOffTemp, capacity);
+			if (layerTemp != null)
+			{
+				layerTemp = Arrays.copyOf(layerTemp, capacity * layers);
+			}
+		}
+		decay[size] = HotWaterTankModel.standingLossDecay(tankVolume, lossRate, BuildingThermalModel.tickSeconds(mainContext.getNbOfTickPerDay()));
+		layerVolume[size] = tankVolume; // per tank until the layers are allocated
+		setPoint[size] = tankSetPoint;
+		initialTemp[size] = tankTemp;
+		drawOffTemp[size] = tankTemp;
+		if (layerTemp != null)
+		{
+			layerVolume[size] /= layers;
+			Arrays.fill(layerTemp, size * layers, (size + 1) * layers, tankTemp);
+		}
+		return size++;
+	}
+
+	/**
+	 * Offers heat and draws off water from a tank in the current tick.
+	 *
+	 * @param index the index of the tank
+	 * @param heatOffered the heat (kWh) offered by the tank's heater
+	 * @param drawOffVolume the volume (litres) of hot water drawn from the tank
+	 */
+	public void offer(int index, double heatOffered, double drawOffVolume)
+	{
+		heat[index] = heatOffered;
+		drawOff[index] = drawOffVolume;
+	}
+
+	/**
+	 * Steps every tank through the tick.
+	 */
+	public void evaluate()
+	{
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+		if (layerTemp == null)
+		{
+			allocateLayers(mainContext.getRunConfig().getHotWaterTankLayers());
+		}
+		double mainsTemp = Consts.MONTHLY_MAINS_WATER_TEMP[mainContext.getClock().getMonth(mainContext.getTickCount())];
+		HotWaterTankModel.tankStep(0, size, layers, layerTemp, layerVolume, decay, setPoint, heat, drawOff,
+				Consts.DOMESTIC_HOT_WATER_TANK_AMBIENT_TEMP, mainsTemp, heatTaken, drawOffTemp);
+		Arrays.fill(heat, 0, size, 0);
+		Arrays.fill(drawOff, 0, size, 0);
+	}
+
+	private void allocateLayers(int numOfLayers)
+	{
+		layers = numOfLayers;
+		layerTemp = new double[setPoint.length * layers];
+		for (int t = 0; t < size; t++)
+		{
+			layerVolume[t] /= layers;
+			Arrays.fill(layerTemp, t * layers, (t + 1) * layers, initialTemp[t]);
+		}
+	}
+
+	/**
+	 * @param index the index of a tank
+	 * @return the heat (kWh) taken by the tank in this tick
+	 */
+	public double getHeatTaken(int index)
+	{
+		return heatTaken[index];
+	}
+
+	/**
+	 * @param index the index of a tank
+	 * @return the temperature (C) at the top (outlet) of the tank at the end of this tick
+	 */
+	public double getTopTemp(int index)
+	{
+		return layerTemp == null ? initialTemp[index] : layerTemp[index * layers];
+	}
+
+	/**
+	 * @param index the index of a tank
+	 * @return the mean temperature (C) of the water drawn from the tank in this tick
+	 */
+	public double getDrawOffTemp(int index)
+	{
+		return drawOffTemp[index];
+	}
+}
@@ -9,7 +9,6 @@ import repast.simphony.context.Context;
 import repast.simphony.engine.schedule.ScheduleParameters;
 import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.query.space.gis.GeographyWithin;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.gis.Geography;
 import repast.simphony.util.ContextUtils;
 import uk.ac.dmu.iesd.cascade.context.AdoptionContext;
@@ -25,7 +24,7 @@ public class Household extends HouseholdProsumer {
 
 	private AdoptionContext mainContext = (AdoptionContext) super.mainContext;
 	
-	private Date nextCogniscentDate;
+	private long nextCogniscentTime; // ms since the epoch
 
 	private int numThoughts;
 	//public boolean hasSmartControl;
@@ -79,14 +78,15 @@ public class Household extends HouseholdProsumer {
 			}
 		}
 
-		if (mainContext.getDateTime().getTime() > this.nextCogniscentDate.getTime()	&& mainContext.getDateTime().getTime() <= (this.nextCogniscentDate.getTime() + 24 * 60 * 60 * 1000)) {
+		long now = mainContext.getClock().getEpochMillis(mainContext.getTickCount());
+		if (now > this.nextCogniscentTime && now <= (this.nextCogniscentTime + 24 * 60 * 60 * 1000)) {
 			mainContext.logger.debug(this.getAgentName() + " Thinking with PV ownership = "+this.getHasPV()+"..."+this.PVlikelihood);
 			considerOptions();
 			// this.myGeography.move(this, this.myGeography.getGeometry(this));
 			numThoughts++;
-			decisionUrgency = 1.0 / (mainContext.dateToTick(mainContext.getTarriffAvailableUntil()) - mainContext.getTickCount());
+			decisionUrgency = 1.0 / (mainContext.getTariffAvailableUntilTick() - mainContext.getTickCount());
 			mainContext.logger.debug("Resulting in PV ownership = "+this.getHasPV()+", likelihood:"+this.PVlikelihood+", neightbours:"+this.numCachedNeighbours);
-			this.nextCogniscentDate.setTime(mainContext.getDateTime().getTime() + ((long) (mainContext.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000)));
+			this.nextCogniscentTime = now + ((long) (mainContext.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000));
 		}
 	}
 
@@ -115,7 +115,7 @@ public class Household extends HouseholdProsumer {
 		}
 		
 		
-		if (false)//(ArrayUtils.sum(this.baseProfile)*RandomHelper.nextDouble()*365*100 > smartContCapital)
+		if (false)//(ArrayUtils.sum(this.baseProfile)*mainContext.getUniform().nextDouble()*365*100 > smartContCapital)
 		{
 			this.hasSmartControl = true;
 			this.setWattboxController();
@@ -164,7 +164,7 @@ public class Household extends HouseholdProsumer {
 		int observed = 0;
 		for (Household h : neighbours) {
 			mainContext.logger.trace("Into observation loop");
-			boolean observe = (RandomHelper.nextDouble() > 0.5);
+			boolean observe = (mainContext.getUniform().nextDouble() > 0.5);
 			// observe = true; // for testing
 
 			if (observe) {
@@ -183,7 +183,7 @@ public class Household extends HouseholdProsumer {
 					+ " neighbours observed to have PV (" + observed
 					+ " observed this round)");
 
-			if (RandomHelper.nextDouble() > habit) {
+			if (mainContext.getUniform().nextDouble() > habit) {
 				// habit change
 				microgenPropensity = PVlikelihood;
 				mainContext.logger
@@ -230,10 +230,8 @@ public class Household extends HouseholdProsumer {
 	public Household(AdoptionContext context) {
 		this(context, new double[48]);
 		this.mainContext = context;
-		Date startTime = (Date) context.simStartDate.clone();
-		startTime.setTime(startTime.getTime() + ((long) (context.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000)));
-		this.nextCogniscentDate = startTime;
-		context.logger.debug(this.agentName+" first thought at "+nextCogniscentDate.toGMTString());
+		this.nextCogniscentTime = context.simStartDate.getTime() + ((long) (context.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000));
+		context.logger.debug(this.agentName+" first thought at "+new Date(nextCogniscentTime).toGMTString());
 	}
 
 	/**
@@ -248,17 +246,15 @@ public class Household extends HouseholdProsumer {
 		this.agentName = "Household_" + this.agentID;
 		Date startTime = null;
 		try {
-			startTime = (new SimpleDateFormat("dd/mm/yyyy"))
+			startTime = (new SimpleDateFormat("dd/MM/yyyy"))
 					.parse("01/04/2010");
 		} catch (ParseException e) {
 			System.err.println("Can't parse this");
 		}
-		startTime
-				.setTime(startTime.getTime()
-						+ ((long) (context.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000)));
-		this.nextCogniscentDate = startTime;
-		this.economicSensitivity = RandomHelper.nextDouble();
-		this.perceivedSmartControlBenefit = RandomHelper.nextDouble(); // comment this out for non-smart adoption scenarios
+		this.nextCogniscentTime = startTime.getTime()
+				+ ((long) (context.nextThoughtGenerator.nextDouble() * 24 * 60 * 60 * 1000));
+		this.economicSensitivity = mainContext.getUniform().nextDouble();
+		this.perceivedSmartControlBenefit = mainContext.getUniform().nextDouble(); // comment this out for non-smart adoption scenarios
 	}
 
 	public int getNumThoughts() {
@@ -307,6 +303,8 @@ public class Household extends HouseholdProsumer {
 	@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = ScheduleParameters.LAST_PRIORITY)
 	public void determineBaseline()
 	{
+		if (mainContext.isFastForwarding())
+			return;
 		int now = this.mainContext.getTickcount();
 		if (now < 48)
 		{
@@ -319,6 +317,8 @@ public class Household extends HouseholdProsumer {
 	@ScheduledMethod(start = 2600, interval = 1, shuffle = true, priority = ScheduleParameters.LAST_PRIORITY)
 	public void calculateSaving()
 	{
+		if (mainContext.isFastForwarding())
+			return;
 		double d = this.getNetDemand();
 		int hh = mainContext.getTimeslotOfDay();
 	
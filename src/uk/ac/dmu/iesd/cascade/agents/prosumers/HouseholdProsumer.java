@@ -1,8 +1,5 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
-import static repast.simphony.essentials.RepastEssentials.FindNetwork;
-import static repast.simphony.essentials.RepastEssentials.GetParameter;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -10,17 +7,20 @@ import java.util.WeakHashMap;
 
 import repast.simphony.engine.environment.RunState;
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
-import repast.simphony.space.graph.RepastEdge;
 import repast.simphony.visualization.IDisplay;
 import repast.simphony.visualizationOGL2D.DisplayOGL2D;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
 import uk.ac.dmu.iesd.cascade.controllers.ISmartController;
 import uk.ac.dmu.iesd.cascade.controllers.ProportionalWattboxController;
 import uk.ac.dmu.iesd.cascade.io.CSVWriter;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+import uk.ac.dmu.iesd.cascade.util.TimeSeriesBuffer;
+import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVChargingSessions;
 
 /**
  * @author J. Richard Snape
@@ -39,6 +39,13 @@ import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
  */
 public class HouseholdProsumer extends ProsumerAgent{
 
+	/**
+	 * The series of which a household keeps a history.
+	 */
+	public static enum History {
+		OTHER_DEMAND, COLD_DEMAND, WET_DEMAND, SPACE_HEAT_DEMAND, WATER_HEAT_DEMAND, EV_DEMAND, INT_TEMP, EXT_TEMP
+	}
+
 	/*
 	 * Configuration options
 	 * 
@@ -132,7 +139,12 @@ public class HouseholdProsumer extends ProsumerAgent{
 	double maxSetPoint;  // The maximum temperature for this Household's building in centigrade (where relevant)
 	public double waterSetPoint;
 	private double currentInternalTemp;
+	private HeatPumpPopulation heatPumpPopulation;
+	private int heatPumpIndex; // this household's index in heatPumpPopulation for the current timestep
 	double currentWaterTemp;
+	double hotWaterTankVolume = Consts.DOMESTIC_HOT_WATER_TANK_VOLUME; // litres
+	private HotWaterTankPopulation hotWaterTankPopulation;
+	private int hotWaterTankIndex = -1; // this household's tank in hotWaterTankPopulation, once added
 
 	//Occupancy information
 	private int numOccupants;
@@ -173,7 +185,6 @@ public class HouseholdProsumer extends ProsumerAgent{
 	public double habit;
 	public int defraCategory;
 	public double[] spaceHeatPumpOn; 
-	private boolean waterHeaterOn;
 
 	/**
 	 * Simulation variables needed throughout
@@ -201,24 +212,26 @@ public class HouseholdProsumer extends ProsumerAgent{
 	CSVWriter sampleOutput;
 	private double[] recordedHeatPumpDemand;
 
-	//Arrays for the day's history (mainly for GUI - may use, write to file or something else in the future)
-	private double[] historicalBaseDemand;
-	private double[] historicalColdDemand;
-	private double[] historicalWetDemand;
-	private double[] historicalSpaceHeatDemand;
-	private double[] historicalEVDemand;
+	//Recent history (mainly for GUI - may use, write to file or something else in the future),
+	//kept as configured by the RunConfig and created on the first step (see createHistories())
+	private TimeSeriesBuffer historicalBaseDemand;
+	private TimeSeriesBuffer historicalColdDemand;
+	private TimeSeriesBuffer historicalWetDemand;
+	private TimeSeriesBuffer historicalSpaceHeatDemand;
+	private TimeSeriesBuffer historicalEVDemand;
 
 	/**
 	 * Building heat flow time constant (thermal mass or specific heat capacity / heat loss rate)
 	 */
 	public double tau;
-	private double[] historicalIntTemp;
-	private double[] historicalExtTemp;
-	private double[] historicalWaterHeatDemand;
+	private TimeSeriesBuffer historicalIntTemp;
+	private TimeSeriesBuffer historicalExtTemp;
+	private TimeSeriesBuffer historicalWaterHeatDemand;
 	public double freeRunningTemperatureLossPerTickMultiplier;
 
 	private double[] electricVehicleProfile;
 	private double[] optimisedEVProfile;
+	private EVChargingSessions evChargingSessions;
 
 
 
@@ -388,35 +401,35 @@ public class HouseholdProsumer extends ProsumerAgent{
 	 * @return
 	 */
 	public double[] getHistoricalOtherDemand() {
-		return this.historicalBaseDemand;
+		return lastDayOf(this.historicalBaseDemand);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalColdDemand() {
-		return this.historicalColdDemand;
+		return lastDayOf(this.historicalColdDemand);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalWetDemand() {
-		return this.historicalWetDemand;
+		return lastDayOf(this.historicalWetDemand);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalSpaceHeatDemand() {
-		return this.historicalSpaceHeatDemand;
+		return lastDayOf(this.historicalSpaceHeatDemand);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalWaterHeatDemand() {
-		return this.historicalWaterHeatDemand;
+		return lastDayOf(this.historicalWaterHeatDemand);
 	}
 	
 	/**
@@ -424,21 +437,86 @@ public class HouseholdProsumer extends ProsumerAgent{
 	 */
 	public double[] getHistoricalEVDemand()
 	{
-		return this.historicalEVDemand;
+		return lastDayOf(this.historicalEVDemand);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalIntTemp() {
-		return historicalIntTemp;
+		return lastDayOf(historicalIntTemp);
 	}
 
 	/**
 	 * @return
 	 */
 	public double[] getHistoricalExtTemp() {
-		return historicalExtTemp;
+		return lastDayOf(historicalExtTemp);
+	}
+
+	/**
+	 * @param history one of this household's histories
+	 * @return the values of the history for the last day (up to and including the latest
+	 *         timestep recorded), oldest first; all zero if the history is not kept
+	 */
+	private double[] lastDayOf(TimeSeriesBuffer history) {
+		if (history == null)
+			return new double[this.mainContext.ticksPerDay];
+		return history.getLast(this.mainContext.ticksPerDay);
+	}
+
+	/**
+	 * Returns the whole of a history as retained (none, one day, one week or the whole
+	 * run, as the RunConfig specifies), rather than only its last day.  Every history is
+	 * returned for the same ticks, those of the other (base) demand's, from
+	 * {@link #getRetainedHistoryFirstTick()} to the latest step, with zero for any tick
+	 * the series was not recorded in.
+	 * @param series the series
+	 * @return the history of the series, oldest first; empty if histories are not kept
+	 */
+	public double[] getRetainedHistory(History series) {
+		if (this.historicalBaseDemand == null)
+			return new double[0];
+		return historyOf(series).getRange(this.historicalBaseDemand.getFirstTick(), this.historicalBaseDemand.size());
+	}
+
+	/**
+	 * @return the tick of the first value of each {@link #getRetainedHistory retained history}
+	 */
+	public int getRetainedHistoryFirstTick() {
+		return this.historicalBaseDemand == null ? 0 : this.historicalBaseDemand.getFirstTick();
+	}
+
+	private TimeSeriesBuffer historyOf(History series) {
+		switch (series) {
+		case OTHER_DEMAND: return this.historicalBaseDemand;
+		case COLD_DEMAND: return this.historicalColdDemand;
+		case WET_DEMAND: return this.historicalWetDemand;
+		case SPACE_HEAT_DEMAND: return this.historicalSpaceHeatDemand;
+		case WATER_HEAT_DEMAND: return this.historicalWaterHeatDemand;
+		case EV_DEMAND: return this.historicalEVDemand;
+		case INT_TEMP: return this.historicalIntTemp;
+		default: return this.historicalExtTemp;
+		}
+	}
+
+	/**
+	 * Creates this household's histories, keeping as much history as the RunConfig
+	 * specifies (none, one day, one week or the whole run).
+	 */
+	private void createHistories() {
+		RunConfig config = this.mainContext.getRunConfig();
+		TimeSeriesBuffer.Retention retention = config.getHouseholdHistory();
+		int ticksPerDay = this.mainContext.ticksPerDay;
+		boolean asFloat = config.isHouseholdHistoryAsFloat();
+		this.historicalBaseDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalWetDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalColdDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalSpaceHeatDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalEVDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalWaterHeatDemand = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalIntTemp = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
+		this.historicalExtTemp = new TimeSeriesBuffer(retention, ticksPerDay, asFloat);
 	}
 
 	/**
@@ -472,7 +550,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 
 	public double getUnadaptedDemand(){
 		// Cope with tick count being null between project initialisation and start.
-		int index = Math.max(((int) RepastEssentials.GetTickCount() % arr_otherDemandProfile.length), 0);
+		int index = Math.max((mainContext.getTickCount() % arr_otherDemandProfile.length), 0);
 		return (arr_otherDemandProfile[index]) - currentGeneration();
 	}
 
@@ -586,7 +664,9 @@ public class HouseholdProsumer extends ProsumerAgent{
 		{
 			//if (Consts.DEBUG) System.out.println(" ^^^hasElecSpaceheat ");
 			// TODO: this assumes only space heat and always uses heat pump - expand for other forms of electrical heating
-			recordedHeatPumpDemand[timeOfDay] += calculateHeatPumpDemandAndInternalTemp(time) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP;
+			// evaluated, together with all other heat pumps, by the context's HeatPumpPopulation (see preStep())
+			recordedHeatPumpDemand[timeOfDay] += heatPumpPopulation.getHeat(heatPumpIndex) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP;
+			this.currentInternalTemp = heatPumpPopulation.getInternalTemp(heatPumpIndex);
 
 		}
 		
@@ -599,12 +679,24 @@ public class HouseholdProsumer extends ProsumerAgent{
 		if (this.isHasElectricalWaterHeat())
 		{
 			// TODO: expand for other forms of electrical heating
-			recordedHeatPumpDemand[timeOfDay] += getWaterHeatProfile()[timeOfDay];
+			recordedHeatPumpDemand[timeOfDay] += waterHeatingDemand();
+			this.currentWaterTemp = hotWaterTankPopulation.getTopTemp(hotWaterTankIndex);
 		}
 
 		return recordedHeatPumpDemand[timeOfDay];
 	}
 
+	/**
+	 * Returns the *electrical* load of water heating in the current timestep, i.e.
+	 * the heat offered by the water heating profile less any refused by the tank's
+	 * thermostat, as evaluated by the context's HotWaterTankPopulation (see preStep())
+	 * 
+	 * @return
+	 */
+	private double waterHeatingDemand() {
+		return hotWaterTankPopulation.getHeatTaken(hotWaterTankIndex) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP;
+	}
+
 	/**
 	 * @return
 	 */
@@ -661,60 +753,10 @@ public class HouseholdProsumer extends ProsumerAgent{
 	}
 
 	/**
-	 * Calculates the heat pump demand at a given timestep (in kWh)
-	 * 
-	 * @param timeStep
-	 * @return
+	 * @return the maximum heat (kWh) the heat pump can supply in a tick
 	 */
-	private double calculateHeatPumpDemandAndInternalTemp(int timeStep) {
-		//demand is the local variable holding the energy demand
-
-		double demand = 0;
-		double deltaT = this.setPoint/*currentInternalTemp*/ - this.getContext().getAirTemperature(timeStep);
-
-		double requiredTempChange = this.setPoint - currentInternalTemp;
-		
-		double maintenanceEnergy =  ((deltaT * (this.buildingHeatLossRate)) * ((double)(Consts.SECONDS_PER_DAY / this.mainContext.ticksPerDay))) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
-
-		double heatingEnergy = requiredTempChange * this.buildingThermalMass / Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE;	// refer to Peter's email (24/01/12)
-		
-		if ((requiredTempChange < (0 - Consts.TEMP_CHANGE_TOLERANCE)) || (deltaT < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF))
-		{
-			//heat pump off, leave demand at zero and decrement internal temperature
-			this.currentInternalTemp -= maintenanceEnergy / this.buildingThermalMass;
-			//if(Consts.DEBUG)
-				//System.out.println("HouseholdProsumer:: HeatPump off - currentInternalTemp1: "+ currentInternalTemp);
-
-		}
-		else
-		{
-			demand = maintenanceEnergy + heatingEnergy;
-			if (demand > ((this.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) *(double) 24 / this.mainContext.ticksPerDay))
-			{
-				demand = (this.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) * ((double) 24 / this.mainContext.ticksPerDay);
-				this.currentInternalTemp = this.currentInternalTemp + ((demand - maintenanceEnergy) / this.buildingThermalMass);
-				if (Consts.DEBUG)
-				{
-				   System.out.println("HouseholdProsumer:: Heatpump on max, can't regain set point currentInternalTemp2: "+ currentInternalTemp);
-				}
-
-			}
-			else
-			{
-				this.currentInternalTemp = this.setPoint;
-			}
-		}
-		
-/*		if (this.agentID == 1)
-		{
-			System.out.println("==================");
-			System.out.println("Tick " + this.time + "; " + this.agentName + " internal temperature: " + this.currentInternalTemp);
-			System.out.println("demand: "+ demand);
-			System.out.println("buildingHeatLossRate: " + buildingHeatLossRate);
-			System.out.println("buildingThermalMass: " + this.buildingThermalMass);
-		}*/
-
-		return demand;
+	public double getHeatPumpMaxHeatPerTick() {
+		return (this.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) * ((double) 24 / this.mainContext.ticksPerDay);
 	}
 
 	/**
@@ -725,39 +767,10 @@ public class HouseholdProsumer extends ProsumerAgent{
 	 */
 	private void recordInternalAndExternalTemp(int timeStep)
 	{
-		double extTemp = this.getContext().getAirTemperature(timeStep);
-
-		historicalIntTemp[timeStep % historicalIntTemp.length] = this.currentInternalTemp;
-		historicalExtTemp[timeStep % historicalIntTemp.length] = extTemp;
-	}
-
-	/**
-	 * calculates the water temperature
-	 * 
-	 * Currently has a very simple linear model of water cooling
-	 * TODO: replace linear model with a more sophisticated negative exponential model.
-	 * 
-	 * @param timeStep
-	 * @return
-	 */
-	private void calculateWaterTemp(int timeStep)
-	{
-		if (!waterHeaterOn)
-		{
-			this.currentWaterTemp = this.currentWaterTemp - 1;
-		}
-	}
+		double extTemp = this.airTemperature; // read by checkWeather() for this timeStep
 
-	/**
-	 * @param time
-	 * @return double giving sum of baseDemand for the day.
-	 */
-	private double calculateFixedDayTotalDemand(int time) {
-		int baseProfileIndex = time % arr_otherDemandProfile.length;
-		//if (Consts.DEBUG) System.out.println(" baseDemandProfile "+ Arrays.toString(baseDemandProfile));
-		//if (Consts.DEBUG) System.out.println(" baseProfileIndex "+ baseProfileIndex);
-		//if (Consts.DEBUG) System.out.println("  calculateFixedDayTotalDemand: array2Sum: "+ Arrays.toString(Arrays.copyOfRange(baseDemandProfile,baseProfileIndex,baseProfileIndex+this.mainContext.ticksPerDay - 1)));
-		return ArrayUtils.sum(Arrays.copyOfRange(arr_otherDemandProfile,baseProfileIndex,baseProfileIndex+this.mainContext.ticksPerDay - 1));
+		historicalIntTemp.put(timeStep, this.currentInternalTemp);
+		historicalExtTemp.put(timeStep, extTemp);
 	}
 
 	/*
@@ -882,24 +895,24 @@ public class HouseholdProsumer extends ProsumerAgent{
 		currentHeat = heatingDemand();
 
 
-		historicalBaseDemand[timeOfDay] = currentBase;
-		historicalWetDemand[timeOfDay] = currentWet;
-		historicalColdDemand[timeOfDay] = currentCold;
-		historicalEVDemand[timeOfDay] = currentEV;
+		historicalBaseDemand.put(time, currentBase);
+		historicalWetDemand.put(time, currentWet);
+		historicalColdDemand.put(time, currentCold);
+		historicalEVDemand.put(time, currentEV);
 
 		//if (this.getHasElectricalSpaceHeat())
 		if (this.isHasElectricalSpaceHeat() && this.isHasElectricalWaterHeat())
 		{
-			historicalSpaceHeatDemand[timeOfDay] = currentHeat - getWaterHeatProfile()[timeOfDay]; //Verify this!
+			historicalSpaceHeatDemand.put(time, currentHeat - waterHeatingDemand());
 		}
 		else if (this.isHasElectricalSpaceHeat())
 		{
-			historicalSpaceHeatDemand[timeOfDay] = currentHeat;
+			historicalSpaceHeatDemand.put(time, currentHeat);
 		}
 
 		if (this.isHasElectricalWaterHeat())
 		{
-			historicalWaterHeatDemand[timeOfDay] = getWaterHeatProfile()[timeOfDay];
+			historicalWaterHeatDemand.put(time, waterHeatingDemand());
 		}
 
 		double returnAmount = currentBase + currentCold + currentWet + currentHeat+currentEV;
@@ -930,7 +943,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 		double moveableLoad = inelasticTotalDayDemand * percentageMoveableDemand;
 		double [] daysCostSignal = new double [this.mainContext.ticksPerDay];
 		double [] daysOptimisedDemand = new double [this.mainContext.ticksPerDay];
-		if ((Boolean) RepastEssentials.GetParameter("verboseOutput"))
+		if (this.mainContext.getRunConfig().isVerbose())
 		{
 			System.out.println("HouseholdProsumer: predictedCostSignal "+getPredictedCostSignal()+" time "+time+ " predictionValidTime "+predictionValidTime+" daysCostSignal "+ daysCostSignal +" this.mainContext.ticksPerDay "+this.mainContext.ticksPerDay);
 		}
@@ -957,7 +970,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 			daysOptimisedDemand[maxIndex] = swapAmount;
 			daysOptimisedDemand[minIndex] = swapAmount;
 			
-			tempArray = ArrayUtils.mtimes(daysOptimisedDemand, daysCostSignal);			                   	                                             
+			ArrayUtils.mtimesInto(tempArray, daysOptimisedDemand, daysCostSignal);			                   	                                             
 		}
 		System.arraycopy(daysOptimisedDemand, 0, smartOptimisedProfile, time % smartOptimisedProfile.length, this.mainContext.ticksPerDay);
 		if (Consts.DEBUG)
@@ -980,26 +993,17 @@ public class HouseholdProsumer extends ProsumerAgent{
 		// Could be a TpB based model.
 		double inwardInfluence = 0;
 		double internalInfluence = this.HEMSPropensity;
-		Iterable<?> socialConnections = FindNetwork("socialNetwork").getInEdges(this);
+		RunConfig config = this.mainContext.getRunConfig();
 		// Get social influence - note communication is not every tick
 		// hence the if clause
 		if ((time % (21 * this.mainContext.ticksPerDay)) == 0)
 		{
-
-			for (Object thisConn: socialConnections)
-			{
-				RepastEdge<?> myConn = ((RepastEdge<?>) thisConn);
-				if (((HouseholdProsumer) myConn.getSource()).hasSmartControl)
-				{
-
-					inwardInfluence = inwardInfluence + (double) myConn.getWeight() * ((HouseholdProsumer) myConn.getSource()).transmitPropensitySmartControl;
-				}
-			}
+			inwardInfluence = this.mainContext.getSocialInfluence().getInwardInfluence(this);
 		}
 
 		double decisionCriterion = inwardInfluence + internalInfluence;
 		this.HEMSPropensity = decisionCriterion;
-		if(decisionCriterion > (Double) GetParameter("smartControlDecisionThreshold")) 
+		if(decisionCriterion > config.getSmartControlDecisionThreshold()) 
 		{
 			hasSmartControl = true;
 		}
@@ -1014,6 +1018,13 @@ public class HouseholdProsumer extends ProsumerAgent{
 		return this.baselineHotWaterVolumeProfile;
 	}
 
+	/**
+	 * @return the volume (litres) of this household's hot water tank
+	 */
+	public double getHotWaterTankVolume() {
+		return this.hotWaterTankVolume;
+	}
+
 
 	/**
 	 * @param waterHeatProfile the waterHeatProfile to set
@@ -1040,7 +1051,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 		
 		if (Consts.DEBUG) System.out.println("    ---iiii----- HouseholdProsumer: init() ---iii------ DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 
-		time = (int) RepastEssentials.GetTickCount();
+		time = mainContext.getTickCount();
 		timeOfDay = (time % this.mainContext.ticksPerDay);
 
 		checkWeather(time);
@@ -1124,7 +1135,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 
 	public void initializeRandomlyDailyElasticityArray(double from, double to) {
 		for (int i = 0; i < dailyElasticity.length; i++)  {
-			dailyElasticity[i] = RandomHelper.nextDoubleFromTo(from, to);
+			dailyElasticity[i] = mainContext.getUniform().nextDoubleFromTo(from, to);
 		}
 		/*
 		// (13/02/12) DF
@@ -1146,7 +1157,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 	
 	
 	public void setRandomlyPercentageMoveableDemand(double from, double to) {
-		percentageMoveableDemand = RandomHelper.nextDoubleFromTo(from, to);
+		percentageMoveableDemand = mainContext.getUniform().nextDoubleFromTo(from, to);
 	}
 	
 	public void initializeElectWaterHeatPar() {
@@ -1160,6 +1171,9 @@ public class HouseholdProsumer extends ProsumerAgent{
 		this.ratedPowerHeatPump = Consts.TYPICAL_HEAT_PUMP_ELEC_RATING;
 
 		this.waterSetPoint = Consts.DOMESTIC_SAFE_WATER_TEMP;
+		this.currentWaterTemp = this.waterSetPoint;
+		this.hotWaterTankVolume = Math.max(Consts.DOMESTIC_HOT_WATER_TANK_VOLUME, dailyHotWaterUsage);
+		this.hotWaterTankPopulation = mainContext.getHotWaterTankPopulation();
 		
 		//TODO: something more sophisticated to give the baseline water heat requirement
 		
@@ -1205,6 +1219,8 @@ public class HouseholdProsumer extends ProsumerAgent{
 
 		if(this.isHasElectricalWaterHeat())	{
 			this.setWaterHeatProfile(ArrayUtils.multiply(hotWaterNeededProfile, Consts.WATER_SPECIFIC_HEAT_CAPACITY / Consts.KWH_TO_JOULE_CONVERSION_FACTOR * (this.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP)) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP) );
+			// and make good the tank's standing losses
+			ArrayUtils.offsetInPlace(getWaterHeatProfile(), HotWaterTankModel.standingLoss(Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, this.waterSetPoint - Consts.DOMESTIC_HOT_WATER_TANK_AMBIENT_TEMP, BuildingThermalModel.tickSeconds(this.mainContext.ticksPerDay)) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP);
 		}
 		else {
 			System.err.println("No water heating!!!");
@@ -1254,6 +1270,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 		
 		freeRunningTemperatureLossPerTickMultiplier = (Consts.SECONDS_PER_DAY / this.mainContext.ticksPerDay) / tau;
 		
+		this.heatPumpPopulation = mainContext.getHeatPumpPopulation();
 	}
 	
 	public void setWattboxController() {	
@@ -1307,16 +1324,21 @@ public class HouseholdProsumer extends ProsumerAgent{
 		int lengthOfProfileArrays = this.mainContext.ticksPerDay * Consts.NB_OF_DAYS_LOADED_DEMAND; 
 		double[] spaceHeatDemand = new double[lengthOfProfileArrays];
 		
-		for (int i=0; i<lengthOfProfileArrays; i++) {
-			if(hasElectricalSpaceHeat) {
-				// this assumes only space heat always uses heat pump
-				spaceHeatDemand[i] = calculateHeatPumpDemandAndInternalTemp(i) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP;
-			}
-			else {
-				// not interested in gas - make this 0
-				spaceHeatDemand[i] = 0d;
+		if(hasElectricalSpaceHeat) {
+			// this assumes only space heat always uses heat pump
+			double[] setPoints = new double[lengthOfProfileArrays];
+			double[] externalTemps = new double[lengthOfProfileArrays];
+			double[] internalTemps = new double[lengthOfProfileArrays];
+			Arrays.fill(setPoints, this.setPoint);
+			for (int i=0; i<lengthOfProfileArrays; i++) {
+				externalTemps[i] = this.mainContext.getAirTemperature(i);
 			}
+			BuildingThermalModel.simulateHeatPump(this.buildingThermalMass, this.buildingHeatLossRate, getHeatPumpMaxHeatPerTick(), setPoints, externalTemps, this.currentInternalTemp,
+					BuildingThermalModel.tickSeconds(this.mainContext.ticksPerDay), this.mainContext.getRunConfig().getThermalDiscretisation(), spaceHeatDemand, internalTemps);
+			this.currentInternalTemp = internalTemps[lengthOfProfileArrays - 1];
+			ArrayUtils.multiplyInPlace(spaceHeatDemand, 1 / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
 		}
+		// else not interested in gas - leave this 0
 		
 		return spaceHeatDemand;
 	}
@@ -1340,15 +1362,20 @@ public class HouseholdProsumer extends ProsumerAgent{
 	}
 	
 	/******************
-	 * This method defines the step behaviour of a prosumer agent
+	 * This method defines the pre-step behaviour of a household: the once-per-day
+	 * actions (including the smart controller's update) and setting the set point
+	 * for the timestep.  Households with electrical space heat then enter their building
+	 * into the context's {@link HeatPumpPopulation}, which evaluates the space heating
+	 * of all of them together before they step.
 	 * 
 	 * Input variables: none
 	 * 
 	 ******************/
-	//@ScheduledMethod(start = 0, interval = 1, priority = Consts.PROSUMER_PRIORITY_FIFTH)
-	//@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = Consts.PROSUMER_PRIORITY_FIFTH)
-
-	public void step() {
+	@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = Consts.PROSUMER_PRE_STEP_PRIORITY)
+	public void preStep() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		// Note the simulation time if needed.
 		// Note - Repast can cope with fractions of a tick (a double is returned)
@@ -1356,7 +1383,7 @@ public class HouseholdProsumer extends ProsumerAgent{
 
 		//if (Consts.DEBUG) System.out.println("  -------- HouseholdProsumer(" +this.getAgentID()+") step() ---------- DayCount: "+ mainContext.getDayCount()+",Timeslot: "+mainContext.getTimeslotOfDay()+",TickCount: "+mainContext.getTickCount() );
 		
-		time = (int) RepastEssentials.GetTickCount();
+		time = mainContext.getTickCount();
 		timeOfDay = (time % this.mainContext.ticksPerDay);
 
 		//if (Consts.DEBUG) System.out.println("checkWeather");
@@ -1439,7 +1466,37 @@ public class HouseholdProsumer extends ProsumerAgent{
 		//if (Consts.DEBUG) System.out.println("  HHpro: getHasElectricalSpaceHeat: "+ getHasElectricalSpaceHeat());
 
 		if (this.isHasElectricalSpaceHeat())
+		{
 			this.setPoint = this.optimisedSetPointProfile[timeOfDay];
+			this.heatPumpIndex = heatPumpPopulation.enter(this.buildingThermalMass, this.buildingHeatLossRate, getHeatPumpMaxHeatPerTick(), this.setPoint, this.currentInternalTemp);
+		}
+
+		if (this.isHasElectricalWaterHeat())
+		{
+			if (this.hotWaterTankIndex < 0)
+			{
+				this.hotWaterTankIndex = hotWaterTankPopulation.add(this.hotWaterTankVolume, Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, this.waterSetPoint, this.currentWaterTemp);
+			}
+			hotWaterTankPopulation.offer(this.hotWaterTankIndex, getWaterHeatProfile()[timeOfDay] * Consts.DOMESTIC_HEAT_PUMP_WATER_COP, getBaselineHotWaterVolumeProfile()[timeOfDay]);
+		}
+	}
+
+	/******************
+	 * This method defines the step behaviour of a prosumer agent
+	 * 
+	 * Input variables: none
+	 * 
+	 ******************/
+	//@ScheduledMethod(start = 0, interval = 1, priority = Consts.PROSUMER_PRIORITY_FIFTH)
+	//@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = Consts.PROSUMER_PRIORITY_FIFTH)
+
+	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
+
+		if (historicalBaseDemand == null)
+			createHistories();
 
 		//Every step we do these actions
        
@@ -1517,20 +1574,11 @@ public class HouseholdProsumer extends ProsumerAgent{
 		//this.dailyElasticity = new double[this.mainContext.ticksPerDay];
 		this.dailyElasticity = new double[lengthOfDemandProfile];
 		
-		//Arrays to hold some history - mainly for gui purposes
-		this.historicalBaseDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalWetDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalColdDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalSpaceHeatDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalEVDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalWaterHeatDemand = new double[this.mainContext.ticksPerDay];
-		this.historicalIntTemp = new double[this.mainContext.ticksPerDay];
-		this.historicalExtTemp = new double[this.mainContext.ticksPerDay];
 		this.recordedHeatPumpDemand = new double[this.mainContext.ticksPerDay];
 		
 		this.coldApplianceProfiles = new WeakHashMap<String, double[]>();
 		
-		if (RandomHelper.nextDouble() < 0)
+		if (mainContext.getUniform().nextDouble() < 0)
 		{
 			this.hasPV = true;
 			this.ratedPowerPV = 3;
@@ -1553,6 +1601,24 @@ public class HouseholdProsumer extends ProsumerAgent{
 		this.optimisedEVProfile = EVProfile;
 	}
 	
+	/**
+	 * @param EVProfile the vehicle's unmanaged charging demand in each tick
+	 * @param sessions the charging sessions from which the profile was drawn, within which a smart controller may reschedule charging
+	 */
+	public void setEVProfile(double[] EVProfile, EVChargingSessions sessions)
+	{
+		setEVProfile(EVProfile);
+		this.evChargingSessions = sessions;
+	}
+
+	/**
+	 * @return the charging sessions of the household's vehicle, or null if they are not known
+	 */
+	public EVChargingSessions getEVChargingSessions()
+	{
+		return this.evChargingSessions;
+	}
+	
 	/**
 	 * @param generateBEVProfile
 	 */
@@ -1,17 +1,15 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
-import static repast.simphony.essentials.RepastEssentials.FindNetwork;
-import static repast.simphony.essentials.RepastEssentials.GetParameter;
-
 import java.util.Arrays;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
+import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 
 /**
@@ -139,7 +137,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 
 	public double getUnadaptedDemand(){
 		// Cope with tick count being null between project initialisation and start.
-		int index = Math.max(((int) RepastEssentials.GetTickCount() % arr_otherDemandProfile.length), 0);
+		int index = Math.max((mainContext.getTickCount() % arr_otherDemandProfile.length), 0);
 		return (arr_otherDemandProfile[index]) - currentGeneration();
 	}
 
@@ -159,6 +157,9 @@ public class NonDomesticProsumer extends ProsumerAgent{
 	 ******************/
 	@ScheduledMethod(start = 1, interval = 1, shuffle = true)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		// Define the return value variable.  Set this false if errors encountered.
 		boolean returnValue = true;
@@ -166,7 +167,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 		// Note the simulation time if needed.
 		// Note - Repast can cope with fractions of a tick (a double is returned)
 		// but I am assuming here we will deal in whole ticks and alter the resolution should we need
-		int time = (int) RepastEssentials.GetTickCount();
+		int time = mainContext.getTickCount();
 		int timeOfDay = (time % this.mainContext.ticksPerDay);
 		CascadeContext myContext = this.getContext();
 
@@ -268,15 +269,6 @@ public class NonDomesticProsumer extends ProsumerAgent{
 		return 0;
 	}
 
-	/**
-	 * @param time
-	 * @return double giving sum of baseDemand for the day.
-	 */
-	private double calculateFixedDayTotalDemand(int time) {
-		int baseProfileIndex = time % arr_otherDemandProfile.length;
-		return ArrayUtils.sum(Arrays.copyOfRange(arr_otherDemandProfile,baseProfileIndex,baseProfileIndex+this.mainContext.ticksPerDay - 1));
-	}
-
 	/*
 	 * Logic helper methods
 	 */
@@ -369,7 +361,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 		{
 			Arrays.fill(daysOptimisedDemand, inelasticTotalDayDemand / this.mainContext.ticksPerDay);
 			movedThisTime = 0;
-			tempArray = ArrayUtils.mtimes(daysOptimisedDemand, daysCostSignal);			                   	                                             
+			ArrayUtils.mtimesInto(tempArray, daysOptimisedDemand, daysCostSignal);			                   	                                             
 		}
 		System.arraycopy(daysOptimisedDemand, 0, smartOptimisedProfile, time % smartOptimisedProfile.length, this.mainContext.ticksPerDay);
 		if (Consts.DEBUG)
@@ -419,7 +411,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 			{
 				if (Consts.DEBUG) System.out.println("NonDomesticProsumer: " +agentID + " moving " + movedLoad + "MaxIndex = " + maxIndex + " minIndex = " + minIndex + Arrays.toString(tempArray));
 			}
-			tempArray = ArrayUtils.mtimes(daysOptimisedDemand, daysCostSignal);			                   	                                             
+			ArrayUtils.mtimesInto(tempArray, daysOptimisedDemand, daysCostSignal);			                   	                                             
 		}
 		System.arraycopy(daysOptimisedDemand, 0, smartOptimisedProfile, time % smartOptimisedProfile.length, this.mainContext.ticksPerDay);
 		if (Consts.DEBUG)
@@ -448,11 +440,13 @@ public class NonDomesticProsumer extends ProsumerAgent{
 		// Could be a TpB based model.
 		double inwardInfluence = 0;
 		double internalInfluence = 0;
-		Iterable socialConnections = FindNetwork("socialNetwork").getInEdges(this);
+		RunConfig config = this.mainContext.getRunConfig();
 		// Get social influence - note communication is not every tick
 		// hence the if clause
 		if ((time % (21 * this.mainContext.ticksPerDay)) == 0)
 		{
+			Network socialNetwork = config.getSocialNetwork();
+			Iterable socialConnections = socialNetwork.getInEdges(this);
 
 			for (Object thisConn: socialConnections)
 			{
@@ -466,7 +460,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 		}
 
 		double decisionCriterion = inwardInfluence + internalInfluence;
-		if(decisionCriterion > (Double) GetParameter("smartControlDecisionThreshold")) 
+		if(decisionCriterion > config.getSmartControlDecisionThreshold()) 
 		{
 			hasSmartControl = true;
 		}
@@ -481,7 +475,7 @@ public class NonDomesticProsumer extends ProsumerAgent{
 	public NonDomesticProsumer(CascadeContext context, double[] baseDemand) {
 		super(context);
 	
-		this.percentageMoveableDemand = RandomHelper.nextDoubleFromTo(0, 0.5);
+		this.percentageMoveableDemand = mainContext.getUniform().nextDoubleFromTo(0, 0.5);
 		setElasticityFactor(percentageMoveableDemand);
 		this.mainContext.ticksPerDay = context.getNbOfTickPerDay();
 		if (baseDemand.length % this.mainContext.ticksPerDay != 0)
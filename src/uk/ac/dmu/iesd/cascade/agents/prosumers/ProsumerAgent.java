@@ -3,12 +3,13 @@ package uk.ac.dmu.iesd.cascade.agents.prosumers;
 import java.util.Arrays;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.ui.probe.ProbeID;
 import repast.simphony.util.ContextUtils;
 import uk.ac.dmu.iesd.cascade.agents.ICognitiveAgent;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.CumulativeProfile;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
 
 /**
  *  A <em>ProsumerAgent</em> is an object which can both consume and generate 
@@ -49,7 +50,8 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 
 	/**
 	 * This field is used for counting number of agents 
-	 * instantiated by descendants of this class  
+	 * instantiated by descendants of this class without a context;
+	 * those with one are numbered by it
 	 **/	
 	private static long agentIDCounter = 0; 
 
@@ -146,9 +148,17 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 	 * Imported signals and profiles.
 	 */
 	protected double[] arr_otherDemandProfile;
+	/** Cumulative sums of <code>arr_otherDemandProfile</code> (null until first needed) */
+	private CumulativeProfile otherDemandSums;
 	protected double[] predictedCostSignal;
 	protected int predictionValidTime;
 
+	/**
+	 * Derived values of the predicted cost signal, shared with all other prosumers
+	 * which received the same broadcast (null until requested or received)
+	 */
+	protected SignalDigest signalDigest;
+
 	/**
 	 * This is net demand, may be +ve (consumption), 0, or -ve (generation)
 	 * 
@@ -303,7 +313,7 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 
 
 	public double getCurrentPrediction() {
-		int timeSinceSigValid = (int) RepastEssentials.GetTickCount() - getPredictionValidTime();
+		int timeSinceSigValid = mainContext.getTickCount() - getPredictionValidTime();
 		if (predictedCostSignal.length > 0 && timeSinceSigValid >= 0) {
 			return getPredictedCostSignal()[timeSinceSigValid % predictedCostSignal.length];
 		}
@@ -344,14 +354,14 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 		//if (Consts.DEBUG) System.out.println("ProsumerAgent:: receiveValueSignal()");
 		boolean success = true;
 		// Can only receive if we have a smart meter to receive data
-		int validTime = (int) RepastEssentials.GetTickCount();
+		int validTime = mainContext.getTickCount();
 		
 		if (hasSmartMeter)
 		{
 			// Note the time from which the signal is valid.
 			// Note - Repast can cope with fractions of a tick (a double is returned)
 			// but I am assuming here we will deal in whole ticks and alter the resolution should we need
-			int time = (int) RepastEssentials.GetTickCount();
+			int time = mainContext.getTickCount();
 			int newSignalLength = length;
 			setPredictionValidTime(validTime);
 			double[] tempArray;
@@ -366,6 +376,13 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 				newSignalLength = newSignalLength - signalOffset;
 			}
 
+			if (signalDigest != null && predictedCostSignal == signalDigest.getSignal())
+			{
+				// The signal currently held is a shared broadcast buffer, which must not be overwritten
+				predictedCostSignal = null;
+			}
+			signalDigest = null;
+
 			if ((getPredictedCostSignal() == null) || (newSignalLength != predictedCostSignal.length))
 			{
 			
@@ -390,6 +407,42 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 
 		return success;
 	}
+
+	/**
+	 * Receives the centralised value signal as published on the sender's broadcast
+	 * channel.  The published buffer is immutable and shared by all the sender's
+	 * customers, so rather than copying the signal the prosumer simply holds a
+	 * reference to it, together with the tick from which it is valid.  The digest
+	 * also lets the smart controller use the shared derived values rather than
+	 * recalculate them.
+	 * 
+	 * @param digest - the published signal buffer being broadcast
+	 * @return true if signal received successfully, false otherwise
+	 */
+	public boolean receiveValueSignal(SignalDigest digest) {
+		// Can only receive if we have a smart meter to receive data
+		if (hasSmartMeter && digest != signalDigest)
+		{
+			signalDigest = digest;
+			predictedCostSignal = digest.getSignal();
+			predictionValidTime = digest.getValidFrom();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the digest of the current predicted cost signal.  If the signal was not
+	 * received with a digest (or has been set directly since) one is built on demand.
+	 * 
+	 * @return the digest of the predicted cost signal
+	 */
+	public SignalDigest getSignalDigest() {
+		if (signalDigest == null && predictedCostSignal != null)
+		{
+			signalDigest = new SignalDigest(predictedCostSignal, mainContext.getNbOfTickPerDay());
+		}
+		return signalDigest;
+	}
 	
 	private void setSignalType_S(double[] signal){
 		
@@ -439,6 +492,19 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 		return airDensity;
 	}
 	
+	/**
+	 * @param time the first timestep of the day
+	 * @return double giving sum of baseDemand (<code>arr_otherDemandProfile</code>) for the day,
+	 *         wrapping around the end of the profile.
+	 */
+	protected double calculateFixedDayTotalDemand(int time) {
+		if (otherDemandSums == null || otherDemandSums.getValues() != arr_otherDemandProfile)
+		{
+			otherDemandSums = new CumulativeProfile(arr_otherDemandProfile);
+		}
+		return otherDemandSums.sum(time, this.mainContext.ticksPerDay);
+	}
+
 	/*
 	 * TODO: is this how the prosumer should get updated about the weather 
 	 * This methods needs to be changed/removed; this will done by the SmartDevice class
@@ -459,6 +525,7 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 	 */
 	public void setPredictedCostSignal(double[] predictedCostSignal) {
 		this.predictedCostSignal = Arrays.copyOf(predictedCostSignal, predictedCostSignal.length);
+		this.signalDigest = null;
 	}
 
 	/**
@@ -474,7 +541,7 @@ public abstract class ProsumerAgent implements ICognitiveAgent {
 	 */
 	public ProsumerAgent(CascadeContext context) {
 		
-		this.agentID = agentIDCounter++;
+		this.agentID = context != null ? context.nextProsumerID() : agentIDCounter++;
 		this.mainContext = context;
 	}
 
@@ -3,54 +3,76 @@
  */
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.WeakHashMap;
 
 import repast.simphony.engine.environment.RunState;
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.visualization.IDisplay;
 import repast.simphony.visualizationOGL2D.DisplayOGL2D;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.io.DeviceGateway;
+import uk.ac.dmu.iesd.cascade.io.PiEmulator;
 
 /**
+ * A household whose water heater and fridge are hardware in the loop: the Raspberry
+ * Pi at {@link #piURL} switches them as the simulated household would.
+ * <p>
+ * Requests to the Pi are made through the context's {@link DeviceGateway}, so that the
+ * household never waits on the network in its step.  The household takes the state of
+ * its devices to be as last acknowledged by the Pi, and keeps asking for the state it
+ * wants until the Pi acknowledges it.  If the run's <code>raspPiEmulator</code>
+ * parameter is set, the household drives a virtual Pi of the context's
+ * {@link PiEmulator} instead.
+ *
  * @author richard
  * 
  */
 public class RaspPiHousehold extends HouseholdProsumer {
+
+	// the Pi's devices, and the values which switch them (the fridge is switched off by energising its relay)
+	private static final String FRIDGE_DEVICE = "0";
+	private static final String HEATER_DEVICE = "1";
+	private static final String FRIDGE_ON = "0";
+	private static final String FRIDGE_OFF = "1";
+	private static final String HEATER_ON = "1";
+	private static final String HEATER_OFF = "0";
+
 	String piURL = null;
 
+	private DeviceGateway.Link piLink;
+
 	private boolean fridgeOn = true;
 
 	private boolean heaterOn;
 
-	@ScheduledMethod(start = 100, interval = 1)
+	@ScheduledMethod(start = 100, interval = 1, priority = Consts.PROSUMER_PRIORITY_FIFTH)
 	public void controlThePi() {
+		if (mainContext.isFastForwarding())
+			return;
 		/*
 		 * if (this.getContext().getTimeslotOfDay() == 0) { if (fridgeOn) {
 		 * switchFridgeOff(); } else { switchFridgeOn(); } }
 		 */
 
-		setOptions();
+		if (piLink == null) {
+			openPiLink();
+		}
 
-		if (this.getWaterHeatProfile()[timeOfDay] > 0.1) {
-			if (!heaterOn) {
-				switchOnHeat();
-			}
+		// until the Pi acknowledges a change, its devices are as they were
+		String fridgeState = piLink.getAcknowledged(FRIDGE_DEVICE);
+		if (fridgeState != null) {
+			fridgeOn = FRIDGE_ON.equals(fridgeState);
 		}
-		 else {
-			 if (heaterOn)
-			 {
-				switchOffHeat();
-			 }
-			}
+		String heaterState = piLink.getAcknowledged(HEATER_DEVICE);
+		if (heaterState != null) {
+			heaterOn = HEATER_ON.equals(heaterState);
+		}
+
+		setOptions();
+
+		piLink.set(HEATER_DEVICE, this.getWaterHeatProfile()[timeOfDay] > 0.1 ? HEATER_ON : HEATER_OFF);
 
 		if (this.isHasColdAppliances() && coldApplianceProfile != null) {
 			double fridgeLoad = 0;
@@ -68,17 +90,36 @@ public class RaspPiHousehold extends HouseholdProsumer {
 
 			//System.err.print(fridgeLoad + ",");
 
-			if (fridgeOn) {
-				if (fridgeLoad == 0) {
-					switchFridgeOff();
-				}
-			} else {
-				if (fridgeLoad > 0) {
-					switchFridgeOn();
-				}
-			}
+			piLink.set(FRIDGE_DEVICE, fridgeLoad > 0 ? FRIDGE_ON : FRIDGE_OFF);
+		}
+	}
 
+	/**
+	 * Opens the link to the Pi (or, if so configured, to a virtual Pi of the emulator).
+	 */
+	private void openPiLink() {
+		String url = this.piURL;
+		if (this.mainContext.getRunConfig().isRaspPiEmulator()) {
+			PiEmulator emulator = this.mainContext.getPiEmulator();
+			if (emulator != null) {
+				url = emulator.getURL(this.getAgentID());
+			}
 		}
+		piLink = this.mainContext.getDeviceGateway().open(url);
+	}
+
+	/**
+	 * @return whether the water heater is on, as last acknowledged by the Pi
+	 */
+	public boolean isHeaterOn() {
+		return heaterOn;
+	}
+
+	/**
+	 * @return whether the fridge is on, as last acknowledged by the Pi
+	 */
+	public boolean isFridgeOn() {
+		return fridgeOn;
 	}
 
 	@ScheduledMethod(start = 0, interval = 0, priority = Consts.PROSUMER_PRIORITY_FIFTH)
@@ -99,30 +140,6 @@ public class RaspPiHousehold extends HouseholdProsumer {
 	}
 	}
 	
-	/**
-	 * 
-	 */
-	private void switchOffHeat() {
-		WeakHashMap<String, Object> requestVars = new WeakHashMap<String, Object>();
-		requestVars.put("device", "1");
-		requestVars.put("value", "0");
-		sendPiRequest(requestVars);
-		heaterOn = false;
-
-	}
-
-	/**
-	 * 
-	 */
-	private void switchOnHeat() {
-		WeakHashMap<String, Object> requestVars = new WeakHashMap<String, Object>();
-		requestVars.put("device", "1");
-		requestVars.put("value", "1");
-		sendPiRequest(requestVars);
-		heaterOn = true;
-
-	}
-
 	/**
 	 * 
 	 */
@@ -130,7 +147,7 @@ public class RaspPiHousehold extends HouseholdProsumer {
 		this.costThreshold = Consts.HOUSEHOLD_COST_THRESHOLD;
 		this.setPredictedCostSignal(Consts.ZERO_COST_SIGNAL);
 
-		this.transmitPropensitySmartControl = (double) RandomHelper
+		this.transmitPropensitySmartControl = (double) mainContext.getUniform()
 				.nextDouble();
 
 		this.initializeRandomlyDailyElasticityArray(0, 0.1);
@@ -162,56 +179,6 @@ public class RaspPiHousehold extends HouseholdProsumer {
 
 	}
 
-	/**
-	 * 
-	 */
-	private void switchFridgeOff() {
-		WeakHashMap<String, Object> requestVars = new WeakHashMap<String, Object>();
-		requestVars.put("device", "0");
-		requestVars.put("value", "1");
-		sendPiRequest(requestVars);
-		fridgeOn = false;
-
-	}
-
-	/**
-	 * 
-	 */
-	private void switchFridgeOn() {
-		WeakHashMap<String, Object> requestVars = new WeakHashMap<String, Object>();
-		requestVars.put("device", "0");
-		requestVars.put("value", "0");
-		sendPiRequest(requestVars);
-		fridgeOn = true;
-
-	}
-
-	private void sendPiRequest(WeakHashMap<String, Object> map) {
-		try {
-			StringBuffer getURL = new StringBuffer(this.piURL);
-			getURL.append("?");
-
-			for (String k : map.keySet()) {
-				getURL.append(k);
-				getURL.append("=");
-				getURL.append(map.get(k).toString());
-				getURL.append("&");
-			}
-			System.err.println(this.getContext().getTickCount() + " : Trying to send URL " + getURL.toString());
-			HttpURLConnection thisConn = (HttpURLConnection) (new URL(
-					getURL.toString())).openConnection();
-			System.err.println("Request sent, response code : "
-					+ thisConn.getResponseCode() + " - "
-					+ thisConn.getResponseMessage());
-			// thisConn.setRequestMethod("GET");
-
-		} catch (IOException e) {
-			System.err.println("Couldn't connect to Pi when attempted");
-			e.printStackTrace();
-		}
-
-	}
-
 	/**
 	 * @param context
 	 * @param otherDemandProfile
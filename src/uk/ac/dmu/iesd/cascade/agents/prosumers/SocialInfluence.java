@@ -0,0 +1,140 @@
+package uk.ac.dmu.iesd.cascade.agents.prosumers;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.graph.RepastEdge;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.InfluenceGraph;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+
+/**
+ * The social influence on smart control adoption of the households of a context,
+ * pushed along the social network by an {@link InfluenceGraph}.
+ * <p>
+ * The social network (from the run's {@link uk.ac.dmu.iesd.cascade.context.RunConfig})
+ * is copied into the graph when influence is first asked for; it is taken not to change
+ * thereafter.  The first household to ask for its influence in a tick triggers a single
+ * sweep of the whole network, in which every household with smart control transmits its
+ * propensity to do so to its contacts, weighted by the contact's edge; the sums are held
+ * in a primitive array, from which the other households read theirs.  All households
+ * therefore see the network as it was at the start of the tick, whatever order they step
+ * in.  No Repast edge is touched after the graph has been built.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SocialInfluence {
+
+	private final CascadeContext mainContext;
+
+	private IdentityHashMap<Object, Integer> nodeIndex;
+	private HouseholdProsumer[] households; // by node index, null for nodes which are not households
+	private InfluenceGraph graph;
+	private double[] transmit;
+	private double[] influence;
+	private int evaluatedTick = -1;
+
+	/**
+	 * @param context the context whose households' social influence it evaluates
+	 */
+	public SocialInfluence(CascadeContext context)
+	{
+		this.mainContext = context;
+	}
+
+	/**
+	 * @param household a household
+	 * @return the social influence on the household (the sum, over the contacts which have
+	 *         smart control, of the contact's weight times its propensity to transmit it) at
+	 *         the start of this tick, or zero if the household is not in the social network
+	 */
+	public double getInwardInfluence(HouseholdProsumer household)
+	{
+		if (graph == null)
+		{
+			build();
+		}
+		int tick = mainContext.getTickCount();
+		if (tick != evaluatedTick)
+		{
+			mainContext.getPhaseProfiler().enter(this);
+			evaluate();
+			evaluatedTick = tick;
+			mainContext.getPhaseProfiler().enter(household);
+		}
+		Integer index = nodeIndex.get(household);
+		return index == null ? 0 : influence[index];
+	}
+
+	/**
+	 * Sweeps the network, pushing each household's transmitted propensity to its contacts.
+	 */
+	private void evaluate()
+	{
+		for (int i = 0; i < households.length; i++)
+		{
+			HouseholdProsumer household = households[i];
+			if (household != null && household.hasSmartControl)
+			{
+				transmit[i] = household.transmitPropensitySmartControl;
+			}
+			else
+			{
+				transmit[i] = 0;
+			}
+		}
+		graph.accumulate(transmit, influence);
+	}
+
+	/**
+	 * Copies the social network into the graph.  An undirected network's edges
+	 * influence both ways.
+	 */
+	private void build()
+	{
+		Network<?> network = mainContext.getRunConfig().getSocialNetwork();
+		nodeIndex = new IdentityHashMap<Object, Integer>();
+		ArrayList<HouseholdProsumer> nodes = new ArrayList<HouseholdProsumer>();
+		int numEdges = 0;
+		if (network != null)
+		{
+			for (Object node : network.getNodes())
+			{
+				nodeIndex.put(node, nodes.size());
+				nodes.add(node instanceof HouseholdProsumer ? (HouseholdProsumer) node : null);
+			}
+			numEdges = network.numEdges();
+		}
+		boolean directed = network == null || network.isDirected();
+		int capacity = directed ? numEdges : 2 * numEdges;
+		int[] source = new int[capacity];
+		int[] target = new int[capacity];
+		double[] weight = new double[capacity];
+		int edges = 0;
+		if (network != null)
+		{
+			for (Object thisEdge : network.getEdges())
+			{
+				RepastEdge<?> edge = (RepastEdge<?>) thisEdge;
+				int from = nodeIndex.get(edge.getSource());
+				int to = nodeIndex.get(edge.getTarget());
+				source[edges] = from;
+				target[edges] = to;
+				weight[edges] = edge.getWeight();
+				edges++;
+				if (!directed && from != to)
+				{
+					source[edges] = to;
+					target[edges] = from;
+					weight[edges] = edge.getWeight();
+					edges++;
+				}
+			}
+		}
+		households = nodes.toArray(new HouseholdProsumer[nodes.size()]);
+		graph = new InfluenceGraph(households.length, source, target, weight, edges);
+		transmit = new double[households.length];
+		influence = new double[households.length];
+	}
+}
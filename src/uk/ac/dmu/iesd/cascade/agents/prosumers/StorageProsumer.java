@@ -1,6 +1,7 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * TODO: Determine the role of this class; prosumers supposed to range from 
@@ -95,6 +96,9 @@ public class StorageProsumer extends ProsumerAgent{
 
 	//@ScheduledMethod(start = 0, interval = 1, shuffle = true)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 	}
 
 
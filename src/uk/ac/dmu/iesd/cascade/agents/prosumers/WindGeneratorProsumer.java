@@ -1,7 +1,7 @@
 package uk.ac.dmu.iesd.cascade.agents.prosumers;
 
-import repast.simphony.essentials.RepastEssentials;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * @author J. Richard Snape
@@ -366,7 +366,7 @@ public class WindGeneratorProsumer extends GeneratorProsumer {
 		// Cope with tick count being null between project initialisation and
 		// start.
 		int index = Math
-				.max(((int) RepastEssentials.GetTickCount() % arr_otherDemandProfile.length),
+				.max((mainContext.getTickCount() % arr_otherDemandProfile.length),
 						0);
 		return (arr_otherDemandProfile[index]) - currentGeneration();
 	}
@@ -386,6 +386,9 @@ public class WindGeneratorProsumer extends GeneratorProsumer {
 	 ******************/
 	//@ScheduledMethod(start = 0, interval = 1, priority = Consts.PROSUMER_PRIORITY_FIFTH) //shuffle = true)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		// Define the return value variable. Set this false if errors
 		// encountered.
 		boolean returnValue = true;
@@ -395,7 +398,7 @@ public class WindGeneratorProsumer extends GeneratorProsumer {
 		// returned)
 		// but I am assuming here we will deal in whole ticks and alter the
 		// resolution should we need
-		int time = (int) RepastEssentials.GetTickCount();
+		int time = mainContext.getTickCount();
 		int timeOfDay = (time % this.mainContext.ticksPerDay);
 		CascadeContext myContext = this.getContext();
 
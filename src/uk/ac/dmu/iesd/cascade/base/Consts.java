@@ -109,7 +109,10 @@ public final class Consts {
 	public static final double SO_PRIORITY_SECOND = 500;  // so
 	public static final double SC_PRIORITY_THIRD  = 400;  // sc
 	public static final double PX_PRIORITY_FOURTH = 300;  // px
+	public static final double PROSUMER_PRE_STEP_PRIORITY = 260;  // prosumers' once-per-day updates and set points
+	public static final double PROSUMER_BATCH_PRIORITY = 250;  // population-wide prosumer models, e.g. HeatPumpPopulation
 	public static final double PROSUMER_PRIORITY_FIFTH = 200;
+	public static final double DEVICE_IO_PRIORITY = 150;  // per-tick deadline for hardware-in-the-loop device requests
 	public static final double AGGREGATOR_STEP_PRIORITY_SIXTH = 100;
 	
 	//Schedule constants - Probe display update priority.  Set to a large negative number, so it goes after most actions
@@ -247,6 +250,8 @@ public final class Consts {
     public static final double[] CAR_ARRIVAL_PROBABILITY={0.003042436, 0.003042436, 0.000368881, 0.000368881, 0.000131171, 0.000131171, 9.09E-05, 9.09E-05, 0.000206242, 0.000206242, 0.000463641, 0.000463641, 0.001392982, 0.001392982, 0.003822591, 0.003822591, 0.007449823, 0.007449823, 0.010642317, 0.010642317, 0.012474827, 0.012474827, 0.012970487, 0.012970487, 0.01916083, 0.01916083, 0.030109165, 0.030109165, 0.049430865, 0.049430865, 0.068433727, 0.068433727, 0.072868541, 0.072868541, 0.071423073, 0.071423073, 0.052685389, 0.052685389, 0.028696649, 0.028696649, 0.019140672, 0.019140672, 0.01324127, 0.01324127, 0.012780752, 0.012780752, 0.008972774, 0.008972774};
 	public static final double MEAN_JOURNEY_LENGTH = 27;
 	public static final double JOURNEY_MADE_PROBABILITY = 0.74;
+	// Rated power (kW) of a domestic (16A single phase) electric vehicle charger
+	public static final double MAX_DOMESTIC_EV_CHARGER_POWER = 3.3;
 
 
 	/**++++++++++++++++++++++
@@ -313,6 +318,26 @@ public final class Consts {
 	//(Approximate) Specific heat capacity of water in Joules per litre per Kelvin
 	public static final double WATER_SPECIFIC_HEAT_CAPACITY = 4200;
 
+	//Volume of a typical domestic hot water tank (litres)
+	public static final double DOMESTIC_HOT_WATER_TANK_VOLUME = 150;
+
+	//Standing heat loss rate of a typical (insulated) domestic hot water tank (W per degree C)
+	//i.e. about 1.5 kWh a day for a tank at 50C in a room at 18C
+	public static final double DOMESTIC_HOT_WATER_TANK_LOSS_RATE = 2.0;
+
+	//Temperature of the surroundings of a domestic hot water tank (degrees C)
+	public static final double DOMESTIC_HOT_WATER_TANK_AMBIENT_TEMP = 18;
+
+	//Hardware-in-the-loop device I/O: threads sending requests, requests queued per device
+	//endpoint, and the connect/read timeout of a request (ms)
+	public static final int DEVICE_IO_THREADS = 4;
+	public static final int DEVICE_IO_QUEUE_CAPACITY = 8;
+	public static final int DEVICE_IO_TIMEOUT_MILLIS = 2000;
+
+	//Time (ms) taken by an emulated Raspberry Pi to answer a request, and the number it answers at once
+	public static final int PI_EMULATOR_LATENCY_MILLIS = 20;
+	public static final int PI_EMULATOR_THREADS = 32;
+
 	public static final int EST_INTERCEPT = 46;
 	public static final int EST_SLOPE = 26;
 	public static final double EST_STD_DEV = 7;
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -34,6 +35,7 @@ import repast.simphony.space.graph.Network;
 import repast.simphony.visualization.gis.DisplayGIS;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.Household;
 import uk.ac.dmu.iesd.cascade.util.IterableUtils;
+import uk.ac.dmu.iesd.cascade.util.SimulationClock;
 import cern.jet.random.Poisson;
 
 public class AdoptionContext extends CascadeContext{
@@ -59,15 +61,24 @@ public class AdoptionContext extends CascadeContext{
 		}
 	}
 
-	DateFormat ukDateParser = new SimpleDateFormat("dd/mm/yyyy");
+	DateFormat ukDateParser = new SimpleDateFormat("dd/MM/yyyy");
 	public Logger logger;
 	DisplayGIS styledDisplay;
 	SortedMap<Integer, Integer> PVFITs; // Holds PV feed in tarriffs in system
 										// capacity vs. tenths of
 										// pence / eurocents per kWh
 	WeakHashMap<String,Integer> agentCounts = new WeakHashMap<String,Integer>();
-	Calendar simTime = new GregorianCalendar();
 	public Date simStartDate;
+
+	// Tariff dates, as the ticks which they start (built on first use, see buildTariffTables)
+	private int pvTariffStartTick;
+	private int tariffReviewTick;
+	private int fastTrackReviewEndTick;
+	private int consultationEndTick;
+	private int originalTariffUntilTick;
+	private int consultationTariffUntilTick;
+	private int firstQuarterIndex; // the index (4 * year + quarter) of the quarter of the start
+	private int[] quarterStartTicks; // by quarter index less firstQuarterIndex
 /*	public double[] insolationArray;
 	public double[] windSpeedArray;
 	public double[] airTemperatureArray;
@@ -83,18 +94,6 @@ public class AdoptionContext extends CascadeContext{
 	public EmpiricalWalker wetApplProbDistGenerator;
 	private Network<?> economicNetwork;*/
 
-	/******************
-	 * This method steps the model's internal gregorian calendar on each model
-	 * tick
-	 * 
-	 * Input variables: none
-	 * 
-	 ******************/
-	@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = ScheduleParameters.FIRST_PRIORITY)
-	public void calendarStep() {
-		simTime.add(GregorianCalendar.MINUTE, 30);
-	}
-
 	@ScheduledMethod(start = (48 * 365 * 4), interval = 0, shuffle = true, priority = ScheduleParameters.FIRST_PRIORITY)
 	public void endSim() {
 		for (Object thisH : this.getObjects(Household.class)) {
@@ -102,13 +101,9 @@ public class AdoptionContext extends CascadeContext{
 			this.logger.trace(h.getAgentName() + " has had " + h.getNumThoughts());
 		}
 		this.logger = null; // remove reference to logger, so context can be gc'd
-		RepastEssentials.EndSimulationRun();
+		endRun();
 	}
 
-	public Date getDateTime() {
-		return simTime.getTime();
-	}
-	
 	@ScheduledMethod(start = 0, interval = 0, shuffle = true, priority = ScheduleParameters.FIRST_PRIORITY)
 	public void firstCut() {
 		this.PVFITs = new TreeMap<Integer,Integer>();
@@ -127,36 +122,84 @@ public class AdoptionContext extends CascadeContext{
 		this.PVFITs.put(5000,100);
 	}
 	
-    public Date getTarriffAvailableUntil()
+    /**
+     * @return the tick until which the current PV tariff is available
+     */
+    public int getTariffAvailableUntilTick()
     {
-    	Date returnDate = new Date();    	
-    	Date now = this.getDateTime();
-    	if (now.before(parseUKDate("31/10/2011")))
+    	if (quarterStartTicks == null)
+    	{
+    		buildTariffTables();
+    	}
+    	int now = this.getTickCount();
+    	if (now < tariffReviewTick)
     	{
-			returnDate = parseUKDate("01/04/2035");
+    		return originalTariffUntilTick;
     	}
-    	else if (now.after(parseUKDate("31/10/2011")) && now.before(parseUKDate("12/12/2011")))
+    	else if (now > tariffReviewTick && now < fastTrackReviewEndTick)
     	{
-    		returnDate = parseUKDate("12/12/2011");
+    		return fastTrackReviewEndTick;
     	}
-    	else if (now.after(parseUKDate("12/12/2011")) && now.before(parseUKDate("19/01/2012")))
+    	else if (now > fastTrackReviewEndTick && now < consultationEndTick)
     	{
-    		returnDate = parseUKDate("01/08/2012");
+    		return consultationTariffUntilTick;
     	}
     	else
     	{
     		//tariffs reviewed every 3 months
-    		Date d = new Date();
-    		d.setMonth((now.getMonth() / 3)*3);
-    		d.setYear(now.getYear());
-    		d.setDate(1);
-    		Calendar cal = Calendar.getInstance();
-    		cal.setTime(d);
-    		cal.add( Calendar.MONTH, 3);
-    		returnDate = cal.getTime();
+    		SimulationClock clock = getClock();
+    		int quarter = (4 * clock.getYear(now)) + (clock.getMonth(now) / 3);
+    		return quarterStartTick(quarter + 1);
     	}
-    	
-    	return returnDate;
+    }
+
+    /**
+     * Materialises the date until which the current PV tariff is available, for display.
+     * @return a new date
+     */
+    public Date getTarriffAvailableUntil()
+    {
+    	return getClock().toDate(getTariffAvailableUntilTick());
+    }
+
+    /**
+     * Converts the dates of the tariff schedule into ticks, once, so that the tariff in
+     * any tick is found by comparing integers.
+     */
+    private void buildTariffTables()
+    {
+    	pvTariffStartTick = dateToTick(parseUKDate("01/04/2010"));
+    	tariffReviewTick = dateToTick(parseUKDate("31/10/2011"));
+    	fastTrackReviewEndTick = dateToTick(parseUKDate("12/12/2011"));
+    	consultationEndTick = dateToTick(parseUKDate("19/01/2012"));
+    	originalTariffUntilTick = dateToTick(parseUKDate("01/04/2035"));
+    	consultationTariffUntilTick = dateToTick(parseUKDate("01/08/2012"));
+    	SimulationClock clock = getClock();
+    	firstQuarterIndex = (4 * clock.getYear(0)) + (clock.getMonth(0) / 3);
+    	quarterStartTicks = new int[0];
+    }
+
+    /**
+     * @param quarter a quarter index (4 * year + quarter of the year, from 0)
+     * @return the tick in which the quarter starts
+     */
+    private int quarterStartTick(int quarter)
+    {
+    	int i = quarter - firstQuarterIndex;
+    	if (i >= quarterStartTicks.length)
+    	{
+    		int from = quarterStartTicks.length;
+    		quarterStartTicks = Arrays.copyOf(quarterStartTicks, Math.max(i + 1, 2 * from));
+    		Calendar cal = new GregorianCalendar();
+    		for (int q = from; q < quarterStartTicks.length; q++)
+    		{
+    			int index = firstQuarterIndex + q;
+    			cal.clear();
+    			cal.set(index / 4, (index % 4) * 3, 1);
+    			quarterStartTicks[q] = getClock().tickAt(cal.getTimeInMillis());
+    		}
+    	}
+    	return quarterStartTicks[i];
     }
 
     private Date parseUKDate(String d)
@@ -171,11 +214,16 @@ public class AdoptionContext extends CascadeContext{
     }
     
 	public Integer getPVTariff(double cap) {
-    	Date now = this.getDateTime();
-    	
-    	this.logger.trace("Getting PV tariff for capacity" + cap + " on date "+ukDateParser.format(now));
+    	if (this.logger.isTraceEnabled())
+    	{
+    		this.logger.trace("Getting PV tariff for capacity" + cap + " on date "+ukDateParser.format(this.getDateTime()));
+    	}
     	
-    	if (now.before(parseUKDate("01/04/2010")))
+    	if (quarterStartTicks == null)
+    	{
+    		buildTariffTables();
+    	}
+    	if (this.getTickCount() < pvTariffStartTick)
     	{
 			return 0;
     	}   	
@@ -184,7 +232,10 @@ public class AdoptionContext extends CascadeContext{
 		while (iterator.hasNext()) {
 			Integer key = iterator.next();
 			if (key >= cap) {
-				this.logger.trace("Returning value for up to " + key);
+				if (this.logger.isTraceEnabled())
+				{
+					this.logger.trace("Returning value for up to " + key);
+				}
 				return this.PVFITs.get(key);
 			}
 		}
@@ -271,7 +322,7 @@ public class AdoptionContext extends CascadeContext{
 
 
 		simStartDate = parseUKDate(date);
-		simTime.setTime(simStartDate);
+		setStartDate(simStartDate);
 
 		this.addContextListener(new CountUpdater());
 	}
@@ -306,30 +357,35 @@ public class AdoptionContext extends CascadeContext{
 		@Override
 		public String format(LoggingEvent ev)
 		{
-			return "[Tick " + RepastEssentials.GetTickCount() + "; "  + (ev.timeStamp-ev.getStartTime()) + "] : " + ev.getLevel().toString() + " - " + ev.getRenderedMessage() + "\n"; 
+			return "[Tick " + getTickCount() + "; "  + (ev.timeStamp-ev.getStartTime()) + "] : " + ev.getLevel().toString() + " - " + ev.getRenderedMessage() + "\n"; 
 		}
 	}
 	
+	/**
+	 * @param d a date and time
+	 * @return the tick in which it falls (negative if before the start of the simulation)
+	 */
 	public int dateToTick(Date d)
 	{
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(d);
-		Calendar cal1 = Calendar.getInstance();
-		cal1.setTime(simStartDate);
-		int msecDiff = cal.compareTo(cal1);
-		return msecDiff / (30*60*1000);
+		return getClock().tickAt(d);
 	}
 	
 	public Date tickToDate(int t)
 	{
-		Calendar cal1 = Calendar.getInstance();
-		cal1.setTime(simStartDate);
-		cal1.add(Calendar.MINUTE,t*30);
-		return cal1.getTime();
+		return getClock().toDate(t);
+	}
+
+	/**
+	 * The adoption model's ticks are half hours, whatever the number of ticks per day.
+	 */
+	@Override
+	protected int getMinutesPerTick()
+	{
+		return 30;
 	}
 
 	public int getTickcount() {
-		return (int) RepastEssentials.GetTickCount();
+		return getTickCount();
 	}
 	
 	public int getRandomSeed()
@@ -364,15 +420,15 @@ public class AdoptionContext extends CascadeContext{
 	
 	/**
 	 * This method returns the tick time. 
-	 * It is a wrapper around RepastEssential.GgetTickCount method, which returns the tick count as integer.
+	 * It reads the tick of this context's own schedule, and returns it as integer.
 	 * @return current tick count of the model 
 	 */
 	public int getTickCount() {
-		return (int) RepastEssentials.GetTickCount();
+		return (int) getSchedule().getTickCount();
 	}
 	
 	public int getTimeslotOfDay() {
-		return (int) RepastEssentials.GetTickCount() % ticksPerDay;
+		return getTickCount() % ticksPerDay;
 	}
 
 }
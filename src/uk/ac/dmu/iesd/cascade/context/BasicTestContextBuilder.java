@@ -6,7 +6,6 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.WeakHashMap;
 
 import repast.simphony.context.Context;
@@ -132,8 +131,7 @@ public class BasicTestContextBuilder implements ContextBuilder<Object> {
 			startDate = new Date(2000,1,1);
 			e1.printStackTrace();
 		}
-		cascadeMainContext.simulationCalendar = new GregorianCalendar();
-		cascadeMainContext.simulationCalendar.setTime(startDate);
+		cascadeMainContext.setStartDate(startDate);
 
 		/*
 		 * Read in the necessary data files and store to the context
@@ -274,10 +272,11 @@ public class BasicTestContextBuilder implements ContextBuilder<Object> {
 
 	private void buildMarket() {
 		
-		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext);
+		messageBoard = new MarketMessageBoard();
+
+		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext, messageBoard);
 		cascadeMainContext.add(settlementCo);
 		
-		messageBoard = new MarketMessageBoard();
 
 		sysOp = new SystemOperator(cascadeMainContext, settlementCo, messageBoard);
 		cascadeMainContext.add(sysOp);
@@ -411,6 +410,7 @@ public class BasicTestContextBuilder implements ContextBuilder<Object> {
 		WeakHashMap<String, double[]> map_dmuTypeNameToBaseProfiles;
 
 		cascadeMainContext = new CascadeContext(context); //build CascadeContext by passing the context
+		cascadeMainContext.bindRunEnvironment();
 
 		readParamsAndInitializeArrays();
 		initializeProbabilityDistributions();				
@@ -6,7 +6,6 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.WeakHashMap;
 
 import repast.simphony.context.Context;
@@ -40,6 +39,7 @@ import uk.ac.dmu.iesd.cascade.market.astem.operators.SystemOperator;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 import uk.ac.dmu.iesd.cascade.util.InitialProfileGenUtils;
 import uk.ac.dmu.iesd.cascade.util.IterableUtils;
+import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVChargingSessions;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVProfileGenerator;
 import cern.jet.random.Empirical;
 
@@ -141,8 +141,7 @@ public class BasicWithMarketTestContextBuilder implements ContextBuilder<Object>
 			startDate = new Date(2000,1,1);
 			e1.printStackTrace();
 		}
-		cascadeMainContext.simulationCalendar = new GregorianCalendar();
-		cascadeMainContext.simulationCalendar.setTime(startDate);
+		cascadeMainContext.setStartDate(startDate);
 
 		/*
 		 * Read in the necessary data files and store to the context
@@ -287,10 +286,11 @@ public class BasicWithMarketTestContextBuilder implements ContextBuilder<Object>
 
 	private void buildMarket() {
 		
-		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext);
+		messageBoard = new MarketMessageBoard();
+
+		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext, messageBoard);
 		cascadeMainContext.add(settlementCo);
 		
-		messageBoard = new MarketMessageBoard();
 
 		sysOp = new SystemOperator(cascadeMainContext, settlementCo, messageBoard);
 		cascadeMainContext.add(sysOp);
@@ -454,6 +454,7 @@ public class BasicWithMarketTestContextBuilder implements ContextBuilder<Object>
 		WeakHashMap<String, double[]> map_dmuTypeNameToBaseProfiles;
 
 		cascadeMainContext = new CascadeContext(context); //build CascadeContext by passing the context
+		cascadeMainContext.bindRunEnvironment();
 
 		readParamsAndInitializeArrays();
 		initializeProbabilityDistributions();				
@@ -540,16 +541,17 @@ public class BasicWithMarketTestContextBuilder implements ContextBuilder<Object>
 		if (RandomHelper.nextDouble() < 0.25)
 		{
 			double [] EVprofile;
+			EVChargingSessions EVsessions = new EVChargingSessions(Consts.NB_OF_DAYS_LOADED_DEMAND, cascadeMainContext.ticksPerDay);
 			if (RandomHelper.nextDouble() < 0.5)
 			{
-				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			else
 			{
-				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			thisAgent.hasElectricVehicle=true;
-			thisAgent.setEVProfile(EVprofile);
+			thisAgent.setEVProfile(EVprofile, EVsessions);
 			
 
 		}
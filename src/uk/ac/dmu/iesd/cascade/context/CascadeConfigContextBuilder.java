@@ -10,7 +10,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.WeakHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -52,6 +52,7 @@ import uk.ac.dmu.iesd.cascade.market.astem.operators.SystemOperator;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
 import uk.ac.dmu.iesd.cascade.util.InitialProfileGenUtils;
 import uk.ac.dmu.iesd.cascade.util.IterableUtils;
+import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVChargingSessions;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVProfileGenerator;
 import cern.jet.random.Empirical;
 
@@ -69,6 +70,7 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 	private File configFile;
 	private WeakHashMap<String, double[]> mapOfTypeName2BaseProfileArray;
 	private WeakHashMap<Integer, double[]> map_nbOfOccToOtherDemand;
+	private HashMap<String, AggregatorAgent> mapOfShortName2Aggregator = new HashMap<String, AggregatorAgent>();
 	ProsumerFactory proFactory;
 	Network economicNet;
 	AggregatorFactory bmuFactory;
@@ -85,6 +87,7 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 	public Context build(Context<Object> context)
 	{
 		cascadeMainContext = new CascadeContext(context); //build CascadeContext by passing the context
+		cascadeMainContext.bindRunEnvironment();
 		readParamsAndInitializeArrays();
 		// XMLReader myR = readConfigFile(configFile);
 		// decodeConfigFile();
@@ -112,6 +115,7 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 
 
 		populateContext();
+		cascadeMainContext.scheduleCheckpoint();
 
 		// TODO Auto-generated method stub
 		return cascadeMainContext;
@@ -190,10 +194,11 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 	private void buildMarket()
 	{
 
-		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext);
+		messageBoard = new MarketMessageBoard();
+
+		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext, messageBoard);
 		cascadeMainContext.add(settlementCo);
 
-		messageBoard = new MarketMessageBoard();
 
 		sysOp = new SystemOperator(cascadeMainContext, settlementCo, messageBoard);
 		cascadeMainContext.add(sysOp);
@@ -291,6 +296,11 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 						{
 							AggregatorAgent a1 = (AggregatorAgent) thisAgg.getConstructor(CascadeContext.class).newInstance(this.cascadeMainContext);
 							addProsumersToAggregator(a,a1);
+							connectToParentAggregator(a,a1);
+							if (!mapOfShortName2Aggregator.containsKey(a.getAttribute("shortName")))
+							{
+								mapOfShortName2Aggregator.put(a.getAttribute("shortName"), a1);
+							}
 						} catch (Exception e)
 						{
 							// TODO Auto-generated catch block
@@ -313,6 +323,32 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 
 	}
 	
+	/**
+	 * Links an aggregator to the aggregator it is fed from (e.g. a village of the Bhutan
+	 * micro-grid to the village nearer the hydro plant), if its element has a
+	 * <code>parent</code> attribute giving the <code>shortName</code> of an aggregator element
+	 * earlier in the file.  The edge is weighted with the element's <code>lineResistance</code>
+	 * attribute (ohms, default 1).
+	 * 
+	 * @param a
+	 * @param a1
+	 */
+	private void connectToParentAggregator(Element a, AggregatorAgent a1)
+	{
+		if (!a.hasAttribute("parent"))
+		{
+			return;
+		}
+		AggregatorAgent parent = mapOfShortName2Aggregator.get(a.getAttribute("parent"));
+		if (parent == null)
+		{
+			System.err.println("Config file specifies parent " + a.getAttribute("parent") + " for " + a1.getAgentName() + ", but no aggregator of that shortName precedes it");
+			return;
+		}
+		double lineResistance = a.hasAttribute("lineResistance") ? Double.parseDouble(a.getAttribute("lineResistance")) : 1;
+		this.economicNet.addEdge(parent, a1, lineResistance);
+	}
+
 	/**
 	 * @param a
 	 * @param a1
@@ -453,16 +489,17 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 		if (RandomHelper.nextDouble() < 0.25)
 		{
 			double [] EVprofile;
+			EVChargingSessions EVsessions = new EVChargingSessions(Consts.NB_OF_DAYS_LOADED_DEMAND, cascadeMainContext.ticksPerDay);
 			if (RandomHelper.nextDouble() < 0.5)
 			{
-				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			else
 			{
-				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			thisAgent.hasElectricVehicle=true;
-			thisAgent.setEVProfile(EVprofile);
+			thisAgent.setEVProfile(EVprofile, EVsessions);
 			
 
 		}
@@ -707,8 +744,7 @@ public class CascadeConfigContextBuilder implements ContextBuilder<Object>
 			startDate = new Date(2000, 1, 1);
 			e1.printStackTrace();
 		}
-		cascadeMainContext.simulationCalendar = new GregorianCalendar();
-		cascadeMainContext.simulationCalendar.setTime(startDate);
+		cascadeMainContext.setStartDate(startDate);
 
 		/*
 		 * Read in the necessary data files and store to the context
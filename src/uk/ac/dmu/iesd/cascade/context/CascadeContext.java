@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.Iterator;
 
 import javax.swing.JComponent;
@@ -18,22 +17,31 @@ import repast.simphony.context.DefaultContext;
 import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.ISchedule;
 import repast.simphony.engine.schedule.ScheduleParameters;
-import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
+import repast.simphony.random.RandomHelper;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.projection.Projection;
 import repast.simphony.ui.widget.SnapshotTaker;
 import repast.simphony.engine.environment.RunEnvironment;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.HeatPumpPopulation;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.HotWaterTankPopulation;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.RaspPiHousehold;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.SocialInfluence;
 import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.io.Checkpoint;
+import uk.ac.dmu.iesd.cascade.io.DeviceGateway;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTrace;
+import uk.ac.dmu.iesd.cascade.io.PiEmulator;
 import uk.ac.dmu.iesd.cascade.market.IBMTrader;
 import uk.ac.dmu.iesd.cascade.market.IPxTrader;
 import uk.ac.dmu.iesd.cascade.market.ITrader;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+import uk.ac.dmu.iesd.cascade.util.SimulationClock;
 import cern.jet.random.Binomial;
 import cern.jet.random.EmpiricalWalker;
 import cern.jet.random.Normal;
 import cern.jet.random.Poisson;
 import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
 
 /**
  * <em>CascadeContext</em> is the main context for the <em>Cascade</em> framework.
@@ -91,8 +99,8 @@ public class CascadeContext extends DefaultContext{
 	int randomSeed;
 	private int lengthOfDemandProfiles;
 	
-	public static boolean verbose = false;  // use to produce verbose output based on user choice (default is false)
-	protected static boolean chartSnapshotOn = false;  // use
+	public boolean verbose = false;  // use to produce verbose output based on user choice (default is false)
+	protected boolean chartSnapshotOn = false;  // use
 	public int ticksPerDay;
 	protected int chartSnapshotInterval;
 	
@@ -102,7 +110,26 @@ public class CascadeContext extends DefaultContext{
 	protected Network<?> economicNetwork;
 	private Network<?> windNetwork;
 	
-	public GregorianCalendar simulationCalendar;
+	private RunConfig runConfig;
+	private HeatPumpPopulation heatPumpPopulation;
+	private HotWaterTankPopulation hotWaterTankPopulation;
+	private SocialInfluence socialInfluence;
+	private DeviceGateway deviceGateway;
+	private PiEmulator piEmulator;
+	private DiagnosticTrace diagnosticTrace;
+	private PhaseProfiler phaseProfiler = new PhaseProfiler(); // disabled unless the builder enables it
+	
+	private Date startDate;
+	private SimulationClock clock;
+	private int resumeTick = -1; // the tick from which a resumed run carries on, -1 if it was not resumed
+	private boolean runEnded = false; // whether this run has been ended before its last tick
+	
+	// the run this context belongs to, so that several contexts can run side by side in one JVM
+	private ISchedule schedule;
+	private RandomEngine randomGenerator;
+	private Uniform uniform;
+	private long prosumerIDCounter = 0;
+	private int aggregatorIDCounter = 0;
 	
 	SnapshotTaker snapshotTaker1;
 	Collection<JComponent> chartCompCollection;
@@ -141,6 +168,290 @@ public class CascadeContext extends DefaultContext{
 	}
 	
 	
+	/**
+	 * Binds this context to the schedule and the random number generator of the run
+	 * being built, which are otherwise looked up from Repast's run environment (a
+	 * singleton) on first use, and creates the context's own default uniform distribution
+	 * on that generator.  Called by the builder before the context is populated, so
+	 * that its agents keep stepping on their own run's schedule and streams when other
+	 * contexts are built or run in the same JVM.
+	 * @see #getSchedule
+	 * @see #getUniform
+	 */
+	public void bindRunEnvironment(){
+		this.schedule = RunEnvironment.getInstance().getCurrentSchedule();
+		this.randomGenerator = RandomHelper.getGenerator();
+		this.uniform = new Uniform(this.randomGenerator);
+	}
+	
+	/**
+	 * @return the schedule of this context's run
+	 * @see #bindRunEnvironment
+	 */
+	public ISchedule getSchedule(){
+		if (this.schedule == null)
+			this.schedule = RunEnvironment.getInstance().getCurrentSchedule();
+		return this.schedule;
+	}
+	
+	/**
+	 * @return the generator behind this context's random number streams
+	 * @see #bindRunEnvironment
+	 */
+	public RandomEngine getRandomGenerator(){
+		if (this.randomGenerator == null)
+			this.randomGenerator = RandomHelper.getGenerator();
+		return this.randomGenerator;
+	}
+	
+	/**
+	 * Returns this context's default uniform distribution, on its run's generator, which
+	 * agents use in place of <code>RandomHelper.getUniform()</code> when they step.
+	 * @return the default uniform distribution of the context
+	 * @see #bindRunEnvironment
+	 */
+	public Uniform getUniform(){
+		if (this.uniform == null)
+			this.uniform = new Uniform(getRandomGenerator());
+		return this.uniform;
+	}
+	
+	/**
+	 * @return the next id for a prosumer in this context (ids are numbered per context)
+	 */
+	public long nextProsumerID(){
+		return this.prosumerIDCounter++;
+	}
+	
+	/**
+	 * @return the next id for an aggregator in this context (ids are numbered per context)
+	 */
+	public int nextAggregatorID(){
+		return this.aggregatorIDCounter++;
+	}
+	
+	/**
+	 * Returns the typed run configuration, resolved once when the context was built.
+	 * Agent code which runs every tick should read parameters and networks from here
+	 * rather than looking them up by name.  Contexts built without setting a run
+	 * configuration resolve one from the current run's parameters on first call.
+	 * @return <tt>runConfig</tt> associated to the context
+	 * @see #setRunConfig
+	 */
+	public RunConfig getRunConfig(){
+		if (this.runConfig == null)
+			this.runConfig = RunConfig.resolve(RunEnvironment.getInstance().getParameters(), this);
+		return this.runConfig;
+	}
+	
+	/**
+	 * Sets the run configuration associated to this context 
+	 * @param config the resolved run configuration
+	 * @see #getRunConfig
+	 */
+	public void setRunConfig(RunConfig config){
+		this.runConfig = config;
+	}
+	
+	/**
+	 * Returns the population through which the space heating of this context's heat
+	 * pump heated households is evaluated each tick, creating (and scheduling) it on
+	 * first call.
+	 * @return <tt>heatPumpPopulation</tt> associated to the context
+	 */
+	public HeatPumpPopulation getHeatPumpPopulation(){
+		if (this.heatPumpPopulation == null)
+			this.heatPumpPopulation = new HeatPumpPopulation(this);
+		return this.heatPumpPopulation;
+	}
+	
+	/**
+	 * Returns the population holding the hot water tanks of this context's electrically
+	 * water heated households, creating (and scheduling) it on first call.
+	 * @return <tt>hotWaterTankPopulation</tt> associated to the context
+	 */
+	public HotWaterTankPopulation getHotWaterTankPopulation(){
+		if (this.hotWaterTankPopulation == null)
+			this.hotWaterTankPopulation = new HotWaterTankPopulation(this);
+		return this.hotWaterTankPopulation;
+	}
+	
+	/**
+	 * Returns the social influence on smart control adoption of this context's
+	 * households, creating it on first call.
+	 * @return <tt>socialInfluence</tt> associated to the context
+	 */
+	public SocialInfluence getSocialInfluence(){
+		if (this.socialInfluence == null)
+			this.socialInfluence = new SocialInfluence(this);
+		return this.socialInfluence;
+	}
+	
+	/**
+	 * Returns the profiler to which this context's agents report the start of their
+	 * scheduled steps.  It does nothing unless profiling was enabled for this run.
+	 * @return <tt>phaseProfiler</tt> associated to the context
+	 * @see PhaseProfiler#schedulePhaseMarkers
+	 */
+	public PhaseProfiler getPhaseProfiler(){
+		return this.phaseProfiler;
+	}
+	
+	/**
+	 * Returns the gateway through which this context's hardware-in-the-loop households
+	 * talk to their devices, creating it on first call.  The gateway's per-tick deadline
+	 * is scheduled every tick, after the prosumers have stepped, and it is shut down
+	 * (with the Pi emulator, if any) at the end of the run.
+	 * @return <tt>deviceGateway</tt> associated to the context
+	 */
+	public DeviceGateway getDeviceGateway(){
+		if (this.deviceGateway == null) {
+			this.deviceGateway = new DeviceGateway(Consts.DEVICE_IO_THREADS, Consts.DEVICE_IO_QUEUE_CAPACITY, Consts.DEVICE_IO_TIMEOUT_MILLIS, getRunConfig().getDeviceDeadline());
+			ISchedule schedule = getSchedule();
+			schedule.schedule(ScheduleParameters.createRepeating(Math.max(0, schedule.getTickCount()), 1, Consts.DEVICE_IO_PRIORITY), this.deviceGateway, "endTick");
+			schedule.schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "closeDevices");
+		}
+		return this.deviceGateway;
+	}
+	
+	/**
+	 * Returns the in-process emulator of the Raspberry Pi, starting it on first call.
+	 * @return <tt>piEmulator</tt> associated to the context, or null if it cannot be started
+	 */
+	public PiEmulator getPiEmulator(){
+		if (this.piEmulator == null) {
+			try {
+				this.piEmulator = new PiEmulator(Consts.PI_EMULATOR_LATENCY_MILLIS, Consts.PI_EMULATOR_THREADS);
+			} catch (IOException e) {
+				System.err.println("CascadeContext: couldn't start the Pi emulator");
+				e.printStackTrace();
+			}
+		}
+		return this.piEmulator;
+	}
+	
+	/**
+	 * Returns the run's diagnostic trace, starting it on first call if the run
+	 * configuration names a directory for it, in which case it is closed at the end of
+	 * the run.
+	 * @return <tt>diagnosticTrace</tt> associated to the context ({@link DiagnosticTrace#DISABLED} if the run is not traced)
+	 */
+	public DiagnosticTrace getDiagnosticTrace(){
+		if (this.diagnosticTrace == null) {
+			this.diagnosticTrace = DiagnosticTrace.DISABLED;
+			String directory = getRunConfig().getDiagnosticTraceDir();
+			if (directory != null) {
+				try {
+					this.diagnosticTrace = DiagnosticTrace.open(new File(directory), getRandomSeedValue());
+					getSchedule().schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "closeDiagnosticTrace");
+				} catch (IOException e) {
+					System.err.println("CascadeContext: couldn't start the diagnostic trace in " + directory + "; the run is not traced");
+					e.printStackTrace();
+				}
+			}
+		}
+		return this.diagnosticTrace;
+	}
+	
+	/**
+	 * Writes what is left of the diagnostic trace, if the run is traced.
+	 */
+	public void closeDiagnosticTrace(){
+		if (this.diagnosticTrace != null && this.diagnosticTrace.isEnabled()) {
+			try {
+				this.diagnosticTrace.close();
+				System.out.println("CascadeContext: diagnostic trace written to " + this.diagnosticTrace.getFile());
+			} catch (IOException e) {
+				System.err.println("CascadeContext: couldn't write the diagnostic trace " + this.diagnosticTrace.getFile());
+				e.printStackTrace();
+			}
+			this.diagnosticTrace = DiagnosticTrace.DISABLED;
+		}
+	}
+	
+	/**
+	 * Shuts down the device gateway and the Pi emulator, if they were started.
+	 */
+	public void closeDevices(){
+		if (this.deviceGateway != null) {
+			if (Consts.DEBUG) System.out.println(this.deviceGateway);
+			this.deviceGateway.shutdown();
+			this.deviceGateway = null;
+		}
+		if (this.piEmulator != null) {
+			this.piEmulator.stop();
+			this.piEmulator = null;
+		}
+	}
+	
+	/**
+	 * Schedules, at the start of the run configuration's checkpoint tick, the resumption of
+	 * this run from a checkpoint, and/or the saving of one, if either is configured.  A
+	 * resumed run fast-forwards to the checkpoint tick: until then its agents do not step
+	 * (see {@link #isFastForwarding()}).  Called by the builder once the context is populated.
+	 * @see Checkpoint
+	 */
+	public void scheduleCheckpoint(){
+		RunConfig config = getRunConfig();
+		if (config.getCheckpointSave() == null && config.getCheckpointResume() == null)
+			return;
+		if (config.getCheckpointResume() != null)
+			this.resumeTick = config.getCheckpointTick();
+		getSchedule().schedule(ScheduleParameters.createOneTime(config.getCheckpointTick(), ScheduleParameters.FIRST_PRIORITY), this, "checkpoint");
+	}
+	
+	/**
+	 * Resumes from and/or saves the configured checkpoint, before anything else happens
+	 * in the checkpoint tick.  A run which cannot be resumed is ended.
+	 */
+	public void checkpoint(){
+		RunConfig config = getRunConfig();
+		if (config.getCheckpointResume() != null) {
+			try {
+				Checkpoint.restore(this, new File(config.getCheckpointResume()));
+			} catch (IOException e) {
+				System.err.println("CascadeContext: couldn't resume from checkpoint " + config.getCheckpointResume());
+				e.printStackTrace();
+				endRun();
+				return;
+			}
+			this.resumeTick = -1;
+		}
+		if (config.getCheckpointSave() != null) {
+			try {
+				Checkpoint.save(this, new File(config.getCheckpointSave()));
+			} catch (IOException e) {
+				System.err.println("CascadeContext: couldn't save checkpoint " + config.getCheckpointSave());
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Ends this run: its own schedule finishes, rather than that of whichever run the
+	 * global run environment last held, which under the {@link ScenarioRunner} may be
+	 * another scenario's.
+	 */
+	public void endRun(){
+		this.runEnded = true;
+		getSchedule().setFinishing(true);
+	}
+	
+	/**
+	 * @return whether this run has been ended by {@link #endRun()}
+	 */
+	public boolean isRunEnded(){
+		return this.runEnded;
+	}
+	
+	/**
+	 * @return whether this run is resuming from a checkpoint and has not yet reached it,
+	 *         in which case agents, market operators and probes skip their steps
+	 */
+	public boolean isFastForwarding(){
+		return this.resumeTick > 0 && getTickCount() < this.resumeTick;
+	}
+	
 	/**
 	 * This method return the economic network 
 	 * @return <tt>economicNetwork</tt> associated to the context
@@ -162,15 +473,15 @@ public class CascadeContext extends DefaultContext{
 	
 	/**
 	 * This method returns the tick time. 
-	 * It is a wrapper around RepastEssential.GgetTickCount method, which returns the tick count as integer.
+	 * It reads the tick of this context's own schedule, and returns it as integer.
 	 * @return current tick count of the model 
 	 */
 	public int getTickCount() {
-		return (int) RepastEssentials.GetTickCount();
+		return (int) getSchedule().getTickCount();
 	}
 	
 	public int getTimeslotOfDay() {
-		return (int) RepastEssentials.GetTickCount() % ticksPerDay;
+		return getTickCount() % ticksPerDay;
 	}
 	
 	/**
@@ -224,7 +535,7 @@ public class CascadeContext extends DefaultContext{
 	 * @return the elapsed time in terms of number of day, starting from 0
 	 */
 	public int getDayCount() {
-		return (int) RepastEssentials.GetTickCount()/this.getNbOfTickPerDay();
+		return getTickCount()/this.getNbOfTickPerDay();
 	}
 	
 	/**
@@ -273,7 +584,7 @@ public class CascadeContext extends DefaultContext{
 	 * @return <code>true</code> if it is the beginning of the day, <code>false</code> otherwise
 	 */
 	public boolean isBeginningOfDay() {
-		double time = RepastEssentials.GetTickCount();
+		double time = getTickCount();
 		int timeOfDay = (int) (time % getNbOfTickPerDay());
 		if (timeOfDay == 0)
 			return true;
@@ -431,6 +742,13 @@ public class CascadeContext extends DefaultContext{
 		this.airTemperatureArray = airTemperature;
 	}
 
+	/**
+	 * @param airDensity the airDensity to set
+	 */
+	public void setAirDensity(double[] airDensity) {
+		this.airDensityArray = airDensity;
+	}
+
 	/**
 	 * @return the systemPriceSignalDataLength
 	 */
@@ -572,7 +890,7 @@ public class CascadeContext extends DefaultContext{
 	
 	private void buildChartSnapshotSchedule() {
 
-		ISchedule schedule = RunEnvironment.getInstance().getCurrentSchedule();
+		ISchedule schedule = getSchedule();
 		//ScheduleParameters params = ScheduleParameters.createOneTime(1);
 		//if (Consts.DEBUG) System.out.println("chartCompCol: null?: "+getChartCompCollection());
 		//if ((chartSnapshotOn) && (getChartCompCollection() != null)){
@@ -583,20 +901,45 @@ public class CascadeContext extends DefaultContext{
 	
 	
 	
-	/******************
-	 * This method steps the model's internal gregorian calendar on each model tick
-	 *  
-	 * Input variables: none
-	 * 
-	 ******************/
-	@ScheduledMethod(start = 0, interval = 1, shuffle = true, priority = ScheduleParameters.FIRST_PRIORITY)
-	public void calendarStep() {
-		//if (Consts.DEBUG) System.out.println("calendarStep()");
-		simulationCalendar.add(GregorianCalendar.MINUTE, Consts.MINUTES_PER_DAY / ticksPerDay);
+	/**
+	 * Sets the date and time at which the simulation (tick 0) starts
+	 * @param start the start of the simulation
+	 * @see #getClock
+	 */
+	public void setStartDate(Date start) {
+		this.startDate = start;
+		this.clock = null;
+	}
+	
+	public Date getStartDate() {
+		return this.startDate;
+	}
+	
+	/**
+	 * @return the length (minutes) of a tick
+	 */
+	protected int getMinutesPerTick() {
+		return Consts.MINUTES_PER_DAY / ticksPerDay;
+	}
+	
+	/**
+	 * Returns the simulation clock, which maps ticks to dates without allocating; it is
+	 * created on first call, from the start date and the length of a tick.
+	 * @return the clock of the simulation
+	 */
+	public SimulationClock getClock() {
+		if (this.clock == null)
+			this.clock = new SimulationClock(this.startDate, getMinutesPerTick());
+		return this.clock;
 	}
 	
+	/**
+	 * Materialises the date and time of the current tick, for display; agent code
+	 * should ask the {@link #getClock() clock} instead.
+	 * @return a new date
+	 */
 	public Date getDateTime() {
-		return simulationCalendar.getTime();
+		return getClock().toDate(getTickCount());
 	}
 
 	/**
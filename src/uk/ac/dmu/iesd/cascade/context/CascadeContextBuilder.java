@@ -6,7 +6,6 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.WeakHashMap;
 
 import cern.jet.random.Empirical;
@@ -50,6 +49,7 @@ import uk.ac.dmu.iesd.cascade.base.Consts.BMU_TYPE;
 import uk.ac.dmu.iesd.cascade.base.FactoryFinder;
 import uk.ac.dmu.iesd.cascade.io.CSVReader;
 import uk.ac.dmu.iesd.cascade.util.*;
+import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVChargingSessions;
 import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVProfileGenerator;
 import cern.jet.random.Empirical;
 
@@ -163,8 +163,7 @@ public class CascadeContextBuilder implements ContextBuilder<Object> {
 			startDate = new Date(2000,1,1);
 			e1.printStackTrace();
 		}
-		cascadeMainContext.simulationCalendar = new GregorianCalendar();
-		cascadeMainContext.simulationCalendar.setTime(startDate);
+		cascadeMainContext.setStartDate(startDate);
 
 		/*
 		 * Read in the necessary data files and store to the context
@@ -722,10 +721,11 @@ public class CascadeContextBuilder implements ContextBuilder<Object> {
 	
 	private void buildMarket() {
 		
-		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext);
+		messageBoard = new MarketMessageBoard();
+
+		SettlementCompany settlementCo = new SettlementCompany(cascadeMainContext, messageBoard);
 		cascadeMainContext.add(settlementCo);
 		
-		messageBoard = new MarketMessageBoard();
 
 		sysOp = new SystemOperator(cascadeMainContext, settlementCo, messageBoard);
 		cascadeMainContext.add(sysOp);
@@ -756,16 +756,17 @@ public class CascadeContextBuilder implements ContextBuilder<Object> {
 		if (RandomHelper.nextDouble() < 0.25)
 		{
 			double [] EVprofile;
+			EVChargingSessions EVsessions = new EVChargingSessions(Consts.NB_OF_DAYS_LOADED_DEMAND, cascadeMainContext.ticksPerDay);
 			if (RandomHelper.nextDouble() < 0.5)
 			{
-				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generateBEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			else
 			{
-				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND);
+				EVprofile = EVProfileGenerator.generatePHEVProfile(cascadeMainContext,Consts.NB_OF_DAYS_LOADED_DEMAND,EVsessions);
 			}
 			thisAgent.hasElectricVehicle=true;
-			thisAgent.setEVProfile(EVprofile);
+			thisAgent.setEVProfile(EVprofile, EVsessions);
 			
 
 		}
@@ -928,6 +929,7 @@ public class CascadeContextBuilder implements ContextBuilder<Object> {
 		WeakHashMap<String, double[]> map_dmuTypeNameToBaseProfiles;
 
 		cascadeMainContext = new CascadeContext(context); //build CascadeContext by passing the context
+		cascadeMainContext.bindRunEnvironment();
 
 		readParamsAndInitializeArrays();
 		initializeProbabilityDistributions();
@@ -938,13 +940,23 @@ public class CascadeContextBuilder implements ContextBuilder<Object> {
 		map_dmuTypeNameToBaseProfiles = readGenericAggBaseProfileFiles();
 		
 		createAndAddGenericAggregators(map_dmuTypeNameToBaseProfiles);
-		
+
+		// Resolve the parameters and networks used by per-tick agent code once, now the context is populated
+		cascadeMainContext.setRunConfig(RunConfig.resolve(params, cascadeMainContext));
+		cascadeMainContext.scheduleCheckpoint();
+
 		//If we want to stop a batch run at a given time - put it here.
 		if (RunEnvironment.getInstance().isBatch())
 		{
 			RunEnvironment.getInstance().endAt(3024);
 		}
 
+		// Optional per-phase timing and allocation profile (not present in older scenarios)
+		if (params.getSchema().contains("profilePhases") && (Boolean) params.getValue("profilePhases"))
+		{
+			cascadeMainContext.getPhaseProfiler().schedulePhaseMarkers(cascadeMainContext.getSchedule(), cascadeMainContext.getNbOfTickPerDay(), PhaseProfiler.PROFILE_FILE_NAME);
+		}
+
 		if (cascadeMainContext.verbose)	
 			System.out.println("CascadeContextBuilder: Cascade Main Context created: "+cascadeMainContext.toString());
 
@@ -0,0 +1,277 @@
+package uk.ac.dmu.iesd.cascade.context;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+
+/**
+ * The runs of a parameter sweep, expanded from a description in the format of Repast's
+ * batch parameter files (e.g. <code>batch/batch_params.xml</code>):
+ * <pre>
+ * &lt;sweep runs="2"&gt;
+ *   &lt;parameter name="randomSeed" type="list" value_type="int" values="1 2 3"&gt;
+ *     &lt;parameter name="signalMode" type="number" start="0" end="2" step="1"/&gt;
+ *     &lt;parameter name="weatherFile" type="constant" constant_type="string" value="oneDayWeather.csv"/&gt;
+ *   &lt;/parameter&gt;
+ * &lt;/sweep&gt;
+ * </pre>
+ * A parameter takes a <tt>constant</tt> value, each of a (space separated) <tt>list</tt>
+ * of values, or each <tt>number</tt> from <tt>start</tt> to <tt>end</tt> in steps of
+ * <tt>step</tt>; each of its values is combined with every combination of the values of
+ * the parameters nested in it, as are the values of parameters side by side.  The whole
+ * sweep is repeated <tt>runs</tt> times; as runs are deterministic, repeats of a sweep
+ * which does not set the <tt>randomSeed</tt> take successive seeds from the scenario's,
+ * and a sweep which sets it cannot be repeated.
+ * <p>
+ * Values are kept as the text given, and converted to each parameter's type when a run
+ * is set up.  Each run has a key, a hash of its values and repeat, which identifies it
+ * however the description is reordered, and may be given keys which also depend on
+ * what else its results depend on (see {@link Run#getKey(String)}).
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class ParameterSweep {
+
+	/** The parameter incremented by repeats of a sweep which does not set it */
+	public static final String RANDOM_SEED = "randomSeed";
+
+	/**
+	 * One run of the sweep: the values it gives to parameters, and which repeat it is.
+	 */
+	public static class Run {
+		private final Map<String, String> values;
+		private final int repeat;
+		private final String key;
+
+		Run(Map<String, String> values, int repeat)
+		{
+			this.values = Collections.unmodifiableMap(values);
+			this.repeat = repeat;
+			this.key = CalibrationStore.key(new TreeMap<String, String>(values) + "|" + repeat).substring(0, 16);
+		}
+
+		/** @return the values the run gives to parameters, by name, in the order of the description */
+		public Map<String, String> getValues()
+		{
+			return values;
+		}
+
+		/** @return which repeat of the sweep the run belongs to, from 1 */
+		public int getRepeat()
+		{
+			return repeat;
+		}
+
+		/** @return the run's key (16 hex digits) */
+		public String getKey()
+		{
+			return key;
+		}
+
+		/**
+		 * @param setup a description of what, besides its values and repeat, the run's
+		 *        results depend on (such as its seed and the scenario it is run in)
+		 * @return the key (16 hex digits) of the run set up so
+		 */
+		public String getKey(String setup)
+		{
+			return CalibrationStore.key(key + "|" + setup).substring(0, 16);
+		}
+
+		public String toString()
+		{
+			return key + " " + values + (repeat > 1 ? " repeat " + repeat : "");
+		}
+	}
+
+	private final List<Run> runs;
+	private final List<String> names;
+	private final boolean setsSeed;
+
+	ParameterSweep(List<Run> runs, List<String> names)
+	{
+		this.runs = Collections.unmodifiableList(runs);
+		this.names = Collections.unmodifiableList(names);
+		this.setsSeed = names.contains(RANDOM_SEED);
+	}
+
+	/**
+	 * Reads and expands a sweep description.
+	 *
+	 * @param file the description
+	 * @return the sweep
+	 * @throws IOException if the file cannot be read, or is not a sweep description
+	 */
+	public static ParameterSweep parse(File file) throws IOException
+	{
+		Document document;
+		try
+		{
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new IOException("couldn't parse " + file + ": " + e.getMessage());
+		}
+		catch (SAXException e)
+		{
+			throw new IOException("couldn't parse " + file + ": " + e.getMessage());
+		}
+		Element sweep = document.getDocumentElement();
+		if (!"sweep".equals(sweep.getTagName()))
+		{
+			throw new IOException(file + " is not a sweep description (its root is " + sweep.getTagName() + ")");
+		}
+		int repeats = sweep.hasAttribute("runs") ? Integer.parseInt(sweep.getAttribute("runs").trim()) : 1;
+
+		Set<String> names = new LinkedHashSet<String>();
+		List<Map<String, String>> points = expand(parameters(sweep), names);
+		if (repeats > 1 && names.contains(RANDOM_SEED))
+		{
+			throw new IOException(file + " sets " + RANDOM_SEED + " and repeats the sweep " + repeats + " times, so every repeat would run the same runs; set runs=\"1\", or leave the seed to the repeats");
+		}
+		List<Run> runs = new ArrayList<Run>(points.size() * repeats);
+		for (int repeat = 1; repeat <= repeats; repeat++)
+		{
+			for (Map<String, String> point : points)
+			{
+				if (point.containsKey(RANDOM_SEED) && !point.get(RANDOM_SEED).trim().matches("-?\\d+"))
+				{
+					throw new IOException(file + " sets " + RANDOM_SEED + " to " + point.get(RANDOM_SEED) + ", which is not a whole number");
+				}
+				runs.add(new Run(point, repeat));
+			}
+		}
+		return new ParameterSweep(runs, new ArrayList<String>(names));
+	}
+
+	/** @return the runs, outermost parameter varying slowest */
+	public List<Run> getRuns()
+	{
+		return runs;
+	}
+
+	/** @return the names of the parameters the sweep sets, in the order of the description */
+	public List<String> getNames()
+	{
+		return names;
+	}
+
+	/**
+	 * @param run one of the sweep's runs
+	 * @param scenarioSeed the seed set in the scenario's parameters
+	 * @return the seed the run should use, if the sweep does not set one itself
+	 */
+	public int seedOf(Run run, int scenarioSeed)
+	{
+		return setsSeed ? Integer.parseInt(run.getValues().get(RANDOM_SEED).trim()) : scenarioSeed + run.getRepeat() - 1;
+	}
+
+	/**
+	 * @return every combination of the values of the given (side by side) parameters and
+	 *         of the parameters nested in each
+	 */
+	private static List<Map<String, String>> expand(List<Element> parameters, Set<String> names) throws IOException
+	{
+		List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+		points.add(new LinkedHashMap<String, String>());
+		for (Element parameter : parameters)
+		{
+			String name = parameter.getAttribute("name");
+			names.add(name);
+			List<Map<String, String>> nested = expand(parameters(parameter), names);
+			List<Map<String, String>> combined = new ArrayList<Map<String, String>>();
+			for (Map<String, String> point : points)
+			{
+				for (String value : values(parameter))
+				{
+					for (Map<String, String> inner : nested)
+					{
+						Map<String, String> p = new LinkedHashMap<String, String>(point);
+						p.put(name, value);
+						p.putAll(inner);
+						combined.add(p);
+					}
+				}
+			}
+			points = combined;
+		}
+		return points;
+	}
+
+	private static List<Element> parameters(Element parent)
+	{
+		List<Element> parameters = new ArrayList<Element>();
+		NodeList children = parent.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++)
+		{
+			Node child = children.item(i);
+			if (child instanceof Element && "parameter".equals(((Element) child).getTagName()))
+			{
+				parameters.add((Element) child);
+			}
+		}
+		return parameters;
+	}
+
+	private static List<String> values(Element parameter) throws IOException
+	{
+		String name = parameter.getAttribute("name");
+		String type = parameter.getAttribute("type");
+		List<String> values = new ArrayList<String>();
+		if ("constant".equals(type))
+		{
+			values.add(parameter.getAttribute("value"));
+		}
+		else if ("list".equals(type))
+		{
+			for (String value : parameter.getAttribute("values").trim().split("\\s+"))
+			{
+				if (value.length() > 0)
+					values.add(value);
+			}
+		}
+		else if ("number".equals(type))
+		{
+			BigDecimal start = new BigDecimal(parameter.getAttribute("start").trim());
+			BigDecimal end = new BigDecimal(parameter.getAttribute("end").trim());
+			BigDecimal step = new BigDecimal(parameter.getAttribute("step").trim());
+			if (step.signum() == 0 || step.signum() != end.subtract(start).signum() && end.compareTo(start) != 0)
+			{
+				throw new IOException("parameter " + name + " never reaches " + end + " from " + start + " in steps of " + step);
+			}
+			for (BigDecimal value = start; step.signum() > 0 ? value.compareTo(end) <= 0 : value.compareTo(end) >= 0; value = value.add(step))
+			{
+				values.add(value.toPlainString());
+			}
+		}
+		else
+		{
+			throw new IOException("parameter " + name + " has unknown type " + type);
+		}
+		if (values.isEmpty())
+		{
+			throw new IOException("parameter " + name + " has no values");
+		}
+		return values;
+	}
+}
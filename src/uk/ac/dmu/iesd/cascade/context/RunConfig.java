@@ -0,0 +1,366 @@
+package uk.ac.dmu.iesd.cascade.context;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import repast.simphony.parameter.Parameters;
+import repast.simphony.space.graph.Network;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel.Discretisation;
+import uk.ac.dmu.iesd.cascade.util.TimeSeriesBuffer.Retention;
+
+/**
+ * An immutable, typed snapshot of the run parameters and network handles used by
+ * agent code which executes every tick.
+ * <p>
+ * The Repast <code>Parameters</code> object and <code>RepastEssentials</code> helpers
+ * look values up by name (and the caller must cast and unbox the result); doing so
+ * from within a prosumer's or aggregator's step means a string keyed lookup per
+ * agent per tick.  A <tt>RunConfig</tt> is instead built once by the context builder,
+ * after the context has been populated, and agents read its final fields via
+ * {@link CascadeContext#getRunConfig()}.
+ * <p>
+ * Parameters which are not defined in the scenario's parameter file are given the
+ * defaults listed against each field.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class RunConfig {
+
+	/** Repast parameter names, as used in the scenario's parameters.xml */
+	public static final String VERBOSE_OUTPUT = "verboseOutput";
+	public static final String SIGNAL_MODE = "signalMode";
+	public static final String SMART_CONTROL_DECISION_THRESHOLD = "smartControlDecisionThreshold";
+	public static final String TICKS_PER_DAY = "ticksPerDay";
+	public static final String DATA_FILE_FOLDER = "dataFileFolder";
+	public static final String SOCIAL_NETWORK = "socialNetwork";
+	public static final String EXACT_THERMAL_MODEL = "exactThermalModel";
+	public static final String HOT_WATER_TANK_LAYERS = "hotWaterTankLayers";
+	public static final String HOUSEHOLD_HISTORY = "householdHistory";
+	public static final String HOUSEHOLD_HISTORY_AS_FLOAT = "householdHistoryAsFloat";
+	public static final String RASP_PI_EMULATOR = "raspPiEmulator";
+	public static final String DEVICE_DEADLINE = "deviceDeadline";
+	public static final String CHECKPOINT_TICK = "checkpointTick";
+	public static final String CHECKPOINT_SAVE = "checkpointSave";
+	public static final String CHECKPOINT_RESUME = "checkpointResume";
+	public static final String CALIBRATION_MODE = "calibrationMode";
+	public static final String CALIBRATION_DIR = "calibrationDir";
+	public static final String DIAGNOSTIC_TRACE_DIR = "diagnosticTraceDir";
+
+	/** Parameters which do not affect what aggregators learn, and so are not part of a calibration's key */
+	private static final Set<String> NOT_CALIBRATED = new HashSet<String>(Arrays.asList(VERBOSE_OUTPUT, "profilePhases", "chartSnapshot", "chartSnapshotInterval",
+			CHECKPOINT_TICK, CHECKPOINT_SAVE, CHECKPOINT_RESUME, CALIBRATION_MODE, CALIBRATION_DIR, DIAGNOSTIC_TRACE_DIR));
+
+	/** verboseOutput (default false) */
+	private final boolean verbose;
+	/** signalMode (default -1, i.e. not set) */
+	private final int signalMode;
+	/** smartControlDecisionThreshold (default +infinity, i.e. never adopt) */
+	private final double smartControlDecisionThreshold;
+	/** ticksPerDay (default 48) */
+	private final int ticksPerDay;
+	/** dataFileFolder (default null) */
+	private final String dataFileFolder;
+	/** the household social network (null if the scenario does not build one) */
+	private final Network<?> socialNetwork;
+	/** exactThermalModel (default false, i.e. EULER) */
+	private final Discretisation thermalDiscretisation;
+	/** hotWaterTankLayers (default 4; 1 is a fully mixed tank) */
+	private final int hotWaterTankLayers;
+	/** householdHistory - none, day, week or run (default day) */
+	private final Retention householdHistory;
+	/** householdHistoryAsFloat (default false) */
+	private final boolean householdHistoryAsFloat;
+	/** raspPiEmulator (default false, i.e. Raspberry Pi households drive the real Pi) */
+	private final boolean raspPiEmulator;
+	/** deviceDeadline - ms the schedule waits for device I/O each tick (default 100) */
+	private final int deviceDeadline;
+	/** checkpointTick - the tick at whose start a checkpoint is saved or resumed from (default the end of aggregator training) */
+	private final int checkpointTick;
+	/** checkpointSave - the file to which to save a checkpoint (default null, i.e. none) */
+	private final String checkpointSave;
+	/** checkpointResume - the checkpoint file from which to resume (default null, i.e. run from the start) */
+	private final String checkpointResume;
+	/** calibrationMode - off, use or validate (default off) */
+	private final CalibrationStore.Mode calibrationMode;
+	/** calibrationDir - the directory of the aggregator calibration store (default calibration) */
+	private final String calibrationDir;
+	/** the names and values of the parameters which may affect what aggregators learn */
+	private final String calibrationParameters;
+	/** diagnosticTraceDir - the directory of the run's diagnostic trace (default null, i.e. no trace) */
+	private final String diagnosticTraceDir;
+
+	public RunConfig(boolean verbose, int signalMode, double smartControlDecisionThreshold, int ticksPerDay, String dataFileFolder, Network<?> socialNetwork, Discretisation thermalDiscretisation, int hotWaterTankLayers,
+			Retention householdHistory, boolean householdHistoryAsFloat, boolean raspPiEmulator, int deviceDeadline,
+			int checkpointTick, String checkpointSave, String checkpointResume,
+			CalibrationStore.Mode calibrationMode, String calibrationDir, String calibrationParameters, String diagnosticTraceDir)
+	{
+		this.verbose = verbose;
+		this.signalMode = signalMode;
+		this.smartControlDecisionThreshold = smartControlDecisionThreshold;
+		this.ticksPerDay = ticksPerDay;
+		this.dataFileFolder = dataFileFolder;
+		this.socialNetwork = socialNetwork;
+		this.thermalDiscretisation = thermalDiscretisation;
+		this.hotWaterTankLayers = hotWaterTankLayers;
+		this.householdHistory = householdHistory;
+		this.householdHistoryAsFloat = householdHistoryAsFloat;
+		this.raspPiEmulator = raspPiEmulator;
+		this.deviceDeadline = deviceDeadline;
+		this.checkpointTick = checkpointTick;
+		this.checkpointSave = checkpointSave;
+		this.checkpointResume = checkpointResume;
+		this.calibrationMode = calibrationMode;
+		this.calibrationDir = calibrationDir;
+		this.calibrationParameters = calibrationParameters;
+		this.diagnosticTraceDir = diagnosticTraceDir;
+	}
+
+	/**
+	 * Resolves the run configuration from the run's parameters and the given context.
+	 *
+	 * @param params the parameters of the current run
+	 * @param context the (populated) main context, from which network projections are resolved
+	 * @return the run configuration
+	 */
+	public static RunConfig resolve(Parameters params, CascadeContext context)
+	{
+		boolean verbose = getBoolean(params, VERBOSE_OUTPUT, false);
+		int signalMode = getInt(params, SIGNAL_MODE, -1);
+		double threshold = getDouble(params, SMART_CONTROL_DECISION_THRESHOLD, Double.POSITIVE_INFINITY);
+		int ticksPerDay = getInt(params, TICKS_PER_DAY, 48);
+		String dataFileFolder = getString(params, DATA_FILE_FOLDER, null);
+
+		Network<?> socialNetwork = context.getSocialNetwork();
+		if (socialNetwork == null)
+		{
+			socialNetwork = (Network<?>) context.getProjection(SOCIAL_NETWORK);
+		}
+
+		Discretisation thermalDiscretisation = getBoolean(params, EXACT_THERMAL_MODEL, false) ? Discretisation.EXACT : Discretisation.EULER;
+		int hotWaterTankLayers = getInt(params, HOT_WATER_TANK_LAYERS, 4);
+		if (hotWaterTankLayers < 1)
+		{
+			System.err.println("RunConfig: " + HOT_WATER_TANK_LAYERS + " must be at least 1 (was " + hotWaterTankLayers + "); using a fully mixed tank");
+			hotWaterTankLayers = 1;
+		}
+
+		Retention householdHistory = Retention.parse(getString(params, HOUSEHOLD_HISTORY, Retention.DAY.name()), Retention.DAY);
+		boolean householdHistoryAsFloat = getBoolean(params, HOUSEHOLD_HISTORY_AS_FLOAT, false);
+
+		boolean raspPiEmulator = getBoolean(params, RASP_PI_EMULATOR, false);
+		int deviceDeadline = Math.max(0, getInt(params, DEVICE_DEADLINE, 100));
+
+		int checkpointTick = getInt(params, CHECKPOINT_TICK, Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP);
+		String checkpointSave = emptyToNull(getString(params, CHECKPOINT_SAVE, null));
+		String checkpointResume = emptyToNull(getString(params, CHECKPOINT_RESUME, null));
+
+		CalibrationStore.Mode calibrationMode = CalibrationStore.Mode.parse(getString(params, CALIBRATION_MODE, CalibrationStore.Mode.OFF.name()), CalibrationStore.Mode.OFF);
+		String calibrationDir = getString(params, CALIBRATION_DIR, "calibration");
+		if (emptyToNull(calibrationDir) == null)
+		{
+			calibrationDir = "calibration";
+		}
+
+		String diagnosticTraceDir = emptyToNull(getString(params, DIAGNOSTIC_TRACE_DIR, null));
+
+		return new RunConfig(verbose, signalMode, threshold, ticksPerDay, dataFileFolder, socialNetwork, thermalDiscretisation, hotWaterTankLayers,
+				householdHistory, householdHistoryAsFloat, raspPiEmulator, deviceDeadline,
+				checkpointTick, checkpointSave, checkpointResume,
+				calibrationMode, calibrationDir.trim(), calibrationParameters(params), diagnosticTraceDir);
+	}
+
+	/**
+	 * @return the names and values, in name order, of the parameters which may affect what aggregators learn
+	 */
+	private static String calibrationParameters(Parameters params)
+	{
+		Map<String, Object> values = new TreeMap<String, Object>();
+		for (String name : params.getSchema().parameterNames())
+		{
+			if (!NOT_CALIBRATED.contains(name))
+			{
+				values.put(name, params.getValue(name));
+			}
+		}
+		return values.toString();
+	}
+
+	private static String getString(Parameters params, String name, String defaultValue)
+	{
+		return params.getSchema().contains(name) ? (String) params.getValue(name) : defaultValue;
+	}
+
+	private static String emptyToNull(String value)
+	{
+		return (value == null || value.trim().length() == 0) ? null : value.trim();
+	}
+
+	private static boolean getBoolean(Parameters params, String name, boolean defaultValue)
+	{
+		return params.getSchema().contains(name) ? (Boolean) params.getValue(name) : defaultValue;
+	}
+
+	private static int getInt(Parameters params, String name, int defaultValue)
+	{
+		return params.getSchema().contains(name) ? (Integer) params.getValue(name) : defaultValue;
+	}
+
+	private static double getDouble(Parameters params, String name, double defaultValue)
+	{
+		return params.getSchema().contains(name) ? ((Number) params.getValue(name)).doubleValue() : defaultValue;
+	}
+
+	public boolean isVerbose()
+	{
+		return verbose;
+	}
+
+	public int getSignalMode()
+	{
+		return signalMode;
+	}
+
+	public double getSmartControlDecisionThreshold()
+	{
+		return smartControlDecisionThreshold;
+	}
+
+	public int getTicksPerDay()
+	{
+		return ticksPerDay;
+	}
+
+	public String getDataFileFolder()
+	{
+		return dataFileFolder;
+	}
+
+	/**
+	 * @return the social network, or null if the scenario does not build one
+	 */
+	public Network<?> getSocialNetwork()
+	{
+		return socialNetwork;
+	}
+
+	/**
+	 * @return the discretisation of the building thermal model
+	 */
+	public Discretisation getThermalDiscretisation()
+	{
+		return thermalDiscretisation;
+	}
+
+	/**
+	 * @return the number of layers of the hot water tank model
+	 */
+	public int getHotWaterTankLayers()
+	{
+		return hotWaterTankLayers;
+	}
+
+	/**
+	 * @return how much of their history households keep
+	 */
+	public Retention getHouseholdHistory()
+	{
+		return householdHistory;
+	}
+
+	/**
+	 * @return whether households keep their history as floats
+	 */
+	public boolean isHouseholdHistoryAsFloat()
+	{
+		return householdHistoryAsFloat;
+	}
+
+	/**
+	 * @return whether Raspberry Pi households drive the in-process emulator rather than the real Pi
+	 */
+	public boolean isRaspPiEmulator()
+	{
+		return raspPiEmulator;
+	}
+
+	/**
+	 * @return the longest time (ms) the schedule waits for device I/O each tick
+	 */
+	public int getDeviceDeadline()
+	{
+		return deviceDeadline;
+	}
+
+	/**
+	 * @return the tick at whose start a checkpoint is saved or resumed from
+	 */
+	public int getCheckpointTick()
+	{
+		return checkpointTick;
+	}
+
+	/**
+	 * @return the file to which to save a checkpoint, or null if none is to be saved
+	 */
+	public String getCheckpointSave()
+	{
+		return checkpointSave;
+	}
+
+	/**
+	 * @return the checkpoint file from which to resume, or null if the run starts from the beginning
+	 */
+	public String getCheckpointResume()
+	{
+		return checkpointResume;
+	}
+
+	/**
+	 * @return how aggregators use the calibration store
+	 */
+	public CalibrationStore.Mode getCalibrationMode()
+	{
+		return calibrationMode;
+	}
+
+	/**
+	 * @return the directory of the aggregator calibration store
+	 */
+	public String getCalibrationDir()
+	{
+		return calibrationDir;
+	}
+
+	/**
+	 * @return the names and values of the parameters which may affect what aggregators learn, for a calibration's key
+	 */
+	public String getCalibrationParameters()
+	{
+		return calibrationParameters;
+	}
+
+	/**
+	 * @return the directory of the run's diagnostic trace, or null if the run is not traced
+	 */
+	public String getDiagnosticTraceDir()
+	{
+		return diagnosticTraceDir;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RunConfig [verbose=" + verbose + ", signalMode=" + signalMode + ", smartControlDecisionThreshold=" + smartControlDecisionThreshold
+				+ ", ticksPerDay=" + ticksPerDay + ", dataFileFolder=" + dataFileFolder + ", socialNetwork=" + socialNetwork + ", thermalDiscretisation=" + thermalDiscretisation
+				+ ", hotWaterTankLayers=" + hotWaterTankLayers + ", householdHistory=" + householdHistory + ", householdHistoryAsFloat=" + householdHistoryAsFloat
+				+ ", raspPiEmulator=" + raspPiEmulator + ", deviceDeadline=" + deviceDeadline
+				+ ", checkpointTick=" + checkpointTick + ", checkpointSave=" + checkpointSave + ", checkpointResume=" + checkpointResume
+				+ ", calibrationMode=" + calibrationMode + ", calibrationDir=" + calibrationDir
+				+ ", diagnosticTraceDir=" + diagnosticTraceDir + "]";
+	}
+}
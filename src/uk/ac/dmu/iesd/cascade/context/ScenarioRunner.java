@@ -0,0 +1,493 @@
+package uk.ac.dmu.iesd.cascade.context;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import repast.simphony.context.Context;
+import repast.simphony.context.DefaultContext;
+import repast.simphony.dataLoader.ContextBuilder;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.random.RandomHelper;
+import uk.ac.dmu.iesd.cascade.agents.aggregators.AggregatorAgent;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
+import uk.ac.dmu.iesd.cascade.io.CSVReader;
+import cern.jet.random.Uniform;
+
+/**
+ * Runs several scenarios side by side in one JVM, each on its own thread, with its own
+ * context, schedule and random number streams, so that a batch of runs pays JVM
+ * start-up once and shares its input files (see {@link CSVReader#shareParsedFiles}).
+ * <p>
+ * All the state of a run is held by its {@link CascadeContext} and the agents in it.
+ * What Repast keeps in singletons is dealt with here:
+ * <ul>
+ * <li>the run environment (parameters, current schedule) and the random seed are only
+ * read while a context is built, so builds take turns, each setting them up for its
+ * own scenario first; the context binds its schedule and streams as it is built (see
+ * {@link CascadeContext#bindRunEnvironment()}), and a run which ends itself does so
+ * through its own schedule (see {@link CascadeContext#endRun()});
+ * <li>the schedule would shuffle the agents whose {@link ScheduledMethod}s fall due
+ * together with Repast's default uniform distribution, which is that of whichever run
+ * was built last.  The runner therefore schedules the agents' methods itself, one
+ * {@link AgentGroup} per method and schedule, and each group shuffles its agents with its
+ * own context's uniform distribution; and no run steps while another is being built.
+ * </ul>
+ * A run serves as its own baseline: the same scenarios run on one thread give exactly
+ * the same {@link Result#getFingerprint() fingerprints} as when run concurrently.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class ScenarioRunner {
+
+	/** Held for writing while a run is built, and for reading while a run steps */
+	private static final ReadWriteLock ENVIRONMENT_LOCK = new ReentrantReadWriteLock();
+
+	/**
+	 * A scenario: the parameters of a run (including its random seed), the builder of its
+	 * context, the tick after which it stops, and the tick from which its demand is
+	 * fingerprinted (by default the first).
+	 */
+	public static class Scenario {
+		private final String name;
+		private final Parameters parameters;
+		private final ContextBuilder<Object> builder;
+		private final double endTick;
+		private double fingerprintFrom = Double.NEGATIVE_INFINITY;
+
+		public Scenario(String name, Parameters parameters, ContextBuilder<Object> builder, double endTick)
+		{
+			this.name = name;
+			this.parameters = parameters;
+			this.builder = builder;
+			this.endTick = endTick;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public Parameters getParameters()
+		{
+			return parameters;
+		}
+
+		/**
+		 * @param tick the first tick whose demand goes into the fingerprint, so that a run
+		 *        resumed from a checkpoint can be compared with one run from the start
+		 */
+		public void setFingerprintFrom(double tick)
+		{
+			this.fingerprintFrom = tick;
+		}
+	}
+
+	/**
+	 * The outcome of a scenario: the last tick it ran, a fingerprint of the net demand
+	 * of every prosumer and aggregator at every tick and a summary of the prosumers' total
+	 * net demand, or the error which stopped it.
+	 */
+	public static class Result {
+		private final String name;
+		private final double lastTick;
+		private final String fingerprint;
+		private final double meanDemand;
+		private final double peakDemand;
+		private final double minDemand;
+		private final Throwable error;
+
+		Result(String name, double lastTick, Fingerprint fingerprint)
+		{
+			this.name = name;
+			this.lastTick = lastTick;
+			this.fingerprint = fingerprint.hex();
+			this.meanDemand = fingerprint.ticks == 0 ? Double.NaN : fingerprint.totalDemand / fingerprint.ticks;
+			this.peakDemand = fingerprint.ticks == 0 ? Double.NaN : fingerprint.peakDemand;
+			this.minDemand = fingerprint.ticks == 0 ? Double.NaN : fingerprint.minDemand;
+			this.error = null;
+		}
+
+		Result(String name, double lastTick, Throwable error)
+		{
+			this.name = name;
+			this.lastTick = lastTick;
+			this.fingerprint = null;
+			this.meanDemand = Double.NaN;
+			this.peakDemand = Double.NaN;
+			this.minDemand = Double.NaN;
+			this.error = error;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public double getLastTick()
+		{
+			return lastTick;
+		}
+
+		/** @return the SHA-256 hash (hex) of the run's demand trajectories, null if it failed */
+		public String getFingerprint()
+		{
+			return fingerprint;
+		}
+
+		/** @return the mean over the ticks run of the prosumers' total net demand (NaN if the run failed) */
+		public double getMeanDemand()
+		{
+			return meanDemand;
+		}
+
+		/** @return the highest total net demand of the prosumers at any tick (NaN if the run failed) */
+		public double getPeakDemand()
+		{
+			return peakDemand;
+		}
+
+		/** @return the lowest total net demand of the prosumers at any tick (NaN if the run failed) */
+		public double getMinDemand()
+		{
+			return minDemand;
+		}
+
+		/** @return the error which stopped the run, null if it ran to its end */
+		public Throwable getError()
+		{
+			return error;
+		}
+
+		public String toString()
+		{
+			return name + " (tick " + lastTick + "): " + (error == null ? fingerprint : "failed - " + error);
+		}
+	}
+
+	/**
+	 * Records, at the end of every tick, the net demand of every prosumer and aggregator,
+	 * in a fixed order (by class, then by id), into a running hash, and keeps the mean and
+	 * extremes of the prosumers' total, from a given tick on.
+	 */
+	public static class Fingerprint {
+		private final List<ProsumerAgent> prosumers = new ArrayList<ProsumerAgent>();
+		private final List<AggregatorAgent> aggregators = new ArrayList<AggregatorAgent>();
+		private final CascadeContext context;
+		private final double from;
+		private final MessageDigest digest;
+		private final byte[] buffer = new byte[8];
+		private int ticks;
+		private double totalDemand;
+		private double peakDemand = Double.NEGATIVE_INFINITY;
+		private double minDemand = Double.POSITIVE_INFINITY;
+
+		Fingerprint(CascadeContext context, double from)
+		{
+			this.context = context;
+			this.from = from;
+			for (Object agent : context.getObjects(ProsumerAgent.class))
+			{
+				prosumers.add((ProsumerAgent) agent);
+			}
+			for (Object agent : context.getObjects(AggregatorAgent.class))
+			{
+				aggregators.add((AggregatorAgent) agent);
+			}
+			Collections.sort(prosumers, new Comparator<ProsumerAgent>() {
+				public int compare(ProsumerAgent a, ProsumerAgent b)
+				{
+					int byClass = a.getClass().getName().compareTo(b.getClass().getName());
+					return byClass != 0 ? byClass : (a.getAgentID() < b.getAgentID() ? -1 : (a.getAgentID() == b.getAgentID() ? 0 : 1));
+				}
+			});
+			Collections.sort(aggregators, new Comparator<AggregatorAgent>() {
+				public int compare(AggregatorAgent a, AggregatorAgent b)
+				{
+					int byClass = a.getClass().getName().compareTo(b.getClass().getName());
+					return byClass != 0 ? byClass : a.getID() - b.getID();
+				}
+			});
+			try
+			{
+				this.digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException("SHA-256 is not available", e);
+			}
+		}
+
+		public void record()
+		{
+			if (context.getTickCount() < from)
+				return;
+			double demand = 0;
+			for (ProsumerAgent prosumer : prosumers)
+			{
+				double netDemand = prosumer.getNetDemand();
+				update(netDemand);
+				demand += netDemand;
+			}
+			for (AggregatorAgent aggregator : aggregators)
+			{
+				update(aggregator.getNetDemand());
+			}
+			ticks++;
+			totalDemand += demand;
+			peakDemand = Math.max(peakDemand, demand);
+			minDemand = Math.min(minDemand, demand);
+		}
+
+		private void update(double value)
+		{
+			long bits = Double.doubleToLongBits(value);
+			for (int i = 0; i < 8; i++)
+			{
+				buffer[i] = (byte) (bits >>> (56 - 8 * i));
+			}
+			digest.update(buffer);
+		}
+
+		String hex()
+		{
+			StringBuilder s = new StringBuilder();
+			for (byte b : digest.digest())
+			{
+				s.append(String.format("%02x", b & 0xff));
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * The agents of a context which have the same {@link ScheduledMethod} with the same
+	 * schedule, which are stepped together, in a new random order each time if the method
+	 * is to be shuffled, as Repast's schedule would step them; but with the uniform
+	 * distribution of their own context.
+	 */
+	public static class AgentGroup {
+		private final Method method;
+		private final ScheduleParameters parameters;
+		private final boolean shuffle;
+		private final Uniform uniform;
+		private final List<Object> agents = new ArrayList<Object>();
+
+		AgentGroup(Method method, ScheduledMethod annotation, Uniform uniform)
+		{
+			this.method = method;
+			this.parameters = scheduleParameters(annotation);
+			this.shuffle = annotation.shuffle();
+			this.uniform = uniform;
+			method.setAccessible(true);
+		}
+
+		public void execute()
+		{
+			if (shuffle)
+			{
+				for (int i = agents.size() - 1; i > 0; i--)
+				{
+					Collections.swap(agents, i, uniform.nextIntFromTo(0, i));
+				}
+			}
+			try
+			{
+				for (Object agent : agents)
+				{
+					method.invoke(agent);
+				}
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			catch (InvocationTargetException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the {@link ScheduledMethod}s of the agents in the context, grouping the
+	 * agents by method and schedule (in the context's order).  A method overridden in a
+	 * subclass is scheduled as annotated nearest the agent's class, and called on the
+	 * agent's own implementation.
+	 */
+	static void scheduleAgents(Schedule schedule, CascadeContext context)
+	{
+		Map<String, AgentGroup> groups = new LinkedHashMap<String, AgentGroup>();
+		for (Object agent : context.getObjects(Object.class))
+		{
+			Set<String> seen = new HashSet<String>();
+			for (Class<?> c = agent.getClass(); c != null; c = c.getSuperclass())
+			{
+				for (Method method : c.getDeclaredMethods())
+				{
+					ScheduledMethod annotation = method.getAnnotation(ScheduledMethod.class);
+					String signature = method.getName() + Arrays.toString(method.getParameterTypes());
+					if (annotation == null || method.getParameterTypes().length > 0 || !seen.add(signature))
+						continue;
+					String key = c.getName() + "." + signature + "@" + annotation.start() + "/" + annotation.interval() + "/" + annotation.priority() + "/" + annotation.shuffle();
+					AgentGroup group = groups.get(key);
+					if (group == null)
+					{
+						group = new AgentGroup(method, annotation, context.getUniform());
+						groups.put(key, group);
+					}
+					group.agents.add(agent);
+				}
+			}
+		}
+		for (AgentGroup group : groups.values())
+		{
+			schedule.schedule(group.parameters, group, "execute");
+		}
+	}
+
+	private static ScheduleParameters scheduleParameters(ScheduledMethod annotation)
+	{
+		boolean randomPriority = Double.isNaN(annotation.priority());
+		if (annotation.interval() > 0)
+		{
+			return randomPriority ? ScheduleParameters.createRepeating(annotation.start(), annotation.interval())
+					: ScheduleParameters.createRepeating(annotation.start(), annotation.interval(), annotation.priority());
+		}
+		return randomPriority ? ScheduleParameters.createOneTime(annotation.start())
+				: ScheduleParameters.createOneTime(annotation.start(), annotation.priority());
+	}
+
+	/**
+	 * Runs the scenarios on a pool of threads, and waits for them all to finish.
+	 *
+	 * @param scenarios the scenarios to run
+	 * @param threads the number of scenarios to run at once
+	 * @return the results, in the order of the scenarios
+	 */
+	public static List<Result> run(List<Scenario> scenarios, int threads) throws InterruptedException
+	{
+		CSVReader.shareParsedFiles(true);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try
+		{
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(scenarios.size());
+			for (final Scenario scenario : scenarios)
+			{
+				futures.add(pool.submit(new Callable<Result>() {
+					public Result call()
+					{
+						return run(scenario);
+					}
+				}));
+			}
+			List<Result> results = new ArrayList<Result>(scenarios.size());
+			for (int i = 0; i < futures.size(); i++)
+			{
+				try
+				{
+					results.add(futures.get(i).get());
+				}
+				catch (ExecutionException e)
+				{
+					results.add(new Result(scenarios.get(i).name, -1, e.getCause()));
+				}
+			}
+			return results;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Builds and runs one scenario on the current thread.
+	 */
+	static Result run(Scenario scenario)
+	{
+		Schedule schedule = new Schedule();
+		CascadeContext context;
+		Fingerprint fingerprint;
+
+		ENVIRONMENT_LOCK.writeLock().lock();
+		try
+		{
+			RunEnvironment.init(schedule, null, scenario.parameters, true);
+			RandomHelper.setSeed((Integer) scenario.parameters.getValue("randomSeed"));
+			Context<Object> root = new DefaultContext<Object>(scenario.name, scenario.name);
+			context = (CascadeContext) scenario.builder.build(root);
+			scheduleAgents(schedule, context);
+			fingerprint = new Fingerprint(context, scenario.fingerprintFrom);
+			schedule.schedule(ScheduleParameters.createRepeating(0, 1, ScheduleParameters.LAST_PRIORITY), fingerprint, "record");
+		}
+		catch (RuntimeException e)
+		{
+			return new Result(scenario.name, -1, e);
+		}
+		finally
+		{
+			ENVIRONMENT_LOCK.writeLock().unlock();
+		}
+
+		try
+		{
+			double lastTick = schedule.getTickCount();
+			while (schedule.getActionCount() > 0 && schedule.getTickCount() < scenario.endTick && !context.isRunEnded())
+			{
+				ENVIRONMENT_LOCK.readLock().lock();
+				try
+				{
+					schedule.execute();
+				}
+				finally
+				{
+					ENVIRONMENT_LOCK.readLock().unlock();
+				}
+				if (schedule.getTickCount() == lastTick)
+					break;
+				lastTick = schedule.getTickCount();
+			}
+			ENVIRONMENT_LOCK.readLock().lock();
+			try
+			{
+				schedule.executeEndActions();
+			}
+			finally
+			{
+				ENVIRONMENT_LOCK.readLock().unlock();
+			}
+			return new Result(scenario.name, lastTick, fingerprint);
+		}
+		catch (RuntimeException e)
+		{
+			return new Result(scenario.name, schedule.getTickCount(), e);
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package uk.ac.dmu.iesd.cascade.context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import repast.simphony.dataLoader.ContextBuilder;
+import repast.simphony.parameter.ParameterSchema;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.parameter.ParametersParser;
+import uk.ac.dmu.iesd.cascade.context.ParameterSweep.Run;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Result;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Scenario;
+import uk.ac.dmu.iesd.cascade.io.CSVReader;
+import uk.ac.dmu.iesd.cascade.io.SweepResults;
+
+/**
+ * Runs a parameter sweep headless, on the cores of the local machine, in one JVM:
+ * <pre>
+ * java -cp ... uk.ac.dmu.iesd.cascade.context.SweepRunner batch/batch_params.xml [options]
+ *   -scenario dir   the scenario directory, whose parameters.xml gives the values of
+ *                   parameters the sweep does not set (default Cascade.rs)
+ *   -out dir        where the results (results.csv) are kept (default sweep)
+ *   -inputs dir     where the column images of input files are kept (default out/inputs)
+ *   -threads n      how many runs to run at once (default the number of processors)
+ *   -end tick       the tick after which each run stops (default 3024, as batch runs)
+ *   -builder class  the context builder (default the scenario's data loader)
+ * </pre>
+ * The sweep's runs (see {@link ParameterSweep}) are queued in order, and each worker
+ * takes the next run from the queue as soon as it finishes one, so that workers given
+ * short runs take on more of them.  Runs share one parsed copy of each input file, and
+ * parsed files are kept as images mapped read-only into memory (see
+ * {@link CSVReader#mapParsedFiles}), so that later sweeps do not parse them again.
+ * <p>
+ * A row summarising each run (see {@link ScenarioRunner.Result}) is added to the results
+ * as soon as it ends.  Running the same sweep into the same directory again resumes it:
+ * runs with a result are skipped, and runs which failed or did not finish are run again.
+ * A run is keyed by its values and repeat and also by its seed, the end tick, the
+ * scenario directory and the builder, so that a result is only taken as a run's if it
+ * was run in the same way.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SweepRunner {
+
+	private static final String RESULTS = "results.csv";
+	private static final String STATUS_OK = "ok";
+	private static final String STATUS_FAILED = "failed";
+
+	private final ParameterSweep sweep;
+	private final File scenarioDirectory;
+	private final String builderClass;
+	private final double endTick;
+	private final int scenarioSeed;
+	private final SweepResults results;
+	private final List<String> columns;
+
+	public SweepRunner(ParameterSweep sweep, File scenarioDirectory, String builderClass, double endTick, File outputDirectory) throws IOException
+	{
+		this.sweep = sweep;
+		this.scenarioDirectory = scenarioDirectory;
+		this.builderClass = builderClass;
+		this.endTick = endTick;
+		try
+		{
+			this.scenarioSeed = (Integer) new ParametersParser(new File(scenarioDirectory, "parameters.xml")).getParameters().getValue(ParameterSweep.RANDOM_SEED);
+		}
+		catch (Exception e)
+		{
+			throw new IOException("couldn't read the seed of the scenario in " + scenarioDirectory + ": " + e);
+		}
+		this.columns = new ArrayList<String>();
+		columns.add("key");
+		columns.add("repeat");
+		columns.addAll(sweep.getNames());
+		columns.add("seed");
+		columns.add("status");
+		columns.add("lastTick");
+		columns.add("meanDemand");
+		columns.add("peakDemand");
+		columns.add("minDemand");
+		columns.add("fingerprint");
+		columns.add("seconds");
+		columns.add("error");
+		this.results = new SweepResults(new File(outputDirectory, RESULTS), columns);
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length == 0 || args.length % 2 == 0)
+		{
+			usage("no sweep description given");
+		}
+		File scenarioDirectory = new File("Cascade.rs");
+		File outputDirectory = new File("sweep");
+		File inputDirectory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double endTick = 3024;
+		String builderClass = null;
+		try
+		{
+			for (int i = 1; i < args.length; i += 2)
+			{
+				if ("-scenario".equals(args[i]))
+					scenarioDirectory = new File(args[i + 1]);
+				else if ("-out".equals(args[i]))
+					outputDirectory = new File(args[i + 1]);
+				else if ("-inputs".equals(args[i]))
+					inputDirectory = new File(args[i + 1]);
+				else if ("-threads".equals(args[i]))
+					threads = Integer.parseInt(args[i + 1]);
+				else if ("-end".equals(args[i]))
+					endTick = Double.parseDouble(args[i + 1]);
+				else if ("-builder".equals(args[i]))
+					builderClass = args[i + 1];
+				else
+					usage("unknown option " + args[i]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			usage(e.getMessage());
+		}
+
+		try
+		{
+			if (builderClass == null)
+			{
+				builderClass = scenarioBuilder(scenarioDirectory);
+			}
+			CSVReader.shareParsedFiles(true);
+			CSVReader.mapParsedFiles(inputDirectory != null ? inputDirectory : new File(outputDirectory, "inputs"));
+			SweepRunner runner = new SweepRunner(ParameterSweep.parse(new File(args[0])), scenarioDirectory, builderClass, endTick, outputDirectory);
+			int failed = runner.run(threads);
+			System.exit(failed == 0 ? 0 : 1);
+		}
+		catch (IOException e)
+		{
+			System.err.println("SweepRunner: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e)
+		{
+			System.err.println("SweepRunner: interrupted; run the sweep again to resume it");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs every run of the sweep which has no result yet, and waits for them to finish.
+	 *
+	 * @param threads the number of runs to run at once
+	 * @return the number of runs which failed
+	 */
+	public int run(int threads) throws InterruptedException
+	{
+		List<Run> pending = new ArrayList<Run>();
+		for (Run run : sweep.getRuns())
+		{
+			String[] row = results.get(keyOf(run));
+			if (row == null || !STATUS_OK.equals(row[columns.indexOf("status")]))
+			{
+				pending.add(run);
+			}
+		}
+		int total = sweep.getRuns().size();
+		System.out.println("SweepRunner: " + total + " runs, " + (total - pending.size()) + " already done, running " + pending.size() + " on " + threads + " threads");
+
+		final int[] failures = new int[1];
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		for (final Run run : pending)
+		{
+			pool.execute(new Runnable() {
+				public void run()
+				{
+					if (!SweepRunner.this.run(run))
+					{
+						synchronized (failures)
+						{
+							failures[0]++;
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+		{
+		}
+		try
+		{
+			results.close();
+		}
+		catch (IOException e)
+		{
+			System.err.println("SweepRunner: couldn't close the results");
+		}
+		synchronized (failures)
+		{
+			System.out.println("SweepRunner: finished, " + failures[0] + " runs failed");
+			return failures[0];
+		}
+	}
+
+	/**
+	 * Sets up, runs and records one run of the sweep.
+	 * @return whether it ran to its end
+	 */
+	private boolean run(Run run)
+	{
+		long start = System.currentTimeMillis();
+		String key = keyOf(run);
+		Result result;
+		int seed = sweep.seedOf(run, scenarioSeed);
+		try
+		{
+			Parameters parameters = new ParametersParser(new File(scenarioDirectory, "parameters.xml")).getParameters();
+			for (Map.Entry<String, String> value : run.getValues().entrySet())
+			{
+				ParameterSchema details = parameters.getSchema().getDetails(value.getKey());
+				if (details == null)
+				{
+					throw new IllegalArgumentException("the scenario has no parameter " + value.getKey());
+				}
+				parameters.setValue(value.getKey(), details.fromString(value.getValue().trim()));
+			}
+			parameters.setValue(ParameterSweep.RANDOM_SEED, Integer.valueOf(seed));
+			@SuppressWarnings("unchecked") // the builder of a main context, which holds agents of any class
+			ContextBuilder<Object> builder = Class.forName(builderClass).asSubclass(ContextBuilder.class).newInstance();
+			result = ScenarioRunner.run(new Scenario(key, parameters, builder, endTick));
+		}
+		catch (Exception e)
+		{
+			result = new Result(key, -1, e);
+		}
+		double seconds = (System.currentTimeMillis() - start) / 1000.0;
+
+		List<String> row = new ArrayList<String>(columns.size());
+		row.add(key);
+		row.add(Integer.toString(run.getRepeat()));
+		for (String name : sweep.getNames())
+		{
+			row.add(run.getValues().get(name));
+		}
+		row.add(Integer.toString(seed));
+		row.add(result.getError() == null ? STATUS_OK : STATUS_FAILED);
+		row.add(Double.toString(result.getLastTick()));
+		row.add(Double.toString(result.getMeanDemand()));
+		row.add(Double.toString(result.getPeakDemand()));
+		row.add(Double.toString(result.getMinDemand()));
+		row.add(result.getFingerprint());
+		row.add(Double.toString(seconds));
+		row.add(result.getError() == null ? null : result.getError().toString());
+		try
+		{
+			results.append(row.toArray(new String[row.size()]));
+		}
+		catch (IOException e)
+		{
+			System.err.println("SweepRunner: couldn't record the result of run " + run);
+			e.printStackTrace();
+		}
+		System.out.println("SweepRunner: " + result + " (" + seconds + " s)");
+		return result.getError() == null;
+	}
+
+	/**
+	 * @return the key of a run in this sweep's results: that of its values and repeat, its
+	 *         seed, the end tick, the scenario directory and the builder
+	 */
+	private String keyOf(Run run)
+	{
+		return run.getKey("seed " + sweep.seedOf(run, scenarioSeed) + ", end " + endTick + ", scenario " + scenarioDirectory.getAbsolutePath() + ", builder " + builderClass);
+	}
+
+	/**
+	 * @return the class name of the context builder the scenario loads its data with
+	 */
+	private static String scenarioBuilder(File scenarioDirectory) throws IOException
+	{
+		File loader = new File(scenarioDirectory, "repast.simphony.dataLoader.engine.ClassNameDataLoaderAction_0.xml");
+		if (!loader.isFile())
+		{
+			return CascadeContextBuilder.class.getName();
+		}
+		StringBuilder contents = new StringBuilder();
+		BufferedReader in = new BufferedReader(new FileReader(loader));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				contents.append(line);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		Matcher name = Pattern.compile("<string>\\s*([\\w.$]+)\\s*</string>").matcher(contents);
+		if (!name.find())
+		{
+			throw new IOException("couldn't find the context builder in " + loader);
+		}
+		return name.group(1);
+	}
+
+	private static void usage(String problem)
+	{
+		System.err.println("SweepRunner: " + problem);
+		System.err.println("Usage : java SweepRunner <sweep.xml> [-scenario dir] [-out dir] [-inputs dir] [-threads n] [-end tick] [-builder class]");
+		System.err.println("sweep.xml : the sweep, in the format of Repast's batch parameter files");
+		System.err.println("The results are kept in <out>/" + RESULTS + "; running the same sweep into the same directory again resumes it");
+		System.exit(1);
+	}
+}
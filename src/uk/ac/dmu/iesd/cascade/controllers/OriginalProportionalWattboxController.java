@@ -4,12 +4,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.WeakHashMap;
 
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
 
 /**
  * This class implements an abstracted version of the "Wattbox" Smart controller
@@ -118,6 +118,7 @@ public class OriginalProportionalWattboxController implements ISmartController
 		{
 			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), (timeStep % owner.getBaselineHotWaterVolumeProfile().length), (timeStep % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 			this.waterHeatDemandProfile = ArrayUtils.multiply(hotWaterVolumeDemandProfile, Consts.WATER_SPECIFIC_HEAT_CAPACITY / Consts.KWH_TO_JOULE_CONVERSION_FACTOR * (owner.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP));
+			ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
 		} else
 		{
 			this.waterHeatDemandProfile = Arrays.copyOf(noElecHeatingDemand, noElecHeatingDemand.length);
@@ -203,7 +204,7 @@ public class OriginalProportionalWattboxController implements ISmartController
 		}
 		S = ArrayUtils.normalizeValues(S, 1, false); // Normalise values
 
-		double n = RandomHelper.nextDouble();
+		double n = mainContext.getUniform().nextDouble();
 		int k = 0; // %throw dice and initialise index
 		while (S[k] < n)
 			k++;
@@ -314,7 +315,7 @@ public class OriginalProportionalWattboxController implements ISmartController
 		{
 			// L=ArrayUtils.offset(L,(Nt*(Trm-Tex)*(owner.buildingHeatLossRate/1000)/((48-Nt)*0.9*CoP)));//%Add
 			// gap recovery load spread over all timeslots
-			double n = RandomHelper.nextDouble();
+			double n = mainContext.getUniform().nextDouble();
 			int k = 0;// %throw dice and initialise index
 			while (S[k] < n)
 			{// %go through 48 steps to find (probabilistic) place for gap to
@@ -386,6 +387,8 @@ public class OriginalProportionalWattboxController implements ISmartController
 		// double[] totalHeatDemand = ArrayUtils.add(this.heatPumpDemandProfile,
 		// spreadWaterDemand(baseArray));
 
+		double storageOverhead = HotWaterTankModel.domesticStorageOverhead(owner.getHotWaterTankVolume(), ticksPerDay);
+
 		for (int i = 0; i < this.waterHeatDemandProfile.length; i++)
 		{
 			double Sk = baseArray[i];
@@ -395,23 +398,27 @@ public class OriginalProportionalWattboxController implements ISmartController
 
 				double[] Wd = createAttractivityCDFFromSignal(i);
 
-				double n = RandomHelper.nextDouble();// %Throw a dice again and
+				double n = mainContext.getUniform().nextDouble();// %Throw a dice again and
 														// reset k
 				int k = 0;
 				while (k < Wd.length && Wd[k] < n)
 					k++;// %find k value in which to do this water heating
 
 				this.waterHeatDemandProfile[k] += baseArray[i];
-				for (int m = k; m < i; m++)
+				// top up for the tank's standing losses on the heat stored from tick k until it is used in tick i
+				double storedHeat = Sk;
+				for (int m = i - 1; m >= k; m--)
 				{
-					this.waterHeatDemandProfile[m] += (Sk / (owner.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP)) * 0.5);// %Top
-					// up
-					// for
-					// losses - estimated at 0.5 deg C per half hour
+					double topUp = storedHeat * storageOverhead;
+					this.waterHeatDemandProfile[m] += topUp;
+					storedHeat += topUp;
 				}
 			}
 		}
 
+		// the tank is held at its set point throughout the day
+		ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
+
 	}
 
 	/*
@@ -677,7 +684,7 @@ public class OriginalProportionalWattboxController implements ISmartController
 		}
 		Wd = ArrayUtils.normalizeValues(Wd, 1, false);
 
-		double tVar = RandomHelper.nextDouble();
+		double tVar = mainContext.getUniform().nextDouble();
 		int k = i;
 		while (k + (j - i) < w.length && Wd[k] < tVar) // cycle must fit in day
 														// firstly - then be put
@@ -711,93 +718,19 @@ public class OriginalProportionalWattboxController implements ISmartController
 	private double[] calculateEstimatedSpaceHeatPumpDemand(
 			double[] localSetPointArray)
 	{
-		double[] energyProfile = new double[ticksPerDay];
-		double[] deltaT = ArrayUtils.add(localSetPointArray, ArrayUtils.negate(priorDayExternalTempProfile));
-		// int availableHeatRecoveryTicks = ticksPerDay;
-		double maxRecoveryPerTick = 0.5d * Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE; // i.e.
-																								// later
-		// double internalTemp = this.setPointProfile[0];
-
-		for (int i = 0; i < ticksPerDay; i++)
+		double[] heatProfile = new double[ticksPerDay];
+		double[] tempProfile = new double[ticksPerDay];
+		// simulate the day with the household's own building model, starting from the current set point
+		boolean attained = BuildingThermalModel.simulateHeatPump(owner.buildingThermalMass, owner.buildingHeatLossRate, owner.getHeatPumpMaxHeatPerTick(), localSetPointArray, priorDayExternalTempProfile,
+				this.setPointProfile[0], BuildingThermalModel.tickSeconds(ticksPerDay), mainContext.getRunConfig().getThermalDiscretisation(), heatProfile, tempProfile);
+		if (!attained)
 		{
-			// --availableHeatRecoveryTicks;
-			// currentTempProfile[i] = internalTemp;
-			double tempChange;
-
-			if (i > 0)
-			{
-				tempChange = localSetPointArray[i] - localSetPointArray[i - 1];
-			} else
-			{
-				tempChange = localSetPointArray[i] - this.setPointProfile[0];
-			}
-
-			// double setPointMaintenanceEnergy = deltaT[i] *
-			// ((owner.buildingHeatLossRate /
-			// Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY
-			// / ticksPerDay);
-			double setPointMaintenanceEnergy = (this.setPointProfile[i] - priorDayExternalTempProfile[i]) * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY / ticksPerDay);
-
-			// tempChangePower can be -ve if the temperature is falling. If
-			// tempChangePower magnitude
-			// is greater than or equal to setPointMaintenance, the heat pump is
-			// off.
-			double tempChangeEnergy = tempChange * owner.buildingThermalMass;
-
-			// Although the temperature profiles supplied should be such that
-			// the heat
-			// can always be recovered within a reasonable cap - we could put a
-			// double
-			// check in here.
-			/*
-			 * if (tempChangeEnergy > maxRecoveryPerTick *
-			 * ((owner.buildingHeatLossRate /
-			 * Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY
-			 * / ticksPerDay) * ArrayUtils.max(deltaT))) { //System.err.println(
-			 * "WattboxController: Should never get here - asked to get demand for a profile that can't recover temp"
-			 * ); return null; }
-			 */
-
-			// Add in the energy to maintain the new temperature, otherwise it
-			// can be cheaper
-			// To let the temperature fall and re-heat under flat price and
-			// external temperature
-			// conditions. TODO: Is this a good physical analogue?
-			// setPointMaintenanceEnergy += tempChange *
-			// ((owner.buildingHeatLossRate /
-			// Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY
-			// / ticksPerDay);
-
-			double heatPumpEnergyNeeded = Math.max(0, (setPointMaintenanceEnergy + tempChangeEnergy) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
-			// double heatPumpEnergyNeeded = (setPointMaintenanceEnergy /
-			// Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) + (tempChangeEnergy *
-			// (Consts.DOMESTIC_HEAT_PUMP_SPACE_COP *
-			// Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE));
-
-			// zero the energy if heat pump would be off
-			if (deltaT[i] < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF)
-			{
-				// heat pump control algorithm would switch off pump
-				heatPumpEnergyNeeded = 0;
-			}
-
-			if (heatPumpEnergyNeeded > (owner.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP * 24 / ticksPerDay))
-			{
-				// This profiel produces a value that exceeds the total capacity
-				// of the
-				// heat pump and is therefore unachievable.
-				// System.out.println("Nulling the demand profile for energy needed "
-				// + heatPumpEnergyNeeded );
-				// Can't satisfy this demand for this set point profile, return
-				// null
-				return null;
-			}
-
-			energyProfile[i] = heatPumpEnergyNeeded;
+			//This profile needs more heat than the heat pump can supply and is therefore unachievable.
+			return null;
 		}
 
-		return energyProfile;
-
+		ArrayUtils.multiplyInPlace(heatProfile, 1 / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
+		return heatProfile;
 	}
 
 	/**
@@ -838,7 +771,7 @@ public class OriginalProportionalWattboxController implements ISmartController
 			this.heatPumpOnOffProfile = Arrays.copyOf(owner.spaceHeatPumpOn, owner.spaceHeatPumpOn.length);
 
 		if (owner.isHasElectricalWaterHeat())
-			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), ((Math.max(0, (int) RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length), ((Math.max(0, (int) RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
+			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), ((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length), ((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 
 		this.maxHeatPumpElecDemandPerTick = (owner.ratedPowerHeatPump * (double) 24 / ticksPerDay);
 		this.maxImmersionHeatPerTick = Consts.MAX_DOMESTIC_IMMERSION_POWER * (double) 24 / ticksPerDay;
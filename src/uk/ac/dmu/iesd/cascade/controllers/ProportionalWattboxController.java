@@ -4,12 +4,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.WeakHashMap;
 
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
 
 /**
  * This class implements an abstracted version of the "Wattbox" Smart controller
@@ -36,6 +37,11 @@ public class ProportionalWattboxController implements ISmartController
 	int ticksPerDay;
 
 	double[] dayPredictedCostSignal;
+	/**
+	 * Window of the owner's signal digest for the day being optimised; shared with
+	 * every other controller receiving the same signal, so must be treated as read only
+	 */
+	SignalDigest.DayWindow signalWindow;
 	// Should always have b > A, otherwise there can be zero or negative cost to
 	// consumption
 	// which often makes the optimisation algorithms "spike" the consumption at
@@ -96,8 +102,8 @@ public class ProportionalWattboxController implements ISmartController
 	{
 		checkForNewAppliancesAndUpdateConstants();
 
-		double[] ownersCostSignal = owner.getPredictedCostSignal();
-		this.dayPredictedCostSignal = Arrays.copyOfRange(ownersCostSignal, timeStep % ownersCostSignal.length, timeStep % ownersCostSignal.length + ticksPerDay);
+		this.signalWindow = owner.getSignalDigest().getDayWindow(timeStep);
+		this.dayPredictedCostSignal = this.signalWindow.getValues();
 		/**** TODO: Be aware of below - means signal goes neg and pos ****/
 		// this.dayPredictedCostSignal =
 		// ArrayUtils.offset(ArrayUtils.multiply(this.dayPredictedCostSignal,
@@ -118,6 +124,7 @@ public class ProportionalWattboxController implements ISmartController
 		{
 			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), (timeStep % owner.getBaselineHotWaterVolumeProfile().length), (timeStep % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 			this.waterHeatDemandProfile = ArrayUtils.multiply(hotWaterVolumeDemandProfile, Consts.WATER_SPECIFIC_HEAT_CAPACITY / Consts.KWH_TO_JOULE_CONVERSION_FACTOR * (owner.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP));
+			ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
 		} else
 		{
 			this.waterHeatDemandProfile = Arrays.copyOf(noElecHeatingDemand, noElecHeatingDemand.length);
@@ -229,7 +236,7 @@ public class ProportionalWattboxController implements ISmartController
 	 */
 	private void gapColdLoadProbabilistic(int timeStep)
 	{
-		if (ArrayUtils.max(this.dayPredictedCostSignal) == 0 && ArrayUtils.min(this.dayPredictedCostSignal) == 0)
+		if (this.signalWindow.isNull())
 		{
 			// No point doing anything if the cost signal is null (flat == all
 			// zeros)
@@ -248,23 +255,11 @@ public class ProportionalWattboxController implements ISmartController
 		double[] fridge_freezer_loads_day = Arrays.copyOfRange(fridge_freezer_loads, (timeStep % fridge_freezer_loads.length), (timeStep % fridge_freezer_loads.length) + ticksPerDay);
 
 		// %Begin by eliminating the negative signal slots as we won't want to
-		// gap them
-		// %but only if S is not null.
-		// if max(S)>0.01
-		double[] S = this.dayPredictedCostSignal.clone();
-		for (int i = 0; i < 48; i++)
-		{
-			if (S[i] < 0)
-				S[i] = 0;
-		}
+		// gap them, then create intervals proportionate to original S.
+		// The distribution is shared via the signal digest - read only.
+		double[] S = this.signalWindow.getClippedCumulativeDistribution();
 
-		for (int i = 1; i < 48; i++)
-		{
-			S[i] += S[i - 1];// %create intervals proportionate to original S
-		}
-		S = ArrayUtils.normalizeValues(S, 1, false); // Normalise values
-
-		double n = RandomHelper.nextDouble();
+		double n = mainContext.getUniform().nextDouble();
 		int k = 0; // %throw dice and initialise index
 		while (S[k] < n)
 			k++;
@@ -311,7 +306,7 @@ public class ProportionalWattboxController implements ISmartController
 	 */
 	private void assignSetPointsProbabilistic()
 	{
-		if (ArrayUtils.max(this.dayPredictedCostSignal) == ArrayUtils.min(this.dayPredictedCostSignal))
+		if (this.signalWindow.isFlat())
 		{
 			// If flat signal, do nothing.  Note that this can't work if the demand was elastic, but this purely deals with WITHIN DAY
 			// allocation.
@@ -333,36 +328,9 @@ public class ProportionalWattboxController implements ISmartController
 		double CoP = Consts.DOMESTIC_HEAT_PUMP_SPACE_COP;// 2.4; %Baseline heat
 															// pump performance
 		// %Begin by eliminating the negative signal slots as we won't want to
-		// gap them
-		double[] S = this.dayPredictedCostSignal.clone();
-		for (int i = 0; i < 48; i++)
-		{
-			if (S[i] < 0)
-				S[i] = 0;
-		}
-		
-/*		// Start of test.  this looks at signal over whole switch off period, not just start
-		double[] Stemp = new double[S.length];
-		for (int j = 0; j < S.length - Nt+1; j++)
-		{
-			double p = 0;
-			for (int k = 0; k < Nt; k++)
-			{
-				p+=S[j+k];
-			}
-			p /= Nt;
-			Stemp[j] = p;
-		}
-		S=Stemp;
-		// end of test
-*/
-		S = ArrayUtils.normalizeValues(S, 1, false); // Normalise values
-		for (int i = 1; i < 48; i++)
-		{
-			S[i] += S[i - 1];// %create intervals proportionate to original S
-								// (effectively a CDF)
-		}
-		S = ArrayUtils.normalizeValues(S, 1, false); // Normalise values for CDF
+		// gap them, then normalise and create intervals proportionate to
+		// original S (effectively a CDF).  Shared via the signal digest - read only.
+		double[] S = this.signalWindow.getNormalisedClippedCumulativeDistribution();
 
 		//if (this.owner.getAgentID()==1 || this.owner.getAgentID() == 100)
 			//System.err.println("CDF ="+Arrays.toString(S));
@@ -384,7 +352,7 @@ public class ProportionalWattboxController implements ISmartController
 		{
 			// L=ArrayUtils.offset(L,(Nt*(Trm-Tex)*(owner.buildingHeatLossRate/1000)/((48-Nt)*0.9*CoP)));//%Add
 			// gap recovery load spread over all timeslots
-			double n = RandomHelper.nextDouble();
+			double n = mainContext.getUniform().nextDouble();
 			int k = 0;// %throw dice and initialise index
 			while (S[k] < n)
 			{// %go through 48 steps to find (probabilistic) place for gap to
@@ -431,7 +399,7 @@ public class ProportionalWattboxController implements ISmartController
 	private void placeWaterHeatingProportional()
 	{
 		
-		if (ArrayUtils.max(this.dayPredictedCostSignal) == ArrayUtils.min(this.dayPredictedCostSignal))
+		if (this.signalWindow.isFlat())
 		{
 			// If null signal, do nothing.  Note that this can't work if the demand was elastic, but this purely deals with WITHIN DAY
 			// allocation.
@@ -457,6 +425,8 @@ public class ProportionalWattboxController implements ISmartController
 		// double[] totalHeatDemand = ArrayUtils.add(this.heatPumpDemandProfile,
 		// spreadWaterDemand(baseArray));
 
+		double storageOverhead = HotWaterTankModel.domesticStorageOverhead(owner.getHotWaterTankVolume(), ticksPerDay);
+
 		for (int i = 0; i < this.waterHeatDemandProfile.length; i++)
 		{
 			double Sk = baseArray[i];
@@ -466,7 +436,7 @@ public class ProportionalWattboxController implements ISmartController
 
 				double[] Wd = createAttractivityCDFFromSignal(i);
 
-				double n = RandomHelper.nextDouble();// %Throw a dice again and
+				double n = mainContext.getUniform().nextDouble();// %Throw a dice again and
 														// reset k
 				int k = 0;
 				while (k < Wd.length && Wd[k] < n)
@@ -484,63 +454,30 @@ public class ProportionalWattboxController implements ISmartController
 					System.err.println("On day" + this.mainContext.getDayCount());
 				}
 				
-				for (int m = k; m < i; m++)
+				// top up for the tank's standing losses on the heat stored from tick k until it is used in tick i
+				double storedHeat = Sk;
+				for (int m = i - 1; m >= k; m--)
 				{
-					this.waterHeatDemandProfile[m] += (Sk / (owner.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP)) * 0.5);// %Top
-					// up
-					// for
-					// losses - estimated at 0.5 deg C per half hour
+					double topUp = storedHeat * storageOverhead;
+					this.waterHeatDemandProfile[m] += topUp;
+					storedHeat += topUp;
 				}
 			}
 		}
 
+		// the tank is held at its set point throughout the day
+		ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
+
 	}
 
 	/*
 	 * Returns a CDF based on attractivity (inverse of price) of timeslots prior
-	 * to slot i passed in.
+	 * to slot i passed in.  The CDF is calculated once per signal by the digest
+	 * and must not be modified.
 	 */
 	private double[] createAttractivityCDFFromSignal(int i)
 	{
-		double[] Wd = new double[dayPredictedCostSignal.length];
-		double[] pre_prices = Arrays.copyOfRange(dayPredictedCostSignal, 0, i + 1);
-
-		double Smax = ArrayUtils.max(pre_prices); // %find highest S value
-		pre_prices = ArrayUtils.multiply(pre_prices, -1/*
-														 * d /
-														 * ArrayUtils.sum(pre_prices
-														 * )
-														 */);
-
-		if (Smax < 0)
-		{
-			Smax = -Smax;
-		}
-		pre_prices = ArrayUtils.offset(pre_prices, Smax);
-		// if (ArrayUtils.sum(pre_prices)!=0)
-		{
-			// in window before i
-			// in window before i
-
-			System.arraycopy(pre_prices, 0, Wd, 0, pre_prices.length); // generate
-																		// "window function"
-																		// based
-																		// on
-																		// inverse
-																		// of
-																		// price
-																		// before
-																		// slot
-																		// i
-			for (int k = 1; k <= i; k++)
-			{
-				Wd[k] = Wd[k] + Wd[k - 1];// %create cumulative distribution
-											// of Wd
-			}
-			Wd = ArrayUtils.normalizeValues(Wd, 1, false); // Normalise CDF
-			Arrays.fill(Wd, i + 1, Wd.length, 1);
-		}
-		return Wd;
+		return this.signalWindow.getAttractivityDistribution(i);
 	}
 	
 
@@ -597,7 +534,7 @@ public class ProportionalWattboxController implements ISmartController
 		// System.out.println("dayPredictedCostSignal: "+
 		// Arrays.toString(dayPredictedCostSignal));
 
-		if (ArrayUtils.max(this.dayPredictedCostSignal) == 0 && ArrayUtils.min(this.dayPredictedCostSignal) == 0)
+		if (this.signalWindow.isNull())
 		{
 			// No point doing anything if passed a null signal
 			return;
@@ -679,7 +616,7 @@ public class ProportionalWattboxController implements ISmartController
 			{
 				i++;
 			}
-			moveWetLoad(c, dayPredictedCostSignal, Tw, i);
+			moveWetLoad(c, this.signalWindow.getInvertedValues(), Tw, i);
 		}
 
 		for (double[] c : dryCycles)
@@ -689,7 +626,7 @@ public class ProportionalWattboxController implements ISmartController
 			{
 				i++;
 			}
-			moveWetLoad(c, dayPredictedCostSignal, Tw, i);
+			moveWetLoad(c, this.signalWindow.getInvertedValues(), Tw, i);
 		}
 
 		for (double[] c : dishwashCycles)
@@ -699,7 +636,7 @@ public class ProportionalWattboxController implements ISmartController
 			{
 				i++;
 			}
-			moveWetLoad(c, dayPredictedCostSignal, Tw, i);
+			moveWetLoad(c, this.signalWindow.getInvertedValues(), Tw, i);
 		}
 
 		double[] newWash = new double[washer_loads_day.length];
@@ -730,15 +667,13 @@ public class ProportionalWattboxController implements ISmartController
 	}
 
 	/**
-	 * @param washer_loads_day
-	 * @param dayPredictedCostSignal2
+	 * @param w the wet load cycle to move
+	 * @param sW the day signal inverted about its maximum (read only)
 	 * @param tw
 	 */
-	private void moveWetLoad(double[] w, double[] s, int tw, int i)
+	private void moveWetLoad(double[] w, double[] sW, int tw, int i)
 	{
-		double[] Wd = new double[s.length];
-		double[] sW = ArrayUtils.multiply(s, -1);
-		sW = ArrayUtils.offset(sW, -ArrayUtils.min(sW));
+		double[] Wd = new double[sW.length];
 
 		int j = i;
 		while (j < w.length && w[j] > 0)
@@ -751,7 +686,7 @@ public class ProportionalWattboxController implements ISmartController
 
 		Arrays.fill(w, i, j, 0);
 
-		for (int k = i; k < s.length && k < i + tw; k++)
+		for (int k = i; k < sW.length && k < i + tw; k++)
 		{
 			Wd[k] = (k == 0 ? 0 : Wd[k - 1]) + sW[k];
 		}
@@ -761,7 +696,7 @@ public class ProportionalWattboxController implements ISmartController
 		}
 		Wd = ArrayUtils.normalizeValues(Wd, 1, false);
 
-		double tVar = RandomHelper.nextDouble();
+		double tVar = mainContext.getUniform().nextDouble();
 		int k = i;
 		while (k + (j - i) < w.length && Wd[k] < tVar) // cycle must fit in day
 														// firstly - then be put
@@ -780,7 +715,8 @@ public class ProportionalWattboxController implements ISmartController
 	 */
 	public void setDayPredictedCostSignal(double[] dayPredictedCostSignal)
 	{
-		this.dayPredictedCostSignal = dayPredictedCostSignal;
+		this.signalWindow = SignalDigest.windowOf(dayPredictedCostSignal);
+		this.dayPredictedCostSignal = this.signalWindow.getValues();
 	}
 
 	/**
@@ -795,93 +731,19 @@ public class ProportionalWattboxController implements ISmartController
 	private double[] calculateEstimatedSpaceHeatPumpDemand(
 			double[] localSetPointArray)
 	{
-		double[] energyProfile = new double[ticksPerDay];
-		double[] deltaT = ArrayUtils.add(localSetPointArray, ArrayUtils.negate(priorDayExternalTempProfile));
-		// int availableHeatRecoveryTicks = ticksPerDay;
-		double maxRecoveryPerTick = 0.5d * Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE; // i.e.
-																								// later
-		// double internalTemp = this.setPointProfile[0];
-
-		for (int i = 0; i < ticksPerDay; i++)
+		double[] heatProfile = new double[ticksPerDay];
+		double[] tempProfile = new double[ticksPerDay];
+		// simulate the day with the household's own building model, starting from the current set point
+		boolean attained = BuildingThermalModel.simulateHeatPump(owner.buildingThermalMass, owner.buildingHeatLossRate, owner.getHeatPumpMaxHeatPerTick(), localSetPointArray, priorDayExternalTempProfile,
+				this.setPointProfile[0], BuildingThermalModel.tickSeconds(ticksPerDay), mainContext.getRunConfig().getThermalDiscretisation(), heatProfile, tempProfile);
+		if (!attained)
 		{
-			// --availableHeatRecoveryTicks;
-			// currentTempProfile[i] = internalTemp;
-			double tempChange;
-
-			if (i > 0)
-			{
-				tempChange = localSetPointArray[i] - localSetPointArray[i - 1];
-			} else
-			{
-				tempChange = localSetPointArray[i] - this.setPointProfile[0];
-			}
-
-			// double setPointMaintenanceEnergy = deltaT[i] *
-			// ((owner.buildingHeatLossRate /
-			// Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY
-			// / ticksPerDay);
-			double setPointMaintenanceEnergy = (this.setPointProfile[i] - priorDayExternalTempProfile[i]) * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY / ticksPerDay);
-
-			// tempChangePower can be -ve if the temperature is falling. If
-			// tempChangePower magnitude
-			// is greater than or equal to setPointMaintenance, the heat pump is
-			// off.
-			double tempChangeEnergy = tempChange * owner.buildingThermalMass;
-
-			// Although the temperature profiles supplied should be such that
-			// the heat
-			// can always be recovered within a reasonable cap - we could put a
-			// double
-			// check in here.
-			/*
-			 * if (tempChangeEnergy > maxRecoveryPerTick *
-			 * ((owner.buildingHeatLossRate /
-			 * Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY
-			 * / ticksPerDay) * ArrayUtils.max(deltaT))) { //System.err.println(
-			 * "WattboxController: Should never get here - asked to get demand for a profile that can't recover temp"
-			 * ); return null; }
-			 */
-
-			// Add in the energy to maintain the new temperature, otherwise it
-			// can be cheaper
-			// To let the temperature fall and re-heat under flat price and
-			// external temperature
-			// conditions. TODO: Is this a good physical analogue?
-			// setPointMaintenanceEnergy += tempChange *
-			// ((owner.buildingHeatLossRate /
-			// Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY
-			// / ticksPerDay);
-
-			double heatPumpEnergyNeeded = Math.max(0, (setPointMaintenanceEnergy + tempChangeEnergy) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
-			// double heatPumpEnergyNeeded = (setPointMaintenanceEnergy /
-			// Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) + (tempChangeEnergy *
-			// (Consts.DOMESTIC_HEAT_PUMP_SPACE_COP *
-			// Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE));
-
-			// zero the energy if heat pump would be off
-			if (deltaT[i] < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF)
-			{
-				// heat pump control algorithm would switch off pump
-				heatPumpEnergyNeeded = 0;
-			}
-
-			if (heatPumpEnergyNeeded > (owner.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP * 24 / ticksPerDay))
-			{
-				// This profiel produces a value that exceeds the total capacity
-				// of the
-				// heat pump and is therefore unachievable.
-				// System.out.println("Nulling the demand profile for energy needed "
-				// + heatPumpEnergyNeeded );
-				// Can't satisfy this demand for this set point profile, return
-				// null
-				return null;
-			}
-
-			energyProfile[i] = heatPumpEnergyNeeded;
+			//This profile needs more heat than the heat pump can supply and is therefore unachievable.
+			return null;
 		}
 
-		return energyProfile;
-
+		ArrayUtils.multiplyInPlace(heatProfile, 1 / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
+		return heatProfile;
 	}
 
 	/**
@@ -895,7 +757,7 @@ public class ProportionalWattboxController implements ISmartController
 	 */
 	private double evaluateCost(double[] localDemandProfile)
 	{
-		return ArrayUtils.sum(ArrayUtils.mtimes(localDemandProfile, this.dayPredictedCostSignal));
+		return ArrayUtils.dotProduct(localDemandProfile, this.dayPredictedCostSignal);
 	}
 
 	/**
@@ -925,7 +787,7 @@ public class ProportionalWattboxController implements ISmartController
 
 		if (owner.isHasElectricalWaterHeat())
 		{
-			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), ((Math.max(0, (int) RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length), ((Math.max(0, (int) RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
+			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(), ((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length), ((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 		}
 
 		if (owner.hasElectricVehicle)
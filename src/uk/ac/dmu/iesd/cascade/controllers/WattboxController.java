@@ -3,12 +3,15 @@ package uk.ac.dmu.iesd.cascade.controllers;
 import java.util.Arrays;
 import java.util.WeakHashMap;
 
-import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.random.RandomHelper;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.EVChargingScheduler;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
+import uk.ac.dmu.iesd.cascade.util.profilegenerators.EVChargingSessions;
 
 /**
  * This class implements an abstracted version of the "Wattbox"
@@ -73,6 +76,10 @@ public class WattboxController implements ISmartController{
 	private double maxHeatPumpElecDemandPerTick;
 	private double expectedNextDaySpaceHeatCost;
 	private double maxImmersionHeatPerTick;
+	private double maxEVChargePerTick;
+	private final EVChargingScheduler evScheduler = new EVChargingScheduler();
+	private double[] evSessionPrices = new double[0];
+	private double[] evSessionCharge = new double[0];
 	private double[] noElecHeatingDemand = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
 
 	//Uniform coldAndWetApplTimeslotDelayRandDist;  //temp
@@ -95,14 +102,15 @@ public class WattboxController implements ISmartController{
 	{
 		checkForNewAppliancesAndUpdateConstants();
 
-		double[] ownersCostSignal = owner.getPredictedCostSignal();
-		this.dayPredictedCostSignal = Arrays.copyOfRange(ownersCostSignal, timeStep % ownersCostSignal.length, timeStep % ownersCostSignal.length + ticksPerDay);
+		// The scaled day signal is shared through the owner's signal digest and
+		// is the same for every controller with these cost constants - read only.
+		SignalDigest.DayWindow signalWindow = owner.getSignalDigest().getDayWindow(timeStep);
 
 		//System.out.println("update");
 
-		//System.out.println("dayPredictedCostSignal: "+ Arrays.toString(dayPredictedCostSignal));
+		//System.out.println("dayPredictedCostSignal: "+ Arrays.toString(signalWindow.getValues()));
 
-		this.dayPredictedCostSignal = ArrayUtils.offset(ArrayUtils.multiply(this.dayPredictedCostSignal, predictedCostToRealCostA),realCostOffsetb);
+		this.dayPredictedCostSignal = signalWindow.getScaledValues(predictedCostToRealCostA, realCostOffsetb);
 
 		//System.out.println("afterOffset dayPredictedCostSignal: "+ Arrays.toString(dayPredictedCostSignal));
 
@@ -126,6 +134,7 @@ public class WattboxController implements ISmartController{
 		{
 			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(),(timeStep % owner.getBaselineHotWaterVolumeProfile().length), (timeStep % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 			this.waterHeatDemandProfile = ArrayUtils.multiply(hotWaterVolumeDemandProfile, Consts.WATER_SPECIFIC_HEAT_CAPACITY / Consts.KWH_TO_JOULE_CONVERSION_FACTOR * (owner.waterSetPoint - ArrayUtils.min(Consts.MONTHLY_MAINS_WATER_TEMP) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP) );
+			ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
 		}
 		else
 		{
@@ -159,7 +168,7 @@ public class WattboxController implements ISmartController{
 
 		if (eVehicleControlled && owner.isHasElectricVehicle())
 		{
-			optimiseEVProfile();
+			optimiseEVProfile(timeStep);
 		}
 
 		//At the end of the step, set the temperature profile for today's 
@@ -177,6 +186,7 @@ public class WattboxController implements ISmartController{
 		// of its owner
 		this.maxHeatPumpElecDemandPerTick = (owner.ratedPowerHeatPump * (double) 24 / ticksPerDay);
 		this.maxImmersionHeatPerTick = Consts.MAX_DOMESTIC_IMMERSION_POWER * (double) 24 / ticksPerDay;
+		this.maxEVChargePerTick = Consts.MAX_DOMESTIC_EV_CHARGER_POWER * (double) 24 / ticksPerDay;
 	}
 
 	/**
@@ -194,9 +204,50 @@ public class WattboxController implements ISmartController{
 	 * Optimise the Electric Vehicle charging profile for the household
 	 * which owns this Wattbox.
 	 * 
-	 * TODO: Not yet implemented.
+	 * Schedules the charging session which follows today's journey (if one is
+	 * made) at least predicted cost, between the time the vehicle is plugged in and
+	 * the time it leaves the next morning, delivering the energy the journey needs
+	 * at no more than the charger's rating in any tick.  Beyond the end of today's
+	 * signal, tomorrow morning's costs are taken to be the same as this morning's.
+	 * Vehicles whose sessions are not known keep their unmanaged profile.
 	 */
-	private void optimiseEVProfile() {
+	private void optimiseEVProfile(int timeStep) {
+		EVChargingSessions sessions = owner.getEVChargingSessions();
+		if (sessions == null)
+		{
+			return;
+		}
+		if (this.EVChargingProfile == null)
+		{
+			this.EVChargingProfile = owner.getEVProfile();
+		}
+
+		int dayStart = timeStep % EVChargingProfile.length;
+		int day = dayStart / ticksPerDay;
+		if (!sessions.hasSession(day))
+		{
+			return;
+		}
+		int plugIn = sessions.getPlugIn(day);
+		int slots = sessions.getPlugOut(day) - plugIn;
+		if (evSessionPrices.length < slots)
+		{
+			evSessionPrices = new double[slots];
+			evSessionCharge = new double[slots];
+		}
+		int signalOffset = plugIn - dayStart;
+		for (int i = 0; i < slots; i++)
+		{
+			evSessionPrices[i] = this.dayPredictedCostSignal[(signalOffset + i) % ticksPerDay];
+		}
+
+		evScheduler.schedule(evSessionPrices, slots, sessions.getEnergy(day), maxEVChargePerTick, evSessionCharge);
+
+		for (int i = 0; i < slots; i++)
+		{
+			this.EVChargingProfile[(plugIn + i) % EVChargingProfile.length] = evSessionCharge[i];
+		}
+		owner.setOptimisedEVProfile(this.EVChargingProfile);
 	}
 
 
@@ -222,6 +273,8 @@ public class WattboxController implements ISmartController{
 
 		double currCost = evaluateCost(totalHeatDemand);
 		double[] tempArray = Arrays.copyOf(baseArray, baseArray.length);
+		double[] spreadDemand = new double[baseArray.length];
+		double storageOverhead = HotWaterTankModel.domesticStorageOverhead(owner.getHotWaterTankVolume(), ticksPerDay);
 
 		for (int i = 0; i < baseArray.length; i++)
 		{
@@ -230,10 +283,12 @@ public class WattboxController implements ISmartController{
 				double extraHeatRequired = 0;
 				for (int j = i-1; j >= 0; j--)
 				{
-					extraHeatRequired += (Consts.WATER_TEMP_LOSS_PER_SECOND * ((double)Consts.SECONDS_PER_DAY / ticksPerDay)) * this.hotWaterVolumeDemandProfile[i] * (Consts.WATER_SPECIFIC_HEAT_CAPACITY / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP;
+					// heat stored from tick j until it is used in tick i is subject to the tank's standing losses
+					extraHeatRequired += (baseArray[i] + extraHeatRequired) * storageOverhead;
 					tempArray[j] += baseArray[i] + extraHeatRequired;
 					tempArray[j+1] = 0;
-					totalHeatDemand = ArrayUtils.add(this.heatPumpDemandProfile, spreadWaterDemand(tempArray));
+					spreadWaterDemand(tempArray, spreadDemand);
+					ArrayUtils.addInto(totalHeatDemand, this.heatPumpDemandProfile, spreadDemand);
 					double newCost = evaluateCost(totalHeatDemand);
 					if (newCost < currCost)
 					{
@@ -243,6 +298,9 @@ public class WattboxController implements ISmartController{
 				}
 			}
 		}
+
+		// the tank is held at its set point throughout the day
+		ArrayUtils.offsetInPlace(this.waterHeatDemandProfile, HotWaterTankModel.domesticStandingLossDemand(owner.waterSetPoint, ticksPerDay));
 	}
 
 	/**
@@ -254,7 +312,23 @@ public class WattboxController implements ISmartController{
 	 */
 	private double[] spreadWaterDemand(double[] basicDemandArray)
 	{
-		double[] totalHeatDemand = ArrayUtils.add(basicDemandArray, this.heatPumpDemandProfile);
+		double[] spreadDemand = new double[basicDemandArray.length];
+		spreadWaterDemand(basicDemandArray, spreadDemand);
+		return spreadDemand;
+	}
+
+	/**
+	 * As {@link #spreadWaterDemand(double[])}, but writing the constrained water
+	 * heating demand into the array supplied, so that it can be called repeatedly
+	 * without allocation.
+	 * 
+	 * @param basicDemandArray
+	 * @param spreadDemand array to receive the constrained water heating demand
+	 */
+	private void spreadWaterDemand(double[] basicDemandArray, double[] spreadDemand)
+	{
+		double[] totalHeatDemand = spreadDemand;
+		ArrayUtils.addInto(totalHeatDemand, basicDemandArray, this.heatPumpDemandProfile);
 		for (int i = 0; i < totalHeatDemand.length; i++)
 		{
 			if (totalHeatDemand[i] > this.maxHeatPumpElecDemandPerTick )
@@ -323,7 +397,7 @@ public class WattboxController implements ISmartController{
 			}
 		}
 
-		return ArrayUtils.add(totalHeatDemand, ArrayUtils.negate(this.heatPumpDemandProfile));
+		ArrayUtils.subtractInto(spreadDemand, totalHeatDemand, this.heatPumpDemandProfile);
 	}
 
 	
@@ -667,18 +741,20 @@ public class WattboxController implements ISmartController{
 		double[] localDemandProfile = calculateEstimatedSpaceHeatPumpDemand(setPointProfile);
 		double leastCost = evaluateCost(localDemandProfile);
 		double newCost = leastCost;
+		int[] recoveryIndices = new int[localSetPointArray.length];
+		double[] otherPrices = new double[this.dayPredictedCostSignal.length];
 		double maxRecoveryPerTick = 0.5d * Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY / ticksPerDay) * ArrayUtils.max(deltaT)) ; // i.e. can't recover more than 50% of heat loss at 90% COP.  TODO: Need to code this better later
 
 		for (int i = 0; i < localSetPointArray.length; i++)
 		{
 			//Start each evaluation from the basepoint of the original (user specified) set point profile
-			localSetPointArray = Arrays.copyOf(setPointProfile, setPointProfile.length);
+			System.arraycopy(setPointProfile, 0, localSetPointArray, 0, setPointProfile.length);
 			double totalTempLoss = 0;
-			double[] otherPrices = Arrays.copyOf(this.dayPredictedCostSignal, this.dayPredictedCostSignal.length);
+			System.arraycopy(this.dayPredictedCostSignal, 0, otherPrices, 0, otherPrices.length);
 
 			for ( int j = 0; (j < Consts.HEAT_PUMP_MAX_SWITCHOFF && (i+j < ticksPerDay)); j++)
 			{
-				double tempLoss = (((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY / ticksPerDay) * Math.max(0,(localSetPointArray[i+j] - priorDayExternalTempProfile[i+j]))) / owner.buildingThermalMass);
+				double tempLoss = BuildingThermalModel.freeRunningTempDrop(owner.buildingThermalMass, owner.buildingHeatLossRate, Math.max(0,(localSetPointArray[i+j] - priorDayExternalTempProfile[i+j])), BuildingThermalModel.tickSeconds(ticksPerDay), mainContext.getRunConfig().getThermalDiscretisation());
 				//System.out.println("Temp loss in tick " + (i + j) + " = " + tempLoss);
 				totalTempLoss += tempLoss;						
 
@@ -703,12 +779,13 @@ public class WattboxController implements ISmartController{
 					//Find the cheapest timeslots in which to recover the temperature
 					//If this selection results in a tie, the slot is chosen
 					//randomly
-					int[] recoveryIndices = ArrayUtils.findNSmallestIndices(otherPrices,n);
+					int nRecovery = ArrayUtils.selectNSmallestIndices(otherPrices, n, recoveryIndices, mainContext.getUniform());
 
 					//Add on temperature in each temperature recovery slot and
 					//all subsequent slots - thus building an optimised profile.
-					for (int l : recoveryIndices)
+					for (int r = 0; r < nRecovery; r++)
 					{
+						int l = recoveryIndices[r];
 						for (int m = l; m < ticksPerDay; m++)
 						{
 							localSetPointArray[m] += tempToRecover;
@@ -722,10 +799,7 @@ public class WattboxController implements ISmartController{
 						//System.out.println("With result " + Arrays.toString(localSetPointArray));
 					}
 
-					double[] tempDifference = ArrayUtils.add(this.setPointProfile, ArrayUtils.negate(localSetPointArray));
-
-
-					if (ArrayUtils.max(ArrayUtils.add(ArrayUtils.absoluteValues(tempDifference), ArrayUtils.negate(Consts.MAX_PERMITTED_TEMP_DROPS))) > Consts.FLOATING_POINT_TOLERANCE)
+					if (ArrayUtils.maxAbsDifferenceMinus(this.setPointProfile, localSetPointArray, Consts.MAX_PERMITTED_TEMP_DROPS) > Consts.FLOATING_POINT_TOLERANCE)
 					{
 						//if the temperature drop, or rise, is too great, this profile is unfeasible and we return null
 					}
@@ -752,7 +826,7 @@ public class WattboxController implements ISmartController{
 							// being decided by a "coin toss".
 
 							//if((newCost - leastCost) < (0 - Consts.COST_DECISION_THRESHOLD))
-							if (newCost < leastCost || (newCost == leastCost && RandomHelper.nextIntFromTo(0,1) == 1))
+							if (newCost < leastCost || (newCost == leastCost && mainContext.getUniform().nextIntFromTo(0,1) == 1))
 							{
 								leastCost = newCost;
 								this.optimisedSetPointProfile = Arrays.copyOf(localSetPointArray, localSetPointArray.length);
@@ -780,73 +854,19 @@ public class WattboxController implements ISmartController{
 	 * @return the estimated demand profile or null if the set point profile is not physically achievable
 	 */
 	private double[] calculateEstimatedSpaceHeatPumpDemand(double[] localSetPointArray) {
-		double[] energyProfile = new double[ticksPerDay];
-		double[] deltaT = ArrayUtils.add(localSetPointArray, ArrayUtils.negate(priorDayExternalTempProfile));
-		//int availableHeatRecoveryTicks = ticksPerDay;
-		double maxRecoveryPerTick = 0.5d * Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE; // i.e. can't recover more than 50% of heat loss at 90% COP.  TODO: Need to code this better later
-		//double internalTemp = this.setPointProfile[0];
-
-		for (int i = 0; i < ticksPerDay; i++)
+		double[] heatProfile = new double[ticksPerDay];
+		double[] tempProfile = new double[ticksPerDay];
+		// simulate the day with the household's own building model, starting from the current set point
+		boolean attained = BuildingThermalModel.simulateHeatPump(owner.buildingThermalMass, owner.buildingHeatLossRate, owner.getHeatPumpMaxHeatPerTick(), localSetPointArray, priorDayExternalTempProfile,
+				this.setPointProfile[0], BuildingThermalModel.tickSeconds(ticksPerDay), mainContext.getRunConfig().getThermalDiscretisation(), heatProfile, tempProfile);
+		if (!attained)
 		{
-			//--availableHeatRecoveryTicks;
-			//currentTempProfile[i] = internalTemp;
-			double tempChange;
-
-			if (i > 0)
-			{
-				tempChange = localSetPointArray[i] - localSetPointArray[i - 1];
-			}
-			else
-			{
-				tempChange = localSetPointArray[i] - this.setPointProfile[0] ;
-			}
-
-			//double setPointMaintenanceEnergy = deltaT[i] * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY / ticksPerDay);
-			double setPointMaintenanceEnergy = (this.setPointProfile[i] - priorDayExternalTempProfile[i]) * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY / ticksPerDay);
-
-			//tempChangePower can be -ve if the temperature is falling.  If tempChangePower magnitude
-			//is greater than or equal to setPointMaintenance, the heat pump is off.
-			double tempChangeEnergy = tempChange * owner.buildingThermalMass;
-
-			// Although the temperature profiles supplied should be such that the heat
-			// can always be recovered within a reasonable cap - we could put a double
-			// check in here.
-			/*				if (tempChangeEnergy > maxRecoveryPerTick * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY / ticksPerDay) * ArrayUtils.max(deltaT)))
-				{
-					//System.err.println("WattboxController: Should never get here - asked to get demand for a profile that can't recover temp");
-					return null;
-				}*/
-
-			//Add in the energy to maintain the new temperature, otherwise it can be cheaper
-			//To let the temperature fall and re-heat under flat price and external temperature
-			//conditions.  TODO: Is this a good physical analogue?
-			//setPointMaintenanceEnergy += tempChange * ((owner.buildingHeatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR)) * (Consts.SECONDS_PER_DAY / ticksPerDay);
-
-			double heatPumpEnergyNeeded = Math.max(0, (setPointMaintenanceEnergy + tempChangeEnergy) / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
-			//double heatPumpEnergyNeeded = (setPointMaintenanceEnergy / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) + (tempChangeEnergy * (Consts.DOMESTIC_HEAT_PUMP_SPACE_COP * Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE));
-
-
-			//zero the energy if heat pump would be off
-			if(deltaT[i] < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF)
-			{
-				//heat pump control algorithm would switch off pump
-				heatPumpEnergyNeeded = 0;
-			}
-
-			if (heatPumpEnergyNeeded > (owner.ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP * 24 / ticksPerDay))
-			{
-				//This profiel produces a value that exceeds the total capacity of the
-				//heat pump and is therefore unachievable.
-				//System.out.println("Nulling the demand profile for energy needed " + heatPumpEnergyNeeded );
-				//Can't satisfy this demand for this set point profile, return null
-				return null;
-			}
-
-			energyProfile[i] = heatPumpEnergyNeeded;
+			//This profile needs more heat than the heat pump can supply and is therefore unachievable.
+			return null;
 		}
 
-		return energyProfile;
-
+		ArrayUtils.multiplyInPlace(heatProfile, 1 / Consts.DOMESTIC_HEAT_PUMP_SPACE_COP);
+		return heatProfile;
 	}
 
 	/**
@@ -857,7 +877,7 @@ public class WattboxController implements ISmartController{
 	 * @return the cost of the demand profile at the current predicted costs per tick
 	 */
 	private double evaluateCost(double[] localDemandProfile) {
-		return ArrayUtils.sum(ArrayUtils.mtimes(localDemandProfile, this.dayPredictedCostSignal));
+		return ArrayUtils.dotProduct(localDemandProfile, this.dayPredictedCostSignal);
 	}
 
 	/**
@@ -881,10 +901,11 @@ public class WattboxController implements ISmartController{
 			this.heatPumpOnOffProfile = Arrays.copyOf(owner.spaceHeatPumpOn,owner.spaceHeatPumpOn.length);
 
 		if (owner.isHasElectricalWaterHeat())
-			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(),((Math.max(0, (int)RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) , ((Math.max(0, (int)RepastEssentials.GetTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
+			this.hotWaterVolumeDemandProfile = Arrays.copyOfRange(owner.getBaselineHotWaterVolumeProfile(),((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) , ((Math.max(0, owner.getContext().getTickCount())) % owner.getBaselineHotWaterVolumeProfile().length) + ticksPerDay);
 
 		this.maxHeatPumpElecDemandPerTick = (owner.ratedPowerHeatPump * (double) 24 / ticksPerDay);
 		this.maxImmersionHeatPerTick = Consts.MAX_DOMESTIC_IMMERSION_POWER * (double) 24 / ticksPerDay;
+		this.maxEVChargePerTick = Consts.MAX_DOMESTIC_EV_CHARGER_POWER * (double) 24 / ticksPerDay;
 
 	}
 
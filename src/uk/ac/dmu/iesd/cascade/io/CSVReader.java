@@ -11,6 +11,8 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.WeakHashMap;
@@ -49,6 +51,141 @@ public class CSVReader {
 	WeakHashMap<String, String[]> contentsByColumn;
 	String CSVFileName = null;
 	int maxCols = 0;
+	private boolean shared = false; // whether the parsed columns are shared with other readers
+
+	/**
+	 * Files already parsed by column, by separator, path, size and modification time, when
+	 * parsed files are shared; null otherwise
+	 */
+	private static Map<String, CSVReader> parsedFiles;
+
+	/** The directory holding the column images of files parsed by column, or null if they are not kept */
+	private static File imageDirectory;
+
+	/**
+	 * Sets whether files parsed by column are kept and shared by every reader of the same
+	 * (unchanged) file in this JVM, so that runs side by side (see
+	 * {@link uk.ac.dmu.iesd.cascade.context.ScenarioRunner}) read each input file once.
+	 * The parsed columns are shared too; readers of a shared file hand out copies of its
+	 * columns and column names, so that a caller which writes to them changes only its own.
+	 * @param share whether to share parsed files
+	 */
+	public static synchronized void shareParsedFiles(boolean share)
+	{
+		parsedFiles = share ? (parsedFiles != null ? parsedFiles : new HashMap<String, CSVReader>()) : null;
+	}
+
+	/**
+	 * Sets the directory in which an image of each file parsed by column is kept (see
+	 * {@link ColumnImage}), so that later readers of the same (unchanged) file, in this
+	 * or any other process, map the image instead of parsing the file.
+	 * @param directory the directory of images, or null to neither use nor keep them
+	 */
+	public static synchronized void mapParsedFiles(File directory)
+	{
+		imageDirectory = directory;
+	}
+
+	private static synchronized File imageDirectory()
+	{
+		return imageDirectory;
+	}
+
+	/**
+	 * @return the reader which parsed this reader's file, if parsed files are shared and it
+	 *         has been parsed by column since it last changed, otherwise null
+	 */
+	private static synchronized CSVReader parsed(String key)
+	{
+		return parsedFiles == null || key == null ? null : parsedFiles.get(key);
+	}
+
+	private static synchronized void parsed(String key, CSVReader reader)
+	{
+		if (parsedFiles != null && key != null)
+		{
+			parsedFiles.put(key, reader);
+			reader.shared = true;
+		}
+	}
+
+	/**
+	 * @return the key of this reader's file among parsed files, null if it is not read from a file
+	 */
+	private String parsedKey()
+	{
+		if (CSVFileName == null)
+			return null;
+		File file = new File(CSVFileName);
+		return mySeperator + "|" + file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+	}
+
+	/**
+	 * Reads this reader's file from its column image, if there is one.
+	 * @return whether it was read
+	 */
+	@SuppressWarnings("unchecked") // an array of the generic lists dataArray holds
+	private boolean readImage(File image)
+	{
+		ColumnImage columns = ColumnImage.map(image);
+		if (columns == null)
+			return false;
+		try
+		{
+			String[] headers = columns.getHeaders();
+			ArrayList<String>[] data = new ArrayList[headers.length];
+			WeakHashMap<String, String[]> byColumn = new WeakHashMap<String, String[]>();
+			for (int k = 0; k < headers.length; k++)
+			{
+				String[] column = columns.getColumn(k);
+				int cells = column.length;
+				while (cells > 0 && column[cells - 1] == null)
+				{
+					cells--;
+				}
+				data[k] = new ArrayList<String>(Arrays.asList(column).subList(0, cells));
+				byColumn.put(headers[k], column);
+			}
+			numCols = headers.length;
+			numRows = columns.getRows();
+			colHeaders = headers;
+			dataArray = data;
+			contentsByColumn = byColumn;
+			return true;
+		}
+		catch (RuntimeException e)
+		{
+			System.err.println("CSVReader: couldn't read the column image " + image + " of " + CSVFileName + "; parsing the file");
+			return false;
+		}
+	}
+
+	private void writeImage(File image)
+	{
+		String[][] columns = new String[numCols][];
+		for (int k = 0; k < numCols; k++)
+		{
+			columns[k] = contentsByColumn.get(colHeaders[k]);
+		}
+		try
+		{
+			ColumnImage.write(image, colHeaders, columns, numRows);
+		}
+		catch (IOException e)
+		{
+			System.err.println("CSVReader: couldn't write the column image of " + CSVFileName);
+			e.printStackTrace();
+		}
+	}
+
+	private void closeReader()
+	{
+		try {
+			myReader.close();
+		} catch (IOException e) {
+			System.err.println("IO Exception occured whilst closing CSV file " + CSVFileName);
+		}
+	}
 
 	
 	
@@ -128,9 +265,29 @@ public class CSVReader {
 	 */
 	public void parseByColumn(){
 
-		// TODO:  This is much slower for a low number of long columns than many columns with fewer data points.  
-		// TODO: Find out why and optimise
-		
+		String key = parsedKey();
+		CSVReader earlier = parsed(key);
+		if (earlier != null)
+		{
+			numCols = earlier.numCols;
+			numRows = earlier.numRows;
+			colHeaders = earlier.colHeaders;
+			dataArray = earlier.dataArray;
+			contentsByColumn = earlier.contentsByColumn;
+			shared = true;
+			closeReader();
+			return;
+		}
+
+		File directory = imageDirectory();
+		File image = (directory == null || key == null) ? null : new File(directory, CalibrationStore.key(key) + ".columns");
+		if (image != null && readImage(image))
+		{
+			closeReader();
+			parsed(key, this);
+			return;
+		}
+
 		boolean hasNextLine = true;		
 		String thisLine = null;
 		try {
@@ -205,17 +362,25 @@ public class CSVReader {
 				}
 				numRows++;
 			}
+		}
 
+		if (colHeaders != null)
+		{
 			contentsByColumn = new WeakHashMap<String, String[]>();
 			for (int k=0; k < numCols; k++){
 				contentsByColumn.put(colHeaders[k], dataArray[k].toArray(new String[numRows]));
 			}
+			if (image != null)
+			{
+				writeImage(image);
+			}
 		}
 
 		if(Consts.DEBUG)
 		{
 			if (Consts.DEBUG) System.out.println("Parsed file - " + numCols + " columns and " + numRows + " rows.");
 		}
+		parsed(key, this);
 	}
 
 	public String[] getColumn(String colName){
@@ -225,6 +390,10 @@ public class CSVReader {
 			if (contentsByColumn.containsKey(colName))
 			{
 				returnArray = contentsByColumn.get(colName);
+				if (shared && returnArray != null)
+				{
+					returnArray = returnArray.clone();
+				}
 			}
 			else
 			{
@@ -303,7 +472,7 @@ public class CSVReader {
 
 	public String[] getColumnNames()
 	{
-		return colHeaders;
+		return (shared && colHeaders != null) ? colHeaders.clone() : colHeaders;
 	}
 	
 	/**
@@ -0,0 +1,464 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import uk.ac.dmu.iesd.cascade.base.Consts;
+
+/**
+ * A store, in a directory on local disk, of the calibrations which aggregators learn in
+ * their profile building and training periods, so that a run whose aggregators would learn
+ * the same as an earlier run's can load what was learned and start operating at once.
+ * <p>
+ * What an aggregator learns is a deterministic function of its customers, the run's
+ * parameters (including the random seed) and the signals and costs it trains with.  The
+ * store is content addressed: each calibration is kept in a file named by the SHA-256
+ * hash of a description of all of these (see {@link #describe}), so that a calibration is
+ * only ever loaded by a run which would have learned it.  Each file ends with a hash of
+ * its contents, which is checked on loading; a file which is damaged, or which was written
+ * for a different description, is ignored (and the aggregator trains as usual).
+ * <p>
+ * In {@link Mode#VALIDATE} aggregators train as usual and compare what they learn with the
+ * stored calibration, which checks that the description captures everything the training
+ * depends on.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class CalibrationStore {
+
+	/**
+	 * How aggregators use the store.
+	 */
+	public static enum Mode {
+		/** aggregators always train, and do not use the store */
+		OFF,
+		/** aggregators load a stored calibration if there is one, and store what they learn if there is not */
+		USE,
+		/** aggregators always train, and compare what they learn with the stored calibration (storing it if there is none) */
+		VALIDATE;
+
+		/**
+		 * @param name a mode name, in any case
+		 * @param defaultMode the mode to return if <code>name</code> is not recognised
+		 * @return the mode of the given name
+		 */
+		public static Mode parse(String name, Mode defaultMode)
+		{
+			for (Mode m : values())
+			{
+				if (m.name().equalsIgnoreCase(name))
+				{
+					return m;
+				}
+			}
+			System.err.println("CalibrationStore: unknown mode '" + name + "'; using " + defaultMode);
+			return defaultMode;
+		}
+	}
+
+	/**
+	 * What an aggregator learned: named arrays and matrices of doubles.
+	 */
+	public static class Calibration {
+
+		private final Map<String, double[][]> values = new LinkedHashMap<String, double[][]>();
+
+		/**
+		 * @param name the name of the array
+		 * @param array the learned values (copied)
+		 */
+		public void putArray(String name, double[] array)
+		{
+			values.put(name, new double[][] {array.clone()});
+		}
+
+		/**
+		 * @param name the name of the matrix
+		 * @param matrix the learned values (copied)
+		 */
+		public void putMatrix(String name, double[][] matrix)
+		{
+			double[][] copy = new double[matrix.length][];
+			for (int i = 0; i < matrix.length; i++)
+			{
+				copy[i] = matrix[i].clone();
+			}
+			values.put(name, copy);
+		}
+
+		/**
+		 * @param name the name of an array
+		 * @return a copy of the array, or null if the calibration has none of that name
+		 */
+		public double[] getArray(String name)
+		{
+			double[][] array = values.get(name);
+			return (array == null || array.length != 1) ? null : array[0].clone();
+		}
+
+		/**
+		 * @param name the name of a matrix
+		 * @return a copy of the matrix, or null if the calibration has none of that name
+		 */
+		public double[][] getMatrix(String name)
+		{
+			double[][] matrix = values.get(name);
+			if (matrix == null)
+			{
+				return null;
+			}
+			double[][] copy = new double[matrix.length][];
+			for (int i = 0; i < matrix.length; i++)
+			{
+				copy[i] = matrix[i].clone();
+			}
+			return copy;
+		}
+
+		/**
+		 * @param other another calibration
+		 * @return the largest absolute difference between the values of this and the other
+		 *         calibration, or infinity if they do not have the same names and shapes (NaNs
+		 *         are taken to equal NaNs)
+		 */
+		public double maxDifference(Calibration other)
+		{
+			if (!values.keySet().equals(other.values.keySet()))
+			{
+				return Double.POSITIVE_INFINITY;
+			}
+			double max = 0;
+			for (Map.Entry<String, double[][]> entry : values.entrySet())
+			{
+				double[][] a = entry.getValue();
+				double[][] b = other.values.get(entry.getKey());
+				if (a.length != b.length)
+				{
+					return Double.POSITIVE_INFINITY;
+				}
+				for (int i = 0; i < a.length; i++)
+				{
+					if (a[i].length != b[i].length)
+					{
+						return Double.POSITIVE_INFINITY;
+					}
+					for (int j = 0; j < a[i].length; j++)
+					{
+						if (Double.isNaN(a[i][j]) && Double.isNaN(b[i][j]))
+						{
+							continue;
+						}
+						double difference = Math.abs(a[i][j] - b[i][j]);
+						max = Double.isNaN(difference) ? Double.POSITIVE_INFINITY : Math.max(max, difference);
+					}
+				}
+			}
+			return max;
+		}
+	}
+
+	private static final String MAGIC = "CASCADE-CALIBRATION";
+	/**
+	 * Bump when the training or what is stored changes, so that older calibrations are not
+	 * loaded.  The description names the data file folder (as a parameter) but does not
+	 * hash the files in it, so the customers' demand profiles read from them are not part
+	 * of the key: bump this too (or empty the store) when the data files are changed in place.
+	 */
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".cal";
+	private static final int DIGEST_LENGTH = 32;
+
+	private final File directory;
+
+	/**
+	 * @param directory the directory in which calibrations are kept (created when the first is stored)
+	 */
+	public CalibrationStore(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Describes everything an aggregator's training depends on.
+	 *
+	 * @param aggregator the aggregator's class and number among the run's aggregators
+	 * @param parameters the run's parameters which may affect training (see {@link uk.ac.dmu.iesd.cascade.context.RunConfig#getCalibrationParameters()})
+	 * @param seed the run's random seed
+	 * @param ticksPerDay the number of ticks in a day
+	 * @param customers the aggregator's customers, described by the number of each class
+	 * @param inputs any other inputs to the training (e.g. costs), described by their lengths and
+	 *        the SHA-256 hashes of their values' bits
+	 * @return the description, whose hash is the calibration's key
+	 */
+	public static String describe(String aggregator, String parameters, int seed, int ticksPerDay, List<?> customers, double[]... inputs)
+	{
+		Map<String, Integer> classes = new TreeMap<String, Integer>();
+		for (Object customer : customers)
+		{
+			String name = customer.getClass().getName();
+			Integer count = classes.get(name);
+			classes.put(name, count == null ? 1 : count + 1);
+		}
+
+		StringBuilder description = new StringBuilder();
+		description.append("version=").append(VERSION);
+		description.append("\naggregator=").append(aggregator);
+		description.append("\nparameters=").append(parameters);
+		description.append("\nseed=").append(seed);
+		description.append("\nticksPerDay=").append(ticksPerDay);
+		description.append("\nprofileBuildingDays=").append(Consts.AGGREGATOR_PROFILE_BUILDING_PERIODE);
+		description.append("\ntrainingDays=").append(Consts.AGGREGATOR_TRAINING_PERIODE);
+		description.append("\ncustomers=").append(classes);
+		for (double[] input : inputs)
+		{
+			description.append("\ninput=").append(input == null ? "null" : input.length + ":" + hex(digest(input)));
+		}
+		return description.toString();
+	}
+
+	/**
+	 * @return the SHA-256 hash of the values' bits (as <code>Double.doubleToLongBits</code>, big-endian)
+	 */
+	private static byte[] digest(double[] values)
+	{
+		byte[] bytes = new byte[8 * values.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			long bits = Double.doubleToLongBits(values[i]);
+			for (int b = 0; b < 8; b++)
+			{
+				bytes[8 * i + b] = (byte) (bits >>> (56 - 8 * b));
+			}
+		}
+		return digest(bytes, bytes.length);
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes)
+		{
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @param description a description of everything an aggregator's training depends on
+	 * @return the key of the calibration learned under the description: the hex SHA-256 hash of the description
+	 */
+	public static String key(String description)
+	{
+		try
+		{
+			return hex(MessageDigest.getInstance("SHA-256").digest(description.getBytes("UTF-8")));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param key a calibration's key
+	 * @return the stored calibration, or null if there is none, or it is damaged (which is reported)
+	 */
+	public Calibration load(String key)
+	{
+		File file = file(key);
+		if (!file.isFile())
+		{
+			return null;
+		}
+		try
+		{
+			byte[] bytes = readFully(file);
+			if (bytes.length < DIGEST_LENGTH
+					|| !Arrays.equals(digest(bytes, bytes.length - DIGEST_LENGTH), Arrays.copyOfRange(bytes, bytes.length - DIGEST_LENGTH, bytes.length)))
+			{
+				System.err.println("CalibrationStore: " + file + " is damaged; ignoring it");
+				return null;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - DIGEST_LENGTH));
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION || !key.equals(in.readUTF()))
+			{
+				System.err.println("CalibrationStore: " + file + " is not a calibration for this key and version; ignoring it");
+				return null;
+			}
+			Calibration calibration = new Calibration();
+			int count = in.readInt();
+			for (int n = 0; n < count; n++)
+			{
+				String name = in.readUTF();
+				double[][] values = new double[in.readInt()][];
+				for (int i = 0; i < values.length; i++)
+				{
+					values[i] = new double[in.readInt()];
+					for (int j = 0; j < values[i].length; j++)
+					{
+						values[i][j] = in.readDouble();
+					}
+				}
+				calibration.values.put(name, values);
+			}
+			return calibration;
+		}
+		catch (IOException e)
+		{
+			System.err.println("CalibrationStore: couldn't read " + file + "; ignoring it");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a calibration, replacing any stored under the same key.  The file is written
+	 * under a temporary name and then renamed, so that runs sharing the store never see a
+	 * part-written calibration.
+	 *
+	 * @param key the calibration's key
+	 * @param calibration what was learned
+	 */
+	public void store(String key, Calibration calibration) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(key);
+		out.writeInt(calibration.values.size());
+		for (Map.Entry<String, double[][]> entry : calibration.values.entrySet())
+		{
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue().length);
+			for (double[] row : entry.getValue())
+			{
+				out.writeInt(row.length);
+				for (double value : row)
+				{
+					out.writeDouble(value);
+				}
+			}
+		}
+		out.flush();
+		byte[] contents = bytes.toByteArray();
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("couldn't create " + directory);
+		}
+		File temporary = File.createTempFile(key, ".tmp", directory);
+		FileOutputStream file = new FileOutputStream(temporary);
+		try
+		{
+			file.write(contents);
+			file.write(digest(contents, contents.length));
+		}
+		finally
+		{
+			file.close();
+		}
+		File target = file(key);
+		if (!temporary.renameTo(target) && !(target.delete() && temporary.renameTo(target)))
+		{
+			temporary.delete();
+			throw new IOException("couldn't rename " + temporary + " to " + target);
+		}
+	}
+
+	/**
+	 * Records what an aggregator learned in training: in {@link Mode#USE} stores it; in
+	 * {@link Mode#VALIDATE} compares it with the stored calibration, reporting whether they
+	 * match, or stores it if there is none.  Failures are reported rather than thrown, as the
+	 * run can carry on without the store.
+	 *
+	 * @param mode how the store is used
+	 * @param key the calibration's key
+	 * @param learned what was learned
+	 * @param aggregator the aggregator which learned it, for reports
+	 */
+	public void learned(Mode mode, String key, Calibration learned, String aggregator)
+	{
+		if (mode == Mode.VALIDATE)
+		{
+			Calibration stored = load(key);
+			if (stored != null)
+			{
+				double difference = learned.maxDifference(stored);
+				if (difference == 0)
+				{
+					System.out.println("CalibrationStore: " + aggregator + " learned the stored calibration " + key);
+				}
+				else
+				{
+					System.err.println("CalibrationStore: " + aggregator + " learned a calibration differing by up to " + difference + " from the stored calibration " + key);
+				}
+				return;
+			}
+		}
+		if (mode != Mode.OFF)
+		{
+			try
+			{
+				store(key, learned);
+			}
+			catch (IOException e)
+			{
+				System.err.println("CalibrationStore: couldn't store the calibration of " + aggregator);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private File file(String key)
+	{
+		return new File(directory, key + SUFFIX);
+	}
+
+	private static byte[] digest(byte[] bytes, int length)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(bytes, 0, length);
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] readFully(File file) throws IOException
+	{
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			in.readFully(bytes);
+		}
+		finally
+		{
+			in.close();
+		}
+		return bytes;
+	}
+}
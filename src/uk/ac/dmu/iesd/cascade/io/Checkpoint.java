@@ -0,0 +1,139 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
+import uk.ac.dmu.iesd.cascade.util.ObjectStateCodec;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
+
+/**
+ * A snapshot of the state of a run, taken at the start of a tick, from which a new run
+ * built by the same builder (with the same seed and scenario) can carry on as the first
+ * one would have, or from which many runs can be forked which differ only in parameters
+ * read after the snapshot was taken.
+ * <p>
+ * The snapshot holds, in a compressed binary file, the state (as written by an
+ * {@link ObjectStateCodec}) of the context and of every agent in it, including their
+ * controllers, histories and learned aggregator arrays (the market message board among
+ * them); and of the random number streams (the context's distributions, its default
+ * uniform distribution and the generator behind them, with which the
+ * {@link uk.ac.dmu.iesd.cascade.context.ScenarioRunner} also shuffles the agents' steps).  It does not hold what the builder makes again in the same way: the
+ * networks (which are taken not to change during a run), the schedule, input data, and
+ * the run's configuration, which is the forked run's own.
+ * <p>
+ * The agents of the snapshot are matched to those of the run restored into by class and
+ * by the order in which they were added to the context, so the two runs must be built
+ * from the same scenario.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class Checkpoint {
+
+	private static final String MAGIC = "CASCADE-CHECKPOINT";
+	private static final int VERSION = 2;
+
+	/**
+	 * Writes a snapshot of the run at the start of the current tick.
+	 *
+	 * @param context the run's main context
+	 * @param file the file to write
+	 */
+	public static void save(CascadeContext context, File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+		try
+		{
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(context.getTickCount());
+			ObjectStateCodec codec = codec(context);
+			codec.write(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Restores the run, at the start of the tick at which it was taken, from a snapshot.
+	 *
+	 * @param context the run's main context, built as the snapshot's was
+	 * @param file the file to read
+	 */
+	public static void restore(CascadeContext context, File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		try
+		{
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION)
+			{
+				throw new IOException(file + " is not a checkpoint of this version");
+			}
+			int tick = in.readInt();
+			if (tick != context.getTickCount())
+			{
+				throw new IOException(file + " was taken at tick " + tick + ", not " + context.getTickCount());
+			}
+			ObjectStateCodec codec = codec(context);
+			codec.read(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static ObjectStateCodec codec(CascadeContext context)
+	{
+		return new ObjectStateCodec(roots(context))
+				.exclude(RunConfig.class)
+				.exclude(DeviceGateway.class)
+				.exclude(DeviceGateway.Link.class)
+				.exclude(PiEmulator.class)
+				.exclude(DiagnosticTrace.class)
+				.exclude(CSVWriter.class)
+				.exclude(CSVReader.class)
+				.exclude(PhaseProfiler.class);
+	}
+
+	/**
+	 * @return the context, its agents (by class, and in the order they were added) and the
+	 *         context's default uniform distribution
+	 */
+	private static List<Object> roots(CascadeContext context)
+	{
+		List<Object> agents = new ArrayList<Object>();
+		for (Object agent : context.getObjects(Object.class))
+		{
+			agents.add(agent);
+		}
+		// stable, so keeps the order of addition within a class
+		Collections.sort(agents, new Comparator<Object>() {
+			public int compare(Object a, Object b)
+			{
+				return a.getClass().getName().compareTo(b.getClass().getName());
+			}
+		});
+
+		List<Object> roots = new ArrayList<Object>(agents.size() + 2);
+		roots.add(context);
+		roots.addAll(agents);
+		roots.add(context.getUniform());
+		return roots;
+	}
+}
@@ -0,0 +1,215 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A CSV file parsed by column, kept on disk in a binary form which is mapped read-only
+ * into memory, so that every run (and every process) reading the same input file shares
+ * one copy of it in the operating system's page cache instead of tokenising the text.
+ * <p>
+ * The image holds the column headers, an index of where each column starts, and the
+ * cells of each column in turn, each as its length in bytes (-1 for a missing cell)
+ * followed by its UTF-8 encoding.  Columns are decoded when asked for.  Images are
+ * written under a temporary name and then renamed, so that a process never maps a
+ * part-written image.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class ColumnImage {
+
+	private static final int MAGIC = 0x43534331; // "CSC1"
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final String[] headers;
+	private final long[] offsets;
+	private final int rows;
+
+	private ColumnImage(ByteBuffer buffer, String[] headers, long[] offsets, int rows)
+	{
+		this.buffer = buffer;
+		this.headers = headers;
+		this.offsets = offsets;
+		this.rows = rows;
+	}
+
+	/**
+	 * Writes the image of a parsed file.
+	 *
+	 * @param image the file to write
+	 * @param headers the column headers
+	 * @param columns the cells of each column (null cells are kept as missing)
+	 * @param rows the number of rows
+	 */
+	public static void write(File image, String[] headers, String[][] columns, int rows) throws IOException
+	{
+		byte[][] encoded = new byte[columns.length][];
+		for (int c = 0; c < columns.length; c++)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream column = new DataOutputStream(bytes);
+			for (int r = 0; r < rows; r++)
+			{
+				writeString(column, r < columns[c].length ? columns[c][r] : null);
+			}
+			column.flush();
+			encoded[c] = bytes.toByteArray();
+		}
+
+		File directory = image.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("couldn't create " + directory);
+		}
+		File temporary = File.createTempFile(image.getName(), ".tmp", directory);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(headers.length);
+			out.writeInt(rows);
+			for (String header : headers)
+			{
+				writeString(out, header);
+			}
+			long offset = out.size() + 8L * headers.length;
+			for (byte[] column : encoded)
+			{
+				out.writeLong(offset);
+				offset += column.length;
+			}
+			for (byte[] column : encoded)
+			{
+				out.write(column);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if (!temporary.renameTo(image) && !(image.delete() && temporary.renameTo(image)))
+		{
+			temporary.delete();
+			throw new IOException("couldn't rename " + temporary + " to " + image);
+		}
+	}
+
+	/**
+	 * Maps an image read-only into memory.
+	 *
+	 * @param image the image file
+	 * @return the image, or null if there is none, or it is damaged (which is reported)
+	 */
+	public static ColumnImage map(File image)
+	{
+		if (!image.isFile())
+			return null;
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(image, "r");
+			MappedByteBuffer buffer;
+			try
+			{
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			}
+			finally
+			{
+				file.close(); // the mapping stays valid
+			}
+			if (buffer.getInt() != MAGIC)
+			{
+				System.err.println("ColumnImage: " + image + " is not a column image; ignoring it");
+				return null;
+			}
+			String[] headers = new String[buffer.getInt()];
+			int rows = buffer.getInt();
+			for (int c = 0; c < headers.length; c++)
+			{
+				headers[c] = readString(buffer);
+			}
+			long[] offsets = new long[headers.length];
+			for (int c = 0; c < offsets.length; c++)
+			{
+				offsets[c] = buffer.getLong();
+				if (offsets[c] < buffer.position() || offsets[c] > buffer.limit())
+				{
+					System.err.println("ColumnImage: " + image + " is damaged; ignoring it");
+					return null;
+				}
+			}
+			return new ColumnImage(buffer, headers, offsets, rows);
+		}
+		catch (BufferUnderflowException e)
+		{
+			System.err.println("ColumnImage: " + image + " is truncated; ignoring it");
+			return null;
+		}
+		catch (IOException e)
+		{
+			System.err.println("ColumnImage: couldn't map " + image);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public String[] getHeaders()
+	{
+		return headers.clone();
+	}
+
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Decodes a column.  Safe to call from several threads at once.
+	 *
+	 * @param column the index of the column
+	 * @return the cells of the column (null where a row had no cell)
+	 */
+	public String[] getColumn(int column)
+	{
+		ByteBuffer cells = buffer.duplicate();
+		cells.position((int) offsets[column]);
+		String[] values = new String[rows];
+		for (int r = 0; r < rows; r++)
+		{
+			values[r] = readString(cells);
+		}
+		return values;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
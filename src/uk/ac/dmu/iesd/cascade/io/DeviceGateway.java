@@ -0,0 +1,354 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Non-blocking I/O to hardware-in-the-loop devices, such as the Raspberry Pi driven
+ * appliances of a {@link uk.ac.dmu.iesd.cascade.agents.prosumers.RaspPiHousehold}.
+ * <p>
+ * Each device endpoint (a URL accepting <code>?device=..&value=..</code> GET requests,
+ * device and value URL-encoded) is reached through a {@link Link}.  Setting a value on a link only queues the request
+ * and returns at once; the requests of all the links are sent by a small, fixed pool of
+ * threads, each link's requests in order and different links' in parallel.  A link's queue
+ * is bounded: a new value for a device replaces any value still queued for it, and when
+ * the queue is full the oldest request is dropped.  The value of a device as last
+ * acknowledged by it is held by its link, and is what the agent sees until the
+ * device acknowledges a newer one (stale-value fallback); a request which fails or is
+ * dropped is sent again the next time the agent sets the value.
+ * <p>
+ * Once a tick, {@link #endTick} waits until every request made so far has been answered,
+ * but for no longer than the gateway's deadline, so that slow or unreachable devices
+ * delay the schedule by at most the deadline per tick, however many devices there are.
+ * Requests still outstanding at the deadline carry on in the background.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DeviceGateway {
+
+	private final ExecutorService pool;
+	private final int queueCapacity;
+	private final int timeoutMillis;
+	private final long deadlineMillis;
+
+	// guarded by this
+	private int outstanding = 0;
+	private int sent = 0;
+	private int failed = 0;
+	private int dropped = 0;
+	private int lateTicks = 0;
+
+	/**
+	 * @param threads the number of threads sending requests
+	 * @param queueCapacity the maximum number of requests queued on a link
+	 * @param timeoutMillis the connect and read timeout (ms) of a request
+	 * @param deadlineMillis the longest (ms) {@link #endTick} waits for outstanding requests
+	 */
+	public DeviceGateway(int threads, int queueCapacity, int timeoutMillis, long deadlineMillis)
+	{
+		this.pool = Executors.newFixedThreadPool(threads, daemonThreads("DeviceGateway"));
+		this.queueCapacity = queueCapacity;
+		this.timeoutMillis = timeoutMillis;
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * @param url the URL of a device endpoint
+	 * @return a new link to the endpoint
+	 */
+	public Link open(String url)
+	{
+		return new Link(url);
+	}
+
+	/**
+	 * Waits, for at most the gateway's deadline, for all outstanding requests to be answered.
+	 *
+	 * @return whether there are no outstanding requests
+	 */
+	public boolean endTick()
+	{
+		boolean idle = awaitIdle(deadlineMillis);
+		if (!idle)
+		{
+			synchronized (this)
+			{
+				lateTicks++;
+			}
+		}
+		return idle;
+	}
+
+	/**
+	 * @param millis the longest time (ms) to wait
+	 * @return whether there are no outstanding requests
+	 */
+	public synchronized boolean awaitIdle(long millis)
+	{
+		long end = System.currentTimeMillis() + millis;
+		long remaining = millis;
+		while (outstanding > 0 && remaining > 0)
+		{
+			try
+			{
+				wait(remaining);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = end - System.currentTimeMillis();
+		}
+		return outstanding == 0;
+	}
+
+	/**
+	 * Stops the gateway's threads; requests still queued are abandoned.
+	 */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+
+	public synchronized int getOutstanding()
+	{
+		return outstanding;
+	}
+
+	/**
+	 * @return the number of requests acknowledged by their devices
+	 */
+	public synchronized int getSent()
+	{
+		return sent;
+	}
+
+	public synchronized int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * @return the number of requests dropped from full queues
+	 */
+	public synchronized int getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * @return the number of ticks in which {@link #endTick} met its deadline with requests outstanding
+	 */
+	public synchronized int getLateTicks()
+	{
+		return lateTicks;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "DeviceGateway [sent=" + sent + ", failed=" + failed + ", dropped=" + dropped + ", outstanding=" + outstanding + ", lateTicks=" + lateTicks + "]";
+	}
+
+	private synchronized void queued()
+	{
+		outstanding++;
+	}
+
+	private synchronized void completed(boolean acknowledged)
+	{
+		outstanding--;
+		if (acknowledged)
+		{
+			sent++;
+		}
+		else
+		{
+			failed++;
+		}
+		if (outstanding == 0)
+		{
+			notifyAll();
+		}
+	}
+
+	private synchronized void dropped()
+	{
+		outstanding--;
+		dropped++;
+		if (outstanding == 0)
+		{
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Sends one request, and reads (and discards) the response so that the connection may be reused.
+	 *
+	 * @return whether the device acknowledged the request
+	 */
+	private boolean send(String url, String device, String value)
+	{
+		HttpURLConnection conn = null;
+		try
+		{
+			conn = (HttpURLConnection) new URL(url + "?device=" + URLEncoder.encode(device, "UTF-8") + "&value=" + URLEncoder.encode(value, "UTF-8")).openConnection();
+			conn.setConnectTimeout(timeoutMillis);
+			conn.setReadTimeout(timeoutMillis);
+			int responseCode = conn.getResponseCode();
+			InputStream in = responseCode < 400 ? conn.getInputStream() : conn.getErrorStream();
+			if (in != null)
+			{
+				byte[] buffer = new byte[256];
+				while (in.read(buffer) >= 0)
+				{
+				}
+				in.close();
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK)
+			{
+				System.err.println("DeviceGateway: " + url + " answered " + responseCode + " - " + conn.getResponseMessage());
+				return false;
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.err.println("DeviceGateway: couldn't reach " + url + " (" + e.getMessage() + ")");
+			if (conn != null)
+			{
+				conn.disconnect();
+			}
+			return false;
+		}
+	}
+
+	static ThreadFactory daemonThreads(final String name)
+	{
+		return new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + "-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * The link to one device endpoint, holding its queued requests and the values of its
+	 * devices as last acknowledged.
+	 */
+	public class Link implements Runnable {
+
+		private final String url;
+		// guarded by this (the gateway's lock may be taken while holding it, never the reverse)
+		private final LinkedHashMap<String, String> queue = new LinkedHashMap<String, String>();
+		private final Map<String, String> requested = new HashMap<String, String>();
+		private final Map<String, String> acknowledged = new HashMap<String, String>();
+		private boolean draining = false;
+
+		private Link(String url)
+		{
+			this.url = url;
+		}
+
+		public String getURL()
+		{
+			return url;
+		}
+
+		/**
+		 * Requests that a device be set to a value, unless the value has already been
+		 * requested (and has not since failed).  Returns without waiting for the device.
+		 *
+		 * @param device the device (on this endpoint)
+		 * @param value its new value
+		 */
+		public synchronized void set(String device, String value)
+		{
+			if (value.equals(requested.get(device)))
+			{
+				return;
+			}
+			requested.put(device, value);
+			if (queue.remove(device) == null)
+			{
+				queued();
+				if (queue.size() >= queueCapacity)
+				{
+					Iterator<Map.Entry<String, String>> oldest = queue.entrySet().iterator();
+					requested.remove(oldest.next().getKey());
+					oldest.remove();
+					dropped();
+				}
+			}
+			queue.put(device, value);
+			if (!draining)
+			{
+				draining = true;
+				pool.execute(this);
+			}
+		}
+
+		/**
+		 * @param device a device (on this endpoint)
+		 * @return the value of the device as last acknowledged by it, or null if it has acknowledged none
+		 */
+		public synchronized String getAcknowledged(String device)
+		{
+			return acknowledged.get(device);
+		}
+
+		/**
+		 * Sends the link's queued requests, in order, until its queue is empty.
+		 */
+		public void run()
+		{
+			while (true)
+			{
+				String device;
+				String value;
+				synchronized (this)
+				{
+					if (queue.isEmpty())
+					{
+						draining = false;
+						return;
+					}
+					Iterator<Map.Entry<String, String>> first = queue.entrySet().iterator();
+					Map.Entry<String, String> request = first.next();
+					device = request.getKey();
+					value = request.getValue();
+					first.remove();
+				}
+				boolean ok = send(url, device, value);
+				synchronized (this)
+				{
+					if (ok)
+					{
+						acknowledged.put(device, value);
+					}
+					else if (value.equals(requested.get(device)))
+					{
+						requested.remove(device);
+					}
+				}
+				completed(ok);
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A trace of the diagnostic files (the matrices and vectors aggregators learn from, and
+ * what they decide each day) which a run would otherwise write as CSV files as it goes,
+ * flushing each line to disk on the simulation thread.
+ * <p>
+ * A run whose trace is not enabled (see {@link #DISABLED}) writes nothing, and callers
+ * test {@link #isEnabled()} before building what they would trace, so that a disabled
+ * trace costs one branch.  An enabled trace copies each record into a binary buffer on
+ * the simulation thread; full buffers are written by a thread of the trace's own to one
+ * file per run, so that the simulation never waits on the disk unless it outruns it.
+ * {@link DiagnosticTraceReader} writes the CSV files from the trace, in the layouts
+ * {@link CSVWriter} gives them.
+ * <p>
+ * A trace records the files it is asked to open, by handle, and what is written to each:
+ * lines of text, rows of values and matrices (one row per line).  It belongs to one run,
+ * and is not safe to use from several threads at once.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DiagnosticTrace {
+
+	static final int MAGIC = 0x43445431; // "CDT1"
+
+	/** Record types */
+	static final byte OPEN = 1;
+	static final byte TEXT = 2;
+	static final byte TEXT_DOUBLE = 3;
+	static final byte TEXT_INT = 4;
+	static final byte ROW_DOUBLE = 5;
+	static final byte ROW_INT = 6;
+	static final byte COLS_DOUBLE = 7;
+	static final byte CLOSE = 8;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int CHUNK = 1 << 20;
+	private static final int QUEUED_CHUNKS = 8;
+
+	/** The trace of a run which traces nothing */
+	public static final DiagnosticTrace DISABLED = new DiagnosticTrace();
+
+	private final boolean enabled;
+	private final File file;
+	private final FileChannel channel;
+	private final BlockingQueue<ByteBuffer> full;
+	private final BlockingQueue<ByteBuffer> empty;
+	private final Thread writer;
+	private ByteBuffer chunk;
+	private int handles = 0;
+	private volatile IOException failure;
+
+	private DiagnosticTrace()
+	{
+		this.enabled = false;
+		this.file = null;
+		this.channel = null;
+		this.full = null;
+		this.empty = null;
+		this.writer = null;
+	}
+
+	private DiagnosticTrace(File file) throws IOException
+	{
+		this.enabled = true;
+		this.file = file;
+		this.channel = new FileOutputStream(file).getChannel();
+		this.full = new ArrayBlockingQueue<ByteBuffer>(QUEUED_CHUNKS);
+		this.empty = new ArrayBlockingQueue<ByteBuffer>(QUEUED_CHUNKS + 1);
+		this.chunk = ByteBuffer.allocate(CHUNK);
+		chunk.putInt(MAGIC);
+		this.writer = new Thread(new Runnable() {
+			public void run()
+			{
+				write();
+			}
+		}, "DiagnosticTrace " + file.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Starts the trace of a run, in a new file of its own.
+	 *
+	 * @param directory where traces are kept (created if there is none)
+	 * @param seed the run's random seed, which names the file
+	 * @return the trace
+	 */
+	public static DiagnosticTrace open(File directory, int seed) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("couldn't create " + directory);
+		}
+		return new DiagnosticTrace(File.createTempFile("trace-seed" + seed + "-", ".bin", directory));
+	}
+
+	/**
+	 * @return whether anything written to the trace is kept
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @return the file the trace is written to, or null if it is not enabled
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Records the opening of a CSV file, as {@link CSVWriter#CSVWriter(String, boolean)}.
+	 *
+	 * @param fileName the file's name, relative to where the trace is read into
+	 * @param append whether to append to the file rather than replace it
+	 * @return the handle of the file, to which the other records refer
+	 */
+	public int open(String fileName, boolean append)
+	{
+		if (!enabled)
+			return -1;
+		int handle = handles++;
+		byte[] name = fileName.getBytes(UTF8);
+		reserve(9 + 1 + name.length);
+		chunk.put(OPEN).putInt(handle).putInt(name.length).put(name).put((byte) (append ? 1 : 0));
+		return handle;
+	}
+
+	/**
+	 * Records a line of text, as {@link CSVWriter#appendText(String)}.
+	 */
+	public void text(int handle, String text)
+	{
+		if (!enabled)
+			return;
+		byte[] bytes = text.getBytes(UTF8);
+		reserve(9 + bytes.length);
+		chunk.put(TEXT).putInt(handle).putInt(bytes.length).put(bytes);
+	}
+
+	/**
+	 * Records a line of text followed by a value, as
+	 * <code>appendText(label + value)</code>, without building the line.
+	 */
+	public void text(int handle, String label, double value)
+	{
+		if (!enabled)
+			return;
+		byte[] bytes = label.getBytes(UTF8);
+		reserve(9 + bytes.length + 8);
+		chunk.put(TEXT_DOUBLE).putInt(handle).putInt(bytes.length).put(bytes).putDouble(value);
+	}
+
+	/**
+	 * Records a line of text followed by a value, as
+	 * <code>appendText(label + value)</code>, without building the line.
+	 */
+	public void text(int handle, String label, int value)
+	{
+		if (!enabled)
+			return;
+		byte[] bytes = label.getBytes(UTF8);
+		reserve(9 + bytes.length + 4);
+		chunk.put(TEXT_INT).putInt(handle).putInt(bytes.length).put(bytes).putInt(value);
+	}
+
+	/**
+	 * Records a row of values, as {@link CSVWriter#appendRow(double[])}.
+	 */
+	public void row(int handle, double[] values)
+	{
+		if (!enabled)
+			return;
+		reserve(9 + 8 * values.length);
+		chunk.put(ROW_DOUBLE).putInt(handle).putInt(values.length);
+		chunk.asDoubleBuffer().put(values);
+		chunk.position(chunk.position() + 8 * values.length);
+	}
+
+	/**
+	 * Records a row of values, as {@link CSVWriter#appendRow(int[])}.
+	 */
+	public void row(int handle, int[] values)
+	{
+		if (!enabled)
+			return;
+		reserve(9 + 4 * values.length);
+		chunk.put(ROW_INT).putInt(handle).putInt(values.length);
+		chunk.asIntBuffer().put(values);
+		chunk.position(chunk.position() + 4 * values.length);
+	}
+
+	/**
+	 * Records a matrix, one row per line, as {@link CSVWriter#appendCols(double[][])} (which
+	 * writes as many values of each row as the first row has).
+	 */
+	public void cols(int handle, double[][] values)
+	{
+		if (!enabled)
+			return;
+		int columns = values.length == 0 ? 0 : values[0].length;
+		reserve(13 + 8 * values.length * columns);
+		chunk.put(COLS_DOUBLE).putInt(handle).putInt(values.length).putInt(columns);
+		for (double[] row : values)
+		{
+			chunk.asDoubleBuffer().put(row, 0, columns);
+			chunk.position(chunk.position() + 8 * columns);
+		}
+	}
+
+	/**
+	 * Records the closing of a file, as {@link CSVWriter#close()}.
+	 */
+	public void close(int handle)
+	{
+		if (!enabled)
+			return;
+		reserve(5);
+		chunk.put(CLOSE).putInt(handle);
+	}
+
+	/**
+	 * Writes what is left of the trace and waits for it to reach the file.  Nothing more
+	 * may be recorded once the trace is closed.
+	 */
+	public void close() throws IOException
+	{
+		if (!enabled || chunk == null)
+			return;
+		submit(chunk);
+		chunk = null;
+		submit(ByteBuffer.allocate(0)); // tells the writer there is no more
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted closing " + file);
+		}
+		finally
+		{
+			channel.close();
+		}
+		if (failure != null)
+		{
+			throw failure;
+		}
+	}
+
+	/**
+	 * Makes room in the current buffer for a record of the given size, handing the buffer
+	 * to the writer if it is too full.
+	 */
+	private void reserve(int bytes)
+	{
+		if (chunk.remaining() >= bytes)
+			return;
+		submit(chunk);
+		ByteBuffer next = bytes <= CHUNK ? empty.poll() : null;
+		chunk = next != null ? next : ByteBuffer.allocate(Math.max(CHUNK, bytes));
+	}
+
+	private void submit(ByteBuffer buffer)
+	{
+		buffer.flip();
+		try
+		{
+			full.put(buffer);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			System.err.println("DiagnosticTrace: interrupted; " + file + " is incomplete");
+		}
+	}
+
+	/**
+	 * The writer thread: writes each full buffer to the file, and returns it to be reused.
+	 */
+	private void write()
+	{
+		try
+		{
+			while (true)
+			{
+				ByteBuffer buffer = full.take();
+				if (buffer.capacity() == 0)
+					return;
+				if (failure == null)
+				{
+					try
+					{
+						while (buffer.hasRemaining())
+						{
+							channel.write(buffer);
+						}
+					}
+					catch (IOException e)
+					{
+						System.err.println("DiagnosticTrace: couldn't write " + file);
+						failure = e;
+					}
+				}
+				if (buffer.capacity() == CHUNK)
+				{
+					buffer.clear();
+					empty.offer(buffer);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			System.err.println("DiagnosticTrace: writer interrupted; " + file + " is incomplete");
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the CSV files a run traced (see {@link DiagnosticTrace}), through
+ * {@link CSVWriter}, so that they are laid out as the run would have written them:
+ * <pre>
+ * java -cp ... uk.ac.dmu.iesd.cascade.io.DiagnosticTraceReader trace-seed1-123.bin [out]
+ * </pre>
+ * The files are written under the given directory (by default the current one), with
+ * the names the run gave them.  A trace cut short (by a run which did not end) is read as
+ * far as it goes.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DiagnosticTraceReader {
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1 || args.length > 2)
+		{
+			System.err.println("Usage : java DiagnosticTraceReader <trace> [out]");
+			System.err.println("trace : a diagnostic trace of a run");
+			System.err.println("out : where to write the traced files (default the current directory)");
+			System.exit(1);
+		}
+		try
+		{
+			int files = replay(new File(args[0]), new File(args.length > 1 ? args[1] : "."));
+			System.out.println("DiagnosticTraceReader: wrote " + files + " files");
+		}
+		catch (IOException e)
+		{
+			System.err.println("DiagnosticTraceReader: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes the files a run traced.
+	 *
+	 * @param trace the trace
+	 * @param directory where to write the files
+	 * @return the number of files opened (a file opened more than once is counted each time)
+	 * @throws IOException if the trace cannot be read, or is not a trace
+	 */
+	public static int replay(File trace, File directory) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace)));
+		Map<Integer, CSVWriter> writers = new HashMap<Integer, CSVWriter>();
+		int opened = 0;
+		try
+		{
+			if (in.readInt() != DiagnosticTrace.MAGIC)
+			{
+				throw new IOException(trace + " is not a diagnostic trace");
+			}
+			while (true)
+			{
+				int type = in.read();
+				if (type < 0)
+					break;
+				int handle = in.readInt();
+				CSVWriter writer = writers.get(handle);
+				if (type != DiagnosticTrace.OPEN && writer == null)
+				{
+					throw new IOException(trace + " is damaged (a record for file " + handle + ", which is not open)");
+				}
+				switch (type)
+				{
+				case DiagnosticTrace.OPEN:
+					File file = new File(directory, readString(in));
+					boolean append = in.readByte() != 0;
+					File parent = file.getAbsoluteFile().getParentFile();
+					if (!parent.isDirectory() && !parent.mkdirs())
+					{
+						throw new IOException("couldn't create " + parent);
+					}
+					writers.put(handle, new CSVWriter(file.getPath(), append));
+					opened++;
+					break;
+				case DiagnosticTrace.TEXT:
+					writer.appendText(readString(in));
+					break;
+				case DiagnosticTrace.TEXT_DOUBLE:
+					String label = readString(in);
+					writer.appendText(label + in.readDouble());
+					break;
+				case DiagnosticTrace.TEXT_INT:
+					label = readString(in);
+					writer.appendText(label + in.readInt());
+					break;
+				case DiagnosticTrace.ROW_DOUBLE:
+					double[] doubles = new double[in.readInt()];
+					for (int i = 0; i < doubles.length; i++)
+					{
+						doubles[i] = in.readDouble();
+					}
+					writer.appendRow(doubles);
+					break;
+				case DiagnosticTrace.ROW_INT:
+					int[] ints = new int[in.readInt()];
+					for (int i = 0; i < ints.length; i++)
+					{
+						ints[i] = in.readInt();
+					}
+					writer.appendRow(ints);
+					break;
+				case DiagnosticTrace.COLS_DOUBLE:
+					double[][] matrix = new double[in.readInt()][in.readInt()];
+					for (double[] row : matrix)
+					{
+						for (int j = 0; j < row.length; j++)
+						{
+							row[j] = in.readDouble();
+						}
+					}
+					writer.appendCols(matrix);
+					break;
+				case DiagnosticTrace.CLOSE:
+					writer.close();
+					writers.remove(handle);
+					break;
+				default:
+					throw new IOException(trace + " is damaged (a record of unknown type " + type + ")");
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			System.err.println("DiagnosticTraceReader: " + trace + " was cut short; wrote what it holds");
+		}
+		finally
+		{
+			in.close();
+			for (CSVWriter writer : writers.values())
+			{
+				writer.close();
+			}
+		}
+		return opened;
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, DiagnosticTrace.UTF8);
+	}
+}
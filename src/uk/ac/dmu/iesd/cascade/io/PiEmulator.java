@@ -0,0 +1,166 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process emulator of the Raspberry Pi device endpoint, so that hardware-in-the-loop
+ * households (and the {@link DeviceGateway}) can be run, tested and benchmarked without
+ * the hardware.
+ * <p>
+ * The emulator serves any number of virtual Pis over HTTP on the loopback interface, Pi
+ * <i>n</i> at {@link #getURL getURL(n)}, and, like a Pi, answers
+ * <code>?device=..&value=..</code> requests (URL-encoded) by setting the device and replying
+ * <code>200 OK</code>.  Each request is delayed by the emulator's latency, or by a
+ * per Pi latency set with {@link #setLatency}, to emulate slow devices.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class PiEmulator {
+
+	private static final String PATH = "/pi/";
+	private static final String ACTION = "/action";
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final int latencyMillis;
+	private final ConcurrentHashMap<Long, Integer> piLatencyMillis = new ConcurrentHashMap<Long, Integer>();
+	private final ConcurrentHashMap<String, String> deviceValues = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger requests = new AtomicInteger();
+
+	/**
+	 * Starts the emulator on a free loopback port.
+	 *
+	 * @param latencyMillis the time (ms) each Pi takes to answer a request
+	 * @param threads the number of requests answered at once
+	 * @throws IOException if the emulator's server cannot be started
+	 */
+	public PiEmulator(int latencyMillis, int threads) throws IOException
+	{
+		this.latencyMillis = latencyMillis;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		this.handlers = Executors.newFixedThreadPool(threads, DeviceGateway.daemonThreads("PiEmulator"));
+		server.createContext(PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				answer(exchange);
+			}
+		});
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	/**
+	 * @param pi the number of a virtual Pi
+	 * @return the URL of the Pi's endpoint
+	 */
+	public String getURL(long pi)
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort() + PATH + pi + ACTION;
+	}
+
+	/**
+	 * @param pi the number of a virtual Pi
+	 * @param millis the time (ms) the Pi takes to answer a request, overriding the emulator's latency
+	 */
+	public void setLatency(long pi, int millis)
+	{
+		piLatencyMillis.put(pi, millis);
+	}
+
+	/**
+	 * @param pi the number of a virtual Pi
+	 * @param device a device of the Pi
+	 * @return the value to which the device was last set, or null if it has not been
+	 */
+	public String getValue(long pi, String device)
+	{
+		return deviceValues.get(pi + "/" + device);
+	}
+
+	/**
+	 * @return the number of requests answered
+	 */
+	public int getRequestCount()
+	{
+		return requests.get();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException
+	{
+		int status = 404;
+		String path = exchange.getRequestURI().getPath();
+		if (path.endsWith(ACTION) && path.length() > PATH.length() + ACTION.length())
+		{
+			try
+			{
+				long pi = Long.parseLong(path.substring(PATH.length(), path.length() - ACTION.length()));
+				String device = null;
+				String value = null;
+				String query = exchange.getRequestURI().getRawQuery();
+				if (query != null)
+				{
+					for (String pair : query.split("&"))
+					{
+						int eq = pair.indexOf('=');
+						if (eq > 0 && pair.substring(0, eq).equals("device"))
+						{
+							device = URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+						}
+						else if (eq > 0 && pair.substring(0, eq).equals("value"))
+						{
+							value = URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+						}
+					}
+				}
+				Integer latency = piLatencyMillis.get(pi);
+				Thread.sleep(latency == null ? latencyMillis : latency);
+				if (device == null || value == null)
+				{
+					status = 400;
+				}
+				else
+				{
+					deviceValues.put(pi + "/" + device, value);
+					status = 200;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				status = 404;
+			}
+			catch (IllegalArgumentException e)
+			{
+				status = 400; // malformed escape in the query
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				status = 503;
+			}
+		}
+		requests.incrementAndGet();
+		byte[] body = (status == 200 ? "OK" : "Error").getBytes("US-ASCII");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,153 @@
+package uk.ac.dmu.iesd.cascade.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a parameter sweep: one CSV file, to which a row summarising each run is
+ * appended (and flushed) as soon as the run ends, so that the results of a sweep which is
+ * interrupted are kept, and the sweep can be resumed by running only what is missing.
+ * <p>
+ * The first column of each row is the run's key.  When a sweep is resumed, the last row
+ * of each key is taken as that run's result; a row cut short by the interruption is
+ * ignored.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SweepResults {
+
+	private final File file;
+	private final String[] columns;
+	private final Map<String, String[]> rows = new HashMap<String, String[]>();
+	private Writer out;
+
+	/**
+	 * Opens the results of a sweep, reading any rows already written.
+	 *
+	 * @param file the results file (created if there is none)
+	 * @param columns the column headers, of which the first is the run's key
+	 * @throws IOException if the file cannot be read or written, or holds the results of
+	 *         a sweep with other columns
+	 */
+	public SweepResults(File file, List<String> columns) throws IOException
+	{
+		this.file = file;
+		this.columns = columns.toArray(new String[columns.size()]);
+		boolean exists = file.isFile() && file.length() > 0;
+		if (exists)
+		{
+			read();
+			endLastLine();
+		}
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("couldn't create " + directory);
+		}
+		out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		if (!exists)
+		{
+			write(this.columns);
+		}
+	}
+
+	/**
+	 * @param key a run's key
+	 * @return the last row written for the run, or null if there is none
+	 */
+	public synchronized String[] get(String key)
+	{
+		return rows.get(key);
+	}
+
+	/**
+	 * Appends a row, and flushes it to the file.
+	 *
+	 * @param row the values of the columns, of which the first is the run's key
+	 */
+	public synchronized void append(String[] row) throws IOException
+	{
+		if (row.length != columns.length)
+		{
+			throw new IllegalArgumentException("a row of " + row.length + " values for " + columns.length + " columns");
+		}
+		write(row);
+		rows.put(row[0], row.clone());
+	}
+
+	public synchronized void close() throws IOException
+	{
+		out.close();
+	}
+
+	private void write(String[] row) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < row.length; i++)
+		{
+			if (i > 0)
+				line.append(',');
+			line.append(row[i] == null ? "" : row[i].replaceAll("[,\r\n]", " "));
+		}
+		out.write(line.append('\n').toString());
+		out.flush();
+	}
+
+	private void read() throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String header = in.readLine();
+			if (header == null || !Arrays.equals(header.split(",", -1), columns))
+			{
+				throw new IOException(file + " holds the results of another sweep (its columns are " + header + ")");
+			}
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				String[] row = line.split(",", -1);
+				if (row.length == columns.length)
+				{
+					rows.put(row[0], row);
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Ends the file's last line, if an interruption cut it short, so that the next row
+	 * starts on a line of its own.
+	 */
+	private void endLastLine() throws IOException
+	{
+		RandomAccessFile f = new RandomAccessFile(file, "rw");
+		try
+		{
+			f.seek(f.length() - 1);
+			if (f.read() != '\n')
+			{
+				f.write('\n');
+			}
+		}
+		finally
+		{
+			f.close();
+		}
+	}
+}
@@ -19,10 +19,10 @@ import uk.ac.dmu.iesd.cascade.market.data.PxPD;
 
 public class MarketMessageBoard implements IMarket {
 	
-	private static ArrayList<PxPD> list_PX_products;
-	private static double[] arr_IMBAL;
-	private static double[] arr_oldIMBAL; //previous day IMBAL
-	private static double[] arr_INDMAR;
+	private ArrayList<PxPD> list_PX_products;
+	private double[] arr_IMBAL;
+	private double[] arr_oldIMBAL; //previous day IMBAL
+	private double[] arr_INDMAR;
 	private double[] arr_mip;
 	
 	public ArrayList<PxPD> getPxProductList() {
@@ -53,11 +53,11 @@ public class MarketMessageBoard implements IMarket {
 		this.arr_mip = mip;
 	}
 	
-	public static double[] getIMBAL(){
+	public double[] getIMBAL(){
 		return arr_IMBAL;
 	}
 
-	public static double[] getPreviousDayIMBAL(){
+	public double[] getPreviousDayIMBAL(){
 		return arr_oldIMBAL;
 	}
 	
@@ -69,7 +69,7 @@ public class MarketMessageBoard implements IMarket {
 		System.arraycopy(oldImbalArray, 0, arr_oldIMBAL, 0, arr_IMBAL.length);
 	}
 	
-	public static double[] getINDMAR() {
+	public double[] getINDMAR() {
 		return arr_INDMAR;
 	}
 	
@@ -15,6 +15,7 @@ import uk.ac.dmu.iesd.cascade.market.IPxTrader;
 import uk.ac.dmu.iesd.cascade.market.astem.util.SortComparatorUtils;
 import uk.ac.dmu.iesd.cascade.market.data.BSOD;
 import uk.ac.dmu.iesd.cascade.market.data.PxPD;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 
 /**
@@ -44,7 +45,7 @@ public class PowerExchange {
 
 	private ArrayList<PxPD> list_PX_products; //make sure if needed 
 	
-	private static double[] arr_reversePrice;
+	private double[] arr_reversePrice;
 	private double[] arr_sumOfProductsTraded;
 	private double[] arr_sumOfVolumesTraded;
 	
@@ -292,13 +293,16 @@ public class PowerExchange {
 		return arr_MIP;
 	}
 	
-	public static double[] getReversePrice() {
+	public double[] getReversePrice() {
 		return arr_reversePrice;
 	}
 			
 	
 	@ScheduledMethod(start = Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP, interval = 1, shuffle = false, priority = Consts.PX_PRIORITY_FOURTH)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 		
 		//if (Consts.DEBUG) System.out.println("--Px: "+TestHelper.getEnvInfoInString(mainContext));
 
@@ -2,7 +2,6 @@ package uk.ac.dmu.iesd.cascade.market.astem.operators;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.LinkedHashMap;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
@@ -11,6 +10,7 @@ import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
 import uk.ac.dmu.iesd.cascade.market.IBMTrader;
 import uk.ac.dmu.iesd.cascade.market.ITrader;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  *
@@ -26,6 +26,7 @@ import uk.ac.dmu.iesd.cascade.market.ITrader;
 public class SettlementCompany {
 	
 	private CascadeContext mainContext;
+	private MarketMessageBoard messageBoard;
 	private ArrayList<ITrader> list_ITrader;
 	//private ArrayList<BOD> list_histBOA;
 	//private HashMap map_dmuID2ListOf_BODs;
@@ -37,6 +38,9 @@ public class SettlementCompany {
 	private double[] arr_reversePrice;
 	private double[] arr_SSP;
 	private double[] arr_SBP;
+	// results of calculateSSP and calculateSBP, reused every settlement period
+	private final SysPriceVolData spvd_SSP = new SysPriceVolData(0, 0);
+	private final SysPriceVolData spvd_SBP = new SysPriceVolData(0, 0);
 	
 	class SysPriceVolData {
 		double price;
@@ -119,63 +123,61 @@ public class SettlementCompany {
 	}
 	
 	
-	private SysPriceVolData calculateSSP(LinkedHashMap <IBMTrader, ArrayList<BOD>> mapOfIBMTraders2ListOfBOAs) {
-		
-		ArrayList<BOD> listOfBODs = new ArrayList<BOD>();
+	private SysPriceVolData calculateSSP(LinkedHashMap <IBMTrader, ArrayList<BOD>> mapOfIBMTraders2ListOfBOAs, SysPriceVolData result) {
 		
 	    //TestHelper.printMapListOfBODs(mapOfIBMTraders2ListOfBOAs);
 		//System.out.println("SC: mapOfIBMTraders2ListOfBOAs.size: "+mapOfIBMTraders2ListOfBOAs.size());
 
-		Collection<ArrayList <BOD>> valCol = mapOfIBMTraders2ListOfBOAs.values();
-		for (ArrayList<BOD> arrBOD : valCol) 
-			listOfBODs.addAll(arrBOD);
-		
 		double totalBidsVol=0;
 		double sumOfProducts=0;
-		for (BOD bod : listOfBODs) {
-			if(bod.getPairID() < 0 && bod.isAccepted == true)  {
-				totalBidsVol = totalBidsVol + bod.getLevel();
-				sumOfProducts = sumOfProducts + (bod.getLevel() * bod.getSubmittedBO());
-				//System.out.println("SC: totalBidsVol: "+totalBidsVol);
-				//System.out.println("SC: sumOfProducts: "+sumOfProducts);
+		for (ArrayList<BOD> arrBOD : mapOfIBMTraders2ListOfBOAs.values()) {
+			for (int i=0; i<arrBOD.size(); i++) {
+				BOD bod = arrBOD.get(i);
+				if(bod.getPairID() < 0 && bod.isAccepted == true)  {
+					totalBidsVol = totalBidsVol + bod.getLevel();
+					sumOfProducts = sumOfProducts + (bod.getLevel() * bod.getSubmittedBO());
+					//System.out.println("SC: totalBidsVol: "+totalBidsVol);
+					//System.out.println("SC: sumOfProducts: "+sumOfProducts);
+				}
 			}
 		}
 		
-		double ssp = sumOfProducts/totalBidsVol;
+		result.price = sumOfProducts/totalBidsVol;
+		result.totalImbal = totalBidsVol;
 		
-		return new SysPriceVolData(ssp, totalBidsVol);	
+		return result;	
 
 	}
 	
 	
-	private SysPriceVolData calculateSBP(LinkedHashMap <IBMTrader, ArrayList<BOD>> mapOfIBMTraders2ListOfBOAs) {
-		
-	ArrayList<BOD> listOfBODs = new ArrayList<BOD>();
-		
-		Collection<ArrayList <BOD>> valCol = mapOfIBMTraders2ListOfBOAs.values();
-		for (ArrayList<BOD> arrBOD : valCol) 
-			listOfBODs.addAll(arrBOD);
+	private SysPriceVolData calculateSBP(LinkedHashMap <IBMTrader, ArrayList<BOD>> mapOfIBMTraders2ListOfBOAs, SysPriceVolData result) {
 		
 		double totalOffersVol=0;
 		double sumOfProducts=0;
-		for (BOD bod : listOfBODs) {
-			
-			if(bod.getPairID() > 0 && bod.isAccepted == true)  {
+		for (ArrayList<BOD> arrBOD : mapOfIBMTraders2ListOfBOAs.values()) {
+			for (int i=0; i<arrBOD.size(); i++) {
+				BOD bod = arrBOD.get(i);
+				if(bod.getPairID() > 0 && bod.isAccepted == true)  {
+					
+					totalOffersVol = totalOffersVol + bod.getLevel();
+					sumOfProducts = sumOfProducts + (bod.getLevel() * bod.getSubmittedBO());
 				
-				totalOffersVol = totalOffersVol + bod.getLevel();
-				sumOfProducts = sumOfProducts + (bod.getLevel() * bod.getSubmittedBO());
-			
+				}
 			}
 		}
 		
-		double sbp = sumOfProducts/totalOffersVol;
-		return new SysPriceVolData(sbp, totalOffersVol);	
+		result.price = sumOfProducts/totalOffersVol;
+		result.totalImbal = totalOffersVol;
+		return result;	
 		
 	}
 	//int da=5;
 	
 	@ScheduledMethod(start = Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP, interval = 1, shuffle = false, priority = Consts.SC_PRIORITY_THIRD)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println("--SC: "+TestHelper.getEnvInfoInString(mainContext));
 
@@ -188,23 +190,20 @@ public class SettlementCompany {
 
 		if (settlementPeriod == 47) {
 			map_IBMTraderID2PreviousDayPNs = fetchPreviousDayPNs(list_ITrader);  
-			arr_previousDayIMBAL = MarketMessageBoard.getPreviousDayIMBAL();
+			arr_previousDayIMBAL = messageBoard.getPreviousDayIMBAL();
 
 		}
 
 		if (mainContext.getDayCount() > ((Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP)/48)) { // second day
 			if (settlementPeriod == 0)
-				arr_reversePrice = PowerExchange.getReversePrice();  //JRS TODO: Why do we get this from PowerExchange, not MessageBoard?
+				arr_reversePrice = messageBoard.getMIP(); //the power exchange publishes its reverse price as the MIP
 			
-			SysPriceVolData spvd_SBP = null; 
-			SysPriceVolData spvd_SSP = null;
-				
 			if (arr_previousDayIMBAL[settlementPeriod] >= 0) {
-				spvd_SSP = calculateSSP(map_IBMTrader2listBOAs);
+				calculateSSP(map_IBMTrader2listBOAs, spvd_SSP);
 				arr_mainPrice[settlementPeriod] = spvd_SSP.price;
 			}
 			else if (arr_previousDayIMBAL[settlementPeriod] < 0) {
-				spvd_SBP = calculateSBP(map_IBMTrader2listBOAs);
+				calculateSBP(map_IBMTrader2listBOAs, spvd_SBP);
 				arr_mainPrice[settlementPeriod] = spvd_SBP.price;
 			}
 			
@@ -252,8 +251,9 @@ public class SettlementCompany {
 	}
 
 	
-	public SettlementCompany(CascadeContext context){
+	public SettlementCompany(CascadeContext context, MarketMessageBoard mb){
 		this.mainContext = context;	
+		this.messageBoard = mb;
 		arr_mainPrice = new double[context.ticksPerDay];
 		arr_SSP = new double[context.ticksPerDay];
 		arr_SBP = new double[context.ticksPerDay];
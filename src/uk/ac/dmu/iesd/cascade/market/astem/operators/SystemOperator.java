@@ -2,11 +2,9 @@ package uk.ac.dmu.iesd.cascade.market.astem.operators;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
@@ -20,6 +18,7 @@ import uk.ac.dmu.iesd.cascade.market.astem.data.ImbalData;
 import uk.ac.dmu.iesd.cascade.market.astem.util.ArraysUtils;
 import uk.ac.dmu.iesd.cascade.market.astem.util.CollectionUtils;
 import uk.ac.dmu.iesd.cascade.market.astem.util.SortComparatorUtils;
+import uk.ac.dmu.iesd.cascade.util.PhaseProfiler;
 
 /**
  * 
@@ -57,6 +56,9 @@ public class SystemOperator {
 	private LinkedHashMap <Integer, double[]> map_dmuID2PN;
 	private LinkedHashMap <IBMTrader, ArrayList<BOD>> map_IBMTrader2ListOfBODs;	
 	private LinkedHashMap <IBMTrader, ArrayList<BOD>> map_IBMTrader2ListOfBOAs; //BOA are the same as BODs, except processed for acceptance (T or F)
+	// working lists for generateBOA, reused every settlement period
+	private ArrayList<BOD> list_offers = new ArrayList<BOD>();
+	private ArrayList<BOD> list_bids = new ArrayList<BOD>();
 
 	private LinkedHashMap <Integer, ArrayList<ImbalData>> map_imbalType2ImbalData;
 		
@@ -158,7 +160,10 @@ public class SystemOperator {
 	private LinkedHashMap<IBMTrader, ArrayList<BOD>> fetchBODs(List<ITrader> listOfITraders) {
 		//System.out.println("------ SO: fetchBOD");
 		//Received BOD are in the form of list
-		LinkedHashMap<IBMTrader, ArrayList<BOD>> map_IBMTrader2bod = new LinkedHashMap <IBMTrader, ArrayList<BOD>>();
+		// The map is reused: the traders, and the lists of BODs they hold, are the same every settlement period
+		LinkedHashMap<IBMTrader, ArrayList<BOD>> map_IBMTrader2bod = map_IBMTrader2ListOfBODs;
+		if (map_IBMTrader2bod == null)
+			map_IBMTrader2bod = new LinkedHashMap <IBMTrader, ArrayList<BOD>>();
 		
 		for (int i=0; i< listOfITraders.size(); i++) {
 			IBMTrader bmu =(IBMTrader) listOfITraders.get(i);
@@ -173,31 +178,29 @@ public class SystemOperator {
 	
 	private LinkedHashMap<IBMTrader, ArrayList<BOD>> generateBOA(LinkedHashMap<IBMTrader, ArrayList<BOD>> mapOfIBMTrader2ListOfBODs, int sp, double[] prevDayIMBALArray) {
 		
-		ArrayList<BOD> listOfBODs = new ArrayList<BOD>();
-		
-		Collection<ArrayList <BOD>> valCol = mapOfIBMTrader2ListOfBODs.values();
-		for (ArrayList<BOD> arrBOD : valCol) 
-			listOfBODs.addAll(arrBOD);
-		
-		ArrayList<BOD> listOfOffers = new ArrayList<BOD>();
-		ArrayList<BOD> listOfBids = new ArrayList<BOD>();
-		for (BOD bod : listOfBODs){	
-			if (bod.getPairID() > 0)
-				listOfOffers.add(bod);
-			else listOfBids.add(bod);
+		ArrayList<BOD> listOfOffers = list_offers;
+		ArrayList<BOD> listOfBids = list_bids;
+		listOfOffers.clear();
+		listOfBids.clear();
+		for (ArrayList<BOD> arrBOD : mapOfIBMTrader2ListOfBODs.values()) {
+			for (int i=0; i<arrBOD.size(); i++) {
+				BOD bod = arrBOD.get(i);
+				if (bod.getPairID() > 0)
+					listOfOffers.add(bod);
+				else listOfBids.add(bod);
+			}
 		}
 				
-		Collections.sort(listOfOffers, SortComparatorUtils.SO_SUBMITTED_BO_TOPDOWN_ASCENDING_ORDER); 
+		CollectionUtils.insertionSort(listOfOffers, SortComparatorUtils.SO_SUBMITTED_BO_TOPDOWN_ASCENDING_ORDER); 
 		
-		Collections.sort(listOfBids, SortComparatorUtils.SO_SUBMITTED_BO_TOPDOWN_DESCENDING_ORDER);
+		CollectionUtils.insertionSort(listOfBids, SortComparatorUtils.SO_SUBMITTED_BO_TOPDOWN_DESCENDING_ORDER);
 
-		Iterator <BOD> iterOffers = listOfOffers.iterator();
-		
 		if (prevDayIMBALArray[sp] <0) {
 			double remainingIMBAL = prevDayIMBALArray[sp];
+			int next = 0;
 		
-			while(remainingIMBAL<0 && iterOffers.hasNext()) {
-				BOD bod = iterOffers.next();
+			while(remainingIMBAL<0 && next < listOfOffers.size()) {
+				BOD bod = listOfOffers.get(next++);
 				bod.isAccepted=true;
 				remainingIMBAL = remainingIMBAL + bod.getLevel();
 				if (remainingIMBAL>0) {
@@ -207,12 +210,11 @@ public class SystemOperator {
 			}
 		}
 		
-		Iterator <BOD> iterBids = listOfBids.iterator();
-
 		if (prevDayIMBALArray[sp] >0 ) {
 			double remainingIMBAL = prevDayIMBALArray[sp];
-			while(remainingIMBAL>0 && iterBids.hasNext()) {
-				BOD bod = iterBids.next();
+			int next = 0;
+			while(remainingIMBAL>0 && next < listOfBids.size()) {
+				BOD bod = listOfBids.get(next++);
 				bod.isAccepted=true;
 				remainingIMBAL = remainingIMBAL + bod.getLevel();
 				if (remainingIMBAL<0){
@@ -230,10 +232,8 @@ public class SystemOperator {
 		//System.out.println("SO: sendBOAtoEachBMU() called");
 		//System.out.println("size of mapOfBMUID2ListOfBOAs: "+mapOfBMU2ListOfBOAs.size());
 
-		Set <IBMTrader> bmuSet =  mapOfIBMTrader2ListOfBOAs.keySet();
-		
-		for (IBMTrader bmu: bmuSet) 
-			bmu.recieveBOA((ArrayList<BOD>)mapOfIBMTrader2ListOfBOAs.get(bmu));
+		for (Map.Entry<IBMTrader, ArrayList<BOD>> entry : mapOfIBMTrader2ListOfBOAs.entrySet()) 
+			entry.getKey().recieveBOA(entry.getValue());
 	
 	}
 	
@@ -376,6 +376,9 @@ private ArrayList<ImbalData> calculate2hImbalance(double[] imbalArray, double to
 
 	@ScheduledMethod(start = Consts.AGGREGATOR_PROFILE_BUILDING_SP + Consts.AGGREGATOR_TRAINING_SP, interval = 1, shuffle = false, priority = Consts.SO_PRIORITY_SECOND)
 	public void step() {
+		if (mainContext.isFastForwarding())
+			return;
+		mainContext.getPhaseProfiler().enter(this);
 
 		//if (Consts.DEBUG) System.out.println("--SO: "+TestHelper.getEnvInfoInString(mainContext));
 		
@@ -1,6 +1,8 @@
 package uk.ac.dmu.iesd.cascade.market.astem.util;
 
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Utility class applicable to collection types.
@@ -32,6 +34,26 @@ public class CollectionUtils {
 		}	
 		return numOfrowsWithPosVal;
 	}
+	
+	/**
+	 * Sorts a (random access) list in place by insertion sort.  The sort is stable, so
+	 * it gives the same order as <code>Collections.sort</code>, but it allocates nothing,
+	 * which makes it preferable for the short lists sorted every settlement period.
+	 * 
+	 * @param list the list to sort
+	 * @param comparator the ordering
+	 */
+	public static <T> void insertionSort(List<T> list, Comparator<? super T> comparator) {
+		for (int i = 1; i < list.size(); i++) {
+			T item = list.get(i);
+			int j = i - 1;
+			while (j >= 0 && comparator.compare(list.get(j), item) > 0) {
+				list.set(j + 1, list.get(j));
+				j--;
+			}
+			list.set(j + 1, item);
+		}
+	}
 
 
 }
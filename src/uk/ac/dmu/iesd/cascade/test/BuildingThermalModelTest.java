@@ -0,0 +1,271 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel.Discretisation;
+
+/**
+ * Test of the {@link BuildingThermalModel}: that its EULER discretisation reproduces, to
+ * the bit, the heat pump step households used before the kernel (both the population and
+ * the single building kernels, and the free running temperature drop the Wattbox
+ * controllers used); and that its EXACT discretisation matches the analytic solution of
+ * the building's heat balance <code>C dT/dt = Q - H (T - Tex)</code>, with the heat pump
+ * off, at its maximum output and holding the set point, for ticks short and long compared
+ * with the building's time constant.  Prints any failures and exits with a non-zero
+ * status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class BuildingThermalModelTest {
+
+	private static final int TICKS_PER_DAY = 48;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(35);
+		checkEulerAgainstLegacy(random);
+		checkExactAgainstAnalytic(random);
+
+		if (failures > 0)
+		{
+			System.err.println("BuildingThermalModelTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("BuildingThermalModelTest: passed");
+	}
+
+	/**
+	 * The household's heat pump step as it was before the kernel
+	 * (HouseholdProsumer.calculateHeatPumpDemandAndInternalTemp), with the household's
+	 * fields passed in and its internal temperature returned in <code>temp[0]</code>.
+	 */
+	private static double legacyStep(double setPoint, double airTemperature, double[] temp, double buildingHeatLossRate, double buildingThermalMass, double ratedPowerHeatPump, int ticksPerDay)
+	{
+		double demand = 0;
+		double deltaT = setPoint - airTemperature;
+
+		double requiredTempChange = setPoint - temp[0];
+
+		double maintenanceEnergy =  ((deltaT * (buildingHeatLossRate)) * ((double)(Consts.SECONDS_PER_DAY / ticksPerDay))) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+
+		double heatingEnergy = requiredTempChange * buildingThermalMass / Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE;
+
+		if ((requiredTempChange < (0 - Consts.TEMP_CHANGE_TOLERANCE)) || (deltaT < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF))
+		{
+			temp[0] -= maintenanceEnergy / buildingThermalMass;
+		}
+		else
+		{
+			demand = maintenanceEnergy + heatingEnergy;
+			if (demand > ((ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) *(double) 24 / ticksPerDay))
+			{
+				demand = (ratedPowerHeatPump * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) * ((double) 24 / ticksPerDay);
+				temp[0] = temp[0] + ((demand - maintenanceEnergy) / buildingThermalMass);
+			}
+			else
+			{
+				temp[0] = setPoint;
+			}
+		}
+		return demand;
+	}
+
+	/**
+	 * Steps a population of households through several days, with set points and
+	 * external temperatures which turn the heat pumps off, on and to their maximum, by the
+	 * legacy step and by both kernels, and checks that heat and temperatures are identical.
+	 */
+	private static void checkEulerAgainstLegacy(Random random)
+	{
+		int size = 200;
+		int ticks = 3 * TICKS_PER_DAY;
+		double tickSeconds = BuildingThermalModel.tickSeconds(TICKS_PER_DAY);
+		double[] thermalMass = new double[size];
+		double[] heatLossRate = new double[size];
+		double[] ratedPower = new double[size];
+		double[] maxHeat = new double[size];
+		double[] legacyTemp = new double[size];
+		double[] internalTemp = new double[size];
+		double[][] setPoints = new double[size][ticks];
+		double[] externalTemps = new double[ticks];
+		for (int i = 0; i < size; i++)
+		{
+			thermalMass[i] = 5 + 10 * random.nextDouble();
+			heatLossRate[i] = 100 + 300 * random.nextDouble();
+			ratedPower[i] = 0.5 + 2 * random.nextDouble();
+			maxHeat[i] = (ratedPower[i] * Consts.DOMESTIC_HEAT_PUMP_SPACE_COP) * ((double) 24 / TICKS_PER_DAY);
+			legacyTemp[i] = internalTemp[i] = 15 + 5 * random.nextDouble();
+			for (int t = 0; t < ticks; t++)
+			{
+				setPoints[i][t] = random.nextInt(3) == 0 ? 12 + 12 * random.nextDouble() : 20;
+			}
+		}
+		for (int t = 0; t < ticks; t++)
+		{
+			externalTemps[t] = -5 + 25 * random.nextDouble();
+		}
+
+		boolean sameHeat = true;
+		boolean sameTemp = true;
+		boolean sawOff = false;
+		boolean sawMax = false;
+		double[] setPoint = new double[size];
+		double[] heat = new double[size];
+		double[] legacyHeat = new double[size];
+		double[][] legacyProfile = new double[size][ticks];
+		double[][] legacyTemps = new double[size][ticks];
+		double[] temp = new double[1];
+		for (int t = 0; t < ticks; t++)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				setPoint[i] = setPoints[i][t];
+				temp[0] = legacyTemp[i];
+				legacyHeat[i] = legacyStep(setPoint[i], externalTemps[t], temp, heatLossRate[i], thermalMass[i], ratedPower[i], TICKS_PER_DAY);
+				legacyTemp[i] = temp[0];
+				legacyProfile[i][t] = legacyHeat[i];
+				legacyTemps[i][t] = temp[0];
+				sawOff |= legacyHeat[i] == 0;
+				sawMax |= legacyHeat[i] == maxHeat[i];
+			}
+			BuildingThermalModel.heatPumpStep(0, size, thermalMass, heatLossRate, maxHeat, setPoint, internalTemp, externalTemps[t], tickSeconds, Discretisation.EULER, heat);
+			for (int i = 0; i < size; i++)
+			{
+				sameHeat &= heat[i] == legacyHeat[i];
+				sameTemp &= internalTemp[i] == legacyTemp[i];
+			}
+		}
+		check(sawOff && sawMax, "heat pumps seen off and at their maximum");
+		check(sameHeat, "population step heat as the legacy household step, to the bit");
+		check(sameTemp, "population step internal temperatures as the legacy household step, to the bit");
+
+		boolean sameDay = true;
+		double[] heatOut = new double[ticks];
+		double[] tempOut = new double[ticks];
+		for (int i = 0; i < size; i++)
+		{
+			double initial = legacyTemps[i][0];
+			BuildingThermalModel.simulateHeatPump(thermalMass[i], heatLossRate[i], maxHeat[i], copyFrom(setPoints[i], 1), copyFrom(externalTemps, 1), initial, tickSeconds, Discretisation.EULER, heatOut, tempOut);
+			for (int t = 1; t < ticks; t++)
+			{
+				sameDay &= heatOut[t - 1] == legacyProfile[i][t] && tempOut[t - 1] == legacyTemps[i][t];
+			}
+		}
+		check(sameDay, "single building simulation as the legacy household step, to the bit");
+
+		boolean sameDrop = true;
+		for (int n = 0; n < 1000; n++)
+		{
+			double mass = 5 + 10 * random.nextDouble();
+			double lossRate = 100 + 300 * random.nextDouble();
+			double difference = Math.max(0, 25 * random.nextDouble() - 5);
+			double legacy = (((lossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * (Consts.SECONDS_PER_DAY / TICKS_PER_DAY) * difference) / mass);
+			sameDrop &= BuildingThermalModel.freeRunningTempDrop(mass, lossRate, difference, tickSeconds, Discretisation.EULER) == legacy;
+		}
+		check(sameDrop, "free running temperature drop as the Wattbox controllers' legacy one, to the bit");
+	}
+
+	/**
+	 * Checks single EXACT steps against the analytic solution: with constant heat input Q
+	 * (W) the internal temperature relaxes as <code>T(t) = Teq + (T0 - Teq) exp(-t / tau)</code>,
+	 * with <code>Teq = Tex + Q / H</code> and <code>tau = C / H</code>.
+	 */
+	private static void checkExactAgainstAnalytic(Random random)
+	{
+		boolean off = true;
+		boolean atMax = true;
+		boolean held = true;
+		boolean drop = true;
+		boolean composes = true;
+		boolean converges = true;
+		double[] temp = new double[1];
+		for (int n = 0; n < 1000; n++)
+		{
+			double mass = 5 + 10 * random.nextDouble(); // kWh/C
+			double lossRate = 100 + 300 * random.nextDouble(); // W/C
+			double joulesPerC = mass * Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+			double tau = joulesPerC / lossRate;
+			// ticks of a minute to several time constants
+			double tickSeconds = n % 4 == 0 ? 60 : (n % 4 == 1 ? 1800 : (n % 4 == 2 ? 86400 : 5 * tau));
+			double decay = Math.exp(-tickSeconds / tau);
+			double external = -5 + 10 * random.nextDouble();
+			double initial = 15 + 5 * random.nextDouble();
+
+			// off: the set point below the internal temperature
+			double[] heat = new double[1];
+			BuildingThermalModel.simulateHeatPump(mass, lossRate, 10, new double[] {initial - 1}, new double[] {external}, initial, tickSeconds, Discretisation.EXACT, heat, temp);
+			double expected = external + (initial - external) * decay;
+			off &= heat[0] == 0 && close(temp[0], expected);
+			drop &= close(initial - BuildingThermalModel.freeRunningTempDrop(mass, lossRate, initial - external, tickSeconds, Discretisation.EXACT), expected);
+
+			// at its maximum: a set point far above what the heat pump can reach
+			double maxHeat = 0.1 * lossRate * tickSeconds / Consts.KWH_TO_JOULE_CONVERSION_FACTOR; // enough to hold 0.1 C above the external temperature
+			BuildingThermalModel.simulateHeatPump(mass, lossRate, maxHeat, new double[] {initial + 5}, new double[] {external}, initial, tickSeconds, Discretisation.EXACT, heat, temp);
+			double equilibrium = external + (maxHeat * Consts.KWH_TO_JOULE_CONVERSION_FACTOR / tickSeconds) / lossRate;
+			atMax &= heat[0] == maxHeat && close(temp[0], equilibrium + (initial - equilibrium) * decay);
+
+			// holding the set point: the heat supplied at a constant rate is that which the
+			// analytic solution needs to end the tick at the set point, C (Ts - T0) plus the
+			// heat lost, H times the integral of T - Tex; plus the COP degradation of raising it
+			double setPoint = initial + 2 * random.nextDouble();
+			BuildingThermalModel.simulateHeatPump(mass, lossRate, Double.MAX_VALUE, new double[] {setPoint}, new double[] {external}, initial, tickSeconds, Discretisation.EXACT, heat, temp);
+			double rate = lossRate * (setPoint - external - (initial - external) * decay) / (1 - decay); // Q (W) such that T(tick) = Ts
+			double teq = external + rate / lossRate;
+			double lost = lossRate * ((teq - external) * tickSeconds + (initial - teq) * tau * (1 - decay));
+			double supplied = (joulesPerC * (setPoint - initial) + lost) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+			double degradation = (setPoint - initial) * mass * (1 / Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE - 1);
+			held &= temp[0] == setPoint && Math.abs(heat[0] - (supplied + degradation)) <= 1e-9 * Math.max(supplied, 1);
+
+			// free running over a tick in m EXACT steps is as in one, and EULER steps converge to it
+			int m = 100;
+			double[] setPoints = new double[m];
+			double[] externals = new double[m];
+			Arrays.fill(setPoints, external - 10); // off throughout, however far it cools
+			Arrays.fill(externals, external);
+			double[] heats = new double[m];
+			double[] temps = new double[m];
+			BuildingThermalModel.simulateHeatPump(mass, lossRate, 10, setPoints, externals, initial, tickSeconds / m, Discretisation.EXACT, heats, temps);
+			composes &= close(temps[m - 1], expected);
+			if (tickSeconds <= 1800)
+			{
+				// (the EULER heat pump step takes the heat lost at the set point, so the free running drop is stepped instead)
+				double euler = initial;
+				for (int i = 0; i < m; i++)
+				{
+					euler -= BuildingThermalModel.freeRunningTempDrop(mass, lossRate, euler - external, tickSeconds / m, Discretisation.EULER);
+				}
+				converges &= Math.abs(euler - expected) <= 1e-3 * Math.abs(initial - expected) + 1e-12;
+			}
+		}
+		check(off, "EXACT free cooling as the analytic solution");
+		check(drop, "EXACT free running temperature drop as the analytic solution");
+		check(atMax, "EXACT heating at the maximum output as the analytic solution");
+		check(held, "EXACT heat to reach and hold the set point as the analytic solution");
+		check(composes, "EXACT steps compose: many short steps as one long one");
+		check(converges, "EULER free running drop converges to EXACT over short steps");
+	}
+
+	private static double[] copyFrom(double[] array, int from)
+	{
+		return Arrays.copyOfRange(array, from, array.length);
+	}
+
+	private static boolean close(double actual, double expected)
+	{
+		return Math.abs(actual - expected) <= 1e-12 * Math.max(Math.abs(expected), 1);
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("BuildingThermalModelTest: failed: " + what);
+			failures++;
+		}
+	}
+}
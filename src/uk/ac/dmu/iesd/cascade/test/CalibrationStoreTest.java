@@ -0,0 +1,152 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore.Calibration;
+
+/**
+ * Test of the {@link CalibrationStore}: checks that keys depend on every part of the
+ * description (and not on the order of customers), that a stored calibration is loaded
+ * bit for bit, that damaged files and files stored under another key are ignored, and
+ * that validation tells a matching calibration from a different one.  Prints any failures
+ * and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class CalibrationStoreTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		File directory = new File(System.getProperty("java.io.tmpdir"), "CalibrationStoreTest" + System.nanoTime());
+		try
+		{
+			checkKeys();
+			checkStore(directory);
+		}
+		finally
+		{
+			File[] files = directory.listFiles();
+			for (int i = 0; files != null && i < files.length; i++)
+			{
+				files[i].delete();
+			}
+			directory.delete();
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("CalibrationStoreTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("CalibrationStoreTest: passed");
+	}
+
+	private static void checkKeys()
+	{
+		List<Object> customers = new ArrayList<Object>(Arrays.asList("a", "b", Integer.valueOf(1)));
+		List<Object> reordered = new ArrayList<Object>(Arrays.asList(Integer.valueOf(1), "b", "a"));
+		List<Object> more = new ArrayList<Object>(Arrays.asList("a", "b", "c", Integer.valueOf(1)));
+		double[] costs = {1, 2, 3};
+
+		String key = key("SupplierCo 1", "{randomSeed=1}", 1, 48, customers, costs);
+		check(key.length() == 64, "key is a SHA-256 hex hash");
+		check(key.equals(key("SupplierCo 1", "{randomSeed=1}", 1, 48, customers, costs.clone())), "key is deterministic");
+		check(key.equals(key("SupplierCo 1", "{randomSeed=1}", 1, 48, reordered, costs)), "key ignores the order of customers");
+		check(!key.equals(key("SupplierCo 2", "{randomSeed=1}", 1, 48, customers, costs)), "key depends on the aggregator");
+		check(!key.equals(key("SupplierCo 1", "{randomSeed=2}", 1, 48, customers, costs)), "key depends on the parameters");
+		check(!key.equals(key("SupplierCo 1", "{randomSeed=1}", 2, 48, customers, costs)), "key depends on the seed");
+		check(!key.equals(key("SupplierCo 1", "{randomSeed=1}", 1, 24, customers, costs)), "key depends on the ticks per day");
+		check(!key.equals(key("SupplierCo 1", "{randomSeed=1}", 1, 48, more, costs)), "key depends on the customers");
+		check(!key.equals(key("SupplierCo 1", "{randomSeed=1}", 1, 48, customers, new double[] {1, 2, 3.0000001})), "key depends on the inputs");
+		// inputs whose Arrays.hashCode collide (each element's hash is its bits' halves xored)
+		double[] inputs = {1, Double.longBitsToDouble(63)};
+		double[] colliding = {Math.nextUp(1.0), Double.longBitsToDouble(32)};
+		check(Arrays.hashCode(inputs) == Arrays.hashCode(colliding)
+				&& !key("SupplierCo 1", "{randomSeed=1}", 1, 48, customers, inputs).equals(key("SupplierCo 1", "{randomSeed=1}", 1, 48, customers, colliding)), "key depends on every bit of the inputs");
+	}
+
+	private static String key(String aggregator, String parameters, int seed, int ticksPerDay, List<?> customers, double[] costs)
+	{
+		return CalibrationStore.key(CalibrationStore.describe(aggregator, parameters, seed, ticksPerDay, customers, costs));
+	}
+
+	private static void checkStore(File directory) throws IOException
+	{
+		CalibrationStore store = new CalibrationStore(directory);
+		String key = CalibrationStore.key("a");
+		String otherKey = CalibrationStore.key("b");
+		check(store.load(key) == null, "nothing is loaded from an empty store");
+
+		Calibration learned = calibration(0);
+		store.learned(CalibrationStore.Mode.USE, key, learned, "test");
+		Calibration loaded = store.load(key);
+		check(loaded != null && loaded.maxDifference(learned) == 0, "stored calibration loaded");
+		check(loaded != null && Arrays.equals(loaded.getArray("B"), learned.getArray("B")) && Arrays.deepEquals(loaded.getMatrix("k"), learned.getMatrix("k")), "stored calibration loaded bit for bit");
+		check(loaded != null && Double.isNaN(loaded.getArray("e")[1]), "NaN stored");
+		check(store.load(otherKey) == null, "nothing is loaded under another key");
+		check(learned.maxDifference(calibration(1e-9)) > 0, "a different calibration differs");
+		check(learned.maxDifference(new Calibration()) == Double.POSITIVE_INFINITY, "a calibration of another shape differs entirely");
+
+		// a calibration copied to another key's file is not loaded under that key
+		File file = new File(directory, key + ".cal");
+		File other = new File(directory, otherKey + ".cal");
+		store.store(key, learned);
+		check(file.renameTo(other) && store.load(otherKey) == null, "calibration under the wrong name ignored");
+		other.delete();
+
+		// a damaged file is ignored
+		store.store(key, learned);
+		RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+		damaged.seek(damaged.length() / 2);
+		int b = damaged.read();
+		damaged.seek(damaged.length() / 2);
+		damaged.write(b ^ 1);
+		damaged.close();
+		check(store.load(key) == null, "damaged calibration ignored");
+
+		// validation stores a missing calibration, and leaves a stored one as it is
+		file.delete();
+		store.learned(CalibrationStore.Mode.VALIDATE, key, learned, "test");
+		check(store.load(key) != null, "validation stores a missing calibration");
+		store.learned(CalibrationStore.Mode.VALIDATE, key, calibration(1), "test");
+		check(store.load(key).maxDifference(learned) == 0, "validation leaves the stored calibration");
+		store.learned(CalibrationStore.Mode.OFF, otherKey, learned, "test");
+		check(store.load(otherKey) == null, "nothing stored when the store is off");
+	}
+
+	private static Calibration calibration(double offset)
+	{
+		double[] b = new double[48];
+		double[][] k = new double[48][48];
+		for (int i = 0; i < 48; i++)
+		{
+			b[i] = Math.sin(i) + offset;
+			for (int j = 0; j < 48; j++)
+			{
+				k[i][j] = (i - j) / 7.0;
+			}
+		}
+		Calibration calibration = new Calibration();
+		calibration.putArray("B", b);
+		calibration.putArray("e", new double[] {0.1, Double.NaN});
+		calibration.putMatrix("k", k);
+		return calibration;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("CalibrationStoreTest: failed: " + what);
+			failures++;
+		}
+	}
+}
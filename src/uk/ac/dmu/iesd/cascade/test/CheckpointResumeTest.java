@@ -0,0 +1,90 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import repast.simphony.parameter.Parameters;
+import repast.simphony.parameter.ParametersParser;
+import uk.ac.dmu.iesd.cascade.context.CascadeContextBuilder;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Result;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Scenario;
+
+/**
+ * End-to-end test of checkpoints: runs the model's scenario from the start, saving a
+ * checkpoint on the way, then runs it again resumed from that checkpoint, and checks that
+ * from the checkpoint tick on the two give, to the bit, the same demand trajectories as
+ * each other and as a run which neither saves nor resumes.  Prints any failures and exits
+ * with a non-zero status if there are any.
+ * <p>
+ * Run from the model's directory, with the Repast libraries on the class path.
+ * Arguments (all optional): the scenario directory (default <code>Cascade.rs</code>), the
+ * checkpoint tick (default 2 days) and the tick after which runs stop (default 4 days).
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class CheckpointResumeTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		File scenarioDirectory = new File(args.length > 0 ? args[0] : "Cascade.rs");
+		int checkpointTick = args.length > 1 ? Integer.parseInt(args[1]) : 2 * 48;
+		double endTick = args.length > 2 ? Double.parseDouble(args[2]) : 4 * 48 - 1;
+		File checkpoint = File.createTempFile("cascade-checkpoint", ".gz");
+		checkpoint.deleteOnExit();
+
+		// one after another, as the resumed run reads the checkpoint the saving run writes
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		scenarios.add(scenario("uninterrupted", scenarioDirectory, checkpointTick, endTick, null, null));
+		scenarios.add(scenario("saved", scenarioDirectory, checkpointTick, endTick, checkpoint.getPath(), null));
+		scenarios.add(scenario("resumed", scenarioDirectory, checkpointTick, endTick, null, checkpoint.getPath()));
+		List<Result> results = new ArrayList<Result>();
+		for (Scenario scenario : scenarios)
+		{
+			results.addAll(ScenarioRunner.run(Collections.singletonList(scenario), 1));
+		}
+
+		for (Result result : results)
+		{
+			System.out.println(result);
+			check(result.getError() == null, result.getName() + " ran to its end");
+			check(result.getLastTick() >= endTick, result.getName() + " ran to the end tick");
+		}
+		Result uninterrupted = results.get(0);
+		check(uninterrupted.getFingerprint() != null && uninterrupted.getFingerprint().equals(results.get(1).getFingerprint()), "saving a checkpoint leaves the run as it was");
+		check(uninterrupted.getFingerprint() != null && uninterrupted.getFingerprint().equals(results.get(2).getFingerprint()), "resumed run matches the uninterrupted one");
+
+		if (failures > 0)
+		{
+			System.err.println("CheckpointResumeTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("CheckpointResumeTest: passed");
+	}
+
+	private static Scenario scenario(String name, File scenarioDirectory, int checkpointTick, double endTick, String save, String resume) throws Exception
+	{
+		Parameters parameters = new ParametersParser(new File(scenarioDirectory, "parameters.xml")).getParameters();
+		parameters.setValue("randomSeed", Integer.valueOf(1));
+		parameters.setValue(RunConfig.CHECKPOINT_TICK, Integer.valueOf(checkpointTick));
+		parameters.setValue(RunConfig.CHECKPOINT_SAVE, save == null ? "" : save);
+		parameters.setValue(RunConfig.CHECKPOINT_RESUME, resume == null ? "" : resume);
+		Scenario scenario = new Scenario(name, parameters, new CascadeContextBuilder(), endTick);
+		scenario.setFingerprintFrom(checkpointTick);
+		return scenario;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("CheckpointResumeTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.CumulativeProfile;
+
+/**
+ * Equivalence test of {@link CumulativeProfile} against the windowed sums it replaces.
+ * <p>
+ * Prosumers previously computed their fixed day total demand as
+ * <code>ArrayUtils.sum(Arrays.copyOfRange(profile, i, i + ticksPerDay - 1))</code>, which
+ * omits the last timeslot of the day, and pads with zeros rather than wrapping when the
+ * day runs past the end of the profile.  The test checks, on random multi-day profiles,
+ * that the windowed sum equals that legacy value plus the omitted last timeslot for every
+ * day within the profile, and equals a direct (wrapping) sum for every window; and that
+ * windowed means, minima and maxima equal direct evaluation.  Prints any mismatches and
+ * exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class CumulativeProfileTest {
+
+	private static final double TOLERANCE = 1e-9;
+	private static final int TICKS_PER_DAY = 48;
+	private static final int DAYS = 9;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(2013);
+		double[] profile = new double[TICKS_PER_DAY * DAYS];
+		for (int i = 0; i < profile.length; i++)
+		{
+			profile[i] = 0.2 + random.nextDouble() * 1.5;
+		}
+		CumulativeProfile sums = new CumulativeProfile(profile);
+
+		// the day totals, as computed by the prosumers
+		for (int day = 0; day < 3 * DAYS; day++)
+		{
+			int time = day * TICKS_PER_DAY;
+			int index = time % profile.length;
+			double expected = legacyFixedDayTotalDemand(profile, time) + profile[index + TICKS_PER_DAY - 1];
+			check("day total, day " + day, expected, sums.sum(time, TICKS_PER_DAY));
+		}
+
+		// arbitrary windows, including windows wrapping around the end and longer than the profile
+		for (int n = 0; n < 2000; n++)
+		{
+			int from = random.nextInt(3 * profile.length);
+			int length = 1 + random.nextInt(n % 10 == 0 ? 3 * profile.length : profile.length);
+			double sum = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < from + length; i++)
+			{
+				double v = profile[i % profile.length];
+				sum += v;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			String window = "[" + from + ", +" + length + ")";
+			check("sum " + window, sum, sums.sum(from, length));
+			check("mean " + window, sum / length, sums.mean(from, length));
+			check("min " + window, min, sums.min(from, length));
+			check("max " + window, max, sums.max(from, length));
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("CumulativeProfileTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("CumulativeProfileTest: passed");
+	}
+
+	/**
+	 * The day total as previously calculated by <code>calculateFixedDayTotalDemand</code>.
+	 */
+	private static double legacyFixedDayTotalDemand(double[] profile, int time)
+	{
+		int baseProfileIndex = time % profile.length;
+		double sum = 0;
+		for (double v : Arrays.copyOfRange(profile, baseProfileIndex, baseProfileIndex + TICKS_PER_DAY - 1))
+		{
+			sum += v;
+		}
+		return sum;
+	}
+
+	private static void check(String what, double expected, double actual)
+	{
+		if (Math.abs(expected - actual) > TOLERANCE * Math.max(1, Math.abs(expected)))
+		{
+			System.err.println("CumulativeProfileTest: " + what + " expected " + expected + " but was " + actual);
+			failures++;
+		}
+	}
+}
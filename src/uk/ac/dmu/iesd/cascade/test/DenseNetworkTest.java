@@ -0,0 +1,312 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.DenseNetwork;
+import uk.ac.dmu.iesd.cascade.util.DenseNetwork.Activation;
+
+/**
+ * Test of the dense neural network which maps signals to demand in the advanced RECO
+ * aggregator: that, trained one pattern at a time, it learns exactly as the Joone network
+ * it replaces (48 linear inputs, 48 sigmoid hidden neurons, 48 linear outputs, full
+ * synapses, learning rate and momentum 0.3), as reproduced neuron by neuron below; that it
+ * learns a demand response map as well in batches; and that it is the same for the same
+ * seed.  Also times training and retrieval against the neuron by neuron network.  Prints
+ * any failures and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DenseNetworkTest {
+
+	private static final int SIZE = 48;
+	private static final Activation[] AGGREGATOR = {Activation.LINEAR, Activation.SIGMOID, Activation.LINEAR};
+
+	private static int failures = 0;
+
+	/**
+	 * The Joone network as it trains on-line: each synapse passes the error back through
+	 * its weights and then moves them, and the sigmoid layer moves its biases.
+	 */
+	private static class Reference {
+		final double[][] w1, w2, d1, d2;
+		final double[] b1, db1;
+		final double rate, momentum;
+		final double[] hidden = new double[SIZE];
+		final double[] output = new double[SIZE];
+
+		Reference(DenseNetwork network, double rate, double momentum)
+		{
+			w1 = network.getWeights(1);
+			w2 = network.getWeights(2);
+			b1 = network.getBiases(1);
+			d1 = new double[SIZE][SIZE];
+			d2 = new double[SIZE][SIZE];
+			db1 = new double[SIZE];
+			this.rate = rate;
+			this.momentum = momentum;
+		}
+
+		double[] retrieve(double[] input)
+		{
+			for (int j = 0; j < SIZE; j++)
+			{
+				double s = 0;
+				for (int i = 0; i < SIZE; i++)
+					s += w1[j][i] * input[i];
+				hidden[j] = 1 / (1 + Math.exp(-(s + b1[j])));
+			}
+			for (int j = 0; j < SIZE; j++)
+			{
+				double s = 0;
+				for (int i = 0; i < SIZE; i++)
+					s += w2[j][i] * hidden[i];
+				output[j] = s;
+			}
+			return output.clone();
+		}
+
+		void train(double[] input, double[] desired)
+		{
+			retrieve(input);
+			double[] error = new double[SIZE];
+			for (int j = 0; j < SIZE; j++)
+				error[j] = desired[j] - output[j];
+			double[] back = new double[SIZE];
+			for (int i = 0; i < SIZE; i++)
+			{
+				double s = 0;
+				for (int j = 0; j < SIZE; j++)
+				{
+					s += error[j] * w2[j][i];
+					double dw = rate * error[j] * hidden[i] + momentum * d2[j][i];
+					w2[j][i] += dw;
+					d2[j][i] = dw;
+				}
+				back[i] = s * hidden[i] * (1 - hidden[i]);
+			}
+			for (int j = 0; j < SIZE; j++)
+			{
+				double db = rate * back[j] + momentum * db1[j];
+				b1[j] += db;
+				db1[j] = db;
+			}
+			for (int i = 0; i < SIZE; i++)
+			{
+				for (int j = 0; j < SIZE; j++)
+				{
+					double dw = rate * back[j] * input[i] + momentum * d1[j][i];
+					w1[j][i] += dw;
+					d1[j][i] = dw;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		double[][] signals = new double[64][SIZE];
+		double[][] demands = new double[signals.length][SIZE];
+		demandResponse(new Random(7), signals, demands);
+
+		checkParity(signals, demands);
+		checkBatches(signals, demands);
+		checkSeeding(signals);
+		benchmark(signals, demands);
+
+		if (failures > 0)
+		{
+			System.err.println("DenseNetworkTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("DenseNetworkTest: passed");
+	}
+
+	/**
+	 * Signals in [-1, 1], and the demand each draws from a baseline: a response in the
+	 * slot of the signal, with some of it displaced to the slots either side.
+	 */
+	private static void demandResponse(Random random, double[][] signals, double[][] demands)
+	{
+		double[] baseline = new double[SIZE];
+		for (int i = 0; i < SIZE; i++)
+			baseline[i] = 0.5 + 0.3 * Math.sin(2 * Math.PI * i / SIZE);
+		for (int p = 0; p < signals.length; p++)
+		{
+			for (int i = 0; i < SIZE; i++)
+				signals[p][i] = 2 * random.nextDouble() - 1;
+			for (int i = 0; i < SIZE; i++)
+			{
+				double displaced = 0.05 * (signals[p][(i + SIZE - 1) % SIZE] + signals[p][(i + 1) % SIZE]);
+				demands[p][i] = baseline[i] * (1 - 0.2 * signals[p][i]) + displaced;
+			}
+		}
+	}
+
+	private static void checkParity(double[][] signals, double[][] demands)
+	{
+		// patterns normalised as the aggregator's are, at whose scale Joone's rate converges
+		signals = scale(signals, 0.1);
+		demands = scale(demands, 0.1);
+		DenseNetwork network = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 11);
+		Reference joone = new Reference(network, 0.3, 0.3);
+		check(network.getLearningRate() == 0.3 && network.getMomentum() == 0.3, "learning rate and momentum of the aggregator's network by default");
+		check(maxDifference(network.retrieve(signals[0]), joone.retrieve(signals[0])) < 1e-12, "same output untrained");
+
+		for (int epoch = 0; epoch < 20; epoch++)
+		{
+			for (int p = 0; p < signals.length; p++)
+			{
+				network.train(signals[p], demands[p]);
+				joone.train(signals[p], demands[p]);
+			}
+		}
+		double worst = 0;
+		for (int p = 0; p < signals.length; p++)
+			worst = Math.max(worst, maxDifference(network.retrieve(signals[p]), joone.retrieve(signals[p])));
+		check(worst < 1e-9, "trained on-line, learns as Joone does (worst difference " + worst + ")");
+
+		DenseNetwork batched = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 11);
+		batched.train(signals, demands, 1, 20);
+		check(Arrays.equals(flatten(batched.getWeights(2)), flatten(network.getWeights(2))), "a set trained in batches of one as one pattern at a time");
+	}
+
+	private static void checkBatches(double[][] signals, double[][] demands)
+	{
+		double[][] train = Arrays.copyOf(signals, 48);
+		double[][] trainDemands = Arrays.copyOf(demands, 48);
+		double[][] test = Arrays.copyOfRange(signals, 48, signals.length);
+		double[][] testDemands = Arrays.copyOfRange(demands, 48, demands.length);
+
+		DenseNetwork online = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 3);
+		double before = meanSquaredError(online, test, testDemands);
+		online.setLearningRate(0.05);
+		online.train(train, trainDemands, 1, 300);
+		double onlineError = meanSquaredError(online, test, testDemands);
+
+		DenseNetwork batched = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 3);
+		batched.setLearningRate(0.1);
+		batched.train(train, trainDemands, 8, 1500);
+		double batchedError = meanSquaredError(batched, test, testDemands);
+
+		System.out.println("DenseNetworkTest: squared error of unseen patterns " + before + " untrained, " + onlineError + " trained on-line, " + batchedError + " trained in batches of 8");
+		check(onlineError < before / 10, "learns the demand response on-line");
+		check(batchedError < before / 10 && batchedError < 2 * onlineError, "learns the demand response as well in batches");
+
+		double[][] all = batched.retrieve(test);
+		check(Arrays.equals(all[3], batched.retrieve(test[3])), "a batch retrieved as its patterns one at a time");
+	}
+
+	private static void checkSeeding(double[][] signals)
+	{
+		DenseNetwork a = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 42);
+		DenseNetwork b = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 42);
+		DenseNetwork c = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 43);
+		check(Arrays.equals(a.retrieve(signals[0]), b.retrieve(signals[0])), "same network for the same seed");
+		check(!Arrays.equals(a.retrieve(signals[0]), c.retrieve(signals[0])), "another network for another seed");
+		try
+		{
+			new DenseNetwork(new int[] {SIZE, SIZE}, new Activation[] {Activation.SIGMOID, Activation.LINEAR}, 1);
+			check(false, "a sigmoid input layer refused");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private static void benchmark(double[][] signals, double[][] demands)
+	{
+		int epochs = 100;
+		for (int round = 0; round < 4; round++) // the first rounds warm up
+		{
+			DenseNetwork network = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 5);
+			Reference joone = new Reference(network, 0.3, 0.3);
+
+			long start = System.nanoTime();
+			for (int epoch = 0; epoch < epochs; epoch++)
+				for (int p = 0; p < signals.length; p++)
+					joone.train(signals[p], demands[p]);
+			long reference = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			network.train(signals, demands, 1, epochs);
+			long online = System.nanoTime() - start;
+
+			DenseNetwork batches = new DenseNetwork(new int[] {SIZE, SIZE, SIZE}, AGGREGATOR, 5);
+			start = System.nanoTime();
+			batches.train(signals, demands, 16, epochs);
+			long batched = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int repeat = 0; repeat < epochs; repeat++)
+				for (int p = 0; p < signals.length; p++)
+					joone.retrieve(signals[p]);
+			long referenceRetrieval = System.nanoTime() - start;
+
+			double[] output = new double[SIZE];
+			start = System.nanoTime();
+			for (int repeat = 0; repeat < epochs; repeat++)
+				for (int p = 0; p < signals.length; p++)
+					network.retrieve(signals[p], output);
+			long retrieval = System.nanoTime() - start;
+
+			if (round == 3)
+			{
+				int patterns = epochs * signals.length;
+				System.out.println("DenseNetworkTest: training " + patterns + " patterns: neuron by neuron " + reference / 1000000 + " ms, on-line " + online / 1000000
+						+ " ms, in batches of 16 " + batched / 1000000 + " ms; retrieving them: neuron by neuron " + referenceRetrieval / 1000000 + " ms, dense " + retrieval / 1000000 + " ms");
+			}
+		}
+	}
+
+	private static double meanSquaredError(DenseNetwork network, double[][] inputs, double[][] desired)
+	{
+		double sum = 0;
+		double[] output = new double[SIZE];
+		for (int p = 0; p < inputs.length; p++)
+		{
+			network.retrieve(inputs[p], output);
+			for (int i = 0; i < SIZE; i++)
+				sum += (desired[p][i] - output[i]) * (desired[p][i] - output[i]);
+		}
+		return sum / inputs.length;
+	}
+
+	private static double[][] scale(double[][] patterns, double factor)
+	{
+		double[][] scaled = new double[patterns.length][];
+		for (int p = 0; p < patterns.length; p++)
+		{
+			scaled[p] = patterns[p].clone();
+			for (int i = 0; i < scaled[p].length; i++)
+				scaled[p][i] *= factor;
+		}
+		return scaled;
+	}
+
+	private static double maxDifference(double[] a, double[] b)
+	{
+		double max = 0;
+		for (int i = 0; i < a.length; i++)
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		return max;
+	}
+
+	private static double[] flatten(double[][] matrix)
+	{
+		double[] flat = new double[matrix.length * matrix[0].length];
+		for (int i = 0; i < matrix.length; i++)
+			System.arraycopy(matrix[i], 0, flat, i * matrix[0].length, matrix[0].length);
+		return flat;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("DenseNetworkTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import uk.ac.dmu.iesd.cascade.io.DeviceGateway;
+import uk.ac.dmu.iesd.cascade.io.PiEmulator;
+
+/**
+ * Offline test and benchmark of the {@link DeviceGateway} against the {@link PiEmulator}.
+ * <p>
+ * Hundreds of virtual Pis, one of them very slow, are driven as hardware-in-the-loop
+ * households drive theirs: every tick each sets its heater and fridge, and the gateway's
+ * per-tick deadline is then awaited.  The test checks that no tick waits much longer than
+ * the deadline for the gateway (so the slow Pi does not hold up the others), that every other Pi ends in
+ * the state last requested, that the gateway's counts add up, and that devices and values
+ * which must be escaped in a URL reach the Pi as they were set; and prints the time per
+ * tick against that of sending the same requests synchronously.  Exits with a non-zero
+ * status if any check fails.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DeviceGatewayTest {
+
+	private static final int PIS = 400;
+	private static final int SLOW_PI = 7;
+	private static final int TICKS = 30;
+	private static final int LATENCY_MILLIS = 5;
+	private static final int SLOW_LATENCY_MILLIS = 1000;
+	private static final long DEADLINE_MILLIS = 100;
+	private static final long DEADLINE_SLACK_MILLIS = 50;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		PiEmulator emulator = new PiEmulator(LATENCY_MILLIS, 64);
+		emulator.setLatency(SLOW_PI, SLOW_LATENCY_MILLIS);
+		DeviceGateway gateway = new DeviceGateway(16, 8, 5000, DEADLINE_MILLIS);
+
+		DeviceGateway.Link[] links = new DeviceGateway.Link[PIS];
+		for (int pi = 0; pi < PIS; pi++)
+		{
+			links[pi] = gateway.open(emulator.getURL(pi));
+		}
+
+		long longestWait = 0;
+		long start = System.nanoTime();
+		for (int tick = 0; tick < TICKS; tick++)
+		{
+			for (int pi = 0; pi < PIS; pi++)
+			{
+				links[pi].set("1", heater(pi, tick));
+				links[pi].set("0", fridge(pi, tick));
+			}
+			long waitStart = System.nanoTime();
+			gateway.endTick();
+			longestWait = Math.max(longestWait, (System.nanoTime() - waitStart) / 1000000);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		gateway.awaitIdle(10 * SLOW_LATENCY_MILLIS);
+
+		if (longestWait > DEADLINE_MILLIS + DEADLINE_SLACK_MILLIS)
+		{
+			fail("longest wait at the end of a tick was " + longestWait + " ms, deadline " + DEADLINE_MILLIS + " ms");
+		}
+		for (int pi = 0; pi < PIS; pi++)
+		{
+			if (pi == SLOW_PI)
+			{
+				continue;
+			}
+			check(pi, "1", heater(pi, TICKS - 1), emulator, links[pi]);
+			check(pi, "0", fridge(pi, TICKS - 1), emulator, links[pi]);
+		}
+		if (gateway.getOutstanding() != 0 || gateway.getFailed() != 0 || gateway.getSent() != emulator.getRequestCount())
+		{
+			fail("unexpected counts: " + gateway + ", emulator answered " + emulator.getRequestCount());
+		}
+
+		// devices and values with characters reserved in a query
+		DeviceGateway.Link link = links[0];
+		link.set("heater & fridge", "a b&value=c/d%20+\u00e9");
+		gateway.awaitIdle(10 * SLOW_LATENCY_MILLIS);
+		check(0, "heater & fridge", "a b&value=c/d%20+\u00e9", emulator, link);
+
+		// the same requests, sent one at a time, as the household used to
+		long synchronousTick = (2L * PIS * LATENCY_MILLIS) + SLOW_LATENCY_MILLIS;
+		System.out.println("DeviceGatewayTest: " + PIS + " Pis, " + TICKS + " ticks in " + elapsed + " ms (longest wait " + longestWait
+				+ " ms); at least " + synchronousTick + " ms a tick if synchronous; " + gateway);
+
+		gateway.shutdown();
+		emulator.stop();
+		if (failures > 0)
+		{
+			System.err.println("DeviceGatewayTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("DeviceGatewayTest: passed");
+	}
+
+	private static String heater(int pi, int tick)
+	{
+		return ((pi + tick) % 3 == 0) ? "1" : "0";
+	}
+
+	private static String fridge(int pi, int tick)
+	{
+		return ((pi + tick) % 2 == 0) ? "0" : "1";
+	}
+
+	private static void check(int pi, String device, String expected, PiEmulator emulator, DeviceGateway.Link link)
+	{
+		if (!expected.equals(emulator.getValue(pi, device)) || !expected.equals(link.getAcknowledged(device)))
+		{
+			fail("Pi " + pi + " device " + device + " expected " + expected + " but was " + emulator.getValue(pi, device)
+					+ " (acknowledged " + link.getAcknowledged(device) + ")");
+		}
+	}
+
+	private static void fail(String message)
+	{
+		System.err.println("DeviceGatewayTest: " + message);
+		failures++;
+	}
+}
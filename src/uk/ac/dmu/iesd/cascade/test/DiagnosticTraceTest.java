@@ -0,0 +1,175 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import uk.ac.dmu.iesd.cascade.io.CSVWriter;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTrace;
+import uk.ac.dmu.iesd.cascade.io.DiagnosticTraceReader;
+
+/**
+ * Test of diagnostic traces: that the files read from a trace are, byte for byte, those
+ * written directly with a {@link CSVWriter}, including files appended to and records too
+ * large for one of the trace's buffers; that a trace cut short is read as far as it goes;
+ * and that a disabled trace writes nothing.  Prints any failures and exits with a non-zero
+ * status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DiagnosticTraceTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		File directory = new File(System.getProperty("java.io.tmpdir"), "DiagnosticTraceTest" + System.nanoTime());
+		directory.mkdirs();
+		try
+		{
+			checkReplay(directory);
+			checkCutShort(directory);
+			checkDisabled();
+		}
+		finally
+		{
+			delete(directory);
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("DiagnosticTraceTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("DiagnosticTraceTest: passed");
+	}
+
+	private static void checkReplay(File directory) throws IOException
+	{
+		File direct = new File(directory, "direct");
+		new File(direct, "output").mkdirs();
+		DiagnosticTrace trace = DiagnosticTrace.open(new File(directory, "traces"), 1);
+		check(trace.isEnabled() && trace.getFile().getName().startsWith("trace-seed1-"), "trace named after its seed");
+
+		double[] values = {0.1, -2.5e-7, 3, Double.NaN, 1e300};
+		int[] slots = {0, 1, 2, 47};
+		double[][] matrix = {{1.5, 2}, {-3, 4.25}, {5, 6}};
+		double[][] large = new double[300][600]; // larger than one of the trace's buffers
+		for (int i = 0; i < large.length; i++)
+		{
+			for (int j = 0; j < large[i].length; j++)
+			{
+				large[i][j] = i * 0.37 - j / 7.0;
+			}
+		}
+
+		for (int day = 0; day < 3; day++)
+		{
+			CSVWriter w = new CSVWriter(new File(direct, "NeuralTrainerIn.csv").getPath(), true);
+			w.appendRow(values);
+			w.close();
+			int h = trace.open("NeuralTrainerIn.csv", true);
+			trace.row(h, values);
+			trace.close(h);
+			values[0] += day; // the trace keeps the values as they were when recorded
+		}
+
+		CSVWriter w = new CSVWriter(new File(direct, "output" + File.separator + "day_5.csv").getPath(), false);
+		int h = trace.open("output" + File.separator + "day_5.csv", false);
+		w.appendText("Timeslots:");
+		trace.text(h, "Timeslots:");
+		w.appendRow(slots);
+		trace.row(h, slots);
+		w.appendText("Adding " + -0.125);
+		trace.text(h, "Adding ", -0.125);
+		w.appendText("Extract column" + 12);
+		trace.text(h, "Extract column", 12);
+		w.appendText("");
+		trace.text(h, "");
+		w.appendCols(matrix);
+		trace.cols(h, matrix);
+		w.appendCols(large);
+		trace.cols(h, large);
+		w.appendRow(new double[0]);
+		trace.row(h, new double[0]);
+		w.close();
+		trace.close(h);
+		trace.close();
+
+		File replayed = new File(directory, "replayed");
+		int files = DiagnosticTraceReader.replay(trace.getFile(), replayed);
+		check(files == 4, "every opening of a file replayed");
+		check(Arrays.equals(read(new File(direct, "NeuralTrainerIn.csv")), read(new File(replayed, "NeuralTrainerIn.csv"))), "appended file as written directly");
+		check(Arrays.equals(read(new File(direct, "output" + File.separator + "day_5.csv")), read(new File(replayed, "output" + File.separator + "day_5.csv"))), "file as written directly");
+	}
+
+	private static void checkCutShort(File directory) throws IOException
+	{
+		DiagnosticTrace trace = DiagnosticTrace.open(new File(directory, "short"), 2);
+		int h = trace.open("cut.csv", false);
+		trace.text(h, "first");
+		trace.row(h, new double[] {1, 2, 3});
+		trace.close();
+
+		RandomAccessFile f = new RandomAccessFile(trace.getFile(), "rw");
+		f.setLength(f.length() - 8);
+		f.close();
+
+		File replayed = new File(directory, "short-replayed");
+		DiagnosticTraceReader.replay(trace.getFile(), replayed);
+		check(new String(read(new File(replayed, "cut.csv")), "UTF-8").equals("first\n"), "a trace cut short read as far as it goes");
+	}
+
+	private static void checkDisabled() throws IOException
+	{
+		DiagnosticTrace trace = DiagnosticTrace.DISABLED;
+		check(!trace.isEnabled() && trace.getFile() == null, "disabled trace has no file");
+		int h = trace.open("never.csv", false);
+		trace.row(h, new double[] {1});
+		trace.close(h);
+		trace.close();
+		check(!new File("never.csv").exists(), "disabled trace writes nothing");
+	}
+
+	private static byte[] read(File file) throws IOException
+	{
+		if (!file.isFile())
+			return null;
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			int read = 0;
+			while (read < bytes.length)
+			{
+				read += in.read(bytes, read, bytes.length - read);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return bytes;
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+		{
+			delete(files[i]);
+		}
+		file.delete();
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("DiagnosticTraceTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.EVChargingScheduler;
+
+/**
+ * Test of the {@link EVChargingScheduler} against a brute force search, and of its speed
+ * on a large fleet.
+ * <p>
+ * On small random cases (including tied prices, and needs the charger cannot meet) the
+ * test checks that every schedule keeps within the charger's rating, delivers the need
+ * (or as much of it as can be delivered), and costs no more than the cheapest vertex of
+ * the feasible set, found by enumerating every set of slots charged at the full rating
+ * with at most one slot part charged.  It then schedules a day's session for each of a
+ * fleet of 100,000 vehicles, with random plug in times, needs and price signals, checks
+ * the schedules and reports the time taken.  Prints any failures and exits with a
+ * non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class EVChargingSchedulerTest {
+
+	private static final double TOLERANCE = 1e-9;
+	private static final int FLEET = 100000;
+	private static final int TICKS_PER_DAY = 48;
+	private static final int DEPARTURE_TIMESLOT = 14;
+	private static final double MAX_PER_TICK = 3.3 * 24 / TICKS_PER_DAY;
+	private static final double MAX_MICROSECONDS_PER_VEHICLE = 1000;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(2013);
+		EVChargingScheduler scheduler = new EVChargingScheduler();
+		checkAgainstBruteForce(random, scheduler);
+		checkFleet(random, scheduler);
+
+		if (failures > 0)
+		{
+			System.err.println("EVChargingSchedulerTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("EVChargingSchedulerTest: passed");
+	}
+
+	private static void checkAgainstBruteForce(Random random, EVChargingScheduler scheduler)
+	{
+		double[] price = new double[12];
+		double[] charge = new double[12];
+		for (int n = 0; n < 5000; n++)
+		{
+			int slots = 1 + random.nextInt(price.length);
+			double maxPerSlot = 0.5 + random.nextDouble() * 2;
+			double energy = random.nextDouble() * (slots + 1) * maxPerSlot;
+			for (int i = 0; i < slots; i++)
+			{
+				// a few price levels, so that ties are common
+				price[i] = random.nextInt(6) + (random.nextBoolean() ? 0 : random.nextDouble());
+			}
+
+			double delivered = scheduler.schedule(price, slots, energy, maxPerSlot, charge);
+			String what = "case " + n + " (" + slots + " slots)";
+			checkSchedule(what, charge, slots, energy, maxPerSlot, delivered);
+			double cost = EVChargingScheduler.cost(price, charge, slots);
+			double best = bruteForceCost(price, slots, Math.min(energy, slots * maxPerSlot), maxPerSlot);
+			if (cost > best + TOLERANCE * Math.max(1, Math.abs(best)))
+			{
+				System.err.println("EVChargingSchedulerTest: " + what + " cost " + cost + " but the least cost is " + best);
+				failures++;
+			}
+		}
+	}
+
+	/**
+	 * @return the least cost of the vertices of {0 <= x <= maxPerSlot, sum(x) = energy}: the
+	 *         slots of a subset charged in full, and one other slot charged with the rest
+	 */
+	private static double bruteForceCost(double[] price, int slots, double energy, double maxPerSlot)
+	{
+		double best = Double.POSITIVE_INFINITY;
+		for (int subset = 0; subset < (1 << slots); subset++)
+		{
+			double full = Integer.bitCount(subset) * maxPerSlot;
+			double rest = energy - full;
+			if (rest < -TOLERANCE)
+			{
+				continue;
+			}
+			double cost = 0;
+			for (int i = 0; i < slots; i++)
+			{
+				if ((subset & (1 << i)) != 0)
+				{
+					cost += price[i] * maxPerSlot;
+				}
+			}
+			if (rest <= TOLERANCE)
+			{
+				best = Math.min(best, cost);
+				continue;
+			}
+			if (rest > maxPerSlot + TOLERANCE)
+			{
+				continue;
+			}
+			for (int i = 0; i < slots; i++)
+			{
+				if ((subset & (1 << i)) == 0)
+				{
+					best = Math.min(best, cost + (price[i] * rest));
+				}
+			}
+		}
+		return best;
+	}
+
+	private static void checkFleet(Random random, EVChargingScheduler scheduler)
+	{
+		double[] signal = new double[TICKS_PER_DAY];
+		double[] price = new double[2 * TICKS_PER_DAY];
+		double[] charge = new double[2 * TICKS_PER_DAY];
+		long nanos = 0;
+		for (int v = 0; v < FLEET; v++)
+		{
+			for (int t = 0; t < TICKS_PER_DAY; t++)
+			{
+				signal[t] = 10 + (9 * Math.sin((2 * Math.PI * (t + random.nextInt(4))) / TICKS_PER_DAY)) + random.nextGaussian();
+			}
+			int plugIn = random.nextInt(TICKS_PER_DAY);
+			int slots = (TICKS_PER_DAY + DEPARTURE_TIMESLOT) - plugIn;
+			double energy = Math.min(24, Math.max(4, random.nextInt(60)) * 0.17);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < slots; i++)
+			{
+				price[i] = signal[(plugIn + i) % TICKS_PER_DAY];
+			}
+			double delivered = scheduler.schedule(price, slots, energy, MAX_PER_TICK, charge);
+			nanos += System.nanoTime() - start;
+
+			checkSchedule("vehicle " + v, charge, slots, energy, MAX_PER_TICK, delivered);
+		}
+		double microsPerVehicle = nanos / 1000.0 / FLEET;
+		System.out.println("EVChargingSchedulerTest: " + FLEET + " vehicles scheduled in " + (nanos / 1000000) + " ms (" + microsPerVehicle + " us per vehicle)");
+		if (microsPerVehicle > MAX_MICROSECONDS_PER_VEHICLE)
+		{
+			System.err.println("EVChargingSchedulerTest: scheduling took " + microsPerVehicle + " us per vehicle");
+			failures++;
+		}
+	}
+
+	private static void checkSchedule(String what, double[] charge, int slots, double energy, double maxPerSlot, double delivered)
+	{
+		double sum = 0;
+		for (int i = 0; i < slots; i++)
+		{
+			if (charge[i] < 0 || charge[i] > maxPerSlot + TOLERANCE)
+			{
+				System.err.println("EVChargingSchedulerTest: " + what + " charges " + charge[i] + " in slot " + i);
+				failures++;
+				return;
+			}
+			sum += charge[i];
+		}
+		double expected = Math.min(energy, slots * maxPerSlot);
+		if (Math.abs(sum - expected) > TOLERANCE * Math.max(1, expected) || Math.abs(delivered - sum) > TOLERANCE * Math.max(1, sum))
+		{
+			System.err.println("EVChargingSchedulerTest: " + what + " delivers " + sum + " (reported " + delivered + ") of " + energy);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import uk.ac.dmu.iesd.cascade.util.GeneticOptimiser;
+
+/**
+ * Test of the genetic optimiser of the RECO aggregators: that it finds, to the bit, the
+ * same signal on one, two or four threads; the same signal for the same seed and another
+ * for another; and that it minimises a signal's cost (the price of the demand in each
+ * slot, as the signal moves it, with a penalty on signals which do not sum to zero)
+ * far better than as many random signals do.  Also times it on one thread and on
+ * four.  Prints any failures and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class GeneticOptimiserTest {
+
+	private static final int SLOTS = 48;
+
+	private static int failures = 0;
+
+	/**
+	 * A cost of the shape the aggregators minimise: demand B(1 + eS + sum of kS over the
+	 * other slots) priced at C in each slot, with a penalty on the sum of the signal.
+	 */
+	private static class Cost implements GeneticOptimiser.Objective {
+		final double[] price = new double[SLOTS];
+		final double[] baseline = new double[SLOTS];
+		final double[] elasticity = new double[SLOTS];
+		final double[][] shift = new double[SLOTS][SLOTS];
+
+		Cost(long seed)
+		{
+			Random random = new Random(seed);
+			for (int i = 0; i < SLOTS; i++)
+			{
+				price[i] = 1 + Math.sin(2 * Math.PI * i / SLOTS) + 0.1 * random.nextDouble();
+				baseline[i] = 0.5 + 0.3 * Math.cos(2 * Math.PI * i / SLOTS);
+				elasticity[i] = 0.1 + 0.1 * random.nextDouble();
+				for (int j = 0; j < SLOTS; j++)
+					shift[i][j] = i == j ? 0 : 0.004 * (random.nextDouble() - 0.5);
+			}
+		}
+
+		public double value(double[] signal)
+		{
+			double m = 0;
+			double sum = 0;
+			for (int i = 0; i < SLOTS; i++)
+			{
+				double shifted = 0;
+				for (int j = 0; j < SLOTS; j++)
+					shifted += signal[j] * shift[i][j];
+				m += price[i] * baseline[i] * (1 + signal[i] * elasticity[i] + shifted);
+				sum += signal[i];
+			}
+			if (Math.abs(sum) > 0.01)
+				m += 1.0e2 * sum * sum;
+			return m;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		Cost cost = new Cost(3);
+		checkThreads(cost);
+		checkSeeding(cost);
+		checkMinimises(cost);
+		benchmark(cost);
+
+		if (failures > 0)
+		{
+			System.err.println("GeneticOptimiserTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("GeneticOptimiserTest: passed");
+	}
+
+	private static void checkThreads(Cost cost)
+	{
+		double[] one = minimise(cost, 1, 17, 300, 40);
+		double[] two = minimise(cost, 2, 17, 300, 40);
+		double[] four = minimise(cost, 4, 17, 300, 40);
+		check(Arrays.equals(one, two) && Arrays.equals(one, four), "same signal on one, two and four threads");
+		// a population not divided evenly among the chunks
+		check(Arrays.equals(minimise(cost, 1, 17, 101, 10), minimise(cost, 3, 17, 101, 10)), "same signal for a population in uneven chunks");
+	}
+
+	private static void checkSeeding(Cost cost)
+	{
+		check(Arrays.equals(minimise(cost, 2, 5, 200, 20), minimise(cost, 2, 5, 200, 20)), "same signal for the same seed");
+		check(!Arrays.equals(minimise(cost, 2, 5, 200, 20), minimise(cost, 2, 6, 200, 20)), "another signal for another seed");
+	}
+
+	private static void checkMinimises(Cost cost)
+	{
+		int population = 1500;
+		int generations = 100;
+		double[] signal = minimise(cost, 4, 1, population, generations);
+		double optimised = cost.value(signal);
+
+		boolean bounded = true;
+		for (int i = 0; i < SLOTS; i++)
+			bounded &= signal[i] >= -1 && signal[i] <= 1;
+		check(bounded, "signal within [-1, 1]");
+
+		Random random = new Random(1);
+		double[] guess = new double[SLOTS];
+		double bestRandom = Double.POSITIVE_INFINITY;
+		for (int n = 0; n < population * (generations + 1); n++)
+		{
+			for (int i = 0; i < SLOTS; i++)
+				guess[i] = 2 * random.nextDouble() - 1;
+			bestRandom = Math.min(bestRandom, cost.value(guess));
+		}
+		double flat = cost.value(new double[SLOTS]);
+		System.out.println("GeneticOptimiserTest: cost " + flat + " for no signal, " + bestRandom + " for the best of as many random signals, " + optimised + " optimised");
+		check(optimised < bestRandom && flat - optimised > 2 * (flat - bestRandom), "minimises far better than random signals");
+	}
+
+	private static void benchmark(Cost cost)
+	{
+		for (int round = 0; round < 3; round++) // the first rounds warm up
+		{
+			long start = System.nanoTime();
+			minimise(cost, 1, round, 1500, 100);
+			long serial = System.nanoTime() - start;
+			start = System.nanoTime();
+			minimise(cost, 4, round, 1500, 100);
+			long parallel = System.nanoTime() - start;
+			if (round == 2)
+			{
+				System.out.println("GeneticOptimiserTest: 1500 individuals for 100 generations in " + serial / 1000000 + " ms on one thread, " + parallel / 1000000 + " ms on four");
+			}
+		}
+	}
+
+	private static double[] minimise(Cost cost, int threads, long seed, int population, int generations)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			GeneticOptimiser optimiser = new GeneticOptimiser(SLOTS, population, -1, 1, seed);
+			optimiser.setExecutor(executor);
+			double[] best = optimiser.minimise(cost, generations);
+			check(optimiser.getBestValue() == cost.value(best), "value of the best signal reported");
+			return best;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("GeneticOptimiserTest: failed: " + what);
+			failures++;
+		}
+	}
+}
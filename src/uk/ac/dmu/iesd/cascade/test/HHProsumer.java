@@ -1,8 +1,5 @@
 package uk.ac.dmu.iesd.cascade.test;
 
-import static repast.simphony.essentials.RepastEssentials.FindNetwork;
-import static repast.simphony.essentials.RepastEssentials.GetParameter;
-
 import java.util.Arrays;
 import java.util.WeakHashMap;
 
@@ -10,13 +7,16 @@ import repast.simphony.engine.schedule.ScheduleParameters;
 import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.random.RandomHelper;
+import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import uk.ac.dmu.iesd.cascade.agents.prosumers.ProsumerAgent;
 import uk.ac.dmu.iesd.cascade.base.Consts;
 import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
 import uk.ac.dmu.iesd.cascade.controllers.ISmartController;
 import uk.ac.dmu.iesd.cascade.io.CSVWriter;
 import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.SignalDigest;
 
 public class HHProsumer extends ProsumerAgent{
 
@@ -662,15 +662,6 @@ public class HHProsumer extends ProsumerAgent{
 		}
 	}
 
-	/**
-	 * @param time
-	 * @return double giving sum of baseDemand for the day.
-	 */
-	private double calculateFixedDayTotalDemand(int time) {
-		int baseProfileIndex = time % arr_otherDemandProfile.length;
-		return ArrayUtils.sum(Arrays.copyOfRange(arr_otherDemandProfile,baseProfileIndex,baseProfileIndex+this.mainContext.ticksPerDay - 1));
-	}
-
 	/*
 	 * Logic helper methods
 	 */
@@ -862,7 +853,7 @@ public class HHProsumer extends ProsumerAgent{
 		double moveableLoad = inelasticTotalDayDemand * percentageMoveableDemand;
 		double [] daysCostSignal = new double [this.mainContext.ticksPerDay];
 		double [] daysOptimisedDemand = new double [this.mainContext.ticksPerDay];
-		if ((Boolean) RepastEssentials.GetParameter("verboseOutput"))
+		if (this.mainContext.getRunConfig().isVerbose())
 		{
 			if (Consts.DEBUG) System.out.println("HHProsumer: predictedCostSignal "+getPredictedCostSignal()+" time "+time+ " predictionValidTime "+predictionValidTime+" daysCostSignal "+ daysCostSignal +" this.mainContext.ticksPerDay "+this.mainContext.ticksPerDay);
 		}
@@ -915,11 +906,13 @@ public class HHProsumer extends ProsumerAgent{
 		// Could be a TpB based model.
 		double inwardInfluence = 0;
 		double internalInfluence = this.HEMSPropensity;
-		Iterable socialConnections = FindNetwork("socialNetwork").getInEdges(this);
+		RunConfig config = this.mainContext.getRunConfig();
 		// Get social influence - note communication is not every tick
 		// hence the if clause
 		if ((time % (21 * this.mainContext.ticksPerDay)) == 0)
 		{
+			Network socialNetwork = config.getSocialNetwork();
+			Iterable socialConnections = socialNetwork.getInEdges(this);
 
 			for (Object thisConn: socialConnections)
 			{
@@ -934,7 +927,7 @@ public class HHProsumer extends ProsumerAgent{
 
 		double decisionCriterion = inwardInfluence + internalInfluence;
 		this.HEMSPropensity = decisionCriterion;
-		if(decisionCriterion > (Double) GetParameter("smartControlDecisionThreshold")) 
+		if(decisionCriterion > config.getSmartControlDecisionThreshold()) 
 		{
 			hasSmartControl = true;
 		}
@@ -1107,41 +1100,63 @@ public class HHProsumer extends ProsumerAgent{
 			}
 			
 			if (Consts.DEBUG) System.out.println(" signal Recieved: "+ Arrays.toString(signal));
-			if (Consts.DEBUG) System.out.println(" predictedCostSignal: "+ Arrays.toString(predictedCostSignal));
-
-			if (Consts.DEBUG) System.out.println(" baseDemandProfile: "+ Arrays.toString(arr_otherDemandProfile));
-			int maxIndex = ArrayUtils.indexOfMax(predictedCostSignal);
-			//int indexOf1 = ArrayUtils.indexOf(baseDemandProfile, 1);
-			if (Consts.DEBUG) System.out.println(" maxIndex: "+ maxIndex);
-			double valueOfMaxIndex = arr_otherDemandProfile[maxIndex];
-			if (Consts.DEBUG) System.out.println(" valueOfMaxIndex "+ valueOfMaxIndex);
-			modifiedDemandProfile = new double[this.mainContext.ticksPerDay];
-			modifiedDemandProfile[maxIndex] = 0; 
-			double demandToShiftEqually = valueOfMaxIndex/47;
-			
-			if (Consts.DEBUG) System.out.println(" demandToShiftEqually "+ demandToShiftEqually);
-			
-			for (int j = maxIndex+1; j < this.mainContext.ticksPerDay; j++) {
-				
-				modifiedDemandProfile[j] = arr_otherDemandProfile[j]+ demandToShiftEqually;
-
-			}
-			
-			for(int j = maxIndex-1; j >= 0; --j) {
-				modifiedDemandProfile[j] = arr_otherDemandProfile[j]+ demandToShiftEqually;
-			}
-			
-			if (Consts.DEBUG) System.out.println(" after: modifiedDemandProfile: "+ Arrays.toString(modifiedDemandProfile));
-			
-			//System.arraycopy(modifiedDemandProfile, 0, baseDemandProfile, 0, baseDemandProfile.length);
-			
-			//if (Consts.DEBUG) System.out.println(" baseDemandProfile: "+ Arrays.toString(baseDemandProfile));
+			shiftDemandFromSignalPeak();
 
 			
 		}
 
 		return success;
 	}
+
+	/**
+	 * Overrides parent receiveValueSignal, so that a signal broadcast as a shared
+	 * digest moves demand away from its peak, as one received as an array does.
+	 */
+	@Override
+	public boolean receiveValueSignal(SignalDigest digest) {
+		boolean success = super.receiveValueSignal(digest);
+		if (hasSmartMeter)
+		{
+			shiftDemandFromSignalPeak();
+		}
+		return success;
+	}
+
+	/**
+	 * Moves the base demand at the peak of the predicted cost signal equally into the
+	 * other timeslots of the day, giving the modified demand profile.
+	 */
+	private void shiftDemandFromSignalPeak() {
+		if (Consts.DEBUG) System.out.println(" predictedCostSignal: "+ Arrays.toString(predictedCostSignal));
+
+		if (Consts.DEBUG) System.out.println(" baseDemandProfile: "+ Arrays.toString(arr_otherDemandProfile));
+		int maxIndex = ArrayUtils.indexOfMax(predictedCostSignal);
+		//int indexOf1 = ArrayUtils.indexOf(baseDemandProfile, 1);
+		if (Consts.DEBUG) System.out.println(" maxIndex: "+ maxIndex);
+		double valueOfMaxIndex = arr_otherDemandProfile[maxIndex];
+		if (Consts.DEBUG) System.out.println(" valueOfMaxIndex "+ valueOfMaxIndex);
+		modifiedDemandProfile = new double[this.mainContext.ticksPerDay];
+		modifiedDemandProfile[maxIndex] = 0; 
+		double demandToShiftEqually = valueOfMaxIndex/47;
+		
+		if (Consts.DEBUG) System.out.println(" demandToShiftEqually "+ demandToShiftEqually);
+		
+		for (int j = maxIndex+1; j < this.mainContext.ticksPerDay; j++) {
+			
+			modifiedDemandProfile[j] = arr_otherDemandProfile[j]+ demandToShiftEqually;
+
+		}
+		
+		for(int j = maxIndex-1; j >= 0; --j) {
+			modifiedDemandProfile[j] = arr_otherDemandProfile[j]+ demandToShiftEqually;
+		}
+		
+		if (Consts.DEBUG) System.out.println(" after: modifiedDemandProfile: "+ Arrays.toString(modifiedDemandProfile));
+		
+		//System.arraycopy(modifiedDemandProfile, 0, baseDemandProfile, 0, baseDemandProfile.length);
+		
+		//if (Consts.DEBUG) System.out.println(" baseDemandProfile: "+ Arrays.toString(baseDemandProfile));
+	}
 	
 	//@ScheduledMethod(start = 0, interval = 0, shuffle = true, priority = Consts.PROSUMER_INIT_PRIORITY_FIRST)
 	@ScheduledMethod(start = 0, interval = 0, shuffle = true, priority = ScheduleParameters.FIRST_PRIORITY)
@@ -0,0 +1,183 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel;
+import uk.ac.dmu.iesd.cascade.util.HotWaterTankModel;
+
+/**
+ * Test of the stratified hot water tank kernel: that heat is conserved, tick by tick,
+ * through standing losses, draw-offs and heating; that draw-offs which are not whole
+ * numbers of layers (including those which once never finished) end, and are drawn at
+ * temperatures the tank holds; that the thermostat and buoyancy hold; and that the
+ * controllers' domestic tank figures are those of the kernel.  Prints any failures and
+ * exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class HotWaterTankModelTest {
+
+	private static final double TICK_SECONDS = BuildingThermalModel.tickSeconds(48);
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		checkDrawOffEnds();
+		checkEnergyBalance();
+		checkThermostat();
+		checkDomesticFigures();
+
+		if (failures > 0)
+		{
+			System.err.println("HotWaterTankModelTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("HotWaterTankModelTest: passed");
+	}
+
+	private static void checkDrawOffEnds()
+	{
+		// draw-offs whose last fraction of a layer was once never used up
+		double[] drawnTemp = new double[1];
+		double[] layerTemp = {60, 55, 40, 20};
+		HotWaterTankModel.tankStep(0, 1, 4, layerTemp, new double[] {59.25}, new double[] {1}, new double[] {60}, new double[] {0}, new double[] {15.4},
+				15, 10, new double[1], drawnTemp);
+		check(drawnTemp[0] == 60 && Math.abs(layerTemp[0] - (60 - 5 * 15.4 / 59.25)) < 1e-12, "draw-off of 15.4 litres from layers of 59.25 litres");
+		layerTemp = new double[] {60, 55, 40, 20};
+		HotWaterTankModel.tankStep(0, 1, 4, layerTemp, new double[] {59.25}, new double[] {1}, new double[] {60}, new double[] {0}, new double[] {2 * 59.25 + 15.4},
+				15, 10, new double[1], drawnTemp);
+		check(Math.abs(drawnTemp[0] - (60 + 55 + 40 * 15.4 / 59.25) / (2 + 15.4 / 59.25)) < 1e-12, "draw-off of two layers and 15.4 litres from layers of 59.25 litres");
+
+		Random random = new Random(11);
+		boolean bounded = true;
+		for (int n = 0; n < 200000; n++)
+		{
+			int layers = 1 + random.nextInt(12);
+			double layerVolume = (50 + 250 * random.nextDouble()) / layers;
+			double[] temps = new double[layers];
+			double hot = 40 + 30 * random.nextDouble();
+			for (int l = 0; l < layers; l++)
+				temps[l] = hot - l * 2 * random.nextDouble();
+			double drawOff = random.nextInt(4) == 0 ? layerVolume * random.nextInt(3) : 40 * random.nextDouble();
+			double[] out = new double[1];
+			double[] before = temps.clone();
+			HotWaterTankModel.tankStep(0, 1, layers, temps, new double[] {layerVolume}, new double[] {1}, new double[] {60}, new double[] {0}, new double[] {drawOff},
+					15, 10, new double[1], out);
+			bounded &= drawOff == 0 || (out[0] <= before[0] + 1e-9 && out[0] >= 10 - 1e-9);
+		}
+		check(bounded, "water drawn at temperatures between the mains' and the top layer's");
+	}
+
+	/**
+	 * Steps a population of tanks through a day of random draw-offs and heating, checking
+	 * that each tick the heat of each tank changes by the heat taken, less its standing
+	 * loss and the heat of the water drawn, plus that of the mains water let in.
+	 */
+	private static void checkEnergyBalance()
+	{
+		int tanks = 50;
+		int layers = 6;
+		double ambient = 15;
+		double mains = 8;
+		Random random = new Random(3);
+		double[] layerTemp = new double[tanks * layers];
+		double[] layerVolume = new double[tanks];
+		double[] decay = new double[tanks];
+		double[] setPoint = new double[tanks];
+		for (int t = 0; t < tanks; t++)
+		{
+			double volume = 80 + 200 * random.nextDouble();
+			layerVolume[t] = volume / layers;
+			decay[t] = HotWaterTankModel.standingLossDecay(volume, 1 + 3 * random.nextDouble(), TICK_SECONDS);
+			setPoint[t] = 50 + 15 * random.nextDouble();
+			for (int l = 0; l < layers; l++)
+				layerTemp[t * layers + l] = setPoint[t] - 3 * l;
+		}
+
+		double[] heat = new double[tanks];
+		double[] drawOff = new double[tanks];
+		double[] heatOut = new double[tanks];
+		double[] drawOffTemp = new double[tanks];
+		double worst = 0;
+		for (int tick = 0; tick < 48; tick++)
+		{
+			double[] expected = new double[tanks];
+			for (int t = 0; t < tanks; t++)
+			{
+				heat[t] = random.nextInt(3) == 0 ? 0 : 2 * random.nextDouble();
+				drawOff[t] = random.nextInt(3) == 0 ? 0 : (random.nextInt(5) == 0 ? 2.5 * layerVolume[t] : 30 * random.nextDouble());
+				double standingLoss = 0;
+				for (int l = 0; l < layers; l++)
+					standingLoss += heatOf(layerVolume[t], layerTemp[t * layers + l] - ambient) * (1 - decay[t]);
+				expected[t] = heatOf(t, layers, layerTemp, layerVolume[t]) - standingLoss + heatOf(drawOff[t], mains);
+			}
+			HotWaterTankModel.tankStep(0, tanks, layers, layerTemp, layerVolume, decay, setPoint, heat, drawOff, ambient, mains, heatOut, drawOffTemp);
+			for (int t = 0; t < tanks; t++)
+			{
+				expected[t] += heatOut[t] * Consts.KWH_TO_JOULE_CONVERSION_FACTOR - (drawOff[t] > 0 ? heatOf(drawOff[t], drawOffTemp[t]) : 0);
+				double held = heatOf(t, layers, layerTemp, layerVolume[t]);
+				worst = Math.max(worst, Math.abs(held - expected[t]) / held);
+				for (int l = 1; l < layers; l++)
+					check(layerTemp[t * layers + l] <= layerTemp[t * layers + l - 1] + 1e-9, "temperature does not increase with depth");
+			}
+		}
+		check(worst < 1e-12, "heat conserved through standing loss, draw-off and heating (worst relative error " + worst + ")");
+	}
+
+	private static void checkThermostat()
+	{
+		double layerVolume = 30;
+		double[] layerTemp = {45, 30, 20, 10};
+		double deficit = 0;
+		for (double t : layerTemp)
+			deficit += 60 - t;
+		double[] heatOut = new double[1];
+		HotWaterTankModel.tankStep(0, 1, 4, layerTemp, new double[] {layerVolume}, new double[] {1}, new double[] {60}, new double[] {100}, new double[] {0},
+				15, 10, heatOut, new double[1]);
+		check(Math.abs(heatOut[0] - HotWaterTankModel.heatToRaise(layerVolume, deficit)) < 1e-12, "heater takes only the heat to bring the tank to its set point");
+		for (int l = 0; l < 4; l++)
+			check(Math.abs(layerTemp[l] - 60) < 1e-9, "tank at its set point after ample heat");
+
+		layerTemp = new double[] {45, 30, 20, 10};
+		HotWaterTankModel.tankStep(0, 1, 4, layerTemp, new double[] {layerVolume}, new double[] {1}, new double[] {60}, new double[] {0.5}, new double[] {0},
+				15, 10, heatOut, new double[1]);
+		check(heatOut[0] == 0.5 && layerTemp[0] == 45, "heat short of the set point taken whole, into the layers below the top");
+		// the bottom layer, heated to 24.3 C, mixes with the 20 C layer above it but not the 30 C one
+		check(layerTemp[1] == 30 && layerTemp[2] == layerTemp[3] && Math.abs(layerTemp[3] - (20 + 10 + 0.5 * Consts.KWH_TO_JOULE_CONVERSION_FACTOR / (layerVolume * Consts.WATER_SPECIFIC_HEAT_CAPACITY)) / 2) < 1e-9,
+				"heated bottom layer mixed up to the layer warmer than it");
+	}
+
+	private static void checkDomesticFigures()
+	{
+		double direct = HotWaterTankModel.standingLoss(Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, 55 - Consts.DOMESTIC_HOT_WATER_TANK_AMBIENT_TEMP, TICK_SECONDS) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP;
+		check(HotWaterTankModel.domesticStandingLossDemand(55, 48) == direct, "domestic standing loss demand");
+		double overhead = HotWaterTankModel.storageOverhead(HotWaterTankModel.standingLossDecay(150, Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, TICK_SECONDS));
+		check(HotWaterTankModel.domesticStorageOverhead(150, 48) == overhead && overhead > 0, "domestic storage overhead");
+	}
+
+	/** @return the heat (J) of tank t, above 0 C */
+	private static double heatOf(int t, int layers, double[] layerTemp, double layerVolume)
+	{
+		double sum = 0;
+		for (int l = 0; l < layers; l++)
+			sum += heatOf(layerVolume, layerTemp[t * layers + l]);
+		return sum;
+	}
+
+	/** @return the heat (J) of a volume (litres) of water at a temperature (C), above 0 C */
+	private static double heatOf(double volume, double temp)
+	{
+		return volume * Consts.WATER_SPECIFIC_HEAT_CAPACITY * temp;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("HotWaterTankModelTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Test of {@link ArrayUtils#selectNSmallestIndices(double[], int, int[], Uniform)} against
+ * the sort based selection it replaced, written out here as it was (with its tie breaks
+ * drawn from the generator passed rather than Repast's default one).  Over random arrays
+ * with many ties, and every n from below zero to beyond the array's length, it checks that
+ * given generators seeded alike the two select the same indices in the same order; that
+ * the values selected are the n smallest; that n of zero or less selects nothing and n of
+ * the array's length or more selects every index, in order; and that tied elements are
+ * chosen uniformly.  Prints any failures and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class NSmallestIndicesTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(28);
+		boolean sameAsSort = true;
+		boolean smallest = true;
+		boolean noneForZero = true;
+		boolean allForLength = true;
+		for (int trial = 0; trial < 2000; trial++)
+		{
+			int length = 1 + random.nextInt(60);
+			int distinct = 1 + random.nextInt(trial % 2 == 0 ? 4 : 1000); // few distinct values, so many ties, or few ties
+			double[] values = new double[length];
+			for (int i = 0; i < length; i++)
+			{
+				values[i] = random.nextInt(distinct) * 0.5;
+			}
+			double[] unaltered = values.clone();
+			double[] sorted = values.clone();
+			Arrays.sort(sorted);
+
+			for (int n = -1; n <= length + 2; n++)
+			{
+				int[] out = new int[length + 3];
+				Arrays.fill(out, -1);
+				int seed = trial * 100 + n + 1;
+				int count = ArrayUtils.selectNSmallestIndices(values, n, out, uniform(seed));
+				if (n < 1)
+				{
+					noneForZero &= count == 0 && out[0] == -1;
+					continue;
+				}
+				if (n >= length)
+				{
+					boolean all = count == length;
+					for (int i = 0; i < length; i++)
+					{
+						all &= out[i] == i;
+					}
+					allForLength &= all;
+					continue;
+				}
+				sameAsSort &= count == n && Arrays.equals(Arrays.copyOf(out, n), sortBased(values, n, uniform(seed)));
+
+				double[] selected = new double[n];
+				boolean distinctIndices = true;
+				for (int k = 0; k < n; k++)
+				{
+					selected[k] = values[out[k]];
+					for (int j = 0; j < k; j++)
+					{
+						distinctIndices &= out[j] != out[k];
+					}
+				}
+				Arrays.sort(selected);
+				smallest &= distinctIndices && Arrays.equals(selected, Arrays.copyOf(sorted, n));
+			}
+			sameAsSort &= Arrays.equals(values, unaltered);
+		}
+		check(sameAsSort, "same indices, in the same order, as the sort based selection (and the array not altered)");
+		check(smallest, "n distinct indices of the n smallest values");
+		check(noneForZero, "n of zero or less selects nothing");
+		check(allForLength, "n of the array's length or more selects every index, in order");
+
+		checkTieBreaks();
+
+		if (failures > 0)
+		{
+			System.err.println("NSmallestIndicesTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("NSmallestIndicesTest: passed");
+	}
+
+	/**
+	 * Selects 3 of the 5 smallest (and all tied) elements of an array many times, and
+	 * checks that each of the tied elements is chosen 3 times in 5.
+	 */
+	private static void checkTieBreaks()
+	{
+		double[] values = {9, 1, 7, 1, 1, 8, 1, 1};
+		int[] tied = {1, 3, 4, 6, 7};
+		int draws = 100000;
+		int[] chosen = new int[values.length];
+		int[] out = new int[3];
+		Uniform uniform = uniform(35);
+		for (int n = 0; n < draws; n++)
+		{
+			ArrayUtils.selectNSmallestIndices(values, 3, out, uniform);
+			for (int k = 0; k < 3; k++)
+			{
+				chosen[out[k]]++;
+			}
+		}
+		boolean uniformly = true;
+		double sd = Math.sqrt(draws * 0.6 * 0.4);
+		for (int i : tied)
+		{
+			uniformly &= Math.abs(chosen[i] - 0.6 * draws) <= 5 * sd;
+		}
+		check(uniformly, "tied elements chosen uniformly (" + Arrays.toString(chosen) + ")");
+		check(chosen[0] == 0 && chosen[2] == 0 && chosen[5] == 0, "elements above the tied value never chosen");
+	}
+
+	/**
+	 * The sort based selection, as it was before heap selection replaced it.
+	 */
+	private static int[] sortBased(double[] doubleArray, int n, Uniform rand)
+	{
+		List<Integer> returnList = new ArrayList<Integer>();
+		List<Integer> tiesList = new ArrayList<Integer>();
+		double[] workingArray = Arrays.copyOf(doubleArray, doubleArray.length);
+
+		Arrays.sort(workingArray);
+		double tiedValue = workingArray[n];
+		boolean tiesToResolve = workingArray[n - 1] == workingArray[n];
+
+		for (int i = 0; i < doubleArray.length; i++)
+		{
+			if (doubleArray[i] < tiedValue)
+			{
+				returnList.add(i);
+			}
+			else if (tiesToResolve && doubleArray[i] == tiedValue)
+			{
+				tiesList.add(i);
+			}
+		}
+		int tiesToSelect = n - returnList.size();
+		for (int l = 0; l < tiesToSelect; l++)
+		{
+			int selected = rand.nextIntFromTo(0, tiesList.size() - 1);
+			returnList.add(tiesList.get(selected));
+			tiesList.remove(selected);
+		}
+
+		int[] returnArray = new int[n];
+		for (int k = 0; k < n; k++)
+		{
+			returnArray[k] = returnList.get(k);
+		}
+		return returnArray;
+	}
+
+	private static Uniform uniform(int seed)
+	{
+		return new Uniform(new MersenneTwister(seed));
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("NSmallestIndicesTest: failed: " + what);
+			failures++;
+		}
+	}
+}
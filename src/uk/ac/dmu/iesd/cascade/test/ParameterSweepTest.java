@@ -0,0 +1,231 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.dmu.iesd.cascade.context.ParameterSweep;
+import uk.ac.dmu.iesd.cascade.context.ParameterSweep.Run;
+import uk.ac.dmu.iesd.cascade.io.CSVReader;
+import uk.ac.dmu.iesd.cascade.io.SweepResults;
+
+/**
+ * Test of what the sweep runner is built on: that a sweep description expands to every
+ * combination of its values in Repast's order, with keys which do not depend on the order
+ * of the description but do on how the runs are set up; that a sweep which sets the seed
+ * cannot be repeated; that sweep results survive being cut short and are resumed; and
+ * that a file read from its column image reads exactly as the file parsed.  Prints any
+ * failures and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class ParameterSweepTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		File directory = new File(System.getProperty("java.io.tmpdir"), "ParameterSweepTest" + System.nanoTime());
+		directory.mkdirs();
+		try
+		{
+			checkSweep(directory);
+			checkResults(directory);
+			checkImages(directory);
+		}
+		finally
+		{
+			delete(directory);
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("ParameterSweepTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("ParameterSweepTest: passed");
+	}
+
+	private static void checkSweep(File directory) throws IOException
+	{
+		ParameterSweep sweep = ParameterSweep.parse(write(new File(directory, "sweep.xml"),
+				"<?xml version=\"1.0\"?>\n<sweep runs=\"2\">\n"
+				+ "<parameter name=\"signalMode\" type=\"list\" value_type=\"int\" values=\"1 2 3\">\n"
+				+ "  <parameter name=\"threshold\" type=\"number\" start=\"0.1\" end=\"0.3\" step=\"0.1\"/>\n"
+				+ "  <parameter name=\"weatherFile\" type=\"constant\" constant_type=\"string\" value=\"oneDayWeather.csv\"/>\n"
+				+ "</parameter>\n</sweep>\n"));
+		List<Run> runs = sweep.getRuns();
+		check(runs.size() == 2 * 3 * 3, "every combination of values, for each repeat");
+		check(sweep.getNames().equals(Arrays.asList("signalMode", "threshold", "weatherFile")), "names in the order of the description");
+		check("1".equals(runs.get(0).getValues().get("signalMode")) && "0.1".equals(runs.get(0).getValues().get("threshold")), "first run");
+		check("1".equals(runs.get(2).getValues().get("signalMode")) && "0.3".equals(runs.get(2).getValues().get("threshold")), "number steps kept exact, innermost varying fastest");
+		check("2".equals(runs.get(3).getValues().get("signalMode")), "outermost varying slowest");
+		check("oneDayWeather.csv".equals(runs.get(17).getValues().get("weatherFile")), "constant in every run");
+		check(runs.get(9).getRepeat() == 2 && runs.get(9).getValues().equals(runs.get(0).getValues()) && !runs.get(9).getKey().equals(runs.get(0).getKey()), "repeats have their own keys");
+		check(sweep.seedOf(runs.get(9), 7) == 8, "repeats take successive seeds");
+
+		ParameterSweep reordered = ParameterSweep.parse(write(new File(directory, "reordered.xml"),
+				"<sweep runs=\"2\">\n"
+				+ "<parameter name=\"weatherFile\" type=\"constant\" constant_type=\"string\" value=\"oneDayWeather.csv\">\n"
+				+ "  <parameter name=\"threshold\" type=\"list\" value_type=\"double\" values=\"0.3 0.2 0.1\">\n"
+				+ "    <parameter name=\"signalMode\" type=\"number\" start=\"3\" end=\"1\" step=\"-1\"/>\n"
+				+ "  </parameter>\n</parameter>\n</sweep>\n"));
+		check(keys(reordered).containsAll(keys(sweep)) && keys(sweep).containsAll(keys(reordered)), "keys do not depend on the order of the description");
+
+		Run run = runs.get(0);
+		String setup = "seed 1, end 3024.0, scenario Cascade.rs, builder CascadeContextBuilder";
+		check(run.getKey(setup).equals(reordered.getRuns().get(keys(reordered).indexOf(run.getKey())).getKey(setup)) && run.getKey(setup).length() == 16, "keys of runs set up alike agree");
+		check(!run.getKey(setup).equals(run.getKey(setup.replace("seed 1", "seed 2"))) && !run.getKey(setup).equals(run.getKey(setup.replace("3024", "1000")))
+				&& !run.getKey(setup).equals(run.getKey(setup.replace("Cascade.rs", "Other.rs"))) && !run.getKey(setup).equals(run.getKey(setup.replace("Cascade", "Adoption")))
+				&& !run.getKey(setup).equals(run.getKey()), "keys depend on the seed, end tick, scenario and builder");
+
+		ParameterSweep seeded = ParameterSweep.parse(write(new File(directory, "seeded.xml"),
+				"<sweep runs=\"1\"><parameter name=\"randomSeed\" type=\"list\" value_type=\"int\" values=\"4 5\"/></sweep>"));
+		check(seeded.seedOf(seeded.getRuns().get(1), 7) == 5, "a swept seed is used as it is");
+		checkRefused(write(new File(directory, "repeatedSeed.xml"),
+				"<sweep runs=\"2\"><parameter name=\"randomSeed\" type=\"list\" value_type=\"int\" values=\"4 5\"/></sweep>"), "repeats of a sweep which sets the seed refused");
+		checkRefused(write(new File(directory, "badSeed.xml"),
+				"<sweep runs=\"1\"><parameter name=\"randomSeed\" type=\"constant\" constant_type=\"string\" value=\"one\"/></sweep>"), "seed which is not a whole number refused");
+
+		ParameterSweep unseeded = ParameterSweep.parse(write(new File(directory, "unseeded.xml"),
+				"<sweep runs=\"3\"><parameter name=\"signalMode\" type=\"constant\" constant_type=\"number\" value=\"2\"/></sweep>"));
+		check(unseeded.getRuns().size() == 3 && unseeded.seedOf(unseeded.getRuns().get(2), 7) == 9, "repeats of an unseeded sweep take successive seeds");
+
+		File batch = new File("batch" + File.separator + "batch_params.xml");
+		if (batch.isFile())
+		{
+			ParameterSweep shipped = ParameterSweep.parse(batch);
+			check(shipped.getRuns().size() == 10 && "10".equals(shipped.getRuns().get(9).getValues().get("randomSeed")), "the shipped batch parameters expand");
+		}
+	}
+
+	private static void checkRefused(File description, String what)
+	{
+		try
+		{
+			ParameterSweep.parse(description);
+			check(false, what);
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	private static List<String> keys(ParameterSweep sweep)
+	{
+		String[] keys = new String[sweep.getRuns().size()];
+		for (int i = 0; i < keys.length; i++)
+		{
+			keys[i] = sweep.getRuns().get(i).getKey();
+		}
+		return Arrays.asList(keys);
+	}
+
+	private static void checkResults(File directory) throws IOException
+	{
+		File file = new File(directory, "results.csv");
+		List<String> columns = Arrays.asList("key", "value", "error");
+		SweepResults results = new SweepResults(file, columns);
+		results.append(new String[] {"a", "1", null});
+		results.append(new String[] {"b", "2", "failed, badly\nat tick 3"});
+		results.close();
+
+		// an interruption cuts the last row short
+		RandomAccessFile f = new RandomAccessFile(file, "rw");
+		f.seek(f.length());
+		f.write("c,3".getBytes("UTF-8"));
+		f.close();
+
+		results = new SweepResults(file, columns);
+		check(Arrays.equals(results.get("a"), new String[] {"a", "1", ""}), "row read back");
+		check(results.get("b") != null && results.get("b")[2].equals("failed  badly at tick 3"), "separators in values kept out of the file");
+		check(results.get("c") == null, "row cut short ignored");
+		results.append(new String[] {"c", "3", null});
+		results.append(new String[] {"a", "4", null});
+		results.close();
+
+		results = new SweepResults(file, columns);
+		check(results.get("c") != null && "3".equals(results.get("c")[1]), "row after the cut read back");
+		check("4".equals(results.get("a")[1]), "last row of a key is its result");
+		results.close();
+
+		try
+		{
+			new SweepResults(file, Arrays.asList("key", "other"));
+			check(false, "results of another sweep refused");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	private static void checkImages(File directory) throws IOException
+	{
+		File csv = write(new File(directory, "profiles.csv"), "Tick,\"Demand\",Temp\n0,1.5,3\n1,2.5,\u00b0C\n2,3.5,4\n");
+		File images = new File(directory, "images");
+
+		CSVReader parsed = new CSVReader(csv);
+		parsed.parseByColumn();
+
+		CSVReader.mapParsedFiles(images);
+		try
+		{
+			CSVReader first = new CSVReader(csv);
+			first.parseByColumn();
+			String[] written = images.list();
+			check(written != null && written.length == 1 && written[0].endsWith(".columns"), "image written on first parse");
+
+			CSVReader mapped = new CSVReader(csv);
+			mapped.parseByColumn();
+			check(Arrays.equals(parsed.getColumnNames(), mapped.getColumnNames()), "headers read from the image");
+			for (String column : parsed.getColumnNames())
+			{
+				check(Arrays.equals(parsed.getColumn(column), mapped.getColumn(column)), "column " + column + " read from the image");
+			}
+			check(Arrays.equals(parsed.getRow(1), mapped.getRow(1)), "rows read from the image");
+
+			// an image of a file which has since changed is not used
+			write(csv, "Tick,Demand\n0,9\n");
+			csv.setLastModified(csv.lastModified() + 2000);
+			CSVReader changed = new CSVReader(csv);
+			changed.parseByColumn();
+			check(Arrays.equals(changed.getColumn("Demand"), new String[] {"9"}), "image of a changed file not used");
+		}
+		finally
+		{
+			CSVReader.mapParsedFiles(null);
+		}
+	}
+
+	private static File write(File file, String contents) throws IOException
+	{
+		FileWriter out = new FileWriter(file);
+		out.write(contents);
+		out.close();
+		return file;
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+		{
+			delete(files[i]);
+		}
+		file.delete();
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("ParameterSweepTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.RadialFeederSolver;
+
+/**
+ * Test of the {@link RadialFeederSolver}: on small feeders whose bus voltages are known in
+ * closed form (a load at the end of a line, generation at the end of a line, a branched
+ * feeder of loads, and a load on a power limited source), that it finds those voltages;
+ * and on random feeders with loads and embedded generation, that Kirchhoff's current law
+ * holds at every bus and that the power supplied less that consumed is the power lost in
+ * the lines.  Prints any failures and exits with a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RadialFeederSolverTest {
+
+	private static final double V0 = 230;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		checkKnownFeeders();
+		Random random = new Random(34);
+		for (int n = 0; n < 20; n++)
+		{
+			checkKirchhoff(random, 2 + random.nextInt(200), n % 2 == 0);
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("RadialFeederSolverTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("RadialFeederSolverTest: passed");
+	}
+
+	private static void checkKnownFeeders()
+	{
+		// a load G at the end of a line R: V1 = V0 / (1 + R G)
+		RadialFeederSolver line = new RadialFeederSolver(new int[] {-1, 0}, new double[] {0, 0.5}, V0);
+		line.setSlackCapacity(Double.MAX_VALUE);
+		line.getLoadConductance()[1] = 0.2;
+		line.solve();
+		check(line.getVoltage(0) == V0 && close(line.getVoltage(1), V0 / 1.1), "load at the end of a line (" + line.getVoltage(1) + " V)");
+		check(close(line.getSlackPower(), V0 * V0 * 0.2 / 1.1), "power drawn by a load at the end of a line");
+		check(!line.isBrownout(), "no brownout with an unlimited source");
+
+		// generation P at the end of a line R: V1 = V0 + R P / V1, so V1 = (V0 + sqrt(V0^2 + 4 R P)) / 2
+		line.getLoadConductance()[1] = 0;
+		line.getEmbeddedGeneration()[1] = 3000;
+		line.solve();
+		double v1 = (V0 + Math.sqrt(V0 * V0 + 4 * 0.5 * 3000)) / 2;
+		check(close(line.getVoltage(1), v1), "generation at the end of a line (" + line.getVoltage(1) + " V, expected " + v1 + ")");
+		check(close(line.getSlackPower(), -(v1 - V0) / 0.5 * V0), "power exported by generation at the end of a line");
+		check(line.getIterations() < 10, "generation converges in a few sweeps (" + line.getIterations() + ")");
+
+		// a branched feeder of loads: 0 - 1 (R 1), and 1 - 2 (R 2, G 0.5), 1 - 3 (R 1, G 0.25)
+		RadialFeederSolver branched = new RadialFeederSolver(new int[] {-1, 0, 1, 1}, new double[] {0, 1, 2, 1}, V0);
+		branched.setSlackCapacity(Double.MAX_VALUE);
+		branched.getLoadConductance()[2] = 0.5;
+		branched.getLoadConductance()[3] = 0.25;
+		branched.solve();
+		// seen from bus 1 the branches are 0.5 / 2 = 0.25 S and 0.25 / 1.25 = 0.2 S, so 0.45 S in all
+		double expected1 = V0 / (1 + 0.45);
+		double[] expected = {V0, expected1, expected1 / 2, expected1 / 1.25};
+		boolean matches = true;
+		for (int b = 0; b < expected.length; b++)
+		{
+			matches &= close(branched.getVoltage(b), expected[b]);
+		}
+		check(matches, "voltages of a branched feeder of loads");
+		check(branched.getIterations() == 2, "a feeder of loads alone solved in one sweep (and confirmed by a second)");
+
+		// a load on a source limited to C: V0' such that G V0'^2 / (1 + R G) = C
+		line.getEmbeddedGeneration()[1] = 0;
+		line.getLoadConductance()[1] = 0.2;
+		line.setSlackCapacity(5000);
+		line.solve();
+		double rootVoltage = Math.sqrt(5000 * 1.1 / 0.2);
+		check(line.isBrownout() && close(line.getVoltage(0), rootVoltage) && close(line.getVoltage(1), rootVoltage / 1.1), "brownout lowers the root voltage to meet the capacity");
+		check(close(line.getSlackPower(), 5000), "power drawn in a brownout is the capacity");
+	}
+
+	/**
+	 * Solves a random feeder and checks, at each bus, that the current in from its parent's
+	 * line (or from the source) equals the current out to its children's lines and its load,
+	 * less that injected by its generation.
+	 */
+	private static void checkKirchhoff(Random random, int numOfBuses, boolean limited)
+	{
+		int[] parent = new int[numOfBuses];
+		double[] resistance = new double[numOfBuses];
+		parent[0] = -1;
+		for (int b = 1; b < numOfBuses; b++)
+		{
+			parent[b] = random.nextInt(b);
+			resistance[b] = 0.01 + 0.05 * random.nextDouble();
+		}
+		// shuffle the bus numbers so that parents do not always precede their children
+		int[] label = new int[numOfBuses];
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			label[b] = b;
+		}
+		for (int b = numOfBuses - 1; b > 0; b--)
+		{
+			int swap = random.nextInt(b + 1);
+			int t = label[b];
+			label[b] = label[swap];
+			label[swap] = t;
+		}
+		int[] shuffledParent = new int[numOfBuses];
+		double[] shuffledResistance = new double[numOfBuses];
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			shuffledParent[label[b]] = parent[b] < 0 ? -1 : label[parent[b]];
+			shuffledResistance[label[b]] = resistance[b];
+		}
+
+		RadialFeederSolver solver = new RadialFeederSolver(shuffledParent, shuffledResistance, V0);
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			solver.getLoadConductance()[b] = 0.02 * random.nextDouble();
+			if (random.nextInt(4) == 0)
+			{
+				solver.getEmbeddedGeneration()[b] = 1000 * random.nextDouble(); // less, in all, than the load
+			}
+		}
+		double capacity = Double.MAX_VALUE;
+		if (limited)
+		{
+			solver.setSlackCapacity(Double.MAX_VALUE);
+			solver.solve();
+			capacity = 0.8 * solver.getSlackPower();
+		}
+		solver.setSlackCapacity(capacity);
+		solver.solve();
+
+		String what = numOfBuses + " buses" + (limited ? ", limited source" : "");
+		double[] net = new double[numOfBuses]; // current into each bus from its lines and the source
+		double scale = 0;
+		double losses = 0;
+		int root = solver.getRoot();
+		net[root] = solver.getSlackPower() / solver.getVoltage(root);
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			if (shuffledParent[b] >= 0)
+			{
+				double drop = solver.getVoltage(shuffledParent[b]) - solver.getVoltage(b);
+				double current = drop / shuffledResistance[b];
+				net[b] += current;
+				net[shuffledParent[b]] -= current;
+				losses += drop * current;
+				scale = Math.max(scale, Math.abs(current));
+			}
+		}
+		double worst = 0;
+		double balance = 0;
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			double v = solver.getVoltage(b);
+			double residual = net[b] - solver.getLoadConductance()[b] * v + solver.getEmbeddedGeneration()[b] / v;
+			worst = Math.max(worst, Math.abs(residual));
+			balance += solver.getPowerBalance(b);
+		}
+		check(worst <= 1e-9 * Math.max(scale, 1), what + ": KCL residual at every bus (worst " + worst + " A of " + scale + " A)");
+		check(Math.abs(balance - losses) <= 1e-9 * Math.max(Math.abs(solver.getSlackPower()), 1), what + ": power supplied less consumed is lost in the lines");
+		if (limited)
+		{
+			check(solver.isBrownout() && close(solver.getSlackPower(), capacity), what + ": power drawn is the capacity (" + solver.getSlackPower() + " W of " + capacity + " W)");
+		}
+	}
+
+	private static boolean close(double actual, double expected)
+	{
+		return Math.abs(actual - expected) <= 1e-12 * Math.max(Math.abs(expected), 1);
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("RadialFeederSolverTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.RothErevLearner;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Test of the {@link RothErevLearner} against a naive learner which keeps every
+ * propensity in a plain array, applies the modified Roth-Erev update to each in turn and
+ * draws a choice by a linear search of the cumulative propensities.  For fixed seeds,
+ * and numbers of choices which are and are not powers of two, the two are given the same
+ * rewards and draw from streams seeded alike; the test checks that their propensities
+ * agree after every update and normalisation (through many rebasings of the scale), that
+ * they draw the same choices, and that the frequencies with which choices are drawn match
+ * their probabilities.  Prints any failures and exits with a non-zero status if there
+ * are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RothErevLearnerTest {
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static int failures = 0;
+
+	/**
+	 * The modified Roth-Erev algorithm, written out directly.
+	 */
+	private static class NaiveLearner {
+		final double[] q;
+		final double recency;
+		final double experimentation;
+
+		NaiveLearner(double[] initialPropensities, double recency, double experimentation)
+		{
+			this.q = initialPropensities.clone();
+			this.recency = recency;
+			this.experimentation = experimentation;
+		}
+
+		void update(int choice, double reward)
+		{
+			for (int j = 0; j < q.length; j++)
+			{
+				double experience = j == choice ? reward * (1 - experimentation) : reward * experimentation / (q.length - 1);
+				q[j] = (1 - recency) * q[j] + experience;
+			}
+		}
+
+		void normalise()
+		{
+			double total = total();
+			for (int j = 0; j < q.length; j++)
+				q[j] /= total;
+		}
+
+		int sample(Uniform uniform)
+		{
+			double target = uniform.nextDouble() * total();
+			double cumulative = 0;
+			for (int j = 0; j < q.length; j++)
+			{
+				cumulative += q[j];
+				if (cumulative > target)
+					return j;
+			}
+			return q.length - 1;
+		}
+
+		double total()
+		{
+			double total = 0;
+			for (double p : q)
+				total += p;
+			return total;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int[] choices = {2, 7, 16, 100};
+		for (int seed = 1; seed <= 3; seed++)
+		{
+			for (int k : choices)
+			{
+				checkAgainstNaive(seed, k, 0.1, 0.2);
+				checkAgainstNaive(seed, k, 0.6, 0.05); // the scale falls fast, and is rebased often
+			}
+		}
+		checkFrequencies(7, 13);
+
+		if (failures > 0)
+		{
+			System.err.println("RothErevLearnerTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("RothErevLearnerTest: passed");
+	}
+
+	private static void checkAgainstNaive(int seed, int k, double recency, double experimentation)
+	{
+		String what = k + " choices, seed " + seed + ", recency " + recency;
+		Random random = new Random(seed);
+		double[] initial = new double[k];
+		double[] payoff = new double[k];
+		for (int j = 0; j < k; j++)
+		{
+			initial[j] = 0.5 + random.nextDouble();
+			payoff[j] = random.nextDouble();
+		}
+		RothErevLearner learner = new RothErevLearner(initial, recency, experimentation, new Uniform(new MersenneTwister(seed)), new double[k], new double[k + 1]);
+		NaiveLearner naive = new NaiveLearner(initial, recency, experimentation);
+		Uniform naiveUniform = new Uniform(new MersenneTwister(seed));
+
+		int draws = 5000;
+		int disagreements = 0;
+		double worst = 0;
+		for (int n = 0; n < draws; n++)
+		{
+			int choice = learner.sample();
+			if (naive.sample(naiveUniform) != choice)
+				disagreements++;
+			double reward = payoff[choice] * (0.5 + random.nextDouble());
+			learner.update(choice, reward);
+			naive.update(choice, reward);
+			if (n % 10 == 9)
+			{
+				learner.normalise();
+				naive.normalise();
+			}
+			for (int j = 0; j < k; j++)
+				worst = Math.max(worst, Math.abs(learner.getPropensity(j) - naive.q[j]) / naive.total());
+		}
+		check(worst < TOLERANCE, what + ": propensities as the naive learner's (worst relative difference " + worst + ")");
+		check(Math.abs(learner.getTotalPropensity() - naive.total()) < TOLERANCE * naive.total(), what + ": total propensity");
+		// draws may differ only where a target falls within rounding of a boundary
+		check(disagreements <= draws / 1000, what + ": same choices drawn as the naive learner (" + disagreements + " of " + draws + " differ)");
+	}
+
+	/**
+	 * Draws many choices from a fixed set of propensities, with both learners, and checks
+	 * the frequencies of each against the probabilities and against each other.
+	 */
+	private static void checkFrequencies(int seed, int k)
+	{
+		Random random = new Random(seed);
+		double[] initial = new double[k];
+		for (int j = 0; j < k; j++)
+			initial[j] = j == 4 ? 1e-3 : 0.1 + random.nextDouble(); // one choice seldom drawn
+		RothErevLearner learner = new RothErevLearner(initial, 0.1, 0.2, new Uniform(new MersenneTwister(seed)), new double[k], new double[k + 1]);
+		NaiveLearner naive = new NaiveLearner(initial, 0.1, 0.2);
+		Uniform naiveUniform = new Uniform(new MersenneTwister(seed));
+		for (int n = 0; n < 20; n++)
+		{
+			int choice = random.nextInt(k);
+			double reward = random.nextDouble();
+			learner.update(choice, reward);
+			naive.update(choice, reward);
+		}
+
+		int draws = 1000000;
+		int[] fenwick = new int[k];
+		int[] linear = new int[k];
+		for (int n = 0; n < draws; n++)
+		{
+			fenwick[learner.sample()]++;
+			linear[naive.sample(naiveUniform)]++;
+		}
+		boolean matches = true;
+		boolean same = true;
+		for (int j = 0; j < k; j++)
+		{
+			double p = learner.getProbability(j);
+			double sd = Math.sqrt(draws * p * (1 - p));
+			matches &= Math.abs(fenwick[j] - draws * p) <= 5 * sd + 1;
+			same &= Math.abs(fenwick[j] - linear[j]) <= draws / 100000;
+		}
+		check(matches, "frequencies of choices drawn match their probabilities");
+		check(same, "frequencies of choices drawn as the naive learner's");
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("RothErevLearnerTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import uk.ac.dmu.iesd.cascade.util.RoutineErrorAdjustment;
+import flanagan.math.Matrix;
+
+/**
+ * Test of the RECOs' daily error estimation and adjustment: that the fused kernel adjusts
+ * the displacement factors k, to the bit, as the chain of flanagan matrices and array
+ * operations it replaced did; and that it scales the elasticities e by the documented
+ * multiplier <code>R = alpha (D - D_actual) / B + (1 - alpha)</code>, with
+ * <code>D = B + S.e.B + (B.S) k</code> (which the old chain computed but never applied
+ * to e).  Checked over random days of 48 timeslots, with signals in [-1, 1] and the
+ * impulse signals of training.  Prints any failures and exits with a non-zero status if
+ * there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RoutineErrorAdjustmentTest {
+
+	private static final int SLOTS = 48;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(47);
+		double[] buffer = new double[SLOTS];
+		boolean sameK = true;
+		boolean eAsDocumented = true;
+		boolean multiplierAsDocumented = true;
+		for (int day = 0; day < 2000; day++)
+		{
+			double alpha = day % 2 == 0 ? 0.1 : random.nextDouble();
+			double[] b = new double[SLOTS];
+			double[] s = new double[SLOTS];
+			double[] e = new double[SLOTS];
+			double[][] k = new double[SLOTS][SLOTS];
+			double[] actual = new double[SLOTS];
+			int impulse = day % 3 == 0 ? random.nextInt(SLOTS) : -1;
+			for (int i = 0; i < SLOTS; i++)
+			{
+				b[i] = 0.2 + 2 * random.nextDouble();
+				s[i] = impulse < 0 ? 2 * random.nextDouble() - 1 : (i == impulse ? 1 : 0);
+				e[i] = -0.5 * random.nextDouble();
+				actual[i] = b[i] * (0.7 + 0.6 * random.nextDouble());
+				for (int j = 0; j < SLOTS; j++)
+					k[i][j] = i == j ? -1 : 0.05 * (random.nextDouble() - 0.5);
+			}
+
+			double[][] oldK = copy(k);
+			double[] oldR = oldChain(b, actual, s, e, oldK, alpha);
+
+			double[] newE = e.clone();
+			double[][] newK = copy(k);
+			RoutineErrorAdjustment.adjust(b, actual, s, newE, newK, alpha, buffer);
+
+			for (int i = 0; i < SLOTS; i++)
+				sameK &= Arrays.equals(oldK[i], newK[i]);
+			multiplierAsDocumented &= Arrays.equals(buffer, oldR);
+
+			// e scaled by R, computed here from the formula
+			for (int j = 0; j < SLOTS; j++)
+			{
+				double shift = 0;
+				for (int i = 0; i < SLOTS; i++)
+					shift += b[i] * s[i] * k[i][j];
+				double predicted = b[j] + s[j] * e[j] * b[j] + shift;
+				double r = alpha * (predicted - actual[j]) / b[j] + (1 - alpha);
+				eAsDocumented &= Math.abs(newE[j] - e[j] * r) <= 1e-12 * Math.max(1, Math.abs(e[j] * r));
+			}
+		}
+		check(sameK, "k adjusted as by the old flanagan and array chain, to the bit");
+		check(multiplierAsDocumented, "multiplier as the old chain built it");
+		check(eAsDocumented, "e scaled by R = alpha (D - D_actual) / B + (1 - alpha)");
+
+		double[] b = {1, 2};
+		double[] e = {-0.2, -0.1};
+		double[][] k = {{-1, 0.5}, {0.25, -1}};
+		RoutineErrorAdjustment.adjust(b, new double[] {0.5, 2.5}, new double[] {1, 0}, e, k, 0.5, new double[2]);
+		// D = (1 - 0.2 - 1, 2 + 0.5) = (-0.2, 2.5); R = (0.5 (-0.7) / 1 + 0.5, 0.5 (0) / 2 + 0.5) = (0.15, 0.5)
+		check(Math.abs(e[0] - -0.2 * 0.15) < 1e-15 && Math.abs(e[1] - -0.1 * 0.5) < 1e-15, "e of a worked example");
+		check(Math.abs(k[0][0] - -0.15) < 1e-15 && k[0][1] == 0.25 && Math.abs(k[1][0] - 0.0375) < 1e-15 && k[1][1] == -0.5, "k of a worked example");
+
+		if (failures > 0)
+		{
+			System.err.println("RoutineErrorAdjustmentTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("RoutineErrorAdjustmentTest: passed");
+	}
+
+	/**
+	 * The adjustment as it was written before the kernel, with the array operations it
+	 * used written out as they were in ArrayUtils.
+	 * @return the multiplier R
+	 */
+	private static double[] oldChain(double[] arr_i_B, double[] arr_hist_1D, double[] arr_i_S, double[] arr_i_e, double[][] arr_ij_k, double alpha)
+	{
+		Matrix k = new Matrix(arr_ij_k);
+		double[][] bs = new double[1][arr_i_B.length];
+		bs[0] = mtimes(arr_i_B, arr_i_S);
+
+		Matrix bs_mat = new Matrix(bs);
+		bs_mat.transpose();
+
+		double[] bse = mtimes(arr_i_S, arr_i_e, arr_i_B);
+		double[] bsk = Matrix.times(bs_mat, k).getRowCopy(0);
+		double[] predictedShift = add(bse, bsk);
+		for (int i = 0; i < predictedShift.length; i++)
+			predictedShift[i] = predictedShift[i] + arr_i_B[i];
+
+		double[] arr_multiplier = predictedShift;
+		for (int i = 0; i < arr_multiplier.length; i++)
+		{
+			arr_multiplier[i] = predictedShift[i] - arr_hist_1D[i];
+			arr_multiplier[i] = arr_multiplier[i] * Math.pow(arr_i_B[i], -1);
+			arr_multiplier[i] = alpha * arr_multiplier[i] + (1 - alpha);
+		}
+
+		for (int i = 0; i < arr_ij_k.length; i++)
+			arr_ij_k[i] = mtimes(arr_ij_k[i], arr_multiplier);
+		return arr_multiplier;
+	}
+
+	private static double[] mtimes(double[]... arrays)
+	{
+		double[] product = new double[arrays[0].length];
+		Arrays.fill(product, 1d);
+		for (double[] array : arrays)
+			for (int i = 0; i < product.length; i++)
+				product[i] = product[i] * array[i];
+		return product;
+	}
+
+	private static double[] add(double[]... arrays)
+	{
+		double[] sum = new double[arrays[0].length];
+		for (double[] array : arrays)
+			for (int i = 0; i < sum.length; i++)
+				sum[i] = sum[i] + array[i];
+		return sum;
+	}
+
+	private static double[][] copy(double[][] array)
+	{
+		double[][] copy = new double[array.length][];
+		for (int i = 0; i < array.length; i++)
+			copy[i] = array[i].clone();
+		return copy;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("RoutineErrorAdjustmentTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import cern.jet.random.Empirical;
+import repast.simphony.context.DefaultContext;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.parameter.DefaultParameters;
+import repast.simphony.parameter.Schema;
+import repast.simphony.random.RandomHelper;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
+import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+
+/**
+ * Regression test for the "no per-tick lookup" property of agent code: agents,
+ * controllers and market operators must read run parameters and networks from the
+ * context's {@link RunConfig} rather than looking them up by name through
+ * <code>RepastEssentials</code> or the run's <code>Parameters</code>.
+ * <p>
+ * The run's parameters count the lookups made of them.  The test resolves the context's
+ * run configuration from them, then steps households through the per-tick paths which
+ * read it (the smart control adoption decision, with its social influence, smart control
+ * with a wattbox controller, and electrical space and water heating) on the context's
+ * schedule for three days, with a flat price signal each day.  It checks that no lookups
+ * are made once the configuration has been resolved.  Prints any failures and exits with
+ * a non-zero status if there are any.
+ * <p>
+ * Run with the Repast libraries on the class path.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RunConfigLookupTest {
+
+	private static final int TICKS_PER_DAY = 48;
+	private static final int DAYS = 3;
+
+	private static int failures = 0;
+
+	/**
+	 * Run parameters which count (and name) the lookups made of them
+	 */
+	private static class CountingParameters extends DefaultParameters {
+		final List<String> lookups = new ArrayList<String>();
+
+		@Override
+		public Object getValue(String paramName)
+		{
+			lookups.add(paramName);
+			return super.getValue(paramName);
+		}
+
+		@Override
+		public Schema getSchema()
+		{
+			lookups.add("(schema)");
+			return super.getSchema();
+		}
+	}
+
+	/**
+	 * Stands in for the aggregator, sending its customers a flat day ahead price signal
+	 * at the start of each day
+	 */
+	public static class PriceSignal {
+		private final List<HouseholdProsumer> customers = new ArrayList<HouseholdProsumer>();
+
+		public void send()
+		{
+			for (HouseholdProsumer customer : customers)
+			{
+				customer.receiveValueSignal(new double[TICKS_PER_DAY], TICKS_PER_DAY);
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		CountingParameters params = parameters();
+		ISchedule schedule = new Schedule();
+		RunEnvironment.init(schedule, null, params, true);
+		RandomHelper.setSeed(1);
+		CascadeContext context = context();
+
+		RunConfig config = context.getRunConfig();
+		check(!params.lookups.isEmpty(), "run configuration is resolved from the run's parameters");
+		check(config.getSmartControlDecisionThreshold() == -1, "run configuration has the run's threshold (" + config.getSmartControlDecisionThreshold() + ")");
+		params.lookups.clear();
+
+		// adopts smart control at the first decision, as any propensity is above the threshold
+		HouseholdProsumer adopter = household(context, true);
+		adopter.hasSmartMeter = true;
+		adopter.exercisesBehaviourChange = true;
+		adopter.setWattboxController();
+		HouseholdProsumer plain = household(context, false);
+		PriceSignal signal = new PriceSignal();
+		signal.customers.add(adopter);
+		schedule.schedule(ScheduleParameters.createRepeating(0, TICKS_PER_DAY, Consts.AGGREGATOR_PRE_STEP_PRIORITY_FIRST), signal, "send");
+
+		try
+		{
+			for (int tick = 0; tick < DAYS * TICKS_PER_DAY; tick++)
+			{
+				schedule.execute();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			check(false, "households step (" + e + ")");
+		}
+		check(context.getTickCount() == DAYS * TICKS_PER_DAY - 1, "ran " + DAYS + " days (last tick " + context.getTickCount() + ")");
+		check(adopter.hasSmartControl, "household took the smart control adoption decision");
+		check(plain.getNetDemand() > 0, "plain household stepped");
+		check(params.lookups.isEmpty(), "no parameter lookups while stepping (made " + params.lookups.size() + ": " + distinct(params.lookups) + ")");
+
+		if (failures > 0)
+		{
+			System.err.println("RunConfigLookupTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("RunConfigLookupTest: passed");
+	}
+
+	/**
+	 * @return counting run parameters holding the parameters the run configuration reads
+	 */
+	private static CountingParameters parameters()
+	{
+		CountingParameters params = new CountingParameters();
+		params.addParameter(RunConfig.VERBOSE_OUTPUT, "Verbose output", Boolean.class, false, false);
+		params.addParameter(RunConfig.SIGNAL_MODE, "Signal mode", Integer.class, 0, false);
+		params.addParameter(RunConfig.SMART_CONTROL_DECISION_THRESHOLD, "Smart control decision threshold", Double.class, -1.0, false);
+		params.addParameter(RunConfig.TICKS_PER_DAY, "Ticks per day", Integer.class, TICKS_PER_DAY, false);
+		params.addParameter(RunConfig.DATA_FILE_FOLDER, "Data file folder", String.class, "dataFiles", false);
+		params.addParameter(RunConfig.EXACT_THERMAL_MODEL, "Exact thermal model", Boolean.class, false, false);
+		params.addParameter(RunConfig.HOT_WATER_TANK_LAYERS, "Hot water tank layers", Integer.class, 4, false);
+		params.addParameter(RunConfig.HOUSEHOLD_HISTORY, "Household history", String.class, "RUN", false);
+		params.addParameter(RunConfig.HOUSEHOLD_HISTORY_AS_FLOAT, "Household history as float", Boolean.class, false, false);
+		params.addParameter(RunConfig.RASP_PI_EMULATOR, "Raspberry Pi emulator", Boolean.class, false, false);
+		params.addParameter(RunConfig.DEVICE_DEADLINE, "Device deadline", Integer.class, 100, false);
+		params.addParameter(RunConfig.CALIBRATION_MODE, "Calibration mode", String.class, "OFF", false);
+		params.addParameter(RunConfig.CALIBRATION_DIR, "Calibration directory", String.class, "calibration", false);
+		params.addParameter(RunConfig.DIAGNOSTIC_TRACE_DIR, "Diagnostic trace directory", String.class, "", false);
+		return params;
+	}
+
+	/**
+	 * @return a context bound to the run environment, with the distributions the
+	 *         households' initialisation draws from and a flat day of weather, but no run
+	 *         configuration, so that it resolves one from the run's parameters
+	 */
+	private static CascadeContext context()
+	{
+		CascadeContext context = new CascadeContext(new DefaultContext<Object>("RunConfigLookupTest"));
+		context.bindRunEnvironment();
+		context.setNbOfTickPerDay(TICKS_PER_DAY);
+		context.setStartDate(new GregorianCalendar(2010, Calendar.JANUARY, 1).getTime());
+
+		double[] drawOffDist = ArrayUtils.multiply(Consts.EST_DRAWOFF, ArrayUtils.sum(Consts.EST_DRAWOFF));
+		context.drawOffGenerator = RandomHelper.createEmpiricalWalker(drawOffDist, Empirical.NO_INTERPOLATION);
+		context.waterUsageGenerator = RandomHelper.createNormal(0, 1);
+		context.buildingLossRateGenerator = RandomHelper.createNormal(275, 75);
+		context.thermalMassGenerator = RandomHelper.createNormal(12.5, 2.5);
+
+		context.setWeatherDataLength(TICKS_PER_DAY);
+		context.setInsolation(new double[TICKS_PER_DAY]);
+		context.setWindSpeed(new double[TICKS_PER_DAY]);
+		double[] airTemperature = new double[TICKS_PER_DAY];
+		Arrays.fill(airTemperature, 5);
+		context.setAirTemperature(airTemperature);
+		double[] airDensity = new double[TICKS_PER_DAY];
+		Arrays.fill(airDensity, 1.2);
+		context.setAirDensity(airDensity);
+		return context;
+	}
+
+	/**
+	 * Creates a household with electrical water heating, and optionally electrical space
+	 * heating, initialised and scheduled as the context builders do.
+	 */
+	private static HouseholdProsumer household(CascadeContext context, boolean spaceHeat)
+	{
+		double[] baseDemand = new double[TICKS_PER_DAY * Consts.NB_OF_DAYS_LOADED_DEMAND];
+		Arrays.fill(baseDemand, 0.2);
+		HouseholdProsumer household = new HouseholdProsumer(context, baseDemand);
+		household.setNumOccupants(3);
+		household.setHasElectricalWaterHeat(true);
+		household.setHasElectricalSpaceHeat(spaceHeat);
+		if (spaceHeat)
+		{
+			household.initializeElecSpaceHeatPar();
+		}
+		household.initializeElectWaterHeatPar();
+		context.add(household);
+
+		ISchedule schedule = context.getSchedule();
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_PRE_STEP_PRIORITY), household, "preStep");
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_PRIORITY_FIFTH), household, "step");
+		return household;
+	}
+
+	private static List<String> distinct(List<String> names)
+	{
+		List<String> result = new ArrayList<String>();
+		for (String name : names)
+		{
+			if (!result.contains(name))
+			{
+				result.add(name);
+			}
+		}
+		return result;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("RunConfigLookupTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import repast.simphony.parameter.Parameters;
+import repast.simphony.parameter.ParametersParser;
+import uk.ac.dmu.iesd.cascade.context.CascadeContextBuilder;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Result;
+import uk.ac.dmu.iesd.cascade.context.ScenarioRunner.Scenario;
+
+/**
+ * Test of the {@link ScenarioRunner}: runs the model's scenario with several seeds, first
+ * one after another on one thread and then all at once, and checks that every run gives
+ * exactly the same demand trajectories either way; and that a run which ends itself (one
+ * which cannot resume from its checkpoint), running among the others, ends only itself.
+ * Prints any failures and exits with a non-zero status if there are any.
+ * <p>
+ * Run from the model's directory, with the Repast libraries on the class path.
+ * Arguments (all optional): the scenario directory (default <code>Cascade.rs</code>), the
+ * number of seeds (default 4), and the tick after which runs stop (default 3 days).
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class ScenarioRunnerTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		File scenarioDirectory = new File(args.length > 0 ? args[0] : "Cascade.rs");
+		int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		double endTick = args.length > 2 ? Double.parseDouble(args[2]) : 3 * 48 - 1;
+
+		long start = System.currentTimeMillis();
+		List<Result> serial = ScenarioRunner.run(scenarios(scenarioDirectory, seeds, endTick), 1);
+		long serialMillis = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		List<Result> concurrent = ScenarioRunner.run(scenarios(scenarioDirectory, seeds, endTick), seeds);
+		long concurrentMillis = System.currentTimeMillis() - start;
+
+		for (int i = 0; i < seeds; i++)
+		{
+			Result s = serial.get(i);
+			Result c = concurrent.get(i);
+			System.out.println("serial     " + s);
+			System.out.println("concurrent " + c);
+			check(s.getError() == null && c.getError() == null, s.getName() + " ran to its end");
+			check(s.getLastTick() >= endTick && c.getLastTick() == s.getLastTick(), s.getName() + " ran to the end tick");
+			check(s.getFingerprint() != null && s.getFingerprint().equals(c.getFingerprint()), s.getName() + " concurrent run matches its serial run");
+		}
+		if (seeds > 1)
+		{
+			check(serial.get(0).getFingerprint() != null && !serial.get(0).getFingerprint().equals(serial.get(1).getFingerprint()), "runs with different seeds differ");
+		}
+		System.out.println("serial: " + serialMillis + " ms, concurrent: " + concurrentMillis + " ms");
+
+		// the first scenario cannot resume, and ends at its checkpoint tick while the others run on
+		List<Scenario> withFailure = scenarios(scenarioDirectory, seeds, endTick);
+		int checkpointTick = (int) (endTick / 2);
+		withFailure.get(0).getParameters().setValue(RunConfig.CHECKPOINT_TICK, Integer.valueOf(checkpointTick));
+		withFailure.get(0).getParameters().setValue(RunConfig.CHECKPOINT_RESUME, new File(scenarioDirectory, "no-such-checkpoint").getPath());
+		List<Result> failed = ScenarioRunner.run(withFailure, seeds);
+		System.out.println("unresumable " + failed.get(0));
+		check(failed.get(0).getError() == null && failed.get(0).getLastTick() >= checkpointTick && failed.get(0).getLastTick() < endTick, "run which cannot resume ends at its checkpoint tick");
+		for (int i = 1; i < seeds; i++)
+		{
+			check(failed.get(i).getLastTick() == serial.get(i).getLastTick() && serial.get(i).getFingerprint().equals(failed.get(i).getFingerprint()), failed.get(i).getName() + " runs on unaffected beside a run which ends itself");
+		}
+
+		if (failures > 0)
+		{
+			System.err.println("ScenarioRunnerTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("ScenarioRunnerTest: passed");
+	}
+
+	private static List<Scenario> scenarios(File scenarioDirectory, int seeds, double endTick) throws Exception
+	{
+		List<Scenario> scenarios = new ArrayList<Scenario>(seeds);
+		for (int seed = 1; seed <= seeds; seed++)
+		{
+			Parameters parameters = new ParametersParser(new File(scenarioDirectory, "parameters.xml")).getParameters();
+			parameters.setValue("randomSeed", Integer.valueOf(seed));
+			scenarios.add(new Scenario("seed " + seed, parameters, new CascadeContextBuilder(), endTick));
+		}
+		return scenarios;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("ScenarioRunnerTest: failed: " + what);
+			failures++;
+		}
+	}
+}
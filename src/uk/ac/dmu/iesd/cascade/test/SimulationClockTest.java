@@ -0,0 +1,79 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import uk.ac.dmu.iesd.cascade.util.SimulationClock;
+
+/**
+ * Equivalence test of the {@link SimulationClock} against the calendar it replaces,
+ * which was advanced by the length of a tick every tick.
+ * <p>
+ * For several tick lengths and start times, in a time zone with daylight saving, the
+ * test steps a calendar through four years of ticks and checks that the clock gives the
+ * same time, year, month, day of month, day of year, day of week and minute of day for
+ * every tick, and maps each time back to its tick.  Prints any mismatches and exits with
+ * a non-zero status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SimulationClockTest {
+
+	private static final int YEARS = 4;
+	private static final int MAX_REPORTED = 20;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		TimeZone zone = TimeZone.getTimeZone("Europe/London");
+		check(zone, 2010, Calendar.JANUARY, 1, 0, 0, 30);
+		check(zone, 2011, Calendar.APRIL, 1, 0, 0, 30);
+		check(zone, 2012, Calendar.MARCH, 25, 0, 30, 15);
+		check(zone, 2009, Calendar.OCTOBER, 24, 23, 0, 60);
+		check(zone, 2010, Calendar.JUNE, 1, 13, 10, 10);
+
+		if (failures > 0)
+		{
+			System.err.println("SimulationClockTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("SimulationClockTest: passed");
+	}
+
+	private static void check(TimeZone zone, int startYear, int startMonth, int startDay, int startHour, int startMinute, int minutesPerTick)
+	{
+		Calendar calendar = new GregorianCalendar(zone);
+		calendar.clear();
+		calendar.set(startYear, startMonth, startDay, startHour, startMinute);
+		SimulationClock clock = new SimulationClock(calendar.getTime(), minutesPerTick, zone);
+
+		int ticks = (YEARS * 366 * 24 * 60) / minutesPerTick;
+		for (int tick = 0; tick < ticks; tick++)
+		{
+			String at = "start " + startYear + "/" + (startMonth + 1) + "/" + startDay + ", " + minutesPerTick + " minute ticks, tick " + tick;
+			check(at + " time", calendar.getTimeInMillis(), clock.getEpochMillis(tick));
+			check(at + " year", calendar.get(Calendar.YEAR), clock.getYear(tick));
+			check(at + " month", calendar.get(Calendar.MONTH), clock.getMonth(tick));
+			check(at + " day of month", calendar.get(Calendar.DAY_OF_MONTH), clock.getDayOfMonth(tick));
+			check(at + " day of year", calendar.get(Calendar.DAY_OF_YEAR), clock.getDayOfYear(tick));
+			check(at + " day of week", calendar.get(Calendar.DAY_OF_WEEK), clock.getDayOfWeek(tick));
+			check(at + " minute of day", 60 * calendar.get(Calendar.HOUR_OF_DAY) + calendar.get(Calendar.MINUTE), clock.getMinuteOfDay(tick));
+			check(at + " tick", tick, clock.tickAt(calendar.getTimeInMillis() + 1));
+			calendar.add(Calendar.MINUTE, minutesPerTick);
+		}
+	}
+
+	private static void check(String what, long expected, long actual)
+	{
+		if (expected != actual)
+		{
+			if (failures < MAX_REPORTED)
+			{
+				System.err.println("SimulationClockTest: " + what + " expected " + expected + " but was " + actual);
+			}
+			failures++;
+		}
+	}
+}
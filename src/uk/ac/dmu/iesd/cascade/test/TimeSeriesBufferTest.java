@@ -0,0 +1,141 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+
+import uk.ac.dmu.iesd.cascade.util.TimeSeriesBuffer;
+import uk.ac.dmu.iesd.cascade.util.TimeSeriesBuffer.Retention;
+
+/**
+ * Test of the ring buffer behind the households' histories: that with each retention
+ * (none, a day, a week, the run), stored as doubles and as floats, it holds, in time
+ * order, exactly the ticks it should after wrapping round several times, with skipped
+ * ticks reading as zero and late or overwritten values handled; checked against the
+ * whole series kept in a plain array.  Prints any failures and exits with a non-zero
+ * status if there are any.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class TimeSeriesBufferTest {
+
+	private static final int TICKS_PER_DAY = 48;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		for (Retention retention : Retention.values())
+		{
+			checkAgainstSeries(retention, false);
+			checkAgainstSeries(retention, true);
+		}
+		checkWrapAround();
+		checkSkippedAndLateTicks();
+
+		if (failures > 0)
+		{
+			System.err.println("TimeSeriesBufferTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("TimeSeriesBufferTest: passed");
+	}
+
+	/**
+	 * Puts ten days of a series (skipping a tick now and then) and checks, tick by tick,
+	 * that the buffer holds the last day, week or run of it, in time order.
+	 */
+	private static void checkAgainstSeries(Retention retention, boolean useFloat)
+	{
+		String what = retention + (useFloat ? " as floats" : " as doubles");
+		int window = retention == Retention.NONE ? 0 : (retention == Retention.DAY ? TICKS_PER_DAY : (retention == Retention.WEEK ? 7 * TICKS_PER_DAY : Integer.MAX_VALUE));
+		int ticks = 10 * TICKS_PER_DAY;
+		double[] series = new double[ticks];
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(retention, TICKS_PER_DAY, useFloat);
+		check(buffer.getRetention() == retention && buffer.size() == 0 && buffer.getLastTick() == -1, what + ": empty when made");
+		boolean matches = true;
+		int last = -1;
+		for (int tick = 0; tick < ticks; tick++)
+		{
+			if (tick % 7 != 3)
+			{
+				series[tick] = useFloat ? (float) (tick + 0.1) : tick + 0.1;
+				buffer.put(tick, tick + 0.1);
+				last = tick;
+			}
+			int held = retention == Retention.NONE ? 0 : Math.min(last + 1, window);
+			matches &= buffer.size() == held && buffer.getLastTick() == (retention == Retention.NONE ? -1 : last);
+			if (retention != Retention.NONE)
+			{
+				matches &= buffer.getFirstTick() == last - held + 1;
+				matches &= Arrays.equals(buffer.toArray(), Arrays.copyOfRange(series, last - held + 1, last + 1));
+			}
+		}
+		check(matches, what + ": holds the last " + (retention == Retention.RUN ? "run" : retention.name().toLowerCase()) + " in time order");
+
+		double sum = 0;
+		for (int tick = last - buffer.size() + 1; tick <= last; tick++)
+			sum += series[tick];
+		check(Math.abs(buffer.sum() - sum) <= 1e-9 * Math.abs(sum), what + ": sum of the values held");
+		check(buffer.get(-1) == 0 && buffer.get(last + 1) == 0, what + ": ticks outside the series read as zero");
+		if (retention == Retention.DAY || retention == Retention.WEEK)
+		{
+			check(buffer.get(last - window) == 0 && buffer.get(last - window + 1) == series[last - window + 1], what + ": ticks before the window read as zero");
+		}
+	}
+
+	private static void checkWrapAround()
+	{
+		TimeSeriesBuffer day = new TimeSeriesBuffer(Retention.DAY, 4, false);
+		for (int tick = 0; tick < 10; tick++)
+			day.put(tick, tick);
+		check(Arrays.equals(day.toArray(), new double[] {6, 7, 8, 9}), "day wrapped round twice and a half holds the last four ticks, oldest first");
+		check(Arrays.equals(day.getLast(6), new double[] {0, 0, 6, 7, 8, 9}), "ticks no longer held read as zero");
+		check(Arrays.equals(day.getRange(5, 3), new double[] {0, 6, 7}), "range from a tick no longer held");
+
+		TimeSeriesBuffer week = new TimeSeriesBuffer(Retention.WEEK, 2, true);
+		for (int tick = 0; tick < 30; tick++)
+			week.put(tick, tick);
+		check(week.size() == 14 && week.getFirstTick() == 16 && week.get(16) == 16 && week.get(29) == 29 && week.get(15) == 0, "week wrapped round holds the last fourteen ticks");
+
+		TimeSeriesBuffer run = new TimeSeriesBuffer(Retention.RUN, 2, false);
+		for (int tick = 0; tick < 1000; tick++)
+			run.put(tick, tick);
+		boolean all = run.size() == 1000 && run.getFirstTick() == 0;
+		for (int tick = 0; tick < 1000; tick++)
+			all &= run.get(tick) == tick;
+		check(all, "run holds every tick as it grows");
+
+		TimeSeriesBuffer none = new TimeSeriesBuffer(Retention.NONE, 4, false);
+		none.put(3, 1);
+		check(none.size() == 0 && none.get(3) == 0 && none.toArray().length == 0 && none.sum() == 0, "none holds nothing");
+	}
+
+	private static void checkSkippedAndLateTicks()
+	{
+		TimeSeriesBuffer day = new TimeSeriesBuffer(Retention.DAY, 4, false);
+		for (int tick = 0; tick < 4; tick++)
+			day.put(tick, 1);
+		day.put(6, 2);
+		check(Arrays.equals(day.toArray(), new double[] {1, 0, 0, 2}), "skipped ticks cleared of the previous cycle's values");
+		day.put(5, 3);
+		day.put(6, 4);
+		check(Arrays.equals(day.toArray(), new double[] {1, 0, 3, 4}), "earlier ticks still held may be put, and a tick overwritten");
+		day.put(2, 5);
+		check(Arrays.equals(day.toArray(), new double[] {1, 0, 3, 4}), "ticks no longer held are ignored");
+		day.put(100, 6);
+		check(Arrays.equals(day.toArray(), new double[] {0, 0, 0, 6}) && day.getFirstTick() == 97, "a skip of more than the window clears it");
+
+		TimeSeriesBuffer run = new TimeSeriesBuffer(Retention.RUN, 4, false);
+		run.put(0, 1);
+		run.put(9, 2);
+		check(run.size() == 10 && run.get(0) == 1 && run.get(5) == 0 && run.get(9) == 2, "run reads skipped ticks as zero");
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("TimeSeriesBufferTest: failed: " + what);
+			failures++;
+		}
+	}
+}
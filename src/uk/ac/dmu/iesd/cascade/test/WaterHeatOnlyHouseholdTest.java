@@ -0,0 +1,157 @@
+package uk.ac.dmu.iesd.cascade.test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import cern.jet.random.Empirical;
+import repast.simphony.context.DefaultContext;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.random.RandomHelper;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer;
+import uk.ac.dmu.iesd.cascade.agents.prosumers.HouseholdProsumer.History;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.context.CascadeContext;
+import uk.ac.dmu.iesd.cascade.context.RunConfig;
+import uk.ac.dmu.iesd.cascade.io.CalibrationStore;
+import uk.ac.dmu.iesd.cascade.util.ArrayUtils;
+import uk.ac.dmu.iesd.cascade.util.BuildingThermalModel.Discretisation;
+import uk.ac.dmu.iesd.cascade.util.TimeSeriesBuffer.Retention;
+
+/**
+ * Test of a household which has electrical water heating but no electrical space
+ * heating, i.e. one which the context builders initialise with
+ * {@link HouseholdProsumer#initializeElectWaterHeatPar()} alone.  Steps such a household,
+ * beside one with both, on a context's schedule as the builders schedule them (pre-step,
+ * the context's populations, then the step) for three days, and checks that it steps,
+ * that its tank takes no more heat than it is offered and takes some each day, and that
+ * it records no space heating.  Prints any failures and exits with a non-zero status if
+ * there are any.
+ * <p>
+ * Run with the Repast libraries on the class path.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class WaterHeatOnlyHouseholdTest {
+
+	private static final int TICKS_PER_DAY = 48;
+	private static final int DAYS = 3;
+
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		ISchedule schedule = new Schedule();
+		RunEnvironment.init(schedule, null, null, true);
+		RandomHelper.setSeed(1);
+		CascadeContext context = context();
+
+		HouseholdProsumer waterOnly = household(context, false);
+		HouseholdProsumer both = household(context, true);
+
+		try
+		{
+			for (int tick = 0; tick < DAYS * TICKS_PER_DAY; tick++)
+			{
+				schedule.execute();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			check(false, "households step (" + e + ")");
+		}
+		check(context.getTickCount() == DAYS * TICKS_PER_DAY - 1, "ran " + DAYS + " days (last tick " + context.getTickCount() + ")");
+
+		double[] offered = waterOnly.getWaterHeatProfile();
+		double[] waterHeat = waterOnly.getRetainedHistory(History.WATER_HEAT_DEMAND);
+		double[] spaceHeat = waterOnly.getRetainedHistory(History.SPACE_HEAT_DEMAND);
+		check(waterHeat.length == DAYS * TICKS_PER_DAY, "water only household kept its water heating history");
+		for (int tick = 0; tick < waterHeat.length; tick++)
+		{
+			check(waterHeat[tick] >= 0 && waterHeat[tick] <= offered[tick % TICKS_PER_DAY] + 1e-12, "water heating at tick " + tick + " (" + waterHeat[tick] + ") is within the heat offered (" + offered[tick % TICKS_PER_DAY] + ")");
+		}
+		for (int day = 0; day < waterHeat.length / TICKS_PER_DAY; day++)
+		{
+			double dayTotal = ArrayUtils.sum(Arrays.copyOfRange(waterHeat, day * TICKS_PER_DAY, (day + 1) * TICKS_PER_DAY));
+			check(dayTotal > 0, "water only household heats water on day " + day);
+		}
+		check(ArrayUtils.max(spaceHeat) == 0 && ArrayUtils.min(spaceHeat) == 0, "water only household records no space heating");
+		check(ArrayUtils.sum(both.getRetainedHistory(History.WATER_HEAT_DEMAND)) > 0, "household with both heats water");
+
+		if (failures > 0)
+		{
+			System.err.println("WaterHeatOnlyHouseholdTest: " + failures + " failures");
+			System.exit(1);
+		}
+		System.out.println("WaterHeatOnlyHouseholdTest: passed");
+	}
+
+	/**
+	 * @return a context bound to the run environment, with the distributions the
+	 *         households' initialisation draws from and a flat day of weather
+	 */
+	private static CascadeContext context()
+	{
+		CascadeContext context = new CascadeContext(new DefaultContext<Object>("WaterHeatOnlyHouseholdTest"));
+		context.bindRunEnvironment();
+		context.setNbOfTickPerDay(TICKS_PER_DAY);
+		context.setStartDate(new GregorianCalendar(2010, Calendar.JANUARY, 1).getTime());
+		context.setRunConfig(new RunConfig(false, -1, Double.POSITIVE_INFINITY, TICKS_PER_DAY, null, null, Discretisation.EULER, 4,
+				Retention.RUN, false, false, 100,
+				Integer.MAX_VALUE, null, null,
+				CalibrationStore.Mode.OFF, "calibration", "{}", null));
+
+		double[] drawOffDist = ArrayUtils.multiply(Consts.EST_DRAWOFF, ArrayUtils.sum(Consts.EST_DRAWOFF));
+		context.drawOffGenerator = RandomHelper.createEmpiricalWalker(drawOffDist, Empirical.NO_INTERPOLATION);
+		context.waterUsageGenerator = RandomHelper.createNormal(0, 1);
+		context.buildingLossRateGenerator = RandomHelper.createNormal(275, 75);
+		context.thermalMassGenerator = RandomHelper.createNormal(12.5, 2.5);
+
+		context.setWeatherDataLength(TICKS_PER_DAY);
+		context.setInsolation(new double[TICKS_PER_DAY]);
+		context.setWindSpeed(new double[TICKS_PER_DAY]);
+		double[] airTemperature = new double[TICKS_PER_DAY];
+		Arrays.fill(airTemperature, 5);
+		context.setAirTemperature(airTemperature);
+		double[] airDensity = new double[TICKS_PER_DAY];
+		Arrays.fill(airDensity, 1.2);
+		context.setAirDensity(airDensity);
+		return context;
+	}
+
+	/**
+	 * Creates a household with electrical water heating, and optionally electrical space
+	 * heating, initialised and scheduled as the context builders do.
+	 */
+	private static HouseholdProsumer household(CascadeContext context, boolean spaceHeat)
+	{
+		HouseholdProsumer household = new HouseholdProsumer(context, new double[TICKS_PER_DAY * Consts.NB_OF_DAYS_LOADED_DEMAND]);
+		household.setNumOccupants(3);
+		household.setHasElectricalWaterHeat(true);
+		household.setHasElectricalSpaceHeat(spaceHeat);
+		if (spaceHeat)
+		{
+			household.initializeElecSpaceHeatPar();
+		}
+		household.initializeElectWaterHeatPar();
+		context.add(household);
+
+		ISchedule schedule = context.getSchedule();
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_PRE_STEP_PRIORITY), household, "preStep");
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, Consts.PROSUMER_PRIORITY_FIFTH), household, "step");
+		return household;
+	}
+
+	private static void check(boolean condition, String what)
+	{
+		if (!condition)
+		{
+			System.err.println("WaterHeatOnlyHouseholdTest: failed: " + what);
+			failures++;
+		}
+	}
+}
@@ -33,11 +33,9 @@ import org.jfree.data.general.DefaultPieDataset;
 import org.jfree.data.xy.CategoryTableXYDataset;
 import org.jfree.ui.RectangleInsets;
 
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.IAction;
 import repast.simphony.engine.schedule.NonModelAction;
 import repast.simphony.engine.schedule.ScheduleParameters;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.parameter.BeanParameters;
 import repast.simphony.ui.probe.Probe;
 import repast.simphony.ui.probe.ProbePanelCreator;
@@ -310,20 +308,23 @@ public class ProsumerProbeListener implements ProbeListener {
 	private  DefaultCategoryDataset createLoadsProfileDataset(HouseholdProsumer hhAgent) {
 		DefaultCategoryDataset dcDataset = new DefaultCategoryDataset();
 
-		double[] arr_spaceHeat = hhAgent.getHistoricalSpaceHeatDemand();
-		double[] arr_hotWater = hhAgent.getHistoricalWaterHeatDemand();
-		double[] arr_otherDemand = hhAgent.getHistoricalOtherDemand();
-		double[] arr_cold = hhAgent.getHistoricalColdDemand();
-		double[] arr_wet = hhAgent.getHistoricalWetDemand();
-		double[] arr_elecVehicle = hhAgent.getHistoricalEVDemand();
+		// the whole history the household retains, by tick
+		double[] arr_spaceHeat = hhAgent.getRetainedHistory(HouseholdProsumer.History.SPACE_HEAT_DEMAND);
+		double[] arr_hotWater = hhAgent.getRetainedHistory(HouseholdProsumer.History.WATER_HEAT_DEMAND);
+		double[] arr_otherDemand = hhAgent.getRetainedHistory(HouseholdProsumer.History.OTHER_DEMAND);
+		double[] arr_cold = hhAgent.getRetainedHistory(HouseholdProsumer.History.COLD_DEMAND);
+		double[] arr_wet = hhAgent.getRetainedHistory(HouseholdProsumer.History.WET_DEMAND);
+		double[] arr_elecVehicle = hhAgent.getRetainedHistory(HouseholdProsumer.History.EV_DEMAND);
+		int firstTick = hhAgent.getRetainedHistoryFirstTick();
 
 		for (int i = 0; i < arr_otherDemand.length ; i++)	{
-			dcDataset.addValue((Number)arr_spaceHeat[i], "SH", i);
-			dcDataset.addValue((Number)arr_hotWater[i], "WH", i);
-			dcDataset.addValue((Number)arr_otherDemand[i], "O", i);
-			dcDataset.addValue((Number)arr_cold[i], "C", i);
-			dcDataset.addValue((Number)arr_wet[i], "W", i);
-			dcDataset.addValue((Number)arr_elecVehicle[i],"EV", i);
+			int tick = firstTick + i;
+			dcDataset.addValue((Number)arr_spaceHeat[i], "SH", tick);
+			dcDataset.addValue((Number)arr_hotWater[i], "WH", tick);
+			dcDataset.addValue((Number)arr_otherDemand[i], "O", tick);
+			dcDataset.addValue((Number)arr_cold[i], "C", tick);
+			dcDataset.addValue((Number)arr_wet[i], "W", tick);
+			dcDataset.addValue((Number)arr_elecVehicle[i],"EV", tick);
 
 
 		}
@@ -342,12 +343,12 @@ public class ProsumerProbeListener implements ProbeListener {
 		
 		DefaultPieDataset pieDataset = new DefaultPieDataset();
 
-		double[] arr_spaceHeat = hhAgent.getHistoricalSpaceHeatDemand();
-		double[] arr_hotWater = hhAgent.getHistoricalWaterHeatDemand();
-		double[] arr_otherDemand = hhAgent.getHistoricalOtherDemand();
-		double[] arr_cold = hhAgent.getHistoricalColdDemand();
-		double[] arr_wet = hhAgent.getHistoricalWetDemand();
-		double[] arr_elecVehicle = hhAgent.getHistoricalEVDemand();
+		double[] arr_spaceHeat = hhAgent.getRetainedHistory(HouseholdProsumer.History.SPACE_HEAT_DEMAND);
+		double[] arr_hotWater = hhAgent.getRetainedHistory(HouseholdProsumer.History.WATER_HEAT_DEMAND);
+		double[] arr_otherDemand = hhAgent.getRetainedHistory(HouseholdProsumer.History.OTHER_DEMAND);
+		double[] arr_cold = hhAgent.getRetainedHistory(HouseholdProsumer.History.COLD_DEMAND);
+		double[] arr_wet = hhAgent.getRetainedHistory(HouseholdProsumer.History.WET_DEMAND);
+		double[] arr_elecVehicle = hhAgent.getRetainedHistory(HouseholdProsumer.History.EV_DEMAND);
 
 
 		pieDataset.setValue("SH", ArrayUtils.sum(arr_spaceHeat));		
@@ -588,6 +589,8 @@ public class ProsumerProbeListener implements ProbeListener {
 	//@ScheduledMethod(start = 0, interval = 48, shuffle = true, priority = Consts.PROBE_PRIORITY)
 	public void scheduledUpdate()
 	{
+		if (mainContext.isFastForwarding())
+			return;
 		//Bit of a hack based on the thought that the ArrayLists will both be in the same order
 		//Could be we should have a Collection of Pairs to 
 		//Make this more explicit.
@@ -621,7 +624,7 @@ public class ProsumerProbeListener implements ProbeListener {
 	public ProsumerProbeListener(CascadeContext context)
 	{
 		super();
-		RunEnvironment.getInstance().getCurrentSchedule().schedule(ScheduleParameters.createRepeating(RepastEssentials.GetTickCount()+1, context.getNbOfTickPerDay(),
+		context.getSchedule().schedule(ScheduleParameters.createRepeating(context.getTickCount()+1, context.getNbOfTickPerDay(),
 				ScheduleParameters.END), new ProbeUpdater(this));
 		
 		mainContext = context;
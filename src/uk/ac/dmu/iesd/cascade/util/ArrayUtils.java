@@ -3,14 +3,14 @@
  */
 package uk.ac.dmu.iesd.cascade.util;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.jgap.Gene;
 import org.jgap.impl.DoubleGene;
 
+import cern.jet.random.Uniform;
+
 import repast.simphony.random.RandomHelper;
-import repast.simphony.util.collections.Pair;
 
 /**
  * A helper class with static methods to aid in the manipulation of arrays
@@ -33,6 +33,8 @@ import repast.simphony.util.collections.Pair;
  *              getPrintableOutputFor2DIntArrary, getPrintableOutputForIntArrary
  * 1.05 - added subArrayCopy, rowCopy     
  * 1.06 - added replaceRange function        
+ * 1.07 - replaced sort based findNSmallestIndices with heap selection (selectNSmallestIndices)
+ * 1.08 - added in place (xxxInPlace), destination buffer (xxxInto) and fused variants
  */
 public class ArrayUtils {
 
@@ -1174,89 +1176,172 @@ public class ArrayUtils {
 	}
 
 	/**
-	 * @param copyOfRange
-	 * @param n
+	 * Finds the indices of the n smallest elements of the array passed in.  Where
+	 * the n smallest elements cannot be chosen uniquely because of ties at the
+	 * boundary value, the tied elements are chosen at random.
+	 * 
+	 * Indices are returned in index order, except where ties have been resolved, in
+	 * which case the randomly chosen tied elements follow the others.
+	 * 
+	 * @param doubleArray the array to search
+	 * @param n the number of indices to find
+	 * @return a new array containing the n indices
+	 * @see #selectNSmallestIndices(double[], int, int[], Uniform)
 	 */
 	public static int[] findNSmallestIndices(double[] doubleArray, int n) {
-		// TODO Poor algorithm - improve
-		ArrayList<Pair<Integer,Double>> returnArrayList = new ArrayList<Pair<Integer,Double>>();
-		ArrayList<Pair<Integer,Double>> tiesList = new ArrayList<Pair<Integer,Double>>();
-
-		double tiedValue;
-		boolean tiesToResolve = false;
-		int[] returnArray = new int[n];
-		double[] workingArray = Arrays.copyOf(doubleArray, doubleArray.length);
+		int[] returnArray = new int[Math.max(n, 0)];
+		selectNSmallestIndices(doubleArray, n, returnArray, RandomHelper.getUniform());
+		return returnArray;
+	}
 
+	/**
+	 * Allocation free version of {@link #findNSmallestIndices(double[], int)}, which
+	 * writes the indices into a buffer supplied by the caller and draws any tie
+	 * breaks from the random generator supplied.
+	 * 
+	 * The n smallest elements are selected with a bounded max-heap of indices held in
+	 * the output buffer (O(length * log n)), which gives the boundary value.  The
+	 * output is then rewritten in index order and any remaining places filled by
+	 * drawing from the tied elements, using the same sequence of draws as the former
+	 * sort based implementation, so given the same generator state the result is identical.
+	 * 
+	 * IMPLEMENTATION NOTE - works directly on the output array passed in.
+	 * 
+	 * @param doubleArray the array to search (not altered)
+	 * @param n the number of indices to find
+	 * @param out buffer to receive the indices, of length at least n
+	 * @param rand the generator from which tie breaks are drawn
+	 * @return the number of indices written to out (less than n only if the array has fewer than n elements)
+	 */
+	public static int selectNSmallestIndices(double[] doubleArray, int n, int[] out, Uniform rand) {
 		if (n < 1)
 		{
 			System.err.println("ArrayUtils: Trying to find " + n + " smallest indices. Zero or negative count makes no sense");
+			return 0;
 		}
 		if (doubleArray.length < n)
 		{
 			System.err.println("Trying to find the " + n + " smallest elements of an array with only " + doubleArray.length + " elements!");
+			n = doubleArray.length;
 		}
-
-		//First check for the easy case, where there are no ties to worry about
-		Arrays.sort(workingArray);	
-		tiedValue = workingArray[n];
-		if(workingArray[n-1] == workingArray[n])
+		if (n == 0)
 		{
-			tiesToResolve = true;
+			return 0;
 		}
 
-		if (!tiesToResolve)
+		// Keep the n smallest seen so far in a max-heap ordered by value
+		for (int i = 0; i < n; i++)
 		{
-			//No ties to resolve, so just fill the return Array with the elements less than tiedValue 
-			//iterate through for any smaller
-			for (int i = 0; i < doubleArray.length; i++)
+			out[i] = i;
+			siftUp(doubleArray, out, i);
+		}
+		for (int i = n; i < doubleArray.length; i++)
+		{
+			if (doubleArray[i] < doubleArray[out[0]])
 			{
-				Pair<Integer, Double> thisElement = new Pair(i,doubleArray[i]);
-				if (thisElement.getSecond() < tiedValue)
-				{
-					returnArrayList.add(thisElement);
-				}
+				out[0] = i;
+				siftDown(doubleArray, out, 0, n);
 			}
+		}
+		double boundaryValue = doubleArray[out[0]];
 
-			if (returnArrayList.size() != n)
+		// Indices strictly below the boundary, in index order
+		int found = 0;
+		int tiedCount = 0;
+		for (int i = 0; i < doubleArray.length; i++)
+		{
+			if (doubleArray[i] < boundaryValue)
 			{
-				System.err.println("Find n smallest failed - sort reported non-tied, but didn't find clear n smallest");
-				System.err.println(Arrays.toString(workingArray) + ", " + n + " smallest = " + returnArrayList.toString());
-				}
+				out[found++] = i;
+			}
+			else if (doubleArray[i] == boundaryValue)
+			{
+				tiedCount++;
+			}
 		}
-		else
+
+		int tiesToSelect = n - found;
+		if (tiesToSelect == tiedCount)
 		{
-			//We have ties to resolve
+			// No ties to resolve - every element up to the boundary value is
+			// needed, returned in index order
+			found = 0;
 			for (int i = 0; i < doubleArray.length; i++)
 			{
-				Pair<Integer, Double> thisElement = new Pair(i,doubleArray[i]);
-
-				if (doubleArray[i] < tiedValue)
+				if (doubleArray[i] <= boundaryValue)
 				{
-					returnArrayList.add(thisElement);
+					out[found++] = i;
 				}
-				else if (doubleArray[i] == tiedValue)
+			}
+			return n;
+		}
+
+		// Resolve ties.  Each draw picks the r-th of the tied elements not yet
+		// chosen, counted in index order.
+		int firstTie = found;
+		for (int l = 0; l < tiesToSelect; l++)
+		{
+			int r = rand.nextIntFromTo(0, tiedCount - l - 1);
+			for (int i = 0; i < doubleArray.length; i++)
+			{
+				if (doubleArray[i] == boundaryValue && !contains(out, firstTie, found, i))
 				{
-					tiesList.add(thisElement);
+					if (r == 0)
+					{
+						out[found++] = i;
+						break;
+					}
+					r--;
 				}
 			}
+		}
+
+		return n;
+	}
 
-			int tiesToSelect = n - returnArrayList.size();
-			
-			for (int l = 0; l < tiesToSelect; l++)
+	private static boolean contains(int[] indices, int from, int to, int index) {
+		for (int k = from; k < to; k++)
+		{
+			if (indices[k] == index)
 			{
-				int selectedPair = RandomHelper.nextIntFromTo(0, tiesList.size() - 1);
-				returnArrayList.add(tiesList.get(selectedPair));
-				tiesList.remove(selectedPair);
+				return true;
 			}
 		}
+		return false;
+	}
 
-		for (int k = 0; k < n; k++)
+	private static void siftUp(double[] values, int[] heap, int pos) {
+		int idx = heap[pos];
+		while (pos > 0)
 		{
-			returnArray[k] = returnArrayList.get(k).getFirst();
+			int parent = (pos - 1) >> 1;
+			if (values[heap[parent]] >= values[idx])
+			{
+				break;
+			}
+			heap[pos] = heap[parent];
+			pos = parent;
 		}
+		heap[pos] = idx;
+	}
 
-		return returnArray;
-
+	private static void siftDown(double[] values, int[] heap, int pos, int size) {
+		int idx = heap[pos];
+		int child;
+		while ((child = 2 * pos + 1) < size)
+		{
+			if (child + 1 < size && values[heap[child + 1]] > values[heap[child]])
+			{
+				child++;
+			}
+			if (values[heap[child]] <= values[idx])
+			{
+				break;
+			}
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = idx;
 	}
 
 	/**
@@ -1298,5 +1383,242 @@ public class ArrayUtils {
 		return returnArr;
 	}
 
+	/*
+	 * In place and destination buffer variants.
+	 * 
+	 * IMPLEMENTATION NOTE - unlike the rest of this class, the methods below work
+	 * 						directly on the array passed in (xxxInPlace) or write
+	 * 						their result into a destination array supplied by the
+	 * 						caller (xxxInto), so that expressions evaluated in
+	 * 						tight loops need not allocate.  The destination may be
+	 * 						one of the source arrays.  Each is a single counted
+	 * 						loop over primitive arrays, which the JIT can unroll
+	 * 						and vectorise.  Results are the same as those of the
+	 * 						allocating versions above.
+	 */
+
+	/**
+	 * Element by element addition <code>dest[i] = a[i] + b[i]</code>
+	 * 
+	 * @param dest array to receive the result
+	 * @param a
+	 * @param b
+	 */
+	public static void addInto(double[] dest, double[] a, double[] b)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = a[i] + b[i];
+		}
+	}
+
+	/**
+	 * Element by element subtraction <code>dest[i] = a[i] - b[i]</code>, equivalent
+	 * to <code>add(a, negate(b))</code>
+	 * 
+	 * @param dest array to receive the result
+	 * @param a
+	 * @param b
+	 */
+	public static void subtractInto(double[] dest, double[] a, double[] b)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = a[i] - b[i];
+		}
+	}
+
+	/**
+	 * Element by element multiplication <code>dest[i] = a[i] * b[i]</code>
+	 * 
+	 * @param dest array to receive the result
+	 * @param a
+	 * @param b
+	 */
+	public static void mtimesInto(double[] dest, double[] a, double[] b)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = a[i] * b[i];
+		}
+	}
+
+	/**
+	 * Fused multiply and offset <code>dest[i] = array[i] * multiplier + offset</code>,
+	 * equivalent to <code>offset(multiply(array, multiplier), offset)</code>
+	 * 
+	 * @param dest array to receive the result
+	 * @param array
+	 * @param multiplier
+	 * @param offset
+	 */
+	public static void scaleAndOffsetInto(double[] dest, double[] array, double multiplier, double offset)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = multiplier * array[i] + offset;
+		}
+	}
+
+	/**
+	 * @param dest array to receive the absolute values of the members of array
+	 * @param array
+	 */
+	public static void absoluteValuesInto(double[] dest, double[] array)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = Math.abs(array[i]);
+		}
+	}
+
+	/**
+	 * @param dest array to receive the members of array raised to the power exp
+	 * @param array
+	 * @param exp
+	 */
+	public static void powInto(double[] dest, double[] array, double exp)
+	{
+		for (int i = 0; i < dest.length; i++)
+		{
+			dest[i] = Math.pow(array[i], exp);
+		}
+	}
+
+	/**
+	 * NOTE: acts directly on the array passed in.
+	 * 
+	 * @param array whose members are negated
+	 */
+	public static void negateInPlace(double[] array)
+	{
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = -array[i];
+		}
+	}
+
+	/**
+	 * NOTE: acts directly on the array passed in.
+	 * 
+	 * @param array whose members are multiplied by multiplier
+	 * @param multiplier
+	 */
+	public static void multiplyInPlace(double[] array, double multiplier)
+	{
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = multiplier * array[i];
+		}
+	}
+
+	/**
+	 * NOTE: acts directly on the array passed in.
+	 * 
+	 * @param array whose members are offset
+	 * @param offset
+	 */
+	public static void offsetInPlace(double[] array, double offset)
+	{
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = array[i] + offset;
+		}
+	}
+
+	/**
+	 * In place version of {@link #normalizeValues(double[], double, boolean)}, giving
+	 * exactly the same values.
+	 * 
+	 * NOTE: acts directly on the array passed in.
+	 * 
+	 * @param array to normalise
+	 * @param maxMagnitude
+	 * @param allowNegative
+	 */
+	public static void normalizeValuesInPlace(double[] array, double maxMagnitude, boolean allowNegative)
+	{
+		double maxAbs = maxAbsoluteValue(array);
+		if (Double.compare(maxAbs, 0.0d) == 0)
+		{
+			return;
+		}
+
+		// As in normalizeValues, the offset is taken from the minimum of the
+		// array passed in, and the final scale from the maximum before offsetting
+		double minVal = Math.min(0, min(array));
+		multiplyInPlace(array, (1 / maxAbs) * maxMagnitude);
+
+		if (!allowNegative)
+		{
+			double rescale = (1 / max(array)) * maxMagnitude;
+			for (int i = 0; i < array.length; i++)
+			{
+				array[i] = rescale * (array[i] + -minVal);
+			}
+		}
+	}
+
+	/**
+	 * @param array
+	 * @return the maximum absolute value of the members of the array, equivalent to <code>max(absoluteValues(array))</code>
+	 */
+	public static double maxAbsoluteValue(double[] array)
+	{
+		double maxVal = - Double.MAX_VALUE;
+		for (int i = 0; i < array.length; i++)
+		{
+			double v = Math.abs(array[i]);
+			if (v > maxVal) {maxVal = v;}
+		}
+		return maxVal;
+	}
+
+	/**
+	 * calculates the dot (or inner) product of two input arrays, equivalent to
+	 * <code>sum(mtimes(array1, array2))</code>
+	 * 
+	 * @param array1
+	 * @param array2
+	 * @return the dot product of the input arrays.
+	 */
+	public static double dotProduct(double[] array1, double[] array2)
+	{
+		double dotVal = 0;
+
+		if (array1.length != array2.length)
+		{
+			System.err.println("ArrayUtils: Tried to dot product arrays of different lengths " + array1.length + " and " + array2.length + " result - undefined");
+			return Double.NaN;
+		}
+
+		for (int i = 0; i < array1.length; i++)
+		{
+			dotVal = dotVal + array1[i] * array2[i];
+		}
+
+		return dotVal;
+	}
+
+	/**
+	 * Fused evaluation of <code>max(|a[i] - b[i]| - c[i])</code>, equivalent to
+	 * <code>max(add(absoluteValues(add(a, negate(b))), negate(c)))</code>.  Used to
+	 * test whether the difference between two profiles exceeds a per element tolerance.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @return the largest amount by which the absolute difference exceeds c
+	 */
+	public static double maxAbsDifferenceMinus(double[] a, double[] b, double[] c)
+	{
+		double maxVal = - Double.MAX_VALUE;
+		for (int i = 0; i < a.length; i++)
+		{
+			double v = Math.abs(a[i] - b[i]) - c[i];
+			if (v > maxVal) {maxVal = v;}
+		}
+		return maxVal;
+	}
 
 }
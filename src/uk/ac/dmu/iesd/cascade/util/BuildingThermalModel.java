@@ -0,0 +1,186 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import uk.ac.dmu.iesd.cascade.base.Consts;
+
+/**
+ * First order (single thermal mass) model of a heat pump heated building, shared by
+ * the household simulation and the smart controllers' day-ahead estimates, so that
+ * the two remain numerically identical.
+ * <p>
+ * A building has a thermal mass (kWh per degree C) and a heat loss rate (W per degree
+ * C).  Each tick its heat pump either maintains the set point, supplying the heat lost
+ * plus any heat needed to raise the internal temperature to the set point (subject to
+ * its maximum heat output), or is off and the building cools freely.  The heat pump is
+ * off when the set point is below the internal temperature, or not far enough above the
+ * external temperature (see {@link Consts#TEMP_CHANGE_TOLERANCE} and
+ * {@link Consts#HEAT_PUMP_THRESHOLD_TEMP_DIFF}).  Heat quantities are in kWh of heat
+ * per tick; the caller applies the heat pump's COP.
+ * <p>
+ * Two discretisations are provided:
+ * <ul>
+ * <li>{@link Discretisation#EULER} - the explicit (forward Euler) step historically used by
+ * 	   the model, in which the heat lost over a tick is that at the set point.  This is only
+ * 	   stable and accurate for ticks short compared with the building's time constant.</li>
+ * <li>{@link Discretisation#EXACT} - the closed form (exponential) solution over the tick of
+ * 	   the building's heat balance under constant external temperature and heat input,
+ * 	   which is exact whatever the length of the tick.</li>
+ * </ul>
+ * The population kernel {@link #heatPumpStep(int, int, double[], double[], double[], double[], double[], double, double, Discretisation, double[])}
+ * steps a range of buildings, held as primitive arrays, through one tick; the single
+ * building kernel {@link #simulateHeatPump(double, double, double, double[], double[], double, double, Discretisation, double[], double[])}
+ * steps one building through a sequence of ticks.  Both use the same per building step.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class BuildingThermalModel {
+
+	public static enum Discretisation {
+		EULER, EXACT
+	}
+
+	private BuildingThermalModel()
+	{
+	}
+
+	/**
+	 * @param ticksPerDay the number of ticks per day
+	 * @return the length of a tick in seconds
+	 */
+	public static double tickSeconds(int ticksPerDay)
+	{
+		return (double) Consts.SECONDS_PER_DAY / ticksPerDay;
+	}
+
+	/**
+	 * Steps the buildings <code>from</code> (inclusive) to <code>to</code> (exclusive) through one tick.
+	 *
+	 * @param thermalMass the thermal mass (kWh/C) of each building
+	 * @param heatLossRate the heat loss rate (W/C) of each building
+	 * @param maxHeat the maximum heat (kWh) each heat pump can supply in a tick
+	 * @param setPoint the set point (C) of each building for the tick
+	 * @param internalTemp the internal temperature (C) of each building at the start of the tick, replaced by that at its end
+	 * @param externalTemp the external temperature (C) during the tick
+	 * @param tickSeconds the length of the tick (s)
+	 * @param discretisation the discretisation to use
+	 * @param heatOut receives the heat (kWh) supplied by each heat pump in the tick
+	 */
+	public static void heatPumpStep(int from, int to, double[] thermalMass, double[] heatLossRate, double[] maxHeat, double[] setPoint, double[] internalTemp, double externalTemp, double tickSeconds, Discretisation discretisation, double[] heatOut)
+	{
+		for (int i = from; i < to; i++)
+		{
+			heatOut[i] = step(thermalMass[i], heatLossRate[i], maxHeat[i], setPoint[i], internalTemp[i], externalTemp, tickSeconds, discretisation, internalTemp, i);
+		}
+	}
+
+	/**
+	 * Steps a building through consecutive ticks.
+	 *
+	 * @param thermalMass the thermal mass (kWh/C) of the building
+	 * @param heatLossRate the heat loss rate (W/C) of the building
+	 * @param maxHeat the maximum heat (kWh) the heat pump can supply in a tick
+	 * @param setPoints the set point (C) in each tick
+	 * @param externalTemps the external temperature (C) in each tick
+	 * @param initialTemp the internal temperature (C) at the start of the first tick
+	 * @param tickSeconds the length of a tick (s)
+	 * @param discretisation the discretisation to use
+	 * @param heatOut receives the heat (kWh) supplied by the heat pump in each tick
+	 * @param tempOut receives the internal temperature (C) at the end of each tick
+	 * @return true if the set point was attained in every tick in which the heat pump ran,
+	 *         false if the heat pump could not supply enough heat in some tick
+	 */
+	public static boolean simulateHeatPump(double thermalMass, double heatLossRate, double maxHeat, double[] setPoints, double[] externalTemps, double initialTemp, double tickSeconds, Discretisation discretisation, double[] heatOut, double[] tempOut)
+	{
+		boolean attained = true;
+		double temp = initialTemp;
+		for (int i = 0; i < setPoints.length; i++)
+		{
+			heatOut[i] = step(thermalMass, heatLossRate, maxHeat, setPoints[i], temp, externalTemps[i], tickSeconds, discretisation, tempOut, i);
+			temp = tempOut[i];
+			if (heatOut[i] > 0 && temp < setPoints[i] - Consts.TEMP_CHANGE_TOLERANCE)
+			{
+				attained = false;
+			}
+		}
+		return attained;
+	}
+
+	/**
+	 * The drop in internal temperature of a building cooling freely for one tick.
+	 *
+	 * @param thermalMass the thermal mass (kWh/C) of the building
+	 * @param heatLossRate the heat loss rate (W/C) of the building
+	 * @param tempDifference the internal less the external temperature (C) at the start of the tick
+	 * @param tickSeconds the length of the tick (s)
+	 * @param discretisation the discretisation to use
+	 * @return the temperature drop (C) over the tick
+	 */
+	public static double freeRunningTempDrop(double thermalMass, double heatLossRate, double tempDifference, double tickSeconds, Discretisation discretisation)
+	{
+		if (discretisation == Discretisation.EXACT)
+		{
+			return -tempDifference * Math.expm1(-(tickSeconds * heatLossRate) / (thermalMass * Consts.KWH_TO_JOULE_CONVERSION_FACTOR));
+		}
+		return ((heatLossRate / Consts.KWH_TO_JOULE_CONVERSION_FACTOR) * tickSeconds * tempDifference) / thermalMass;
+	}
+
+	/**
+	 * Steps one building through one tick, writing its internal temperature at the end
+	 * of the tick to <code>tempOut[index]</code>.
+	 *
+	 * @return the heat (kWh) supplied by the heat pump
+	 */
+	private static double step(double thermalMass, double heatLossRate, double maxHeat, double setPoint, double internalTemp, double externalTemp, double tickSeconds, Discretisation discretisation, double[] tempOut, int index)
+	{
+		double deltaT = setPoint - externalTemp;
+		double requiredTempChange = setPoint - internalTemp;
+		boolean heatPumpOff = (requiredTempChange < (0 - Consts.TEMP_CHANGE_TOLERANCE)) || (deltaT < Consts.HEAT_PUMP_THRESHOLD_TEMP_DIFF);
+
+		if (discretisation == Discretisation.EXACT)
+		{
+			// T(t) relaxes exponentially towards Tex + Q / H, with time constant C / H
+			double x = (tickSeconds * heatLossRate) / (thermalMass * Consts.KWH_TO_JOULE_CONVERSION_FACTOR);
+			double decay = Math.exp(-x);
+			double growth = -Math.expm1(-x); // 1 - decay, accurately for short ticks
+			if (heatPumpOff)
+			{
+				tempOut[index] = externalTemp + (internalTemp - externalTemp) * decay;
+				return 0;
+			}
+			// heat supplied at a constant rate which takes the building to the set point at the end of the tick,
+			// with the part raising the temperature subject to the same COP degradation as in the explicit step
+			double equilibriumTemp = (setPoint - internalTemp * decay) / growth;
+			double demand = ((equilibriumTemp - externalTemp) * heatLossRate * tickSeconds) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR
+					+ requiredTempChange * thermalMass * (1 / Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE - 1);
+			if (demand > maxHeat)
+			{
+				demand = maxHeat;
+				equilibriumTemp = externalTemp + (demand * Consts.KWH_TO_JOULE_CONVERSION_FACTOR) / (heatLossRate * tickSeconds);
+				tempOut[index] = equilibriumTemp + (internalTemp - equilibriumTemp) * decay;
+			}
+			else
+			{
+				tempOut[index] = setPoint;
+			}
+			return demand;
+		}
+
+		double maintenanceEnergy = ((deltaT * heatLossRate) * tickSeconds) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+		if (heatPumpOff)
+		{
+			tempOut[index] = internalTemp - maintenanceEnergy / thermalMass;
+			return 0;
+		}
+		double heatingEnergy = requiredTempChange * thermalMass / Consts.DOMESTIC_COP_DEGRADATION_FOR_TEMP_INCREASE; // refer to Peter's email (24/01/12)
+		double demand = maintenanceEnergy + heatingEnergy;
+		if (demand > maxHeat)
+		{
+			demand = maxHeat;
+			tempOut[index] = internalTemp + ((demand - maintenanceEnergy) / thermalMass);
+		}
+		else
+		{
+			tempOut[index] = setPoint;
+		}
+		return demand;
+	}
+}
@@ -0,0 +1,190 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+/**
+ * A read only view of a (usually multi-day) profile, such as a prosumer's base demand,
+ * which answers windowed queries in constant time.
+ * <p>
+ * The cumulative (prefix) sums of the profile are computed once, when the view is
+ * created, so that the sum or mean of any window is the difference of two of them.  The
+ * minimum and maximum of a window are answered from a sparse table of the minima and
+ * maxima of all windows whose length is a power of two; as this takes
+ * <code>O(n log n)</code> memory it is only built on the first such query.
+ * <p>
+ * Indices wrap around the end of the profile, as the profile is taken to repeat (e.g. a
+ * one year base demand profile in a multi-year run): a window may start at any (non
+ * negative) index, and run on past the end of the profile into its beginning.
+ * <p>
+ * The profile's values are not copied, and must not be changed once the view has been
+ * created.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class CumulativeProfile {
+
+	private final double[] values;
+	private final double[] prefixSum; // prefixSum[i] is the sum of values[0..i)
+	private double[][] minTable; // minTable[k][i] is the minimum of values[i..i + 2^k)
+	private double[][] maxTable;
+
+	/**
+	 * @param values the profile, which must not be changed hereafter
+	 */
+	public CumulativeProfile(double[] values)
+	{
+		if (values.length == 0)
+		{
+			throw new IllegalArgumentException("CumulativeProfile: profile is empty");
+		}
+		this.values = values;
+		this.prefixSum = new double[values.length + 1];
+		for (int i = 0; i < values.length; i++)
+		{
+			prefixSum[i + 1] = prefixSum[i] + values[i];
+		}
+	}
+
+	/**
+	 * @return the profile viewed (not a copy)
+	 */
+	public double[] getValues()
+	{
+		return values;
+	}
+
+	public int length()
+	{
+		return values.length;
+	}
+
+	/**
+	 * @param index a (non negative) index, wrapped around the end of the profile
+	 * @return the value at the index
+	 */
+	public double get(int index)
+	{
+		return values[index % values.length];
+	}
+
+	/**
+	 * @return the sum of the whole profile
+	 */
+	public double total()
+	{
+		return prefixSum[values.length];
+	}
+
+	/**
+	 * @param from the (non negative) index of the first value of the window, wrapped around the end of the profile
+	 * @param length the number of values in the window, which may exceed the length of the profile
+	 * @return the sum of the window
+	 */
+	public double sum(int from, int length)
+	{
+		int n = values.length;
+		int start = from % n;
+		int fullCycles = length / n;
+		int end = start + (length % n);
+		double sum = fullCycles * prefixSum[n];
+		if (end <= n)
+		{
+			sum += prefixSum[end] - prefixSum[start];
+		}
+		else
+		{
+			sum += (prefixSum[n] - prefixSum[start]) + prefixSum[end - n];
+		}
+		return sum;
+	}
+
+	/**
+	 * @param from the (non negative) index of the first value of the window, wrapped around the end of the profile
+	 * @param length the (positive) number of values in the window
+	 * @return the mean of the window
+	 */
+	public double mean(int from, int length)
+	{
+		return sum(from, length) / length;
+	}
+
+	/**
+	 * @param from the (non negative) index of the first value of the window, wrapped around the end of the profile
+	 * @param length the (positive) number of values in the window
+	 * @return the minimum of the window
+	 */
+	public double min(int from, int length)
+	{
+		if (minTable == null)
+		{
+			buildTables();
+		}
+		return extremum(minTable, from, length, true);
+	}
+
+	/**
+	 * @param from the (non negative) index of the first value of the window, wrapped around the end of the profile
+	 * @param length the (positive) number of values in the window
+	 * @return the maximum of the window
+	 */
+	public double max(int from, int length)
+	{
+		if (maxTable == null)
+		{
+			buildTables();
+		}
+		return extremum(maxTable, from, length, false);
+	}
+
+	private double extremum(double[][] table, int from, int length, boolean isMin)
+	{
+		int n = values.length;
+		int start = from % n;
+		if (length >= n)
+		{
+			return rangeExtremum(table, 0, n, isMin);
+		}
+		int end = start + length;
+		if (end <= n)
+		{
+			return rangeExtremum(table, start, end, isMin);
+		}
+		double a = rangeExtremum(table, start, n, isMin);
+		double b = rangeExtremum(table, 0, end - n, isMin);
+		return isMin ? Math.min(a, b) : Math.max(a, b);
+	}
+
+	/**
+	 * The extremum of values[start..end), from the two (overlapping) power of two
+	 * windows which cover it.
+	 */
+	private static double rangeExtremum(double[][] table, int start, int end, boolean isMin)
+	{
+		int k = 31 - Integer.numberOfLeadingZeros(end - start);
+		double a = table[k][start];
+		double b = table[k][end - (1 << k)];
+		return isMin ? Math.min(a, b) : Math.max(a, b);
+	}
+
+	private void buildTables()
+	{
+		int n = values.length;
+		int levels = 32 - Integer.numberOfLeadingZeros(n);
+		double[][] mins = new double[levels][];
+		double[][] maxs = new double[levels][];
+		mins[0] = values;
+		maxs[0] = values;
+		for (int k = 1; k < levels; k++)
+		{
+			int half = 1 << (k - 1);
+			int size = n - (1 << k) + 1;
+			mins[k] = new double[size];
+			maxs[k] = new double[size];
+			for (int i = 0; i < size; i++)
+			{
+				mins[k][i] = Math.min(mins[k - 1][i], mins[k - 1][i + half]);
+				maxs[k][i] = Math.max(maxs[k - 1][i], maxs[k - 1][i + half]);
+			}
+		}
+		minTable = mins;
+		maxTable = maxs;
+	}
+}
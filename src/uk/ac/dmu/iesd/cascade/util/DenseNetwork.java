@@ -0,0 +1,507 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A fully connected feed-forward neural network (multi-layer perceptron), held in
+ * primitive arrays and trained by back propagation with momentum, in place of the Joone
+ * networks built by <code>NeuralUtils.buildNetwork</code>.
+ * <p>
+ * The network is laid out as Joone lays out a network of <code>LinearLayer</code>s and
+ * <code>SigmoidLayer</code>s joined by <code>FullSynapse</code>s: the input layer passes
+ * the input on unchanged; each further layer sums its weighted inputs and, if it is a
+ * sigmoid layer, adds its bias and applies the logistic function (a linear layer has no
+ * bias).  Trained one pattern at a time, the network learns as Joone does (on-line, each
+ * weight moving by <code>learningRate * error * input + momentum * lastMove</code>, with
+ * the error passed back through the weights as they were before the move); trained in
+ * batches, each move is made with the error averaged over the batch.
+ * <p>
+ * Weights are drawn uniformly from [-0.2, 0.2) by a generator of the network's own,
+ * seeded by its creator, so that a network is the same in every run with the same seed
+ * and drawing them does not disturb the run's random streams.
+ * <p>
+ * The activations and errors of a batch are held as matrices (one row per pattern), and
+ * the products of a layer are computed by blocked kernels which run along rows of both
+ * operands.  Nothing is allocated while retrieving or training with batches no larger
+ * than the largest already used.  A network is not safe to use from several threads at
+ * once.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class DenseNetwork {
+
+	/** The transfer function of a layer */
+	public enum Activation {
+		/** the weighted sum of the inputs, without a bias */
+		LINEAR,
+		/** the logistic function of the weighted sum of the inputs plus a bias */
+		SIGMOID
+	}
+
+	/** The side of the square blocks the matrix kernels work on */
+	private static final int BLOCK = 32;
+	/** The range of the initial weights */
+	private static final double INITIAL_WEIGHT = 0.2;
+
+	private final int[] sizes;
+	private final Activation[] activations;
+	private final double[][] weights; // [layer], sizes[l] x sizes[l - 1], row major
+	private final double[][] biases;  // [layer], null for a linear layer
+	private final double[][] weightMoves;
+	private final double[][] biasMoves;
+	private final double[][] gradients;
+
+	private double learningRate = 0.3;
+	private double momentum = 0.3;
+
+	// per batch buffers, [layer] x (batch x size), grown as needed
+	private int capacity = 0;
+	private double[][] outputs;
+	private double[][] errors;
+
+	/**
+	 * Creates a network with weights drawn from a generator seeded with the given seed.
+	 *
+	 * @param sizes the number of neurons in each layer, the input layer first
+	 * @param activations the transfer function of each layer; the input layer's must be
+	 *        {@link Activation#LINEAR}
+	 * @param seed the seed of the initial weights
+	 */
+	public DenseNetwork(int[] sizes, Activation[] activations, long seed)
+	{
+		if (sizes.length < 2 || sizes.length != activations.length)
+		{
+			throw new IllegalArgumentException("a network needs at least two layers, and a transfer function for each (" + sizes.length + " sizes, " + activations.length + " functions)");
+		}
+		if (activations[0] != Activation.LINEAR)
+		{
+			throw new IllegalArgumentException("the input layer must be linear");
+		}
+		for (int size : sizes)
+		{
+			if (size < 1)
+				throw new IllegalArgumentException("every layer needs at least one neuron");
+		}
+		this.sizes = sizes.clone();
+		this.activations = activations.clone();
+		int layers = sizes.length;
+		this.weights = new double[layers][];
+		this.biases = new double[layers][];
+		this.weightMoves = new double[layers][];
+		this.biasMoves = new double[layers][];
+		this.gradients = new double[layers][];
+
+		Random random = new Random(seed);
+		for (int l = 1; l < layers; l++)
+		{
+			weights[l] = new double[sizes[l] * sizes[l - 1]];
+			for (int i = 0; i < weights[l].length; i++)
+			{
+				weights[l][i] = (2 * random.nextDouble() - 1) * INITIAL_WEIGHT;
+			}
+			weightMoves[l] = new double[weights[l].length];
+			gradients[l] = new double[weights[l].length];
+			if (activations[l] == Activation.SIGMOID)
+			{
+				biases[l] = new double[sizes[l]];
+				for (int i = 0; i < biases[l].length; i++)
+				{
+					biases[l][i] = (2 * random.nextDouble() - 1) * INITIAL_WEIGHT;
+				}
+				biasMoves[l] = new double[sizes[l]];
+			}
+		}
+		ensureCapacity(1);
+	}
+
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+
+	public double getMomentum()
+	{
+		return momentum;
+	}
+
+	public void setMomentum(double momentum)
+	{
+		this.momentum = momentum;
+	}
+
+	/**
+	 * @return the number of layers, including the input layer
+	 */
+	public int getLayers()
+	{
+		return sizes.length;
+	}
+
+	/**
+	 * @param layer a layer (from 0, the input layer)
+	 * @return the number of neurons in the layer
+	 */
+	public int getSize(int layer)
+	{
+		return sizes[layer];
+	}
+
+	/**
+	 * @param layer a layer after the input layer
+	 * @return a copy of the weights into the layer, by neuron of the layer then neuron of
+	 *         the layer before
+	 */
+	public double[][] getWeights(int layer)
+	{
+		double[][] copy = new double[sizes[layer]][sizes[layer - 1]];
+		for (int i = 0; i < copy.length; i++)
+		{
+			System.arraycopy(weights[layer], i * sizes[layer - 1], copy[i], 0, sizes[layer - 1]);
+		}
+		return copy;
+	}
+
+	/**
+	 * @param layer a layer after the input layer
+	 * @return a copy of the biases of the layer's neurons, or null if it is linear
+	 */
+	public double[] getBiases(int layer)
+	{
+		return biases[layer] == null ? null : biases[layer].clone();
+	}
+
+	/**
+	 * Computes the output of the network for one pattern.
+	 *
+	 * @param input the input pattern
+	 * @param output where to put the output
+	 * @return <tt>output</tt>
+	 */
+	public double[] retrieve(double[] input, double[] output)
+	{
+		checkLength(input, 0);
+		checkLength(output, sizes.length - 1);
+		System.arraycopy(input, 0, outputs[0], 0, input.length);
+		forward(1);
+		System.arraycopy(outputs[sizes.length - 1], 0, output, 0, output.length);
+		return output;
+	}
+
+	/**
+	 * @param input the input pattern
+	 * @return the output of the network for the pattern
+	 */
+	public double[] retrieve(double[] input)
+	{
+		return retrieve(input, new double[sizes[sizes.length - 1]]);
+	}
+
+	/**
+	 * Computes the outputs of the network for a batch of patterns at once.
+	 *
+	 * @param inputs the input patterns
+	 * @return the output for each pattern
+	 */
+	public double[][] retrieve(double[][] inputs)
+	{
+		int out = sizes.length - 1;
+		for (double[] input : inputs)
+		{
+			checkLength(input, 0);
+		}
+		double[][] results = new double[inputs.length][sizes[out]];
+		for (int start = 0; start < inputs.length; start += capacity)
+		{
+			int batch = Math.min(capacity, inputs.length - start);
+			load(inputs, start, batch, outputs[0], 0);
+			forward(batch);
+			for (int p = 0; p < batch; p++)
+			{
+				System.arraycopy(outputs[out], p * sizes[out], results[start + p], 0, sizes[out]);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Trains the network on one pattern, as Joone does on-line.
+	 *
+	 * @param input the input pattern
+	 * @param desired the output desired for it
+	 * @return the squared error of the network's output for the pattern, before training
+	 */
+	public double train(double[] input, double[] desired)
+	{
+		checkLength(input, 0);
+		checkLength(desired, sizes.length - 1);
+		System.arraycopy(input, 0, outputs[0], 0, input.length);
+		forward(1);
+		return backward(desired, 0, null, 1);
+	}
+
+	/**
+	 * Trains the network on a set of patterns, in order, a batch at a time.
+	 *
+	 * @param inputs the input patterns
+	 * @param desired the output desired for each
+	 * @param batchSize the number of patterns whose errors are averaged into each move of
+	 *        the weights (1 to train as Joone does)
+	 * @param epochs the number of times to train on the whole set
+	 * @return the mean squared error (per pattern) over the last epoch, before each batch
+	 *         was trained on
+	 */
+	public double train(double[][] inputs, double[][] desired, int batchSize, int epochs)
+	{
+		if (inputs.length != desired.length)
+		{
+			throw new IllegalArgumentException(inputs.length + " input patterns but " + desired.length + " desired outputs");
+		}
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException("batches must hold at least one pattern");
+		}
+		for (int p = 0; p < inputs.length; p++)
+		{
+			checkLength(inputs[p], 0);
+			checkLength(desired[p], sizes.length - 1);
+		}
+		ensureCapacity(Math.min(batchSize, Math.max(1, inputs.length)));
+		double error = 0;
+		for (int epoch = 0; epoch < epochs; epoch++)
+		{
+			error = 0;
+			for (int start = 0; start < inputs.length; start += batchSize)
+			{
+				int batch = Math.min(batchSize, inputs.length - start);
+				load(inputs, start, batch, outputs[0], 0);
+				forward(batch);
+				error += backward(null, start, desired, batch);
+			}
+		}
+		return inputs.length == 0 ? 0 : error / inputs.length;
+	}
+
+	/**
+	 * Propagates the batch held in <tt>outputs[0]</tt> through the network.
+	 */
+	private void forward(int batch)
+	{
+		for (int l = 1; l < sizes.length; l++)
+		{
+			int n = sizes[l];
+			double[] out = outputs[l];
+			multiplyTransposed(outputs[l - 1], batch, sizes[l - 1], weights[l], n, out);
+			if (activations[l] == Activation.SIGMOID)
+			{
+				double[] bias = biases[l];
+				for (int p = 0; p < batch; p++)
+				{
+					int row = p * n;
+					for (int j = 0; j < n; j++)
+					{
+						out[row + j] = 1 / (1 + Math.exp(-(out[row + j] + bias[j])));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the errors of the batch just propagated back through the network, moving the
+	 * weights and biases of each layer once its error has been passed on.
+	 *
+	 * @param single the desired output of a batch of one, or null to take them from
+	 *        <tt>desired</tt> from <tt>start</tt>
+	 * @return the sum of the squared errors of the batch's outputs
+	 */
+	private double backward(double[] single, int start, double[][] desired, int batch)
+	{
+		int last = sizes.length - 1;
+		int n = sizes[last];
+		double sum = 0;
+		for (int p = 0; p < batch; p++)
+		{
+			double[] target = single != null ? single : desired[start + p];
+			int row = p * n;
+			for (int j = 0; j < n; j++)
+			{
+				double e = target[j] - outputs[last][row + j];
+				sum += e * e;
+				errors[last][row + j] = e;
+			}
+		}
+
+		double rate = learningRate / batch;
+		for (int l = last; l >= 1; l--)
+		{
+			int size = sizes[l];
+			int previous = sizes[l - 1];
+			double[] error = errors[l];
+			if (activations[l] == Activation.SIGMOID)
+			{
+				double[] out = outputs[l];
+				for (int i = 0; i < batch * size; i++)
+				{
+					error[i] *= out[i] * (1 - out[i]);
+				}
+				double[] bias = biases[l];
+				double[] moves = biasMoves[l];
+				for (int j = 0; j < size; j++)
+				{
+					double g = 0;
+					for (int p = 0; p < batch; p++)
+					{
+						g += error[p * size + j];
+					}
+					double move = rate * g + momentum * moves[j];
+					bias[j] += move;
+					moves[j] = move;
+				}
+			}
+			if (l > 1)
+			{
+				multiply(error, batch, size, weights[l], previous, errors[l - 1]);
+			}
+			double[] gradient = gradients[l];
+			transposeMultiply(error, batch, size, outputs[l - 1], previous, gradient);
+			double[] w = weights[l];
+			double[] moves = weightMoves[l];
+			for (int i = 0; i < w.length; i++)
+			{
+				double move = rate * gradient[i] + momentum * moves[i];
+				w[i] += move;
+				moves[i] = move;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * C (m x n) = A (m x k) B<sup>T</sup>, where B is n x k; each element is a dot product
+	 * of a row of A and a row of B, and each block of rows of B is used for a block of rows
+	 * of A while it is in cache.
+	 */
+	static void multiplyTransposed(double[] a, int m, int k, double[] b, int n, double[] c)
+	{
+		for (int j0 = 0; j0 < n; j0 += BLOCK)
+		{
+			int j1 = Math.min(j0 + BLOCK, n);
+			for (int i = 0; i < m; i++)
+			{
+				int ai = i * k;
+				int ci = i * n;
+				for (int j = j0; j < j1; j++)
+				{
+					int bj = j * k;
+					double s = 0;
+					for (int p = 0; p < k; p++)
+					{
+						s += a[ai + p] * b[bj + p];
+					}
+					c[ci + j] = s;
+				}
+			}
+		}
+	}
+
+	/**
+	 * C (m x n) = A (m x k) B, where B is k x n; rows of B are added into rows of C.
+	 */
+	static void multiply(double[] a, int m, int k, double[] b, int n, double[] c)
+	{
+		Arrays.fill(c, 0, m * n, 0);
+		for (int i0 = 0; i0 < m; i0 += BLOCK)
+		{
+			int i1 = Math.min(i0 + BLOCK, m);
+			for (int p0 = 0; p0 < k; p0 += BLOCK)
+			{
+				int p1 = Math.min(p0 + BLOCK, k);
+				for (int j0 = 0; j0 < n; j0 += BLOCK)
+				{
+					int j1 = Math.min(j0 + BLOCK, n);
+					for (int i = i0; i < i1; i++)
+					{
+						int ci = i * n;
+						for (int p = p0; p < p1; p++)
+						{
+							double aip = a[i * k + p];
+							int bp = p * n;
+							for (int j = j0; j < j1; j++)
+							{
+								c[ci + j] += aip * b[bp + j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C (k x n) = A<sup>T</sup> B, where A is m x k and B is m x n; each row of B, scaled,
+	 * is added into rows of C.
+	 */
+	static void transposeMultiply(double[] a, int m, int k, double[] b, int n, double[] c)
+	{
+		Arrays.fill(c, 0, k * n, 0);
+		for (int p0 = 0; p0 < k; p0 += BLOCK)
+		{
+			int p1 = Math.min(p0 + BLOCK, k);
+			for (int j0 = 0; j0 < n; j0 += BLOCK)
+			{
+				int j1 = Math.min(j0 + BLOCK, n);
+				for (int i = 0; i < m; i++)
+				{
+					int ai = i * k;
+					int bi = i * n;
+					for (int p = p0; p < p1; p++)
+					{
+						double aip = a[ai + p];
+						int cp = p * n;
+						for (int j = j0; j < j1; j++)
+						{
+							c[cp + j] += aip * b[bi + j];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void ensureCapacity(int batch)
+	{
+		if (batch <= capacity)
+			return;
+		outputs = new double[sizes.length][];
+		errors = new double[sizes.length][];
+		for (int l = 0; l < sizes.length; l++)
+		{
+			outputs[l] = new double[batch * sizes[l]];
+			errors[l] = l == 0 ? null : new double[batch * sizes[l]];
+		}
+		capacity = batch;
+	}
+
+	private static void load(double[][] patterns, int start, int batch, double[] into, int offset)
+	{
+		for (int p = 0; p < batch; p++)
+		{
+			double[] pattern = patterns[start + p];
+			System.arraycopy(pattern, 0, into, offset + p * pattern.length, pattern.length);
+		}
+	}
+
+	private void checkLength(double[] pattern, int layer)
+	{
+		if (pattern.length != sizes[layer])
+		{
+			throw new IllegalArgumentException("a pattern of " + pattern.length + " values for a layer of " + sizes[layer] + " neurons");
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+/**
+ * Schedules the charging of an electric vehicle, while it is plugged in, at least cost
+ * against a price (or predicted cost) signal.
+ * <p>
+ * The vehicle is plugged in for a number of consecutive slots (ticks), needs a given
+ * energy before it leaves, and its charger can deliver at most a given energy in any one
+ * slot.  Cost is linear in the energy drawn in each slot, so this is a fractional
+ * knapsack problem, which the greedy schedule solves exactly: fill the cheapest slots
+ * first, each to the charger's rating, until the need is met, leaving at most one slot
+ * part filled.  Of slots at the same price the earliest is filled first, so that the
+ * schedule is deterministic and charges as early as it can at no extra cost.
+ * <p>
+ * The slots are ordered by an insertion sort of their indices, which for a day's slots
+ * or so is a few microseconds.  A scheduler holds its scratch index array and reuses it,
+ * so scheduling allocates nothing once the array is large enough; it is therefore not
+ * safe for concurrent use, and each controller should have its own.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class EVChargingScheduler {
+
+	private int[] order = new int[0];
+
+	/**
+	 * @param price the price of energy in each slot for which the vehicle is plugged in (the first <code>slots</code> entries are used)
+	 * @param slots the number of slots for which the vehicle is plugged in
+	 * @param energy the energy needed by the vehicle before it leaves
+	 * @param maxPerSlot the most energy the charger can deliver in one slot
+	 * @param charge receives the energy to be drawn in each slot (the first <code>slots</code> entries are set)
+	 * @return the energy scheduled; less than <code>energy</code> only if the charger cannot deliver it in the slots available
+	 */
+	public double schedule(double[] price, int slots, double energy, double maxPerSlot, double[] charge)
+	{
+		if (order.length < slots)
+		{
+			order = new int[Math.max(slots, 2 * order.length)];
+		}
+		sortByPrice(price, slots);
+
+		Arrays.fill(charge, 0, slots, 0);
+		double remaining = energy;
+		for (int i = 0; i < slots && remaining > 0; i++)
+		{
+			double amount = Math.min(maxPerSlot, remaining);
+			charge[order[i]] = amount;
+			remaining -= amount;
+		}
+		return energy - Math.max(0, remaining);
+	}
+
+	/**
+	 * @param price the price of energy in each slot
+	 * @param charge the energy drawn in each slot
+	 * @param slots the number of slots
+	 * @return the cost of the schedule
+	 */
+	public static double cost(double[] price, double[] charge, int slots)
+	{
+		double cost = 0;
+		for (int i = 0; i < slots; i++)
+		{
+			cost += price[i] * charge[i];
+		}
+		return cost;
+	}
+
+	/**
+	 * Orders the first <code>slots</code> slot indices by price, and by index within a price.
+	 */
+	private void sortByPrice(double[] price, int slots)
+	{
+		for (int i = 0; i < slots; i++)
+		{
+			double p = price[i];
+			int j = i - 1;
+			while (j >= 0 && price[order[j]] > p)
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = i;
+		}
+	}
+}
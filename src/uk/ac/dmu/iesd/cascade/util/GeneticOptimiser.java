@@ -0,0 +1,367 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A real-coded genetic algorithm which minimises an objective over a box, with its
+ * population held as one matrix of genes (one row per individual), in place of JGAP
+ * populations of <code>Chromosome</code>s of <code>DoubleGene</code>s.
+ * <p>
+ * Each generation keeps the best individuals unchanged (elitism) and breeds the rest of
+ * the next generation from parents chosen by tournament: each gene of a child is drawn
+ * between and around its parents' genes (blend crossover), and is then, with the mutation rate,
+ * moved by up to the mutation scale times the width of the box; it is kept within the box.  The
+ * children are evaluated as they are bred; elites are not evaluated again.
+ * <p>
+ * The population is split into a fixed number of chunks, which breed and evaluate their
+ * rows of the next generation in parallel on the {@link WorkerPool}, each drawing from
+ * its own random stream, seeded from the optimiser's seed, the generation and the chunk.
+ * As streams belong to chunks (rather than to threads), and the best individuals are
+ * chosen in a fixed order (ties going to the lower row), the result is the same, to the
+ * bit, however many threads run the chunks.  The population, fitness and scratch rows are
+ * allocated once, and breeding allocates nothing.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class GeneticOptimiser {
+
+	/**
+	 * A function to minimise.  It is called from several threads at once, each with a
+	 * row of its own, so must not change state it shares with other calls.
+	 */
+	public interface Objective {
+		double value(double[] genes);
+	}
+
+	/** The number of chunks of the population (at most) */
+	private static final int CHUNKS = 16;
+
+	/** How far beyond its parents' genes a child's may be, as a fraction of their distance */
+	private static final double BLEND = 0.5;
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final int genes;
+	private final int populationSize;
+	private final double lower;
+	private final double upper;
+	private final long seed;
+
+	private int elites;
+	private int tournamentSize = 5;
+	private double crossoverRate = 0.7;
+	private double mutationRate;
+	private double mutationScale = 0.3;
+	private ExecutorService executor;
+
+	private double[] population;
+	private double[] next;
+	private double[] fitness;
+	private double[] nextFitness;
+	private final int[] eliteRows;
+	private final int[] chunkStart; // the rows of chunk c are [chunkStart[c], chunkStart[c + 1])
+	private final Stream[] streams;
+	private final double[][] rows;
+	private final List<Callable<Object>> tasks;
+
+	private Objective objective;
+	private int generation;
+	private double bestValue = Double.NaN;
+
+	/**
+	 * A SplitMix64 generator, which can be reseeded without allocation.
+	 */
+	private static final class Stream {
+		private long state;
+
+		void seed(long seed)
+		{
+			state = seed;
+		}
+
+		long nextLong()
+		{
+			long z = (state += GOLDEN_GAMMA);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+
+		/** @return a double uniform in [0, 1) */
+		double nextDouble()
+		{
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		/** @return an int uniform in [0, n) */
+		int nextInt(int n)
+		{
+			return (int) (nextDouble() * n);
+		}
+	}
+
+	/**
+	 * Creates an optimiser with an elite of 1% of the population, tournaments of 5,
+	 * a crossover rate of 0.7, and a mutation rate of one gene per individual, of up to
+	 * 0.3 of the width of the box.
+	 *
+	 * @param genes the number of genes (the dimension of the objective's domain)
+	 * @param populationSize the number of individuals in each generation
+	 * @param lower the lower bound of every gene
+	 * @param upper the upper bound of every gene
+	 * @param seed the seed of the random streams
+	 */
+	public GeneticOptimiser(int genes, int populationSize, double lower, double upper, long seed)
+	{
+		if (genes < 1 || populationSize < 2)
+		{
+			throw new IllegalArgumentException("an optimiser needs at least one gene and two individuals (" + genes + " genes, " + populationSize + " individuals)");
+		}
+		if (!(lower < upper))
+		{
+			throw new IllegalArgumentException("the lower bound " + lower + " is not below the upper bound " + upper);
+		}
+		this.genes = genes;
+		this.populationSize = populationSize;
+		this.lower = lower;
+		this.upper = upper;
+		this.seed = seed;
+		this.elites = Math.max(1, populationSize / 100);
+		this.mutationRate = 1.0 / genes;
+
+		this.population = new double[populationSize * genes];
+		this.next = new double[populationSize * genes];
+		this.fitness = new double[populationSize];
+		this.nextFitness = new double[populationSize];
+		this.eliteRows = new int[populationSize];
+
+		int chunks = Math.min(CHUNKS, populationSize);
+		this.chunkStart = new int[chunks + 1];
+		for (int c = 0; c <= chunks; c++)
+		{
+			chunkStart[c] = (int) (((long) populationSize * c) / chunks);
+		}
+		this.streams = new Stream[chunks];
+		this.rows = new double[chunks][genes];
+		this.tasks = new ArrayList<Callable<Object>>(chunks);
+		for (int c = 0; c < chunks; c++)
+		{
+			streams[c] = new Stream();
+			final int chunk = c;
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					breed(chunk);
+					return null;
+				}
+			});
+		}
+	}
+
+	public void setElites(int elites)
+	{
+		if (elites < 0 || elites >= populationSize)
+			throw new IllegalArgumentException("an elite of " + elites + " in a population of " + populationSize);
+		this.elites = elites;
+	}
+
+	public void setTournamentSize(int tournamentSize)
+	{
+		if (tournamentSize < 1)
+			throw new IllegalArgumentException("a tournament of " + tournamentSize);
+		this.tournamentSize = tournamentSize;
+	}
+
+	public void setCrossoverRate(double crossoverRate)
+	{
+		this.crossoverRate = crossoverRate;
+	}
+
+	public void setMutationRate(double mutationRate)
+	{
+		this.mutationRate = mutationRate;
+	}
+
+	public void setMutationScale(double mutationScale)
+	{
+		this.mutationScale = mutationScale;
+	}
+
+	/**
+	 * @param executor the executor on which chunks run (by default the {@link WorkerPool}'s)
+	 */
+	public void setExecutor(ExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Evolves a random population for a number of generations.
+	 *
+	 * @param objective the function to minimise
+	 * @param generations the number of generations bred after the first
+	 * @return the genes of the best individual of the last generation
+	 */
+	public double[] minimise(Objective objective, int generations)
+	{
+		this.objective = objective;
+		try
+		{
+			generation = 0;
+			run();
+			for (generation = 1; generation <= generations; generation++)
+			{
+				chooseElites();
+				run();
+				double[] swap = population;
+				population = next;
+				next = swap;
+				swap = fitness;
+				fitness = nextFitness;
+				nextFitness = swap;
+			}
+			int best = 0;
+			for (int i = 1; i < populationSize; i++)
+			{
+				if (better(i, best))
+					best = i;
+			}
+			bestValue = fitness[best];
+			double[] result = new double[genes];
+			System.arraycopy(population, best * genes, result, 0, genes);
+			return result;
+		}
+		finally
+		{
+			this.objective = null;
+		}
+	}
+
+	/**
+	 * @return the value of the objective at the result of the last minimisation
+	 */
+	public double getBestValue()
+	{
+		return bestValue;
+	}
+
+	private void run()
+	{
+		if (executor == null)
+		{
+			WorkerPool.invokeAll(tasks);
+		}
+		else
+		{
+			WorkerPool.invokeAll(executor, tasks);
+		}
+	}
+
+	/**
+	 * Puts the rows of the best <tt>elites</tt> individuals first in <tt>eliteRows</tt>,
+	 * best first.
+	 */
+	private void chooseElites()
+	{
+		int count = 0;
+		for (int i = 0; i < populationSize; i++)
+		{
+			if (count == elites && (count == 0 || !better(i, eliteRows[count - 1])))
+				continue;
+			int at = count < elites ? count++ : count - 1;
+			while (at > 0 && better(i, eliteRows[at - 1]))
+			{
+				eliteRows[at] = eliteRows[at - 1];
+				at--;
+			}
+			eliteRows[at] = i;
+		}
+	}
+
+	/**
+	 * @return whether individual a is better than individual b: its value is lower (NaN
+	 *         being worst), or equal and its row is lower
+	 */
+	private boolean better(int a, int b)
+	{
+		int order = Double.compare(fitness[a], fitness[b]);
+		return order < 0 || (order == 0 && a < b);
+	}
+
+	/**
+	 * Fills and evaluates a chunk's rows: in the first generation at random, and after it
+	 * with elites and children of the current population.
+	 */
+	private void breed(int chunk)
+	{
+		Stream random = streams[chunk];
+		random.seed(mix(seed + GOLDEN_GAMMA * ((long) generation * streams.length + chunk + 1)));
+		double[] row = rows[chunk];
+		double width = upper - lower;
+		double[] into = generation == 0 ? population : next;
+		double[] values = generation == 0 ? fitness : nextFitness;
+		for (int i = chunkStart[chunk]; i < chunkStart[chunk + 1]; i++)
+		{
+			if (generation > 0 && i < elites)
+			{
+				System.arraycopy(population, eliteRows[i] * genes, into, i * genes, genes);
+				values[i] = fitness[eliteRows[i]];
+				continue;
+			}
+			if (generation == 0)
+			{
+				for (int g = 0; g < genes; g++)
+				{
+					row[g] = lower + random.nextDouble() * width;
+				}
+			}
+			else
+			{
+				int a = tournament(random) * genes;
+				int b = tournament(random) * genes;
+				boolean cross = random.nextDouble() < crossoverRate;
+				for (int g = 0; g < genes; g++)
+				{
+					double gene = population[a + g];
+					if (cross)
+					{
+						gene += ((1 + 2 * BLEND) * random.nextDouble() - BLEND) * (population[b + g] - gene);
+					}
+					if (random.nextDouble() < mutationRate)
+					{
+						gene += (2 * random.nextDouble() - 1) * mutationScale * width;
+					}
+					gene = gene < lower ? lower : (gene > upper ? upper : gene);
+					row[g] = gene;
+				}
+			}
+			System.arraycopy(row, 0, into, i * genes, genes);
+			values[i] = objective.value(row);
+		}
+	}
+
+	/**
+	 * @return the row of the best of <tt>tournamentSize</tt> individuals drawn at random
+	 */
+	private int tournament(Stream random)
+	{
+		int best = random.nextInt(populationSize);
+		for (int t = 1; t < tournamentSize; t++)
+		{
+			int other = random.nextInt(populationSize);
+			if (better(other, best))
+				best = other;
+		}
+		return best;
+	}
+
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
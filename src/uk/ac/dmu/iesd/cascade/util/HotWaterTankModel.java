@@ -0,0 +1,202 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import uk.ac.dmu.iesd.cascade.base.Consts;
+
+/**
+ * Model of a domestic hot water storage tank, shared by the household simulation and
+ * the smart controllers' water heating plans.
+ * <p>
+ * A tank is divided into a number of horizontal layers of equal volume, numbered from
+ * the top (the hot water outlet) down to the bottom (the mains inlet and the heater).
+ * A single layer is a fully mixed tank.  Each tick:
+ * <ol>
+ * <li>every layer loses heat to the tank's surroundings through the tank's standing
+ * 	   loss rate (W per degree C), relaxing exponentially towards the ambient temperature;</li>
+ * <li>hot water is drawn off from the top, the layers moving up in plug flow and cold
+ *     mains water entering at the bottom;</li>
+ * <li>the heater adds its heat to the bottom layer, but no more than is needed to bring
+ *     the whole tank to its set point (the tank's thermostat); and</li>
+ * <li>any layer warmer than the one above it rises and mixes with it (buoyancy), so that
+ * 	   the tank's temperature never increases with depth.</li>
+ * </ol>
+ * The population kernel {@link #tankStep} steps a range of tanks, whose layer
+ * temperatures are held in one primitive array, through a tick.  Its cost is a few
+ * operations per layer: the standing loss decay factor of each tank depends only on its
+ * volume, loss rate and the tick length, and so is computed once by {@link #standingLossDecay},
+ * and draw-off, which is rare, is only evaluated in the ticks when it happens.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class HotWaterTankModel {
+
+	private HotWaterTankModel()
+	{
+	}
+
+	/**
+	 * @param tankVolume the volume (litres) of the tank
+	 * @param lossRate the standing loss rate (W/C) of the tank
+	 * @param tickSeconds the length of a tick (s)
+	 * @return the factor by which the difference between the tank's temperature and the
+	 *         ambient temperature falls over a tick without draw-off or heating
+	 */
+	public static double standingLossDecay(double tankVolume, double lossRate, double tickSeconds)
+	{
+		return Math.exp(-(lossRate * tickSeconds) / (tankVolume * Consts.WATER_SPECIFIC_HEAT_CAPACITY));
+	}
+
+	/**
+	 * @param lossRate the standing loss rate (W/C) of the tank
+	 * @param tempDifference the tank less the ambient temperature (C)
+	 * @param tickSeconds the length of a tick (s)
+	 * @return the heat (kWh) lost by a tank held at the given temperature over a tick
+	 */
+	public static double standingLoss(double lossRate, double tempDifference, double tickSeconds)
+	{
+		return (lossRate * tempDifference * tickSeconds) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+	}
+
+	/**
+	 * @param decay the standing loss decay factor of a tank (see {@link #standingLossDecay})
+	 * @return the extra heat needed, per tick and as a fraction of the heat stored, to hold
+	 *         heat in the tank rather than supply it later
+	 */
+	public static double storageOverhead(double decay)
+	{
+		return 1 / decay - 1;
+	}
+
+	/**
+	 * @param waterSetPoint the set point (C) of a domestic hot water tank
+	 * @param ticksPerDay the number of ticks in a day
+	 * @return the electricity (kWh) a heat pump needs to make good the standing losses of
+	 *         a domestic hot water tank, held at its set point, in each tick
+	 */
+	public static double domesticStandingLossDemand(double waterSetPoint, int ticksPerDay)
+	{
+		return standingLoss(Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, waterSetPoint - Consts.DOMESTIC_HOT_WATER_TANK_AMBIENT_TEMP, BuildingThermalModel.tickSeconds(ticksPerDay)) / Consts.DOMESTIC_HEAT_PUMP_WATER_COP;
+	}
+
+	/**
+	 * @param tankVolume the volume (litres) of a domestic hot water tank
+	 * @param ticksPerDay the number of ticks in a day
+	 * @return the extra heat needed, per tick and as a fraction of the heat stored, to heat
+	 *         water in the tank ahead of its use (see {@link #storageOverhead})
+	 */
+	public static double domesticStorageOverhead(double tankVolume, int ticksPerDay)
+	{
+		return storageOverhead(standingLossDecay(tankVolume, Consts.DOMESTIC_HOT_WATER_TANK_LOSS_RATE, BuildingThermalModel.tickSeconds(ticksPerDay)));
+	}
+
+	/**
+	 * @param volume a volume (litres) of water
+	 * @param tempRise the rise in its temperature (C)
+	 * @return the heat (kWh) needed to raise the temperature of the water
+	 */
+	public static double heatToRaise(double volume, double tempRise)
+	{
+		return (volume * Consts.WATER_SPECIFIC_HEAT_CAPACITY * tempRise) / Consts.KWH_TO_JOULE_CONVERSION_FACTOR;
+	}
+
+	/**
+	 * Steps the tanks <code>from</code> (inclusive) to <code>to</code> (exclusive) through one tick.
+	 *
+	 * @param layers the number of layers of each tank
+	 * @param layerTemp the temperature (C) of each layer of each tank at the start of the tick,
+	 *        tank by tank and top layer first, replaced by those at its end
+	 * @param layerVolume the volume (litres) of a layer of each tank
+	 * @param decay the standing loss decay factor of each tank (see {@link #standingLossDecay})
+	 * @param setPoint the thermostat set point (C) of each tank
+	 * @param heat the heat (kWh) offered by each tank's heater in the tick
+	 * @param drawOff the volume (litres) of hot water drawn from each tank in the tick
+	 * @param ambientTemp the temperature (C) of the tanks' surroundings
+	 * @param mainsTemp the temperature (C) of the mains water
+	 * @param heatOut receives the heat (kWh) taken by each tank in the tick
+	 * @param drawOffTempOut receives the mean temperature (C) of the water drawn from each tank in the tick
+	 *        (the temperature of its top layer if none was drawn)
+	 */
+	public static void tankStep(int from, int to, int layers, double[] layerTemp, double[] layerVolume, double[] decay, double[] setPoint, double[] heat, double[] drawOff,
+			double ambientTemp, double mainsTemp, double[] heatOut, double[] drawOffTempOut)
+	{
+		for (int t = from; t < to; t++)
+		{
+			int top = t * layers;
+			int end = top + layers;
+
+			// standing losses
+			double d = decay[t];
+			for (int l = top; l < end; l++)
+			{
+				layerTemp[l] = ambientTemp + (layerTemp[l] - ambientTemp) * d;
+			}
+
+			// draw-off, in whole layers and then the fraction of a layer left over
+			if (drawOff[t] > 0)
+			{
+				double layersDrawn = drawOff[t] / layerVolume[t];
+				int wholeLayers = (int) Math.floor(layersDrawn);
+				double fraction = layersDrawn - wholeLayers;
+				double drawnTemp = 0;
+				for (int s = 0; s <= wholeLayers; s++)
+				{
+					double f = s < wholeLayers ? 1 : fraction;
+					if (f <= 0)
+						break;
+					// in plug flow, the water drawn is (a fraction of) the top layer
+					drawnTemp += f * layerTemp[top];
+					for (int l = top; l < end - 1; l++)
+					{
+						layerTemp[l] += f * (layerTemp[l + 1] - layerTemp[l]);
+					}
+					layerTemp[end - 1] += f * (mainsTemp - layerTemp[end - 1]);
+				}
+				drawOffTempOut[t] = drawnTemp / layersDrawn;
+			}
+			else
+			{
+				drawOffTempOut[t] = layerTemp[top];
+			}
+
+			// heating, limited by the thermostat, into the bottom layer
+			double offered = heat[t];
+			if (offered > 0)
+			{
+				double deficit = 0;
+				for (int l = top; l < end; l++)
+				{
+					deficit += Math.max(0, setPoint[t] - layerTemp[l]);
+				}
+				double taken = Math.min(offered, heatToRaise(layerVolume[t], deficit));
+				layerTemp[end - 1] += (taken * Consts.KWH_TO_JOULE_CONVERSION_FACTOR) / (layerVolume[t] * Consts.WATER_SPECIFIC_HEAT_CAPACITY);
+				heatOut[t] = taken;
+				mixInversions(layerTemp, top, end);
+			}
+			else
+			{
+				heatOut[t] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Mixes the (heated) bottom layer in <code>[top, end)</code> with as many of the layers
+	 * above it as are cooler than the mixture, so that the temperatures do not increase
+	 * downwards, conserving heat.  This is linear in the number of layers.
+	 */
+	private static void mixInversions(double[] layerTemp, int top, int end)
+	{
+		// the bottom is the only layer heated, so the pool of mixed layers grows upwards from it
+		int poolStart = end - 1;
+		double poolSum = layerTemp[poolStart];
+		while (poolStart > top && poolSum / (end - poolStart) > layerTemp[poolStart - 1])
+		{
+			poolStart--;
+			poolSum += layerTemp[poolStart];
+		}
+		double mean = poolSum / (end - poolStart);
+		for (int l = poolStart; l < end; l++)
+		{
+			layerTemp[l] = mean;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A weighted, directed influence network (such as the households' social network) held
+ * as a compact edge list in compressed sparse row (CSR) form, sources first, over which
+ * influence is pushed from every source to its targets in one sweep.
+ * <p>
+ * {@link #accumulate} computes, for every node, the sum over its in-edges of the edge's
+ * weight times the source's transmitted value.  The sweep touches each edge once, and
+ * skips sources which transmit nothing, so costs at most <code>O(E)</code>.  The sources
+ * are split into a fixed number of chunks of roughly equal numbers of edges, each of which
+ * pushes into its own partial sums; the partial sums are then added together in chunk
+ * order.  Chunks (and the final additions, by ranges of targets) may run in parallel on
+ * the {@link WorkerPool}, and the result is the same, to the bit, however many threads
+ * run them.  The partial sums are allocated once, and reused from sweep to sweep.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class InfluenceGraph {
+
+	/** The number of chunks of sources (at most), and so of partial sums */
+	private static final int CHUNKS = 16;
+
+	/** The number of edges from which a sweep is worth running in parallel */
+	private static final int PARALLEL_EDGES = 1 << 16;
+
+	private final int nodes;
+	private final int[] rowStart; // the out-edges of node i are [rowStart[i], rowStart[i + 1])
+	private final int[] target;
+	private final double[] weight;
+	private final int[] chunkStart; // the sources of chunk c are [chunkStart[c], chunkStart[c + 1])
+	private final double[][] partial;
+
+	/**
+	 * @param nodes the number of nodes, numbered from 0
+	 * @param edgeSource the source node of each edge
+	 * @param edgeTarget the target node of each edge
+	 * @param edgeWeight the weight of each edge
+	 * @param edges the number of edges (the first <code>edges</code> entries of the edge arrays are used)
+	 */
+	public InfluenceGraph(int nodes, int[] edgeSource, int[] edgeTarget, double[] edgeWeight, int edges)
+	{
+		this.nodes = nodes;
+		this.rowStart = new int[nodes + 1];
+		this.target = new int[edges];
+		this.weight = new double[edges];
+
+		// counting sort of the edges by source, keeping their order within each source
+		for (int e = 0; e < edges; e++)
+		{
+			rowStart[edgeSource[e] + 1]++;
+		}
+		for (int i = 0; i < nodes; i++)
+		{
+			rowStart[i + 1] += rowStart[i];
+		}
+		int[] next = Arrays.copyOf(rowStart, nodes);
+		for (int e = 0; e < edges; e++)
+		{
+			int slot = next[edgeSource[e]]++;
+			target[slot] = edgeTarget[e];
+			weight[slot] = edgeWeight[e];
+		}
+
+		int chunks = Math.max(1, Math.min(CHUNKS, nodes));
+		this.chunkStart = new int[chunks + 1];
+		int source = 0;
+		for (int c = 1; c < chunks; c++)
+		{
+			long edgesBefore = ((long) edges * c) / chunks;
+			while (source < nodes && rowStart[source] < edgesBefore)
+			{
+				source++;
+			}
+			chunkStart[c] = source;
+		}
+		chunkStart[chunks] = nodes;
+		this.partial = new double[chunks][nodes];
+	}
+
+	public int getNodeCount()
+	{
+		return nodes;
+	}
+
+	public int getEdgeCount()
+	{
+		return target.length;
+	}
+
+	/**
+	 * Pushes each node's transmitted value along its out-edges.
+	 *
+	 * @param transmit the value transmitted by each node (zero for a node which transmits nothing)
+	 * @param influence receives, for each node, the sum over its in-edges of weight times the source's transmitted value
+	 */
+	public void accumulate(final double[] transmit, final double[] influence)
+	{
+		final int chunks = chunkStart.length - 1;
+		if (target.length < PARALLEL_EDGES)
+		{
+			for (int c = 0; c < chunks; c++)
+			{
+				push(c, transmit);
+			}
+			reduce(0, nodes, influence);
+			return;
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+		for (int c = 0; c < chunks; c++)
+		{
+			final int chunk = c;
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					push(chunk, transmit);
+					return null;
+				}
+			});
+		}
+		WorkerPool.invokeAll(tasks);
+
+		tasks.clear();
+		for (int c = 0; c < chunks; c++)
+		{
+			final int from = (int) (((long) nodes * c) / chunks);
+			final int to = (int) (((long) nodes * (c + 1)) / chunks);
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					reduce(from, to, influence);
+					return null;
+				}
+			});
+		}
+		WorkerPool.invokeAll(tasks);
+	}
+
+	/**
+	 * Pushes the values transmitted by the sources of a chunk into the chunk's partial sums.
+	 */
+	private void push(int chunk, double[] transmit)
+	{
+		double[] sums = partial[chunk];
+		Arrays.fill(sums, 0);
+		for (int s = chunkStart[chunk]; s < chunkStart[chunk + 1]; s++)
+		{
+			double value = transmit[s];
+			if (value == 0)
+			{
+				continue;
+			}
+			for (int e = rowStart[s]; e < rowStart[s + 1]; e++)
+			{
+				sums[target[e]] += weight[e] * value;
+			}
+		}
+	}
+
+	/**
+	 * Adds the chunks' partial sums, in chunk order, for the targets <code>[from, to)</code>.
+	 */
+	private void reduce(int from, int to, double[] influence)
+	{
+		for (int t = from; t < to; t++)
+		{
+			double sum = 0;
+			for (int c = 0; c < partial.length; c++)
+			{
+				sum += partial[c][t];
+			}
+			influence[t] = sum;
+		}
+	}
+}
@@ -0,0 +1,720 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the state of a graph of objects to a compact binary stream, field by field,
+ * and restores it into a graph of the same shape.
+ * <p>
+ * The graph is given as a list of <i>roots</i> (in a simulation, the context and its
+ * agents).  The state of each root is the values of its fields, taken by reflection: the
+ * fields declared by its classes within the packages whose state is captured (the
+ * simulation's own, and the Colt random number generators), from the most derived class
+ * up, and in name order within a class.  Static and transient fields are not part of the
+ * state.  Each field's value is written according to its type:
+ * <ul>
+ * <li>primitives, strings, boxed primitives, enums, dates and calendars by value;
+ * <li>references to roots by the index of the root, so that on restoring they refer to
+ * the corresponding root of the restored graph;
+ * <li>arrays, lists, sets, maps and objects of the captured packages (e.g. a household's
+ * controller or history buffers) by their contents, recursively, each object once -
+ * later references to it are written as back references, so that sharing is kept;
+ * <li>anything else (Repast projections and schedules, threads, files, classes which
+ * are {@link #exclude excluded}) is not captured, and is left as it is in the restored
+ * graph.
+ * </ul>
+ * Restoring reads the values back <i>into</i> the existing graph: arrays of the same
+ * type and length, collections, and objects of the same class are overwritten in place,
+ * so that objects shared with code outside the graph (e.g. the arrays a population hands
+ * out, or a random number generator held by several distributions) stay shared.  The
+ * elements of a set, whose order may differ from run to run, are not matched with the
+ * live set's: the set is refilled with elements restored afresh (roots and values being
+ * the same either way).  Where
+ * the existing graph has no object (e.g. one created lazily on a later tick) or one of a
+ * different class, a new one is created without running its constructors.
+ * <p>
+ * The stream checks the class of each object against the graph it is read into, and
+ * restoring fails with an <code>IOException</code> if the graphs differ in shape.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class ObjectStateCodec {
+
+	/** The packages whose classes' fields are captured */
+	private static final String[] CAPTURED_PACKAGES = {"uk.ac.dmu.iesd.cascade.", "cern.jet.random.", "cern.colt."};
+
+	private static final byte T_NULL = 0;
+	private static final byte T_SKIP = 1;
+	private static final byte T_ROOT = 2;
+	private static final byte T_BACK = 3;
+	private static final byte T_STRING = 4;
+	private static final byte T_BOXED = 5;
+	private static final byte T_ENUM = 6;
+	private static final byte T_DATE = 7;
+	private static final byte T_CALENDAR = 8;
+	private static final byte T_ARRAY = 9;
+	private static final byte T_LIST = 10;
+	private static final byte T_SET = 11;
+	private static final byte T_MAP = 12;
+	private static final byte T_OBJECT = 13;
+
+	/** Read in place of a value which was not captured, which leaves the live value as it is */
+	private static final Object NOT_CAPTURED = new Object();
+
+	private static final Map<Class<?>, Field[]> FIELDS = new HashMap<Class<?>, Field[]>();
+
+	private final List<Object> roots;
+	private final IdentityHashMap<Object, Integer> rootIndex = new IdentityHashMap<Object, Integer>();
+	private final Set<Class<?>> excluded = new HashSet<Class<?>>();
+
+	/**
+	 * @param roots the roots of the graph, in an order which is the same for every graph of this shape
+	 */
+	public ObjectStateCodec(List<?> roots)
+	{
+		this.roots = new ArrayList<Object>(roots);
+		for (int i = 0; i < this.roots.size(); i++)
+		{
+			rootIndex.put(this.roots.get(i), i);
+		}
+	}
+
+	/**
+	 * Excludes a class (and its subclasses) from the state: fields holding one are left as
+	 * they are on restoring.  Used for objects which describe the run rather than its state
+	 * (e.g. its configuration) or which hold external resources.
+	 */
+	public ObjectStateCodec exclude(Class<?> type)
+	{
+		excluded.add(type);
+		return this;
+	}
+
+	/**
+	 * Writes the state of every root.
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		Writer writer = new Writer(out);
+		out.writeInt(roots.size());
+		for (Object root : roots)
+		{
+			out.writeUTF(root.getClass().getName());
+		}
+		for (Object root : roots)
+		{
+			writer.writeFields(root, root.getClass());
+		}
+	}
+
+	/**
+	 * Restores the state of every root from a stream written from a graph of the same shape.
+	 */
+	public void read(DataInput in) throws IOException
+	{
+		Reader reader = new Reader(in);
+		int count = in.readInt();
+		if (count != roots.size())
+		{
+			throw new IOException("the state has " + count + " roots, but the graph has " + roots.size());
+		}
+		for (int i = 0; i < count; i++)
+		{
+			String name = in.readUTF();
+			if (!name.equals(roots.get(i).getClass().getName()))
+			{
+				throw new IOException("root " + i + " was a " + name + " but is a " + roots.get(i).getClass().getName());
+			}
+		}
+		for (Object root : roots)
+		{
+			reader.readFields(root, root.getClass());
+		}
+	}
+
+	private static boolean isCaptured(Class<?> type)
+	{
+		String name = type.getName();
+		for (String prefix : CAPTURED_PACKAGES)
+		{
+			if (name.startsWith(prefix))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isExcluded(Class<?> type)
+	{
+		for (Class<?> e : excluded)
+		{
+			if (e.isAssignableFrom(type))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the fields of the object's captured classes, from the most derived class up
+	 *         and by name within a class
+	 */
+	private static Field[] fieldsOf(Class<?> type)
+	{
+		synchronized (FIELDS)
+		{
+			Field[] fields = FIELDS.get(type);
+			if (fields == null)
+			{
+				List<Field> list = new ArrayList<Field>();
+				for (Class<?> c = type; c != null && isCaptured(c); c = c.getSuperclass())
+				{
+					list.addAll(Arrays.asList(sortedFields(c)));
+				}
+				fields = list.toArray(new Field[list.size()]);
+				FIELDS.put(type, fields);
+			}
+			return fields;
+		}
+	}
+
+	private static Field[] sortedFields(Class<?> c)
+	{
+		List<Field> list = new ArrayList<Field>();
+		for (Field f : c.getDeclaredFields())
+		{
+			int m = f.getModifiers();
+			if (Modifier.isStatic(m) || Modifier.isTransient(m))
+			{
+				continue;
+			}
+			f.setAccessible(true);
+			list.add(f);
+		}
+		Field[] fields = list.toArray(new Field[list.size()]);
+		Arrays.sort(fields, new Comparator<Field>() {
+			public int compare(Field a, Field b)
+			{
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return fields;
+	}
+
+	private static boolean isBoxed(Object value)
+	{
+		Class<?> c = value.getClass();
+		return c == Double.class || c == Integer.class || c == Long.class || c == Boolean.class
+				|| c == Float.class || c == Short.class || c == Byte.class || c == Character.class;
+	}
+
+	/**
+	 * Creates an object of a captured class without running its constructors (other than
+	 * a no argument constructor, if it has one).
+	 */
+	private static Object instantiate(Class<?> type) throws IOException
+	{
+		try
+		{
+			try
+			{
+				Constructor<?> constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				return constructor.newInstance();
+			}
+			catch (NoSuchMethodException e)
+			{
+				// as serialization does: a constructor which runs only Object's
+				Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+				Object factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+				Method forSerialization = factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+				Constructor<?> constructor = (Constructor<?>) forSerialization.invoke(factory, type, Object.class.getDeclaredConstructor());
+				return constructor.newInstance();
+			}
+		}
+		catch (Exception e)
+		{
+			throw new IOException("cannot create a " + type.getName() + ": " + e);
+		}
+	}
+
+	private final class Writer {
+
+		private final DataOutput out;
+		private final IdentityHashMap<Object, Integer> written = new IdentityHashMap<Object, Integer>();
+
+		Writer(DataOutput out)
+		{
+			this.out = out;
+		}
+
+		void writeFields(Object object, Class<?> type) throws IOException
+		{
+			try
+			{
+				for (Field f : fieldsOf(type))
+				{
+					Class<?> t = f.getType();
+					if (t.isPrimitive())
+					{
+						writePrimitive(t, f, object);
+					}
+					else
+					{
+						writeValue(f.get(object));
+					}
+				}
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IOException(e.toString());
+			}
+		}
+
+		private void writePrimitive(Class<?> t, Field f, Object object) throws IllegalAccessException, IOException
+		{
+			if (t == double.class) out.writeDouble(f.getDouble(object));
+			else if (t == int.class) out.writeInt(f.getInt(object));
+			else if (t == boolean.class) out.writeBoolean(f.getBoolean(object));
+			else if (t == long.class) out.writeLong(f.getLong(object));
+			else if (t == float.class) out.writeFloat(f.getFloat(object));
+			else if (t == short.class) out.writeShort(f.getShort(object));
+			else if (t == byte.class) out.writeByte(f.getByte(object));
+			else out.writeChar(f.getChar(object));
+		}
+
+		void writeValue(Object value) throws IOException
+		{
+			if (value == null)
+			{
+				out.writeByte(T_NULL);
+				return;
+			}
+			Integer root = rootIndex.get(value);
+			if (root != null)
+			{
+				out.writeByte(T_ROOT);
+				out.writeInt(root);
+				return;
+			}
+			Integer back = written.get(value);
+			if (back != null)
+			{
+				out.writeByte(T_BACK);
+				out.writeInt(back);
+				return;
+			}
+			Class<?> type = value.getClass();
+			if (value instanceof String)
+			{
+				out.writeByte(T_STRING);
+				out.writeUTF((String) value);
+			}
+			else if (isBoxed(value))
+			{
+				out.writeByte(T_BOXED);
+				out.writeUTF(type.getName());
+				out.writeUTF(value.toString());
+			}
+			else if (value instanceof Enum)
+			{
+				out.writeByte(T_ENUM);
+				out.writeUTF(((Enum<?>) value).getDeclaringClass().getName());
+				out.writeUTF(((Enum<?>) value).name());
+			}
+			else if (value instanceof Date)
+			{
+				out.writeByte(T_DATE);
+				out.writeLong(((Date) value).getTime());
+			}
+			else if (value instanceof Calendar)
+			{
+				out.writeByte(T_CALENDAR);
+				out.writeLong(((Calendar) value).getTimeInMillis());
+			}
+			else if (isExcluded(type))
+			{
+				out.writeByte(T_SKIP);
+			}
+			else if (type.isArray())
+			{
+				written.put(value, written.size());
+				out.writeByte(T_ARRAY);
+				out.writeUTF(type.getName());
+				writeArray(value, type.getComponentType());
+			}
+			else if (value instanceof List || value instanceof Set)
+			{
+				written.put(value, written.size());
+				out.writeByte(value instanceof List ? T_LIST : T_SET);
+				Collection<?> collection = (Collection<?>) value;
+				out.writeInt(collection.size());
+				for (Object element : collection)
+				{
+					writeValue(element);
+				}
+			}
+			else if (value instanceof Map)
+			{
+				written.put(value, written.size());
+				out.writeByte(T_MAP);
+				Map<?, ?> map = (Map<?, ?>) value;
+				out.writeInt(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet())
+				{
+					writeValue(entry.getKey());
+					writeValue(entry.getValue());
+				}
+			}
+			else if (isCaptured(type))
+			{
+				written.put(value, written.size());
+				out.writeByte(T_OBJECT);
+				out.writeUTF(type.getName());
+				writeFields(value, type);
+			}
+			else
+			{
+				out.writeByte(T_SKIP);
+			}
+		}
+
+		private void writeArray(Object array, Class<?> component) throws IOException
+		{
+			int length = Array.getLength(array);
+			out.writeInt(length);
+			if (component == double.class)
+			{
+				double[] a = (double[]) array;
+				for (int i = 0; i < length; i++) out.writeDouble(a[i]);
+			}
+			else if (component == int.class)
+			{
+				int[] a = (int[]) array;
+				for (int i = 0; i < length; i++) out.writeInt(a[i]);
+			}
+			else if (component == float.class)
+			{
+				float[] a = (float[]) array;
+				for (int i = 0; i < length; i++) out.writeFloat(a[i]);
+			}
+			else if (component == boolean.class)
+			{
+				boolean[] a = (boolean[]) array;
+				for (int i = 0; i < length; i++) out.writeBoolean(a[i]);
+			}
+			else if (component == long.class)
+			{
+				long[] a = (long[]) array;
+				for (int i = 0; i < length; i++) out.writeLong(a[i]);
+			}
+			else if (component == byte.class)
+			{
+				out.write((byte[]) array);
+			}
+			else if (component == short.class)
+			{
+				short[] a = (short[]) array;
+				for (int i = 0; i < length; i++) out.writeShort(a[i]);
+			}
+			else if (component == char.class)
+			{
+				char[] a = (char[]) array;
+				for (int i = 0; i < length; i++) out.writeChar(a[i]);
+			}
+			else
+			{
+				Object[] a = (Object[]) array;
+				for (int i = 0; i < length; i++) writeValue(a[i]);
+			}
+		}
+	}
+
+	private final class Reader {
+
+		private final DataInput in;
+		private final List<Object> read = new ArrayList<Object>();
+
+		Reader(DataInput in)
+		{
+			this.in = in;
+		}
+
+		void readFields(Object object, Class<?> type) throws IOException
+		{
+			try
+			{
+				for (Field f : fieldsOf(type))
+				{
+					Class<?> t = f.getType();
+					if (t.isPrimitive())
+					{
+						readPrimitive(t, f, object);
+					}
+					else
+					{
+						Object live = f.get(object);
+						Object value = readValue(live);
+						if (value != live && value != NOT_CAPTURED)
+						{
+							f.set(object, value);
+						}
+					}
+				}
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IOException(e.toString());
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException("the state does not fit a " + type.getName() + ": " + e);
+			}
+		}
+
+		private void readPrimitive(Class<?> t, Field f, Object object) throws IllegalAccessException, IOException
+		{
+			if (t == double.class) f.setDouble(object, in.readDouble());
+			else if (t == int.class) f.setInt(object, in.readInt());
+			else if (t == boolean.class) f.setBoolean(object, in.readBoolean());
+			else if (t == long.class) f.setLong(object, in.readLong());
+			else if (t == float.class) f.setFloat(object, in.readFloat());
+			else if (t == short.class) f.setShort(object, in.readShort());
+			else if (t == byte.class) f.setByte(object, in.readByte());
+			else f.setChar(object, in.readChar());
+		}
+
+		/**
+		 * @param live the value in the graph being restored into
+		 * @return the restored value: the live value itself, restored in place, where possible;
+		 *         or {@link #NOT_CAPTURED} if the value was not captured
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object readValue(Object live) throws IOException
+		{
+			byte tag = in.readByte();
+			switch (tag)
+			{
+			case T_NULL:
+				return null;
+			case T_SKIP:
+				return NOT_CAPTURED;
+			case T_ROOT:
+				return roots.get(in.readInt());
+			case T_BACK:
+				return read.get(in.readInt());
+			case T_STRING:
+				// interned, so that (as with literal keys) a weak map's keys stay reachable
+				return in.readUTF().intern();
+			case T_BOXED:
+				return readBoxed(in.readUTF(), in.readUTF());
+			case T_ENUM:
+				return Enum.valueOf((Class<Enum>) classNamed(in.readUTF()), in.readUTF());
+			case T_DATE:
+				return new Date(in.readLong());
+			case T_CALENDAR:
+			{
+				long millis = in.readLong();
+				if (live instanceof Calendar)
+				{
+					((Calendar) live).setTimeInMillis(millis);
+					return live;
+				}
+				Calendar calendar = Calendar.getInstance();
+				calendar.setTimeInMillis(millis);
+				return calendar;
+			}
+			case T_ARRAY:
+			{
+				Class<?> type = classNamed(in.readUTF());
+				int length = in.readInt();
+				Object array = (live != null && live.getClass() == type && Array.getLength(live) == length) ? live : Array.newInstance(type.getComponentType(), length);
+				read.add(array);
+				readArray(array, type.getComponentType(), length);
+				return array;
+			}
+			case T_LIST:
+			case T_SET:
+			{
+				Collection collection = (live instanceof Collection) ? (Collection) live : (tag == T_LIST ? new ArrayList() : new HashSet());
+				read.add(collection);
+				int size = in.readInt();
+				// a list's elements are restored into the live elements at their positions; a
+				// set's order can differ between runs (e.g. by identity hash), so a set is
+				// rebuilt from elements restored afresh
+				Object[] liveElements = tag == T_LIST ? collection.toArray() : new Object[0];
+				List restored = new ArrayList(size);
+				boolean complete = true;
+				for (int i = 0; i < size; i++)
+				{
+					Object element = readValue(i < liveElements.length ? liveElements[i] : null);
+					complete &= element != NOT_CAPTURED;
+					restored.add(element);
+				}
+				if (!complete)
+				{
+					// holds objects which are not captured (e.g. user interface components): leave it be
+					return live == null ? NOT_CAPTURED : live;
+				}
+				try
+				{
+					collection.clear();
+					collection.addAll(restored);
+					return collection;
+				}
+				catch (UnsupportedOperationException e)
+				{
+					// e.g. an unmodifiable view: replace it with a copy
+					return tag == T_LIST ? new ArrayList(restored) : new HashSet(restored);
+				}
+			}
+			case T_MAP:
+			{
+				Map map = (live instanceof Map) ? (Map) live : new LinkedHashMap();
+				read.add(map);
+				int size = in.readInt();
+				List keys = new ArrayList(size);
+				List values = new ArrayList(size);
+				boolean complete = true;
+				for (int i = 0; i < size; i++)
+				{
+					Object key = readValue(null);
+					Object value = readValue(key == NOT_CAPTURED ? null : map.get(key));
+					complete &= key != NOT_CAPTURED && value != NOT_CAPTURED;
+					keys.add(key);
+					values.add(value);
+				}
+				if (!complete)
+				{
+					return live == null ? NOT_CAPTURED : live;
+				}
+				try
+				{
+					map.clear();
+				}
+				catch (UnsupportedOperationException e)
+				{
+					map = new LinkedHashMap();
+				}
+				for (int i = 0; i < size; i++)
+				{
+					map.put(keys.get(i), values.get(i));
+				}
+				return map;
+			}
+			case T_OBJECT:
+			{
+				Class<?> type = classNamed(in.readUTF());
+				Object object = (live != null && live.getClass() == type) ? live : instantiate(type);
+				read.add(object);
+				readFields(object, type);
+				return object;
+			}
+			default:
+				throw new IOException("corrupt state (tag " + tag + ")");
+			}
+		}
+
+		private void readArray(Object array, Class<?> component, int length) throws IOException
+		{
+			if (component == double.class)
+			{
+				double[] a = (double[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readDouble();
+			}
+			else if (component == int.class)
+			{
+				int[] a = (int[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readInt();
+			}
+			else if (component == float.class)
+			{
+				float[] a = (float[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readFloat();
+			}
+			else if (component == boolean.class)
+			{
+				boolean[] a = (boolean[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readBoolean();
+			}
+			else if (component == long.class)
+			{
+				long[] a = (long[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readLong();
+			}
+			else if (component == byte.class)
+			{
+				in.readFully((byte[]) array);
+			}
+			else if (component == short.class)
+			{
+				short[] a = (short[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readShort();
+			}
+			else if (component == char.class)
+			{
+				char[] a = (char[]) array;
+				for (int i = 0; i < length; i++) a[i] = in.readChar();
+			}
+			else
+			{
+				Object[] a = (Object[]) array;
+				for (int i = 0; i < length; i++)
+				{
+					Object element = readValue(a[i]);
+					if (element != NOT_CAPTURED)
+					{
+						a[i] = element;
+					}
+				}
+			}
+		}
+
+		private Object readBoxed(String type, String value) throws IOException
+		{
+			if (type.equals("java.lang.Double")) return Double.valueOf(value);
+			if (type.equals("java.lang.Integer")) return Integer.valueOf(value);
+			if (type.equals("java.lang.Long")) return Long.valueOf(value);
+			if (type.equals("java.lang.Boolean")) return Boolean.valueOf(value);
+			if (type.equals("java.lang.Float")) return Float.valueOf(value);
+			if (type.equals("java.lang.Short")) return Short.valueOf(value);
+			if (type.equals("java.lang.Byte")) return Byte.valueOf(value);
+			if (type.equals("java.lang.Character")) return Character.valueOf(value.charAt(0));
+			throw new IOException("cannot restore a " + type);
+		}
+
+		private Class<?> classNamed(String name) throws IOException
+		{
+			try
+			{
+				return Class.forName(name, false, ObjectStateCodec.class.getClassLoader());
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IOException("no class " + name);
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import uk.ac.dmu.iesd.cascade.base.Consts;
+import uk.ac.dmu.iesd.cascade.io.CSVWriter;
+
+/**
+ * Instrumentation which records the wall clock time, CPU time and heap allocation
+ * of each of the scheduling phases defined in {@link Consts} (aggregator pre-step,
+ * market steps, prosumer step, aggregator step etc.), broken down by the class of
+ * the agents acting within each phase.  Totals are written out once per simulated
+ * day as a CSV time series, so that a regression can be traced to the subsystem
+ * responsible.
+ * <p>
+ * Each {@link uk.ac.dmu.iesd.cascade.context.CascadeContext} has its own profiler, so that
+ * runs side by side in one JVM are profiled separately.  Phases are delimited by marker
+ * actions scheduled just ahead of each phase priority on the run's schedule
+ * (see {@link #schedulePhaseMarkers(ISchedule, int, String)}).  Everything scheduled after the aggregator
+ * step, up to the start of the next tick's aggregator pre-step (probes, data
+ * gathering, the calendar step etc.), is accounted to the phase <code>OTHER</code>.
+ * <p>
+ * Within a phase, agents report themselves by calling {@link #enter(Object)} on their
+ * context's profiler at the start of their scheduled step; the cost from one call to the next is attributed to
+ * the class of the agent which made the earlier call.  Cost incurred in a phase before
+ * the first agent reports is attributed to <code>-</code>.
+ * <p>
+ * The profiler is disabled unless the run parameter <code>profilePhases</code> is
+ * true; while it is disabled {@link #enter(Object)} returns immediately.  CPU time and
+ * allocation are those of the thread which runs the schedule, plus those of the tasks it
+ * runs on the {@link WorkerPool} (e.g. the {@link InfluenceGraph} sweep and the
+ * {@link GeneticOptimiser}), which are charged to the phase and agent class which ran
+ * them.  Work on other threads, e.g. the device I/O threads of the
+ * {@link uk.ac.dmu.iesd.cascade.io.DeviceGateway} (which mostly wait), is not measured,
+ * though waiting for it is in the wall clock time.  An interval which starts and ends on
+ * different threads is charged its wall clock time only.  Allocated
+ * bytes are only available on JVMs
+ * supporting <code>com.sun.management.ThreadMXBean</code>, otherwise they are reported as -1.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class PhaseProfiler {
+
+	public static final String PROFILE_FILE_NAME = "PhaseProfile.csv";
+
+	private static final String OTHER_PHASE = "OTHER";
+	private static final String NO_AGENT = "-";
+	private static final String ALL_AGENTS = "*";
+
+	/**
+	 * Accumulated costs for one phase (or one agent class within a phase)
+	 */
+	private static class Costs {
+		long wallNanos;
+		long cpuNanos;
+		long allocatedBytes;
+		int invocations;
+	}
+
+	private ThreadMXBean threadBean;
+	private com.sun.management.ThreadMXBean allocationBean;
+	private volatile CSVWriter out; // null while profiling is disabled
+	private int ticksPerDay;
+	private ISchedule schedule;
+
+	private final Map<String, Map<String, Costs>> dayCosts = new LinkedHashMap<String, Map<String, Costs>>();
+
+	private String currentPhase = OTHER_PHASE;
+	private String currentAgentClass = NO_AGENT;
+	private long markWall;
+	private long markCpu;
+	private long markAllocated;
+	private long markThreadId;
+	private long[] markWorkerCosts;
+	private int currentDay = 0;
+
+	/**
+	 * Creates a disabled profiler
+	 */
+	public PhaseProfiler()
+	{
+	}
+
+	/**
+	 * Enables profiling for this run and schedules the phase markers on its schedule.
+	 * Should be called once, from the context builder.
+	 *
+	 * @param schedule the schedule of the run
+	 * @param ticksPerDay the number of ticks per simulated day, defining the summary interval
+	 * @param fileName the file to which the profile is written (runs side by side should each have their own)
+	 */
+	public synchronized void schedulePhaseMarkers(ISchedule schedule, int ticksPerDay, String fileName)
+	{
+		if (out != null)
+		{
+			System.err.println("PhaseProfiler: profiling is already enabled for this run");
+			return;
+		}
+		this.ticksPerDay = ticksPerDay;
+		this.schedule = schedule;
+		this.threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled())
+		{
+			threadBean.setThreadCpuTimeEnabled(true);
+		}
+		if (threadBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported())
+		{
+			allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+			allocationBean.setThreadAllocatedMemoryEnabled(true);
+		}
+		else
+		{
+			allocationBean = null;
+		}
+
+		CSVWriter writer = new CSVWriter(fileName, false);
+		writer.appendText("day,phase,agentClass,wallMillis,cpuMillis,allocatedBytes,invocations");
+		mark();
+
+		scheduleMarker(schedule, Consts.PRE_INITIALISE_FIRST_TICK, "beginPreInitialise");
+		scheduleMarker(schedule, Consts.AGGREGATOR_PRE_STEP_PRIORITY_FIRST, "beginAggregatorPreStep");
+		scheduleMarker(schedule, Consts.AGGREGATOR_INIT_MARKET_STEP_PRIORITY_FIRST, "beginAggregatorInitMarketStep");
+		scheduleMarker(schedule, Consts.AGGREGATOR_MARKET_STEP_PRIORITY_FIRST, "beginAggregatorMarketStep");
+		scheduleMarker(schedule, Consts.SO_PRIORITY_SECOND, "beginSystemOperatorStep");
+		scheduleMarker(schedule, Consts.SC_PRIORITY_THIRD, "beginSettlementCompanyStep");
+		scheduleMarker(schedule, Consts.PX_PRIORITY_FOURTH, "beginPowerExchangeStep");
+		scheduleMarker(schedule, Consts.PROSUMER_PRE_STEP_PRIORITY, "beginProsumerPreStep");
+		scheduleMarker(schedule, Consts.PROSUMER_BATCH_PRIORITY, "beginProsumerBatch");
+		scheduleMarker(schedule, Consts.PROSUMER_PRIORITY_FIFTH, "beginProsumerStep");
+		scheduleMarker(schedule, Consts.DEVICE_IO_PRIORITY, "beginDeviceIO");
+		scheduleMarker(schedule, Consts.AGGREGATOR_STEP_PRIORITY_SIXTH, "beginAggregatorStep");
+		// Everything after the aggregator step is "other"
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, Consts.AGGREGATOR_STEP_PRIORITY_SIXTH - 0.5), this, "beginOther");
+		schedule.schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY), this, "close");
+		// published last, so that agents see a profiler which is ready
+		this.out = writer;
+	}
+
+	/**
+	 * @return true if phase profiling is enabled for this run
+	 */
+	public boolean isEnabled()
+	{
+		return out != null;
+	}
+
+	/**
+	 * Called by an agent at the start of its scheduled step, so that the cost of the
+	 * step is attributed to the agent's class.  Does nothing if profiling is disabled.
+	 *
+	 * @param agent the agent about to act
+	 */
+	public void enter(Object agent)
+	{
+		if (out != null)
+		{
+			synchronized (this)
+			{
+				if (out != null)
+				{
+					switchTo(currentPhase, agent.getClass().getSimpleName());
+				}
+			}
+		}
+	}
+
+	private void scheduleMarker(ISchedule schedule, double phasePriority, String markerMethod)
+	{
+		// just ahead of all actions at the phase priority
+		schedule.schedule(ScheduleParameters.createRepeating(0, 1, phasePriority + 0.5), this, markerMethod);
+	}
+
+	/*
+	 * Marker actions - scheduled methods must be public in order that the scheduler can call them
+	 */
+	public void beginPreInitialise() { beginPhase("PRE_INITIALISE_FIRST_TICK"); }
+	public void beginAggregatorPreStep() { beginPhase("AGGREGATOR_PRE_STEP"); }
+	public void beginAggregatorInitMarketStep() { beginPhase("AGGREGATOR_INIT_MARKET_STEP"); }
+	public void beginAggregatorMarketStep() { beginPhase("AGGREGATOR_MARKET_STEP"); }
+	public void beginSystemOperatorStep() { beginPhase("SO_STEP"); }
+	public void beginSettlementCompanyStep() { beginPhase("SC_STEP"); }
+	public void beginPowerExchangeStep() { beginPhase("PX_STEP"); }
+	public void beginProsumerPreStep() { beginPhase("PROSUMER_PRE_STEP"); }
+	public void beginProsumerBatch() { beginPhase("PROSUMER_BATCH"); }
+	public void beginProsumerStep() { beginPhase("PROSUMER_STEP"); }
+	public void beginDeviceIO() { beginPhase("DEVICE_IO"); }
+	public void beginAggregatorStep() { beginPhase("AGGREGATOR_STEP"); }
+	public void beginOther() { beginPhase(OTHER_PHASE); }
+
+	private synchronized void beginPhase(String phase)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		int tick = (int) schedule.getTickCount();
+		switchTo(phase, NO_AGENT);
+		// Each day starts with the first marker of its first tick
+		if (tick / ticksPerDay != currentDay)
+		{
+			writeDay();
+			currentDay = tick / ticksPerDay;
+		}
+	}
+
+	/**
+	 * Charges the cost since the last mark to the current phase and agent class, then
+	 * makes the phase and agent class given current.
+	 */
+	private void switchTo(String phase, String agentClass)
+	{
+		long wall = System.nanoTime();
+		long threadId = Thread.currentThread().getId();
+		long cpu = threadBean.getThreadCpuTime(threadId);
+		long allocated = (allocationBean == null) ? 0 : allocationBean.getThreadAllocatedBytes(threadId);
+		long[] workerCosts = WorkerPool.getWorkerCosts();
+
+		Costs agentCosts = costsFor(currentPhase, currentAgentClass);
+		Costs phaseCosts = costsFor(currentPhase, ALL_AGENTS);
+		long dWall = wall - markWall;
+		// the thread clocks are only comparable with a mark taken on the same thread
+		long dCpu = 0;
+		long dAllocated = 0;
+		if (threadId == markThreadId)
+		{
+			dCpu = cpu - markCpu + workerCosts[0] - markWorkerCosts[0];
+			dAllocated = allocated - markAllocated + workerCosts[1] - markWorkerCosts[1];
+		}
+		agentCosts.wallNanos += dWall;
+		agentCosts.cpuNanos += dCpu;
+		agentCosts.allocatedBytes += dAllocated;
+		phaseCosts.wallNanos += dWall;
+		phaseCosts.cpuNanos += dCpu;
+		phaseCosts.allocatedBytes += dAllocated;
+		if (!agentClass.equals(NO_AGENT))
+		{
+			costsFor(phase, agentClass).invocations++;
+		}
+		if (!phase.equals(currentPhase))
+		{
+			costsFor(phase, ALL_AGENTS).invocations++;
+		}
+
+		currentPhase = phase;
+		currentAgentClass = agentClass;
+		// re-read the clocks so that the profiler's own bookkeeping is not charged
+		mark();
+	}
+
+	private Costs costsFor(String phase, String agentClass)
+	{
+		Map<String, Costs> phaseMap = dayCosts.get(phase);
+		if (phaseMap == null)
+		{
+			phaseMap = new LinkedHashMap<String, Costs>();
+			dayCosts.put(phase, phaseMap);
+		}
+		Costs costs = phaseMap.get(agentClass);
+		if (costs == null)
+		{
+			costs = new Costs();
+			phaseMap.put(agentClass, costs);
+		}
+		return costs;
+	}
+
+	private void mark()
+	{
+		markThreadId = Thread.currentThread().getId();
+		markWall = System.nanoTime();
+		markCpu = threadBean.getThreadCpuTime(markThreadId);
+		markAllocated = (allocationBean == null) ? 0 : allocationBean.getThreadAllocatedBytes(markThreadId);
+		markWorkerCosts = WorkerPool.getWorkerCosts();
+	}
+
+	private void writeDay()
+	{
+		for (Map.Entry<String, Map<String, Costs>> phaseEntry : dayCosts.entrySet())
+		{
+			for (Map.Entry<String, Costs> agentEntry : phaseEntry.getValue().entrySet())
+			{
+				Costs c = agentEntry.getValue();
+				out.appendText(currentDay + "," + phaseEntry.getKey() + "," + agentEntry.getKey() + ","
+						+ (c.wallNanos / 1e6) + "," + (c.cpuNanos / 1e6) + ","
+						+ ((allocationBean == null) ? -1 : c.allocatedBytes) + "," + c.invocations);
+			}
+		}
+		dayCosts.clear();
+	}
+
+	/**
+	 * Writes out the last (possibly partial) day and closes the output file
+	 */
+	public synchronized void close()
+	{
+		if (out == null)
+		{
+			return;
+		}
+		switchTo(currentPhase, NO_AGENT);
+		writeDay();
+		out.close();
+		out = null;
+	}
+}
@@ -0,0 +1,282 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+/**
+ * Power flow solver for a radial (tree shaped) resistive feeder supplied by a
+ * power limited source at its root.
+ * <p>
+ * Each bus carries a constant impedance load, given as a conductance, and may carry
+ * constant power embedded generation.  Each bus other than the root is connected to its
+ * parent bus by a line of given resistance.  The root (slack) bus is held at the nominal
+ * voltage unless the power drawn from it would exceed the source's capacity, in which
+ * case the root voltage is lowered until the power drawn equals the capacity
+ * (a brownout).
+ * <p>
+ * The feeder is reduced to its root by a single backward sweep, folding each subtree
+ * into an equivalent conductance and current source, and the bus voltages are then
+ * recovered by a single forward sweep.  With constant impedance loads only this is
+ * exact.  Embedded generation injects a current <code>P / V</code>, which is linearised about
+ * the voltages of the previous sweep, and the sweeps repeated until the bus voltages
+ * converge - this is Newton's method, so a few sweeps suffice.  Each sweep is O(number of buses) over primitive arrays, and the
+ * solver allocates nothing once built.
+ * <p>
+ * Loads and generation are filled in place, through {@link #getLoadConductance()} and
+ * {@link #getEmbeddedGeneration()}, before each call of {@link #solve()}.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RadialFeederSolver {
+
+	private static final int MAX_ITERATIONS = 50;
+	private static final double TOLERANCE = 1e-9; // relative to the nominal voltage
+	private static final double MIN_INJECTION_VOLTAGE = 0.01; // relative to the nominal voltage
+
+	private final int numOfBuses;
+	private final int root;
+	private final int[] parent;
+	private final double[] lineResistance;
+	private final int[] order; // breadth first from the root, so parents precede their children
+	private final double nominalVoltage;
+
+	private final double[] loadConductance;
+	private final double[] embeddedGeneration;
+	private double slackCapacity;
+
+	private final double[] voltage;
+	private final double[] subtreeConductance;
+	private final double[] subtreeCurrent;
+	private double slackPower;
+	private boolean brownout;
+	private int iterations;
+
+	/**
+	 * Creates a solver for the feeder with the given topology.
+	 *
+	 * @param parent the parent of each bus, or -1 for the root (exactly one bus)
+	 * @param lineResistance the resistance (ohms) of the line from each bus to its parent (ignored for the root)
+	 * @param nominalVoltage the voltage (V) of the source when not power limited
+	 */
+	public RadialFeederSolver(int[] parent, double[] lineResistance, double nominalVoltage)
+	{
+		this.numOfBuses = parent.length;
+		if (lineResistance.length != numOfBuses)
+		{
+			throw new IllegalArgumentException("RadialFeederSolver: " + numOfBuses + " buses but " + lineResistance.length + " line resistances");
+		}
+		this.parent = parent.clone();
+		this.lineResistance = lineResistance.clone();
+		this.nominalVoltage = nominalVoltage;
+
+		// children of each bus, in compressed row form
+		int root = -1;
+		int[] childStart = new int[numOfBuses + 1];
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			if (parent[b] < 0)
+			{
+				if (root >= 0)
+				{
+					throw new IllegalArgumentException("RadialFeederSolver: feeder has more than one root (buses " + root + " and " + b + ")");
+				}
+				root = b;
+			}
+			else
+			{
+				childStart[parent[b] + 1]++;
+			}
+		}
+		if (root < 0)
+		{
+			throw new IllegalArgumentException("RadialFeederSolver: feeder has no root");
+		}
+		this.root = root;
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			childStart[b + 1] += childStart[b];
+		}
+		int[] children = new int[numOfBuses];
+		int[] fill = Arrays.copyOf(childStart, numOfBuses);
+		for (int b = 0; b < numOfBuses; b++)
+		{
+			if (parent[b] >= 0)
+			{
+				children[fill[parent[b]]++] = b;
+			}
+		}
+
+		this.order = new int[numOfBuses];
+		int visited = 0;
+		order[visited++] = root;
+		for (int head = 0; head < visited; head++)
+		{
+			int b = order[head];
+			for (int c = childStart[b]; c < childStart[b + 1]; c++)
+			{
+				order[visited++] = children[c];
+			}
+		}
+		if (visited != numOfBuses)
+		{
+			throw new IllegalArgumentException("RadialFeederSolver: feeder is not radial (" + (numOfBuses - visited) + " buses not reachable from the root)");
+		}
+
+		loadConductance = new double[numOfBuses];
+		embeddedGeneration = new double[numOfBuses];
+		voltage = new double[numOfBuses];
+		subtreeConductance = new double[numOfBuses];
+		subtreeCurrent = new double[numOfBuses];
+		Arrays.fill(voltage, nominalVoltage);
+	}
+
+	/**
+	 * Solves the power flow for the current loads, embedded generation and source capacity.
+	 */
+	public void solve()
+	{
+		double tolerance = TOLERANCE * nominalVoltage;
+		double minInjectionVoltage = MIN_INJECTION_VOLTAGE * nominalVoltage;
+
+		iterations = 0;
+		double maxChange;
+		do
+		{
+			iterations++;
+
+			// backward sweep - reduce each subtree to a conductance and current source at its bus
+			// (embedded generation P is linearised about the previous voltage V0, I = 2P/V0 - (P/V0^2) V)
+			for (int b = 0; b < numOfBuses; b++)
+			{
+				subtreeConductance[b] = loadConductance[b];
+				subtreeCurrent[b] = 0;
+				if (embeddedGeneration[b] != 0)
+				{
+					double v0 = Math.max(voltage[b], minInjectionVoltage);
+					subtreeConductance[b] += embeddedGeneration[b] / (v0 * v0);
+					subtreeCurrent[b] = 2 * embeddedGeneration[b] / v0;
+				}
+			}
+			for (int i = numOfBuses - 1; i > 0; i--)
+			{
+				int b = order[i];
+				double denominator = 1 + lineResistance[b] * subtreeConductance[b];
+				subtreeConductance[parent[b]] += subtreeConductance[b] / denominator;
+				subtreeCurrent[parent[b]] += subtreeCurrent[b] / denominator;
+			}
+
+			// slack bus - P(V) = G * V^2 - I * V, limited to the source capacity
+			double g = subtreeConductance[root];
+			double current = subtreeCurrent[root];
+			double rootVoltage = nominalVoltage;
+			brownout = g > 0 && (g * nominalVoltage - current) * nominalVoltage > slackCapacity;
+			if (brownout)
+			{
+				rootVoltage = (current + Math.sqrt(current * current + 4 * g * Math.max(slackCapacity, 0))) / (2 * g);
+			}
+			slackPower = (g * rootVoltage - current) * rootVoltage;
+
+			// forward sweep
+			maxChange = Math.abs(rootVoltage - voltage[root]);
+			voltage[root] = rootVoltage;
+			for (int i = 1; i < numOfBuses; i++)
+			{
+				int b = order[i];
+				double v = (voltage[parent[b]] + lineResistance[b] * subtreeCurrent[b]) / (1 + lineResistance[b] * subtreeConductance[b]);
+				maxChange = Math.max(maxChange, Math.abs(v - voltage[b]));
+				voltage[b] = v;
+			}
+		} while (maxChange > tolerance && iterations < MAX_ITERATIONS);
+
+		if (maxChange > tolerance)
+		{
+			System.err.println("RadialFeederSolver: power flow did not converge in " + MAX_ITERATIONS + " iterations (last change " + maxChange + " V)");
+		}
+	}
+
+	/**
+	 * @return the (live) array of the load conductance (S) at each bus
+	 */
+	public double[] getLoadConductance()
+	{
+		return loadConductance;
+	}
+
+	/**
+	 * @return the (live) array of the embedded generation (W) at each bus
+	 */
+	public double[] getEmbeddedGeneration()
+	{
+		return embeddedGeneration;
+	}
+
+	/**
+	 * @param watts the maximum power the source at the root can supply
+	 */
+	public void setSlackCapacity(double watts)
+	{
+		this.slackCapacity = watts;
+	}
+
+	public int getNumOfBuses()
+	{
+		return numOfBuses;
+	}
+
+	public int getRoot()
+	{
+		return root;
+	}
+
+	public double getNominalVoltage()
+	{
+		return nominalVoltage;
+	}
+
+	/**
+	 * @param bus a bus index
+	 * @return the voltage (V) at the bus, as of the last solution
+	 */
+	public double getVoltage(int bus)
+	{
+		return voltage[bus];
+	}
+
+	/**
+	 * @param bus a bus index
+	 * @return the generation less the load (W) at the bus, as of the last solution;
+	 *         the generation at the root includes the power supplied by the source
+	 */
+	public double getPowerBalance(int bus)
+	{
+		double balance = embeddedGeneration[bus] - loadConductance[bus] * voltage[bus] * voltage[bus];
+		if (bus == root)
+		{
+			balance += slackPower;
+		}
+		return balance;
+	}
+
+	/**
+	 * @return the power (W) supplied by the source at the root, as of the last solution
+	 */
+	public double getSlackPower()
+	{
+		return slackPower;
+	}
+
+	/**
+	 * @return whether the source was power limited, as of the last solution
+	 */
+	public boolean isBrownout()
+	{
+		return brownout;
+	}
+
+	/**
+	 * @return the number of sweeps taken by the last solution
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+}
@@ -0,0 +1,252 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+import repast.simphony.random.RandomHelper;
+import cern.jet.random.Uniform;
+
+/**
+ * Reinforcement learner implementing the modified Roth-Erev algorithm (Nicolaisen et al, 2001)
+ * over a fixed number of choices, with sampling of choices in proportion to their propensity.
+ * <p>
+ * On each update every propensity decays by the recency parameter and then receives an
+ * experience value: <code>reward * (1 - experimentation)</code> for the choice made and
+ * <code>reward * experimentation / (k - 1)</code> for each of the other k - 1 choices.
+ * Because the decay and the experience of the choices not made are the same for every
+ * choice, propensities are held as <code>q[j] = a * s[j] + b</code>, with the common part of
+ * each update applied to the scalars a and b and only the chosen choice's weight s[j]
+ * altered.  The weights are kept in a Fenwick (binary indexed) tree, so an update, a
+ * normalisation and drawing a choice all take O(log k) time and allocate nothing.
+ * The weights are rebased (in O(k)) when the scale a becomes small.
+ * <p>
+ * Choices are drawn using a {@link Uniform} distribution, by default the one provided by
+ * {@link RandomHelper} which is seeded through the Repast random registry, so runs
+ * remain reproducible from the model's random seed.  As with the
+ * <code>EmpiricalWalker</code> previously used for this purpose, the propensities should
+ * all have the same sign (the probability of each choice is its propensity divided by
+ * the total).
+ * <p>
+ * IMPLEMENTATION NOTE - the weight and tree arrays may be supplied by the caller, so that
+ * 						 the state of many learners can be held in preallocated matrices.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RothErevLearner {
+
+	/** Rebase the weights once the scale falls below this */
+	private static final double MIN_SCALE = 1e-6;
+
+	private final double recency;
+	private final double experimentation;
+	private final Uniform uniform;
+
+	private final int numOfChoices;
+	private final double[] weights; // s
+	private final double[] tree; // Fenwick tree over s, 1-based
+	private final int highestStep;
+	private double weightSum; // sum of s
+	private double scale = 1; // a
+	private double offset = 0; // b
+
+	/**
+	 * Creates a learner with the given initial propensities, using the Repast default
+	 * uniform distribution to draw choices.
+	 *
+	 * @param initialPropensities the initial propensity of each choice (copied)
+	 * @param recency the recency (forgetting) parameter
+	 * @param experimentation the experimentation parameter
+	 */
+	public RothErevLearner(double[] initialPropensities, double recency, double experimentation)
+	{
+		this(initialPropensities, recency, experimentation, RandomHelper.getUniform(), new double[initialPropensities.length], new double[initialPropensities.length + 1]);
+	}
+
+	/**
+	 * Creates a learner which holds its state in the arrays given.
+	 *
+	 * @param initialPropensities the initial propensity of each choice (copied)
+	 * @param recency the recency (forgetting) parameter
+	 * @param experimentation the experimentation parameter
+	 * @param uniform the distribution from which choices are drawn
+	 * @param weightStorage array of length k in which to hold the weights
+	 * @param treeStorage array of length k + 1 in which to hold the Fenwick tree
+	 */
+	public RothErevLearner(double[] initialPropensities, double recency, double experimentation, Uniform uniform, double[] weightStorage, double[] treeStorage)
+	{
+		this.numOfChoices = initialPropensities.length;
+		if (weightStorage.length != numOfChoices || treeStorage.length != numOfChoices + 1)
+		{
+			throw new IllegalArgumentException("RothErevLearner: storage arrays must be of length " + numOfChoices + " and " + (numOfChoices + 1));
+		}
+		this.recency = recency;
+		this.experimentation = experimentation;
+		this.uniform = uniform;
+		this.weights = weightStorage;
+		this.tree = treeStorage;
+		this.highestStep = Integer.highestOneBit(Math.max(numOfChoices, 1));
+
+		System.arraycopy(initialPropensities, 0, weights, 0, numOfChoices);
+		rebuildTree();
+	}
+
+	public int getNumOfChoices()
+	{
+		return numOfChoices;
+	}
+
+	/**
+	 * Applies the modified Roth-Erev update for the choice made and the reward it received.
+	 *
+	 * @param choice the index of the choice made
+	 * @param reward the reward (success) of the choice
+	 */
+	public void update(int choice, double reward)
+	{
+		double others = (numOfChoices > 1) ? (reward * experimentation) / (numOfChoices - 1) : 0;
+		double chosen = reward * (1 - experimentation);
+
+		// q[j] = (1 - recency) * q[j] + others, for all j ...
+		scale = scale * (1 - recency);
+		offset = offset * (1 - recency) + others;
+		// ... plus (chosen - others) for the choice made
+		addToWeight(choice, (chosen - others) / scale);
+
+		if (Math.abs(scale) < MIN_SCALE)
+		{
+			rebase();
+		}
+	}
+
+	/**
+	 * Scales the propensities so that they sum to one, i.e. become the choice probabilities.
+	 */
+	public void normalise()
+	{
+		double total = getTotalPropensity();
+		scale = scale / total;
+		offset = offset / total;
+		if (Math.abs(scale) < MIN_SCALE)
+		{
+			rebase();
+		}
+	}
+
+	/**
+	 * Draws a choice with probability in proportion to its propensity.
+	 *
+	 * @return the index of the choice drawn
+	 */
+	public int sample()
+	{
+		double target = uniform.nextDouble() * getTotalPropensity();
+		double sign = (target < 0) ? -1 : 1;
+
+		// Fenwick tree descent for the first choice at which the cumulative propensity exceeds target
+		int pos = 0;
+		double cumulative = 0;
+		for (int step = highestStep; step > 0; step >>= 1)
+		{
+			int next = pos + step;
+			if (next <= numOfChoices)
+			{
+				double nodeSum = scale * tree[next] + offset * step;
+				if (sign * (cumulative + nodeSum) <= sign * target)
+				{
+					pos = next;
+					cumulative += nodeSum;
+				}
+			}
+		}
+		return Math.min(pos, numOfChoices - 1);
+	}
+
+	/**
+	 * @param choice the index of a choice
+	 * @return the current propensity of the choice
+	 */
+	public double getPropensity(int choice)
+	{
+		return scale * weights[choice] + offset;
+	}
+
+	/**
+	 * @param choice the index of a choice
+	 * @return the probability with which the choice is currently drawn
+	 */
+	public double getProbability(int choice)
+	{
+		return getPropensity(choice) / getTotalPropensity();
+	}
+
+	public double getTotalPropensity()
+	{
+		return scale * weightSum + offset * numOfChoices;
+	}
+
+	/**
+	 * @return a new array of the current propensities
+	 */
+	public double[] getPropensities()
+	{
+		double[] propensities = new double[numOfChoices];
+		for (int j = 0; j < numOfChoices; j++)
+		{
+			propensities[j] = getPropensity(j);
+		}
+		return propensities;
+	}
+
+	/**
+	 * @return a new array of the current choice probabilities
+	 */
+	public double[] getProbabilities()
+	{
+		return ArrayUtils.multiply(getPropensities(), 1.0 / getTotalPropensity());
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RothErevLearner [recency=" + recency + ", experimentation=" + experimentation + ", propensities=" + Arrays.toString(getPropensities()) + "]";
+	}
+
+	private void addToWeight(int choice, double delta)
+	{
+		weights[choice] += delta;
+		weightSum += delta;
+		for (int i = choice + 1; i <= numOfChoices; i += i & (-i))
+		{
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Folds the scale and offset into the weights, so that <code>s[j] = q[j]</code>.
+	 */
+	private void rebase()
+	{
+		for (int j = 0; j < numOfChoices; j++)
+		{
+			weights[j] = scale * weights[j] + offset;
+		}
+		scale = 1;
+		offset = 0;
+		rebuildTree();
+	}
+
+	private void rebuildTree()
+	{
+		Arrays.fill(tree, 0);
+		weightSum = 0;
+		for (int i = 1; i <= numOfChoices; i++)
+		{
+			tree[i] += weights[i - 1];
+			weightSum += weights[i - 1];
+			int parent = i + (i & (-i));
+			if (parent <= numOfChoices)
+			{
+				tree[parent] += tree[i];
+			}
+		}
+	}
+}
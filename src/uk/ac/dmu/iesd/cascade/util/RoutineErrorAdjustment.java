@@ -0,0 +1,57 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+/**
+ * The daily Routine Error Estimation and Adjustment (REEA) of a RECO's model of its
+ * customers' response to its signal: the day's demand is predicted from the baseline B,
+ * the signal S, the elasticities e and the displacement factors k, compared with the
+ * actual demand, and e and k are scaled by how far the prediction was out.
+ * <p>
+ * The predicted demand <code>D = B + S.e.B + (B.S) k</code> and the multiplier
+ * <code>R = alpha (D - D_actual) / B + (1 - alpha)</code> are built in one buffer, and
+ * e and each row of k are then scaled by R in place, so that nothing is allocated.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class RoutineErrorAdjustment {
+
+	/**
+	 * Adjusts e and k, in place, by the error of the day's predicted demand.
+	 *
+	 * @param arr_i_B the baseline demand B in each timeslot
+	 * @param arr_hist_1D the actual demand over the day
+	 * @param arr_i_S the signal S in each timeslot
+	 * @param arr_i_e the elasticities e, scaled by R
+	 * @param arr_ij_k the displacement factors k (k[i][j] from timeslot i to j), each row scaled by R
+	 * @param alpha the weight of the error in R
+	 * @param arr_multiplier a buffer of one value per timeslot, which receives R
+	 */
+	public static void adjust(double[] arr_i_B, double[] arr_hist_1D, double[] arr_i_S, double[] arr_i_e, double[][] arr_ij_k, double alpha, double[] arr_multiplier)
+	{
+		Arrays.fill(arr_multiplier, 0d);
+
+		// displacement shift (B.S) k, accumulated a row of k at a time
+		for (int i = 0; i < arr_ij_k.length; i++) {
+			double bs = arr_i_B[i] * arr_i_S[i];
+			double[] k_i = arr_ij_k[i];
+			for (int j = 0; j < arr_multiplier.length; j++) {
+				arr_multiplier[j] += bs * k_i[j];
+			}
+		}
+
+		// R = alpha (predicted - actual) / B + (1 - alpha), and e scaled by it
+		for (int j = 0; j < arr_multiplier.length; j++) {
+			double predicted = (arr_i_S[j] * arr_i_e[j] * arr_i_B[j] + arr_multiplier[j]) + arr_i_B[j];
+			arr_multiplier[j] = alpha * ((predicted - arr_hist_1D[j]) * Math.pow(arr_i_B[j], -1)) + (1 - alpha);
+			arr_i_e[j] *= arr_multiplier[j];
+		}
+
+		for (int i = 0; i < arr_ij_k.length; i++) {
+			double[] k_i = arr_ij_k[i];
+			for (int j = 0; j < k_i.length; j++) {
+				k_i[j] *= arr_multiplier[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+/**
+ * A <em>SignalChannel</em> is the broadcast channel through which an aggregator
+ * publishes its value signal to its customers.
+ * <p>
+ * Each publication copies the signal once into a new, immutable {@link SignalDigest}
+ * tagged with the tick from which it is valid and a version number which increases
+ * with every publication.  Customers are handed a reference to that buffer, so a
+ * broadcast costs a single copy of the signal however many customers receive it.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SignalChannel {
+
+	private final int ticksPerDay;
+	private long version;
+	private SignalDigest current;
+
+	/**
+	 * @param ticksPerDay the number of ticks in a day for signals on this channel
+	 */
+	public SignalChannel(int ticksPerDay)
+	{
+		this.ticksPerDay = ticksPerDay;
+	}
+
+	/**
+	 * Publishes a new version of the signal on this channel.
+	 *
+	 * @param signal the signal to publish (copied; later changes by the caller have no effect)
+	 * @param validFrom the tick from which the first value of the signal applies
+	 * @return the published (immutable) signal buffer
+	 */
+	public SignalDigest publish(double[] signal, int validFrom)
+	{
+		version++;
+		current = new SignalDigest(signal, ticksPerDay, validFrom, version);
+		return current;
+	}
+
+	/**
+	 * @return the most recently published signal buffer, or null if nothing has been published
+	 */
+	public SignalDigest getCurrent()
+	{
+		return current;
+	}
+
+	/**
+	 * @return the version of the most recently published signal (0 if nothing has been published)
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+}
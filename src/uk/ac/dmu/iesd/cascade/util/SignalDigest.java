@@ -0,0 +1,373 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+/**
+ * A <em>SignalDigest</em> holds the quantities derived from a value signal broadcast
+ * by an aggregator which the smart controllers of every receiving prosumer would
+ * otherwise recompute independently (day windows, scaled costs, slot orderings,
+ * prefix sums and cumulative distributions).
+ * <p>
+ * One digest is built per broadcast and handed to all customers, so these derived
+ * values are computed once per signal rather than once per customer.  Values for a
+ * given day window are calculated lazily on first request and cached thereafter.
+ * <p>
+ * A digest published through a {@link SignalChannel} also serves as the broadcast
+ * buffer itself: it carries the tick from which the signal is valid and a version
+ * number, and customers hold a reference to it rather than a copy of the signal.
+ * <p>
+ * IMPLEMENTATION NOTE - arrays returned by a digest are shared between all the
+ * 						prosumers and controllers holding it and must be treated as
+ * 						read only.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class SignalDigest {
+
+	private final double[] signal;
+	private final int ticksPerDay;
+	private final int validFrom;
+	private final long version;
+
+	/**
+	 * Day windows indexed by their start offset within the signal
+	 */
+	private final DayWindow[] windows;
+
+	/**
+	 * Creates a digest of the signal passed in.  The signal is copied so that
+	 * later alteration of the caller's array does not affect the digest.
+	 *
+	 * @param signal the value signal as broadcast
+	 * @param ticksPerDay the number of ticks in a day, which defines the length of a day window
+	 */
+	public SignalDigest(double[] signal, int ticksPerDay)
+	{
+		this(signal, ticksPerDay, 0, 0);
+	}
+
+	/**
+	 * Creates a versioned digest of the signal passed in, as published on a broadcast channel.
+	 *
+	 * @param signal the value signal as broadcast
+	 * @param ticksPerDay the number of ticks in a day, which defines the length of a day window
+	 * @param validFrom the tick from which the first value of the signal applies
+	 * @param version the version of the signal on the channel which published it
+	 */
+	public SignalDigest(double[] signal, int ticksPerDay, int validFrom, long version)
+	{
+		this.signal = Arrays.copyOf(signal, signal.length);
+		this.ticksPerDay = ticksPerDay;
+		this.validFrom = validFrom;
+		this.version = version;
+		this.windows = new DayWindow[Math.max(signal.length, 1)];
+	}
+
+	/**
+	 * @return the (read only) signal from which this digest was built
+	 */
+	public double[] getSignal()
+	{
+		return signal;
+	}
+
+	public int getLength()
+	{
+		return signal.length;
+	}
+
+	public int getTicksPerDay()
+	{
+		return ticksPerDay;
+	}
+
+	/**
+	 * @return the tick from which the first value of the signal applies
+	 */
+	public int getValidFrom()
+	{
+		return validFrom;
+	}
+
+	/**
+	 * @return the version of this signal on its channel (0 if not published on a channel)
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns the day long window of the signal starting at the given time step, wrapped
+	 * to the length of the signal in the same way as the controllers index the owner's
+	 * predicted cost signal, i.e. starting at <code>timeStep % signal.length</code>
+	 *
+	 * @param timeStep the simulation tick at which the day starts
+	 * @return the (cached) day window
+	 */
+	public DayWindow getDayWindow(int timeStep)
+	{
+		int start = (signal.length == 0) ? 0 : timeStep % signal.length;
+		DayWindow window = windows[start];
+		if (window == null)
+		{
+			window = new DayWindow(Arrays.copyOfRange(signal, start, start + ticksPerDay));
+			windows[start] = window;
+		}
+		return window;
+	}
+
+	/**
+	 * Convenience method returning a window over an arbitrary day array, for use where
+	 * a controller has been handed a day signal directly rather than via a broadcast.
+	 *
+	 * @param daySignal the day signal
+	 * @return a window over a copy of the day signal
+	 */
+	public static DayWindow windowOf(double[] daySignal)
+	{
+		return new DayWindow(Arrays.copyOf(daySignal, daySignal.length));
+	}
+
+	/**
+	 * The derived values for a single day of the signal.  All derived arrays are
+	 * computed on first request and cached.
+	 */
+	public static class DayWindow {
+
+		private final double[] values;
+		private final double min;
+		private final double max;
+
+		private double[] prefixSums;
+		private int[] ascendingOrder;
+		private double[] invertedValues;
+		private double[] clippedCumulativeDistribution;
+		private double[] normalisedClippedCumulativeDistribution;
+		private double[][] attractivityDistributions;
+
+		private double scaledMultiplier;
+		private double scaledOffset;
+		private double[] scaledValues;
+
+		DayWindow(double[] values)
+		{
+			this.values = values;
+			this.min = ArrayUtils.min(values);
+			this.max = ArrayUtils.max(values);
+		}
+
+		/**
+		 * @return the (read only) signal values for this day
+		 */
+		public double[] getValues()
+		{
+			return values;
+		}
+
+		public int getLength()
+		{
+			return values.length;
+		}
+
+		public double getMin()
+		{
+			return min;
+		}
+
+		public double getMax()
+		{
+			return max;
+		}
+
+		/**
+		 * @return true if every value in the day is the same
+		 */
+		public boolean isFlat()
+		{
+			return max == min;
+		}
+
+		/**
+		 * @return true if every value in the day is zero (a null signal)
+		 */
+		public boolean isNull()
+		{
+			return max == 0 && min == 0;
+		}
+
+		/**
+		 * Returns the day's values mapped to <code>values[i] * multiplier + offset</code>.
+		 * The most recently requested mapping is cached.
+		 *
+		 * @param multiplier
+		 * @param offset
+		 * @return the scaled and offset day signal
+		 */
+		public double[] getScaledValues(double multiplier, double offset)
+		{
+			if (scaledValues == null || scaledMultiplier != multiplier || scaledOffset != offset)
+			{
+				scaledValues = ArrayUtils.offset(ArrayUtils.multiply(values, multiplier), offset);
+				scaledMultiplier = multiplier;
+				scaledOffset = offset;
+			}
+			return scaledValues;
+		}
+
+		/**
+		 * @return array of length + 1 where <code>prefixSums[i]</code> is the sum of the first i values
+		 */
+		public double[] getPrefixSums()
+		{
+			if (prefixSums == null)
+			{
+				double[] sums = new double[values.length + 1];
+				for (int i = 0; i < values.length; i++)
+				{
+					sums[i + 1] = sums[i] + values[i];
+				}
+				prefixSums = sums;
+			}
+			return prefixSums;
+		}
+
+		/**
+		 * @param from the first slot (inclusive)
+		 * @param to the last slot (exclusive)
+		 * @return the sum of the values in the given range of slots
+		 */
+		public double sum(int from, int to)
+		{
+			double[] sums = getPrefixSums();
+			return sums[to] - sums[from];
+		}
+
+		/**
+		 * @return the slot indices of the day, ordered by ascending value (ties in index order)
+		 */
+		public int[] getAscendingOrder()
+		{
+			if (ascendingOrder == null)
+			{
+				Integer[] order = new Integer[values.length];
+				for (int i = 0; i < order.length; i++)
+				{
+					order[i] = i;
+				}
+				Arrays.sort(order, new java.util.Comparator<Integer>() {
+					public int compare(Integer a, Integer b)
+					{
+						return Double.compare(values[a], values[b]);
+					}
+				});
+				int[] sorted = new int[order.length];
+				for (int i = 0; i < order.length; i++)
+				{
+					sorted[i] = order[i];
+				}
+				ascendingOrder = sorted;
+			}
+			return ascendingOrder;
+		}
+
+		/**
+		 * @return the signal inverted about its maximum, i.e. <code>max - values[i]</code>,
+		 * 		   which gives the relative attractiveness of each slot
+		 */
+		public double[] getInvertedValues()
+		{
+			if (invertedValues == null)
+			{
+				double[] inverted = ArrayUtils.multiply(values, -1);
+				invertedValues = ArrayUtils.offset(inverted, -ArrayUtils.min(inverted));
+			}
+			return invertedValues;
+		}
+
+		/**
+		 * @return the cumulative distribution of the positive part of the signal,
+		 * 		   normalised to finish at 1 (negative slots carry zero probability)
+		 */
+		public double[] getClippedCumulativeDistribution()
+		{
+			if (clippedCumulativeDistribution == null)
+			{
+				double[] S = clippedValues();
+				for (int i = 1; i < S.length; i++)
+				{
+					S[i] += S[i - 1];
+				}
+				clippedCumulativeDistribution = ArrayUtils.normalizeValues(S, 1, false);
+			}
+			return clippedCumulativeDistribution;
+		}
+
+		/**
+		 * As {@link #getClippedCumulativeDistribution()}, but with the positive part of
+		 * the signal normalised before it is accumulated.
+		 */
+		public double[] getNormalisedClippedCumulativeDistribution()
+		{
+			if (normalisedClippedCumulativeDistribution == null)
+			{
+				double[] S = ArrayUtils.normalizeValues(clippedValues(), 1, false);
+				for (int i = 1; i < S.length; i++)
+				{
+					S[i] += S[i - 1];
+				}
+				normalisedClippedCumulativeDistribution = ArrayUtils.normalizeValues(S, 1, false);
+			}
+			return normalisedClippedCumulativeDistribution;
+		}
+
+		/**
+		 * Returns a CDF based on attractivity (inverse of price) of the timeslots up to and
+		 * including slot i.  Slots after i have cumulative probability 1.
+		 *
+		 * @param i the last slot which may be selected
+		 * @return the cumulative distribution
+		 */
+		public double[] getAttractivityDistribution(int i)
+		{
+			if (attractivityDistributions == null)
+			{
+				attractivityDistributions = new double[values.length][];
+			}
+			if (attractivityDistributions[i] == null)
+			{
+				double[] Wd = new double[values.length];
+				double[] pre_prices = Arrays.copyOfRange(values, 0, i + 1);
+
+				double Smax = ArrayUtils.max(pre_prices);
+				pre_prices = ArrayUtils.multiply(pre_prices, -1);
+				if (Smax < 0)
+				{
+					Smax = -Smax;
+				}
+				pre_prices = ArrayUtils.offset(pre_prices, Smax);
+
+				System.arraycopy(pre_prices, 0, Wd, 0, pre_prices.length);
+				for (int k = 1; k <= i; k++)
+				{
+					Wd[k] = Wd[k] + Wd[k - 1];
+				}
+				Wd = ArrayUtils.normalizeValues(Wd, 1, false);
+				Arrays.fill(Wd, i + 1, Wd.length, 1);
+				attractivityDistributions[i] = Wd;
+			}
+			return attractivityDistributions[i];
+		}
+
+		private double[] clippedValues()
+		{
+			double[] S = Arrays.copyOf(values, values.length);
+			for (int i = 0; i < S.length; i++)
+			{
+				if (S[i] < 0)
+					S[i] = 0;
+			}
+			return S;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * The simulation's clock: maps a tick to the (local) date and time at its start, with
+ * integer arithmetic and lookup tables rather than a calendar stepped every tick.
+ * <p>
+ * Tick <i>t</i> starts <code>t * minutesPerTick</code> minutes after the simulation's
+ * start.  The date fields of each local day reached (its day of year, day of week,
+ * month etc.) are computed once, with a calendar, when the day is first asked about, and
+ * held in primitive arrays indexed by day; after that every query is a few integer
+ * operations and allocates nothing.  Days are local days of the clock's time zone, so
+ * that (as with a calendar) a day may be 23 or 25 hours long across a daylight saving
+ * change.
+ * <p>
+ * A {@link Date} or {@link Calendar} is only materialised on request, by {@link #toDate}
+ * and {@link #toCalendar}, e.g. for display.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class SimulationClock {
+
+	/** Seasons (meteorological: winter is December to February) */
+	public static final int WINTER = 0;
+	public static final int SPRING = 1;
+	public static final int SUMMER = 2;
+	public static final int AUTUMN = 3;
+
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+	private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+	private static final int INITIAL_DAYS = 64;
+
+	private final long startMillis;
+	private final int minutesPerTick;
+	private final long millisPerTick;
+	private final TimeZone zone;
+	private final Calendar calendar; // used only to add days to the tables
+
+	// by local day, from the day of the start
+	private int days = 0;
+	private long[] dayStartMillis = new long[INITIAL_DAYS];
+	private int[] year = new int[INITIAL_DAYS];
+	private byte[] month = new byte[INITIAL_DAYS];
+	private byte[] dayOfMonth = new byte[INITIAL_DAYS];
+	private short[] dayOfYear = new short[INITIAL_DAYS];
+	private byte[] dayOfWeek = new byte[INITIAL_DAYS];
+
+	/**
+	 * @param start the date and time of the start of tick 0
+	 * @param minutesPerTick the length (minutes) of a tick
+	 * @param zone the time zone of the simulation's dates
+	 */
+	public SimulationClock(Date start, int minutesPerTick, TimeZone zone)
+	{
+		this.startMillis = start.getTime();
+		this.minutesPerTick = minutesPerTick;
+		this.millisPerTick = minutesPerTick * MILLIS_PER_MINUTE;
+		this.zone = zone;
+		this.calendar = new GregorianCalendar(zone);
+		calendar.setTimeInMillis(startMillis);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		addDay();
+	}
+
+	/**
+	 * A clock in the default time zone.
+	 *
+	 * @param start the date and time of the start of tick 0
+	 * @param minutesPerTick the length (minutes) of a tick
+	 */
+	public SimulationClock(Date start, int minutesPerTick)
+	{
+		this(start, minutesPerTick, TimeZone.getDefault());
+	}
+
+	public int getMinutesPerTick()
+	{
+		return minutesPerTick;
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the time (ms since the epoch) at the start of the tick
+	 */
+	public long getEpochMillis(int tick)
+	{
+		return startMillis + tick * millisPerTick;
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the time (minutes since the epoch) at the start of the tick
+	 */
+	public long getEpochMinute(int tick)
+	{
+		return getEpochMillis(tick) / MILLIS_PER_MINUTE;
+	}
+
+	/**
+	 * @param epochMillis a time (ms since the epoch)
+	 * @return the tick in which the time falls (negative if before the start)
+	 */
+	public int tickAt(long epochMillis)
+	{
+		long offset = epochMillis - startMillis;
+		long tick = offset / millisPerTick;
+		if (offset < 0 && tick * millisPerTick != offset)
+		{
+			tick--;
+		}
+		return (int) tick;
+	}
+
+	/**
+	 * @param date a date and time
+	 * @return the tick in which it falls (negative if before the start)
+	 */
+	public int tickAt(Date date)
+	{
+		return tickAt(date.getTime());
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the minute of the (local) day, as shown by a clock, at the start of the tick
+	 */
+	public int getMinuteOfDay(int tick)
+	{
+		long millis = getEpochMillis(tick);
+		long dayStart = dayStartMillis[dayIndex(millis)];
+		return (int) (((millis + zone.getOffset(millis)) - (dayStart + zone.getOffset(dayStart))) / MILLIS_PER_MINUTE);
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the day of the year (1 for 1st January) of the tick
+	 */
+	public int getDayOfYear(int tick)
+	{
+		return dayOfYear[dayIndex(getEpochMillis(tick))];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the day of the week of the tick, as {@link Calendar#DAY_OF_WEEK} (<code>Calendar.SUNDAY</code> etc.)
+	 */
+	public int getDayOfWeek(int tick)
+	{
+		return dayOfWeek[dayIndex(getEpochMillis(tick))];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the day of the month (from 1) of the tick
+	 */
+	public int getDayOfMonth(int tick)
+	{
+		return dayOfMonth[dayIndex(getEpochMillis(tick))];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the month of the tick, as {@link Calendar#MONTH} (0 for January)
+	 */
+	public int getMonth(int tick)
+	{
+		return month[dayIndex(getEpochMillis(tick))];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the year of the tick
+	 */
+	public int getYear(int tick)
+	{
+		return year[dayIndex(getEpochMillis(tick))];
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the (meteorological) season of the tick: {@link #WINTER}, {@link #SPRING}, {@link #SUMMER} or {@link #AUTUMN}
+	 */
+	public int getSeason(int tick)
+	{
+		return ((getMonth(tick) + 1) / 3) % 4;
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return whether the tick falls on a Saturday or Sunday
+	 */
+	public boolean isWeekend(int tick)
+	{
+		int day = getDayOfWeek(tick);
+		return day == Calendar.SATURDAY || day == Calendar.SUNDAY;
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the number of (local) days from the day of the start to the day of the tick
+	 */
+	public int getDayIndex(int tick)
+	{
+		return dayIndex(getEpochMillis(tick));
+	}
+
+	/**
+	 * Materialises the date and time of the start of a tick, e.g. for display.
+	 *
+	 * @param tick a tick
+	 * @return a new date
+	 */
+	public Date toDate(int tick)
+	{
+		return new Date(getEpochMillis(tick));
+	}
+
+	/**
+	 * Materialises a calendar set to the start of a tick, e.g. for display.
+	 *
+	 * @param tick a tick
+	 * @return a new calendar, in the clock's time zone
+	 */
+	public Calendar toCalendar(int tick)
+	{
+		Calendar c = new GregorianCalendar(zone);
+		c.setTimeInMillis(getEpochMillis(tick));
+		return c;
+	}
+
+	/**
+	 * @param epochMillis a time, not before the start of the day of the start
+	 * @return the index of the local day in which the time falls
+	 */
+	private int dayIndex(long epochMillis)
+	{
+		// days are 24 hours, give or take a daylight saving hour, so the estimate is at most one day out
+		int index = (int) ((epochMillis - dayStartMillis[0]) / MILLIS_PER_DAY);
+		while (days <= index + 1)
+		{
+			addDay();
+		}
+		if (epochMillis >= dayStartMillis[index + 1])
+		{
+			index++;
+		}
+		else if (index > 0 && epochMillis < dayStartMillis[index])
+		{
+			index--;
+		}
+		return index;
+	}
+
+	/**
+	 * Adds the day at which the calendar stands to the tables, and moves the calendar on to the next day.
+	 */
+	private void addDay()
+	{
+		if (days == dayStartMillis.length)
+		{
+			int capacity = 2 * days;
+			dayStartMillis = Arrays.copyOf(dayStartMillis, capacity);
+			year = Arrays.copyOf(year, capacity);
+			month = Arrays.copyOf(month, capacity);
+			dayOfMonth = Arrays.copyOf(dayOfMonth, capacity);
+			dayOfYear = Arrays.copyOf(dayOfYear, capacity);
+			dayOfWeek = Arrays.copyOf(dayOfWeek, capacity);
+		}
+		dayStartMillis[days] = calendar.getTimeInMillis();
+		year[days] = calendar.get(Calendar.YEAR);
+		month[days] = (byte) calendar.get(Calendar.MONTH);
+		dayOfMonth[days] = (byte) calendar.get(Calendar.DAY_OF_MONTH);
+		dayOfYear[days] = (short) calendar.get(Calendar.DAY_OF_YEAR);
+		dayOfWeek[days] = (byte) calendar.get(Calendar.DAY_OF_WEEK);
+		days++;
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+	}
+}
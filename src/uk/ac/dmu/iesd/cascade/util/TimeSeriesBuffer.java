@@ -0,0 +1,232 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed capacity ring buffer holding the recent history of a per tick time series,
+ * such as a household's demand for space heat, with chronological views.
+ * <p>
+ * Values are {@link #put} against the tick they are for, rather than appended, so that
+ * a value may be overwritten within its tick and ticks for which nothing is put read as
+ * zero.  How much history is kept is set by the buffer's {@link Retention}: one day, one
+ * week or the whole run, or none at all, in which case nothing is stored.  Values may be
+ * stored as floats, halving the memory used, at the cost of precision.  No storage is
+ * allocated until the first value is put.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class TimeSeriesBuffer {
+
+	/**
+	 * How much history a buffer keeps.
+	 */
+	public static enum Retention {
+		NONE, DAY, WEEK, RUN;
+
+		/**
+		 * @param name a retention name, in any case
+		 * @param defaultRetention the retention to return if <code>name</code> is not recognised
+		 * @return the retention of the given name
+		 */
+		public static Retention parse(String name, Retention defaultRetention)
+		{
+			for (Retention r : values())
+			{
+				if (r.name().equalsIgnoreCase(name))
+				{
+					return r;
+				}
+			}
+			System.err.println("TimeSeriesBuffer: unknown retention '" + name + "'; using " + defaultRetention);
+			return defaultRetention;
+		}
+	}
+
+	private final Retention retention;
+	private final int ticksPerDay;
+	private final boolean useFloat;
+	private int capacity; // for RUN, the length of the (growing) arrays
+	private double[] doubleValues;
+	private float[] floatValues;
+	private int lastTick = -1;
+
+	/**
+	 * @param retention how much history to keep
+	 * @param ticksPerDay the number of ticks per day
+	 * @param useFloat whether to store values as floats
+	 */
+	public TimeSeriesBuffer(Retention retention, int ticksPerDay, boolean useFloat)
+	{
+		this.retention = retention;
+		this.ticksPerDay = ticksPerDay;
+		this.useFloat = useFloat;
+	}
+
+	public Retention getRetention()
+	{
+		return retention;
+	}
+
+	/**
+	 * @return the number of ticks of history this buffer can hold (for {@link Retention#RUN},
+	 *         the number it currently holds)
+	 */
+	private int window()
+	{
+		return retention == Retention.RUN ? lastTick + 1 : capacity;
+	}
+
+	/**
+	 * Records the value of the series for a tick.  Ticks after the latest recorded tick,
+	 * but before this one, read as zero; values for ticks which are no longer retained
+	 * are ignored.
+	 *
+	 * @param tick the (non negative) tick
+	 * @param value the value of the series in the tick
+	 */
+	public void put(int tick, double value)
+	{
+		if (retention == Retention.NONE)
+		{
+			return;
+		}
+		if (capacity == 0)
+		{
+			allocate(retention == Retention.WEEK ? 7 * ticksPerDay : ticksPerDay);
+		}
+		if (tick > lastTick)
+		{
+			if (retention == Retention.RUN)
+			{
+				if (tick >= capacity)
+				{
+					allocate(Math.max(2 * capacity, tick + 1));
+				}
+			}
+			else
+			{
+				// clear the slots of the skipped ticks, which hold values from a previous cycle
+				for (int t = Math.max(lastTick + 1, tick - capacity + 1); t < tick; t++)
+				{
+					store(t % capacity, 0);
+				}
+			}
+			lastTick = tick;
+		}
+		else if (tick <= lastTick - window())
+		{
+			return;
+		}
+		store(tick % capacity, value);
+	}
+
+	/**
+	 * @param tick a tick
+	 * @return the value recorded for the tick, or zero if none is (still) held
+	 */
+	public double get(int tick)
+	{
+		if (tick < 0 || tick > lastTick || tick <= lastTick - window())
+		{
+			return 0;
+		}
+		int i = tick % capacity;
+		return useFloat ? floatValues[i] : doubleValues[i];
+	}
+
+	/**
+	 * @return the latest tick for which a value has been recorded, or -1 if none has
+	 */
+	public int getLastTick()
+	{
+		return lastTick;
+	}
+
+	/**
+	 * @return the earliest tick of history held (0 if none is)
+	 */
+	public int getFirstTick()
+	{
+		return lastTick - size() + 1;
+	}
+
+	/**
+	 * @return the number of ticks of history held
+	 */
+	public int size()
+	{
+		return Math.min(lastTick + 1, window());
+	}
+
+	/**
+	 * @param n a number of ticks
+	 * @return the values for the <code>n</code> ticks up to and including the latest,
+	 *         oldest first, with zero for any not (or no longer) held
+	 */
+	public double[] getLast(int n)
+	{
+		return getRange(lastTick - n + 1, n);
+	}
+
+	/**
+	 * @param firstTick the first tick
+	 * @param n a number of ticks
+	 * @return the values for the <code>n</code> ticks from <code>firstTick</code> on,
+	 *         oldest first, with zero for any not (or no longer) held
+	 */
+	public double[] getRange(int firstTick, int n)
+	{
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			values[i] = get(firstTick + i);
+		}
+		return values;
+	}
+
+	/**
+	 * @return all the values held, oldest first
+	 */
+	public double[] toArray()
+	{
+		return getLast(size());
+	}
+
+	/**
+	 * @return the sum of all the values held
+	 */
+	public double sum()
+	{
+		double sum = 0;
+		for (int t = lastTick - size() + 1; t <= lastTick; t++)
+		{
+			sum += get(t);
+		}
+		return sum;
+	}
+
+	private void store(int index, double value)
+	{
+		if (useFloat)
+		{
+			floatValues[index] = (float) value;
+		}
+		else
+		{
+			doubleValues[index] = value;
+		}
+	}
+
+	private void allocate(int newCapacity)
+	{
+		if (useFloat)
+		{
+			floatValues = floatValues == null ? new float[newCapacity] : Arrays.copyOf(floatValues, newCapacity);
+		}
+		else
+		{
+			doubleValues = doubleValues == null ? new double[newCapacity] : Arrays.copyOf(doubleValues, newCapacity);
+		}
+		capacity = newCapacity;
+	}
+}
@@ -0,0 +1,177 @@
+package uk.ac.dmu.iesd.cascade.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared pool of worker threads on which population-wide kernels (e.g. the
+ * {@link InfluenceGraph} sweep) run their independent tasks in parallel.
+ * <p>
+ * The pool has one (daemon) thread per available processor and is created on first use.
+ * Kernels split their work into a fixed number of tasks, independent of the number of
+ * threads, so that their results do not depend on the machine they run on.
+ * <p>
+ * The CPU time and heap allocation of the tasks are added up for the thread which
+ * submitted them (see {@link #getWorkerCosts()}), so that the {@link PhaseProfiler} can
+ * charge them to the phase which ran the kernel.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public final class WorkerPool {
+
+	private static ExecutorService pool;
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	// {CPU nanoseconds, allocated bytes} of the tasks each thread has submitted
+	private static final ThreadLocal<long[]> WORKER_COSTS = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue()
+		{
+			return new long[2];
+		}
+	};
+
+	private WorkerPool()
+	{
+	}
+
+	/**
+	 * @return the shared pool
+	 */
+	public static synchronized ExecutorService get()
+	{
+		if (pool == null)
+		{
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+
+				public synchronized Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "WorkerPool-" + (++count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the tasks on the shared pool and waits for them all to finish.
+	 *
+	 * @param tasks the tasks
+	 * @throws RuntimeException if a task failed (wrapping its exception), or the wait was interrupted
+	 */
+	public static <T> void invokeAll(List<? extends Callable<T>> tasks)
+	{
+		invokeAll(get(), tasks);
+	}
+
+	/**
+	 * Runs the tasks on the given executor (e.g. one with a set number of threads) and
+	 * waits for them all to finish.
+	 *
+	 * @param executor the executor
+	 * @param tasks the tasks
+	 * @throws RuntimeException if a task failed (wrapping its exception), or the wait was interrupted
+	 */
+	public static <T> void invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks)
+	{
+		final long submitter = Thread.currentThread().getId();
+		final AtomicLong cpuNanos = new AtomicLong();
+		final AtomicLong allocatedBytes = new AtomicLong();
+		List<Callable<T>> measured = new ArrayList<Callable<T>>(tasks.size());
+		for (final Callable<T> task : tasks)
+		{
+			measured.add(new Callable<T>() {
+				public T call() throws Exception
+				{
+					if (Thread.currentThread().getId() == submitter)
+					{
+						// already measured as the submitting thread's own
+						return task.call();
+					}
+					long cpu = THREAD_BEAN.getCurrentThreadCpuTime();
+					long allocated = allocatedBytes();
+					try
+					{
+						return task.call();
+					}
+					finally
+					{
+						if (cpu >= 0)
+						{
+							cpuNanos.addAndGet(THREAD_BEAN.getCurrentThreadCpuTime() - cpu);
+						}
+						if (allocated >= 0)
+						{
+							allocatedBytes.addAndGet(allocatedBytes() - allocated);
+						}
+					}
+				}
+			});
+		}
+		try
+		{
+			for (Future<T> f : executor.invokeAll(measured))
+			{
+				f.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("WorkerPool: interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("WorkerPool: task failed", e.getCause());
+		}
+		finally
+		{
+			long[] costs = WORKER_COSTS.get();
+			costs[0] += cpuNanos.get();
+			costs[1] += allocatedBytes.get();
+		}
+	}
+
+	/**
+	 * Returns the costs of the tasks the current thread has run through
+	 * {@link #invokeAll}, summed over the threads which ran them.  CPU time is only
+	 * measured once thread CPU time measurement is enabled (as the {@link PhaseProfiler}
+	 * does), and allocation only on JVMs supporting <code>com.sun.management.ThreadMXBean</code>.
+	 *
+	 * @return the cumulative {CPU nanoseconds, allocated bytes} of the current thread's tasks
+	 */
+	public static long[] getWorkerCosts()
+	{
+		long[] costs = WORKER_COSTS.get();
+		return new long[] { costs[0], costs[1] };
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread, or -1 if they cannot be measured
+	 */
+	private static long allocatedBytes()
+	{
+		if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+			if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled())
+			{
+				return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
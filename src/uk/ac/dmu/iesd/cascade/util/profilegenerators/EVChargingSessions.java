@@ -0,0 +1,115 @@
+package uk.ac.dmu.iesd.cascade.util.profilegenerators;
+
+/**
+ * The charging sessions of one electric vehicle over the days of its (repeating) demand
+ * profile, as drawn by the {@link EVProfileGenerator}: for each day on which a journey
+ * is made, the tick at which the vehicle is plugged in on its return, the tick at which
+ * it leaves the next morning, and the energy the journey needs.
+ * <p>
+ * Ticks are counted from the start of the profile.  The session of the last day runs
+ * past its end, into the first morning of the next repeat.  Sessions do not overlap: a
+ * vehicle which returns before the previous session ends is taken to be plugged in from
+ * the end of that session.
+ *
+ * @version $Revision: 1.0 $ $Date: 2013/10/01 $
+ */
+public class EVChargingSessions {
+
+	private final int ticksPerDay;
+	private final int[] plugIn; // -1 if no journey is made that day
+	private final int[] plugOut;
+	private final double[] energy;
+
+	/**
+	 * @param days the number of days of the profile
+	 * @param ticksPerDay the number of ticks in a day
+	 */
+	public EVChargingSessions(int days, int ticksPerDay)
+	{
+		this.ticksPerDay = ticksPerDay;
+		this.plugIn = new int[days];
+		this.plugOut = new int[days];
+		this.energy = new double[days];
+		for (int day = 0; day < days; day++)
+		{
+			plugIn[day] = -1;
+		}
+	}
+
+	public int getDays()
+	{
+		return plugIn.length;
+	}
+
+	public int getTicksPerDay()
+	{
+		return ticksPerDay;
+	}
+
+	/**
+	 * @param day a day of the profile
+	 * @return whether a journey is made that day, and so the vehicle needs charging after it
+	 */
+	public boolean hasSession(int day)
+	{
+		return plugIn[day] >= 0;
+	}
+
+	/**
+	 * @param day a day of the profile on which a journey is made
+	 * @return the tick at which the vehicle is plugged in
+	 */
+	public int getPlugIn(int day)
+	{
+		return plugIn[day];
+	}
+
+	/**
+	 * @param day a day of the profile on which a journey is made
+	 * @return the tick at which the vehicle leaves (exclusive; beyond the end of the profile for the last day)
+	 */
+	public int getPlugOut(int day)
+	{
+		return plugOut[day];
+	}
+
+	/**
+	 * @param day a day of the profile on which a journey is made
+	 * @return the energy (kWh) needed before the vehicle leaves
+	 */
+	public double getEnergy(int day)
+	{
+		return energy[day];
+	}
+
+	/**
+	 * Records the session after a day's journey, starting it no earlier than the end of the previous day's.
+	 */
+	void record(int day, int in, int out, double need)
+	{
+		if (day > 0 && hasSession(day - 1) && in < plugOut[day - 1])
+		{
+			in = plugOut[day - 1];
+		}
+		plugIn[day] = in;
+		plugOut[day] = out;
+		energy[day] = need;
+	}
+
+	/**
+	 * Starts the first day's session no earlier than the end of the last day's, which wraps
+	 * round into the first morning.  Called once all days have been recorded.
+	 */
+	void wrap()
+	{
+		int last = plugIn.length - 1;
+		if (last > 0 && hasSession(0) && hasSession(last))
+		{
+			int wrappedOut = plugOut[last] - (plugIn.length * ticksPerDay);
+			if (plugIn[0] < wrappedOut)
+			{
+				plugIn[0] = Math.min(wrappedOut, plugOut[0]);
+			}
+		}
+	}
+}
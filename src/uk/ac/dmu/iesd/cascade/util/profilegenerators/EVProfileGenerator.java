@@ -20,62 +20,45 @@ public class EVProfileGenerator
 	private static double PHEVconsumption=0.2;
 
 	
+	// the timeslot at which vehicles leave, the morning after a journey
+	private static final int DEPARTURE_TIMESLOT = 14;
+
 	public static double[] generateBEVProfile(CascadeContext context, int days)
 	{
-		double[] profile = new double[days*context.ticksPerDay];
-
-		for (int i = 0; i < days; i++)
-		{
-			if (RandomHelper.nextDouble() < Consts.JOURNEY_MADE_PROBABILITY)
-			{
-			int arrTimeslot = context.vehicleArrivalGenerator.nextInt();
-			int journeyLength = context.journeyLengthGenerator.nextInt();
-			if (journeyLength < 4)
-			{
-				journeyLength = 4;
-			}
-			double requiredCharge = journeyLength * BEVconsumption;
-			if (requiredCharge > BEVcapacity)
-			{
-				requiredCharge = BEVcapacity;
-			}
-			double chargePeriod = context.ticksPerDay-context.ticksPerDay + 14;
-			
-			double chargePerTimeslot = requiredCharge / chargePeriod;
-			
-			int start = i*context.ticksPerDay+arrTimeslot;
-			if (i==days-1)
-			{
-				//Need to "wrap the profile"
-				for (int j = start; j < profile.length; j++)
-				{
-					profile[j]=chargePerTimeslot;
-				}
+		return generateBEVProfile(context, days, null);
+	}
 
-				for (int j = 0; j < 14; j++)
-				{
-					profile[j]=chargePerTimeslot;
-				}
-			}
-			else
-			{
-				int stop = (i+1)*context.ticksPerDay + 14;
-				for (int j = start; j < stop; j++)
-				{
-					profile[j]=chargePerTimeslot;
-				}
-			}
-			
-			}
-		}
-		
-		return profile;
-	
+	/**
+	 * @param context the context whose random generators draw the journeys
+	 * @param days the number of days of the profile
+	 * @param sessions if not null, receives the charging session after each day's journey
+	 * @return the vehicle's unmanaged charging demand in each tick
+	 */
+	public static double[] generateBEVProfile(CascadeContext context, int days, EVChargingSessions sessions)
+	{
+		return generateProfile(context, days, BEVconsumption, BEVcapacity, sessions);
 	}
-	
+
 	public static double[] generatePHEVProfile(CascadeContext context, int days)
+	{
+		return generatePHEVProfile(context, days, null);
+	}
+
+	/**
+	 * @param context the context whose random generators draw the journeys
+	 * @param days the number of days of the profile
+	 * @param sessions if not null, receives the charging session after each day's journey
+	 * @return the vehicle's unmanaged charging demand in each tick
+	 */
+	public static double[] generatePHEVProfile(CascadeContext context, int days, EVChargingSessions sessions)
+	{
+		return generateProfile(context, days, PHEVconsumption, PHEVcapacity, sessions);
+	}
+
+	private static double[] generateProfile(CascadeContext context, int days, double consumption, double capacity, EVChargingSessions sessions)
 	{
 		double[] profile = new double[days*context.ticksPerDay];
+
 		for (int i = 0; i < days; i++)
 		{
 			if (RandomHelper.nextDouble() < Consts.JOURNEY_MADE_PROBABILITY)
@@ -86,41 +69,48 @@ public class EVProfileGenerator
 			{
 				journeyLength = 4;
 			}
-			double requiredCharge = journeyLength * PHEVconsumption;
-			if (requiredCharge > PHEVcapacity)
+			double requiredCharge = journeyLength * consumption;
+			if (requiredCharge > capacity)
 			{
-				requiredCharge = PHEVcapacity;
+				requiredCharge = capacity;
 			}
-			double chargePeriod = context.ticksPerDay-context.ticksPerDay + 14;
-			
-			double chargePerTimeslot = requiredCharge / chargePeriod;
-			
 			int start = i*context.ticksPerDay+arrTimeslot;
+			int stop = (i+1)*context.ticksPerDay + DEPARTURE_TIMESLOT;
+			
+			// spread over the whole time plugged in, from arrival to departure the next morning
+			double chargePerTimeslot = requiredCharge / (stop - start);
 			if (i==days-1)
 			{
 				//Need to "wrap the profile"
 				for (int j = start; j < profile.length; j++)
 				{
-					profile[j]=chargePerTimeslot;
+					profile[j]+=chargePerTimeslot;
 				}
 
-				for (int j = 0; j < 14; j++)
+				for (int j = 0; j < DEPARTURE_TIMESLOT; j++)
 				{
-					profile[j]=chargePerTimeslot;
+					profile[j]+=chargePerTimeslot;
 				}
 			}
 			else
 			{
-				int stop = (i+1)*context.ticksPerDay + 14;
 				for (int j = start; j < stop; j++)
 				{
-					profile[j]=chargePerTimeslot;
+					profile[j]+=chargePerTimeslot;
 				}
 			}
 			
+			if (sessions != null)
+			{
+				sessions.record(i, start, stop, requiredCharge);
+			}
 			}
 		}
 		
+		if (sessions != null)
+		{
+			sessions.wrap();
+		}
 		return profile;
 	}
 